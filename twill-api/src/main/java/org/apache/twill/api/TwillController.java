@@ -18,12 +18,20 @@
 package org.apache.twill.api;
 
 import com.google.common.util.concurrent.ListenableFuture;
+import org.apache.twill.api.logging.LogFilter;
 import org.apache.twill.api.logging.LogHandler;
+import org.apache.twill.api.logging.LogQuery;
 import org.apache.twill.discovery.Discoverable;
 import org.apache.twill.discovery.ServiceDiscovered;
 
 /**
  * For controlling a running application.
+ *
+ * <p>
+ * Instances are created by {@link TwillRunner}. Methods may be added to this interface in new releases, such as
+ * {@link #setLogFilter(LogFilter)}, {@link #replayLogs(LogQuery, LogHandler)} and
+ * {@link #getLogHandlerLag(LogHandler)}, hence it is not meant to be implemented outside of Twill.
+ * </p>
  */
 public interface TwillController extends ServiceController {
 
@@ -33,6 +41,56 @@ public interface TwillController extends ServiceController {
    */
   void addLogHandler(LogHandler handler);
 
+  /**
+   * Returns the number of log entries received but not yet delivered to the given {@link LogHandler}.
+   *
+   * @param handler A handler added to this controller.
+   * @return Number of pending log entries, or {@code 0} if the handler is not added to this controller.
+   */
+  int getLogHandlerLag(LogHandler handler);
+
+  /**
+   * Returns the number of log entries dropped for the given {@link LogHandler} because it was falling behind.
+   * Entries are only dropped if the controller is configured to do so, otherwise receiving logs is slowed down
+   * to the pace of the slowest handler.
+   *
+   * @param handler A handler added to this controller.
+   * @return Number of dropped log entries, or {@code 0} if the handler is not added to this controller.
+   */
+  long getLogHandlerDroppedCount(LogHandler handler);
+
+  /**
+   * Changes the {@link LogFilter} applied by the containers of all runnables before publishing logs.
+   *
+   * @param filter The new {@link LogFilter}.
+   * @return A {@link ListenableFuture} that will be completed when all running containers have been updated.
+   *         The future will carry the filter as the result.
+   */
+  ListenableFuture<LogFilter> setLogFilter(LogFilter filter);
+
+  /**
+   * Changes the {@link LogFilter} applied by the containers of the given runnable before publishing logs.
+   *
+   * @param runnable The name of the runnable.
+   * @param filter The new {@link LogFilter}.
+   * @return A {@link ListenableFuture} that will be completed when all running containers of the runnable have
+   *         been updated. The future will carry the filter as the result.
+   */
+  ListenableFuture<LogFilter> setLogFilter(String runnable, LogFilter filter);
+
+  /**
+   * Replays logs of the application published within a time range to the given {@link LogHandler}. Log entries are
+   * delivered as they are read from the log service, without buffering the whole range. Entries of each container
+   * are delivered in the order they were published, while entries of different containers could be interleaved.
+   * The handler is called by one thread at a time. The replay ends with the latest log published when it started.
+   *
+   * @param query The {@link LogQuery} that describes which log entries to replay.
+   * @param handler The {@link LogHandler} for receiving log entries.
+   * @return A {@link ListenableFuture} that will be completed when all matching log entries have been delivered.
+   *         The future will carry the query as the result. Cancelling the future stops the replay.
+   */
+  ListenableFuture<LogQuery> replayLogs(LogQuery query, LogHandler handler);
+
   /**
    * Discovers the set of {@link Discoverable} endpoints that provides service for the given service name.
    * @param serviceName Name of the service to discovery.
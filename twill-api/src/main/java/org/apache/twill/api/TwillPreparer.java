@@ -17,7 +17,10 @@
  */
 package org.apache.twill.api;
 
+import org.apache.twill.api.logging.LogFilter;
+import org.apache.twill.api.logging.LogFormat;
 import org.apache.twill.api.logging.LogHandler;
+import org.apache.twill.api.logging.LogRetention;
 
 import java.net.URI;
 
@@ -33,6 +36,38 @@ public interface TwillPreparer {
    */
   TwillPreparer addLogHandler(LogHandler handler);
 
+  /**
+   * Sets the {@link LogFormat} for encoding log entries published by the containers of the application.
+   * Default is {@link LogFormat#JSON}.
+   * @param format The {@link LogFormat}.
+   * @return This {@link TwillPreparer}.
+   */
+  TwillPreparer setLogFormat(LogFormat format);
+
+  /**
+   * Sets the {@link LogFilter} applied by the containers of all runnables before publishing logs, unless a filter
+   * is set for a runnable with {@link #setLogFilter(String, LogFilter)}. Default is {@link LogFilter#ALL}.
+   * @param filter The {@link LogFilter}.
+   * @return This {@link TwillPreparer}.
+   */
+  TwillPreparer setLogFilter(LogFilter filter);
+
+  /**
+   * Sets the {@link LogFilter} applied by the containers of the given runnable before publishing logs.
+   * @param runnableName Name of the runnable.
+   * @param filter The {@link LogFilter}.
+   * @return This {@link TwillPreparer}.
+   */
+  TwillPreparer setLogFilter(String runnableName, LogFilter filter);
+
+  /**
+   * Sets the {@link LogRetention} of the log service running in the application master.
+   * Default is {@link LogRetention#DEFAULT}.
+   * @param retention The {@link LogRetention}.
+   * @return This {@link TwillPreparer}.
+   */
+  TwillPreparer setLogRetention(LogRetention retention);
+
   /**
    * Sets the user name that runs the application. Default value is get from {@code "user.name"} by calling
    * {@link System#getProperty(String)}.
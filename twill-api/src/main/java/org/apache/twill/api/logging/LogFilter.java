@@ -0,0 +1,186 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.twill.api.logging;
+
+import com.google.common.base.CharMatcher;
+import com.google.common.base.Objects;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableSet;
+
+import java.util.Set;
+import javax.annotation.Nullable;
+
+/**
+ * Describes which log events the containers of an application publish. Events rejected by the filter are
+ * dropped inside the container, before they are sent to the log topic.
+ *
+ * <p>
+ * An event passes the filter if all of the following hold:
+ * <ul>
+ *   <li>Its level is at or above the minimum level, if one is set.</li>
+ *   <li>Its logger name starts with one of the include prefixes, if any is set.</li>
+ *   <li>Its logger name does not start with any of the exclude prefixes.</li>
+ *   <li>Fewer than the maximum number of events per second have been published, if a rate cap is set.</li>
+ * </ul>
+ * A filter can only reduce the logs emitted by the logging framework configuration of a container, but never
+ * enable logs below the level configured there.
+ * </p>
+ */
+public final class LogFilter {
+
+  /**
+   * A {@link LogFilter} that accepts every event.
+   */
+  public static final LogFilter ALL = Builder.create().build();
+
+  private final LogEntry.Level level;
+  private final Set<String> includes;
+  private final Set<String> excludes;
+  private final int maxEventsPerSecond;
+
+  private LogFilter(LogEntry.Level level, Set<String> includes, Set<String> excludes, int maxEventsPerSecond) {
+    this.level = level;
+    this.includes = includes;
+    this.excludes = excludes;
+    this.maxEventsPerSecond = maxEventsPerSecond;
+  }
+
+  /**
+   * Returns the minimum {@link LogEntry.Level} of events to publish or {@code null} if there is no limit.
+   */
+  @Nullable
+  public LogEntry.Level getLevel() {
+    return level;
+  }
+
+  /**
+   * Returns the set of logger name prefixes to publish. An empty set means all loggers are included.
+   */
+  public Set<String> getIncludes() {
+    return includes;
+  }
+
+  /**
+   * Returns the set of logger name prefixes to not publish.
+   */
+  public Set<String> getExcludes() {
+    return excludes;
+  }
+
+  /**
+   * Returns the maximum number of events to publish per second by each container, or {@code 0} if there is no limit.
+   */
+  public int getMaxEventsPerSecond() {
+    return maxEventsPerSecond;
+  }
+
+  @Override
+  public boolean equals(Object obj) {
+    if (this == obj) {
+      return true;
+    }
+    if (!(obj instanceof LogFilter)) {
+      return false;
+    }
+    LogFilter other = (LogFilter) obj;
+    return level == other.level && includes.equals(other.includes) && excludes.equals(other.excludes)
+      && maxEventsPerSecond == other.maxEventsPerSecond;
+  }
+
+  @Override
+  public int hashCode() {
+    return Objects.hashCode(level, includes, excludes, maxEventsPerSecond);
+  }
+
+  @Override
+  public String toString() {
+    return Objects.toStringHelper(LogFilter.class)
+      .add("level", level)
+      .add("includes", includes)
+      .add("excludes", excludes)
+      .add("maxEventsPerSecond", maxEventsPerSecond)
+      .toString();
+  }
+
+  /**
+   * Builder for creating {@link LogFilter}.
+   */
+  public static final class Builder {
+
+    private final ImmutableSet.Builder<String> includes = ImmutableSet.builder();
+    private final ImmutableSet.Builder<String> excludes = ImmutableSet.builder();
+    private LogEntry.Level level;
+    private int maxEventsPerSecond;
+
+    public static Builder create() {
+      return new Builder();
+    }
+
+    /**
+     * Sets the minimum level of events to publish.
+     */
+    public Builder setLevel(LogEntry.Level level) {
+      this.level = level;
+      return this;
+    }
+
+    /**
+     * Adds a logger name prefix to publish. If no prefix is added, all loggers are included.
+     */
+    public Builder include(String loggerPrefix) {
+      includes.add(checkPrefix(loggerPrefix));
+      return this;
+    }
+
+    /**
+     * Adds a logger name prefix to not publish. Excludes take precedence over includes.
+     */
+    public Builder exclude(String loggerPrefix) {
+      excludes.add(checkPrefix(loggerPrefix));
+      return this;
+    }
+
+    /**
+     * Sets the maximum number of events to publish per second by each container. Events over the limit are
+     * dropped. A value of {@code 0} means no limit.
+     */
+    public Builder setMaxEventsPerSecond(int maxEventsPerSecond) {
+      Preconditions.checkArgument(maxEventsPerSecond >= 0, "Maximum events per second cannot be negative.");
+      this.maxEventsPerSecond = maxEventsPerSecond;
+      return this;
+    }
+
+    public LogFilter build() {
+      return new LogFilter(level, includes.build(), excludes.build(), maxEventsPerSecond);
+    }
+
+    private String checkPrefix(String loggerPrefix) {
+      Preconditions.checkArgument(loggerPrefix != null && !loggerPrefix.isEmpty(),
+                                  "Logger prefix cannot be null or empty.");
+      // The prefixes are encoded as a list of key=value pairs, see LogFilters in twill-core
+      Preconditions.checkArgument(CharMatcher.anyOf(",;=").matchesNoneOf(loggerPrefix),
+                                  "Logger prefix cannot contain ',', ';' or '=': %s", loggerPrefix);
+      Preconditions.checkArgument(loggerPrefix.trim().equals(loggerPrefix),
+                                  "Logger prefix cannot have leading or trailing whitespaces: '%s'", loggerPrefix);
+      return loggerPrefix;
+    }
+
+    private Builder() {
+    }
+  }
+}
@@ -0,0 +1,195 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.twill.api.logging;
+
+import com.google.common.base.Objects;
+import com.google.common.base.Preconditions;
+import org.apache.twill.internal.InstanceLogEntry;
+
+import javax.annotation.Nullable;
+
+/**
+ * Describes which logs of an application to replay. A log entry matches the query if all of the following hold:
+ * <ul>
+ *   <li>Its timestamp is within the time range, inclusive.</li>
+ *   <li>It is emitted by the runnable, if one is set.</li>
+ *   <li>It is emitted by the runnable instance, if one is set.</li>
+ *   <li>Its level is at or above the minimum level, if one is set.</li>
+ * </ul>
+ */
+public final class LogQuery {
+
+  private final long startTime;
+  private final long endTime;
+  private final String runnableName;
+  private final int instanceId;
+  private final LogEntry.Level level;
+
+  private LogQuery(long startTime, long endTime, String runnableName, int instanceId, LogEntry.Level level) {
+    this.startTime = startTime;
+    this.endTime = endTime;
+    this.runnableName = runnableName;
+    this.instanceId = instanceId;
+    this.level = level;
+  }
+
+  /**
+   * Returns the start of the time range in milliseconds.
+   */
+  public long getStartTime() {
+    return startTime;
+  }
+
+  /**
+   * Returns the end of the time range in milliseconds.
+   */
+  public long getEndTime() {
+    return endTime;
+  }
+
+  /**
+   * Returns the name of the runnable to replay logs for, or {@code null} for all runnables.
+   */
+  @Nullable
+  public String getRunnableName() {
+    return runnableName;
+  }
+
+  /**
+   * Returns the instance id of the runnable to replay logs for, or {@code -1} for all instances.
+   */
+  public int getInstanceId() {
+    return instanceId;
+  }
+
+  /**
+   * Returns the minimum {@link LogEntry.Level} of logs to replay or {@code null} for all levels.
+   */
+  @Nullable
+  public LogEntry.Level getLevel() {
+    return level;
+  }
+
+  /**
+   * Returns {@code true} if the given {@link LogEntry} matches this query.
+   */
+  public boolean matches(LogEntry entry) {
+    if (entry.getTimestamp() < startTime || entry.getTimestamp() > endTime) {
+      return false;
+    }
+    if (runnableName != null && !runnableName.equals(entry.getRunnableName())) {
+      return false;
+    }
+    // Entries without instance id don't match a query for a specific instance
+    if (instanceId >= 0
+      && !(entry instanceof InstanceLogEntry && instanceId == ((InstanceLogEntry) entry).getInstanceId())) {
+      return false;
+    }
+    // Levels are declared from the most severe
+    return level == null || entry.getLogLevel().compareTo(level) <= 0;
+  }
+
+  @Override
+  public boolean equals(Object obj) {
+    if (this == obj) {
+      return true;
+    }
+    if (!(obj instanceof LogQuery)) {
+      return false;
+    }
+    LogQuery other = (LogQuery) obj;
+    return startTime == other.startTime && endTime == other.endTime
+      && Objects.equal(runnableName, other.runnableName) && instanceId == other.instanceId && level == other.level;
+  }
+
+  @Override
+  public int hashCode() {
+    return Objects.hashCode(startTime, endTime, runnableName, instanceId, level);
+  }
+
+  @Override
+  public String toString() {
+    return Objects.toStringHelper(LogQuery.class)
+      .add("startTime", startTime)
+      .add("endTime", endTime)
+      .add("runnableName", runnableName)
+      .add("instanceId", instanceId)
+      .add("level", level)
+      .toString();
+  }
+
+  /**
+   * Builder for creating {@link LogQuery}.
+   */
+  public static final class Builder {
+
+    private final long startTime;
+    private final long endTime;
+    private String runnableName;
+    private int instanceId = -1;
+    private LogEntry.Level level;
+
+    /**
+     * Creates a {@link Builder} for logs within the given time range.
+     *
+     * @param startTime Start of the time range in milliseconds.
+     * @param endTime End of the time range in milliseconds.
+     */
+    public static Builder create(long startTime, long endTime) {
+      return new Builder(startTime, endTime);
+    }
+
+    /**
+     * Sets the name of the runnable to replay logs for.
+     */
+    public Builder setRunnable(String runnableName) {
+      this.runnableName = runnableName;
+      return this;
+    }
+
+    /**
+     * Sets the name and the instance id of the runnable to replay logs for.
+     */
+    public Builder setRunnable(String runnableName, int instanceId) {
+      Preconditions.checkArgument(instanceId >= 0, "Instance id cannot be negative: %s", instanceId);
+      this.runnableName = runnableName;
+      this.instanceId = instanceId;
+      return this;
+    }
+
+    /**
+     * Sets the minimum level of logs to replay.
+     */
+    public Builder setLevel(LogEntry.Level level) {
+      this.level = level;
+      return this;
+    }
+
+    public LogQuery build() {
+      Preconditions.checkArgument(instanceId < 0 || runnableName != null,
+                                  "Runnable name must be set with instance id.");
+      return new LogQuery(startTime, endTime, runnableName, instanceId, level);
+    }
+
+    private Builder(long startTime, long endTime) {
+      Preconditions.checkArgument(startTime <= endTime, "Start time %s is after end time %s.", startTime, endTime);
+      this.startTime = startTime;
+      this.endTime = endTime;
+    }
+  }
+}
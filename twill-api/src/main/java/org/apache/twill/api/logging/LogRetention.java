@@ -0,0 +1,250 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.twill.api.logging;
+
+import com.google.common.base.Objects;
+import com.google.common.base.Preconditions;
+
+import java.net.URI;
+import javax.annotation.Nullable;
+
+/**
+ * Describes how long logs of an application are kept by the log service running in the application master, and
+ * optionally where closed log segments are archived for long term storage.
+ *
+ * <p>
+ * Logs are stored in segment files on the local disk of the application master. A segment is closed when it reaches
+ * the segment size or age, and closed segments are deleted when they are older than the retention time or when the
+ * size of a partition exceeds the retention size. If an archive location is set, closed segments are copied to
+ * {@code <archive>/<runId>/<partition>/} before they are deleted locally.
+ * </p>
+ *
+ * <p>
+ * Closed segments are archived periodically, at an interval well below the retention time. When archiving with a
+ * retention size, the retention size must be at least two segments, so that a closed segment is only deleted after
+ * a full segment of newer logs is written, which gives the archiver time to copy it.
+ * </p>
+ */
+public final class LogRetention {
+
+  /**
+   * The default {@link LogRetention}, which keeps logs for 24 hours and does not archive them.
+   */
+  public static final LogRetention DEFAULT = Builder.create().build();
+
+  private final int retentionHours;
+  private final long retentionBytes;
+  private final int segmentBytes;
+  private final int segmentHours;
+  private final int flushIntervalMessages;
+  private final int flushIntervalMillis;
+  private final URI archiveLocation;
+
+  private LogRetention(int retentionHours, long retentionBytes, int segmentBytes, int segmentHours,
+                       int flushIntervalMessages, int flushIntervalMillis, URI archiveLocation) {
+    this.retentionHours = retentionHours;
+    this.retentionBytes = retentionBytes;
+    this.segmentBytes = segmentBytes;
+    this.segmentHours = segmentHours;
+    this.flushIntervalMessages = flushIntervalMessages;
+    this.flushIntervalMillis = flushIntervalMillis;
+    this.archiveLocation = archiveLocation;
+  }
+
+  /**
+   * Returns the number of hours to keep a closed log segment.
+   */
+  public int getRetentionHours() {
+    return retentionHours;
+  }
+
+  /**
+   * Returns the maximum size in bytes of logs kept for each partition, or {@code -1} if there is no size limit.
+   */
+  public long getRetentionBytes() {
+    return retentionBytes;
+  }
+
+  /**
+   * Returns the maximum size in bytes of a log segment.
+   */
+  public int getSegmentBytes() {
+    return segmentBytes;
+  }
+
+  /**
+   * Returns the maximum number of hours before a log segment is closed, even if it is not full.
+   */
+  public int getSegmentHours() {
+    return segmentHours;
+  }
+
+  /**
+   * Returns the number of log messages written before flushing to disk.
+   */
+  public int getFlushIntervalMessages() {
+    return flushIntervalMessages;
+  }
+
+  /**
+   * Returns the maximum time in milliseconds that a log message is kept in memory before flushing to disk.
+   */
+  public int getFlushIntervalMillis() {
+    return flushIntervalMillis;
+  }
+
+  /**
+   * Returns the location {@link URI} for archiving closed log segments or {@code null} if logs are not archived.
+   */
+  @Nullable
+  public URI getArchiveLocation() {
+    return archiveLocation;
+  }
+
+  @Override
+  public boolean equals(Object obj) {
+    if (this == obj) {
+      return true;
+    }
+    if (!(obj instanceof LogRetention)) {
+      return false;
+    }
+    LogRetention other = (LogRetention) obj;
+    return retentionHours == other.retentionHours && retentionBytes == other.retentionBytes
+      && segmentBytes == other.segmentBytes && segmentHours == other.segmentHours
+      && flushIntervalMessages == other.flushIntervalMessages && flushIntervalMillis == other.flushIntervalMillis
+      && Objects.equal(archiveLocation, other.archiveLocation);
+  }
+
+  @Override
+  public int hashCode() {
+    return Objects.hashCode(retentionHours, retentionBytes, segmentBytes, segmentHours,
+                            flushIntervalMessages, flushIntervalMillis, archiveLocation);
+  }
+
+  @Override
+  public String toString() {
+    return Objects.toStringHelper(LogRetention.class)
+      .add("retentionHours", retentionHours)
+      .add("retentionBytes", retentionBytes)
+      .add("segmentBytes", segmentBytes)
+      .add("segmentHours", segmentHours)
+      .add("flushIntervalMessages", flushIntervalMessages)
+      .add("flushIntervalMillis", flushIntervalMillis)
+      .add("archiveLocation", archiveLocation)
+      .toString();
+  }
+
+  /**
+   * Builder for creating {@link LogRetention}.
+   */
+  public static final class Builder {
+
+    private int retentionHours = 24;
+    private long retentionBytes = -1L;
+    private int segmentBytes = 512 * 1024 * 1024;
+    private int segmentHours = 24 * 7;
+    private int flushIntervalMessages = 10000;
+    private int flushIntervalMillis = 1000;
+    private URI archiveLocation;
+
+    public static Builder create() {
+      return new Builder();
+    }
+
+    /**
+     * Sets the number of hours to keep a closed log segment. Default is 24 hours.
+     */
+    public Builder setRetentionHours(int retentionHours) {
+      Preconditions.checkArgument(retentionHours > 0, "Retention hours must be > 0: %s", retentionHours);
+      this.retentionHours = retentionHours;
+      return this;
+    }
+
+    /**
+     * Sets the maximum size in bytes of logs kept for each partition. Oldest segments are deleted first when the
+     * limit is exceeded. A value of {@code -1} means no limit, which is the default.
+     */
+    public Builder setRetentionBytes(long retentionBytes) {
+      Preconditions.checkArgument(retentionBytes > 0 || retentionBytes == -1L,
+                                  "Retention bytes must be > 0 or -1: %s", retentionBytes);
+      this.retentionBytes = retentionBytes;
+      return this;
+    }
+
+    /**
+     * Sets the maximum size in bytes of a log segment. Default is 512MB.
+     */
+    public Builder setSegmentBytes(int segmentBytes) {
+      Preconditions.checkArgument(segmentBytes > 0, "Segment bytes must be > 0: %s", segmentBytes);
+      this.segmentBytes = segmentBytes;
+      return this;
+    }
+
+    /**
+     * Sets the maximum number of hours before a log segment is closed. Default is 7 days.
+     */
+    public Builder setSegmentHours(int segmentHours) {
+      Preconditions.checkArgument(segmentHours > 0, "Segment hours must be > 0: %s", segmentHours);
+      this.segmentHours = segmentHours;
+      return this;
+    }
+
+    /**
+     * Sets the number of log messages written before flushing to disk. Default is 10000.
+     */
+    public Builder setFlushIntervalMessages(int flushIntervalMessages) {
+      Preconditions.checkArgument(flushIntervalMessages > 0,
+                                  "Flush interval messages must be > 0: %s", flushIntervalMessages);
+      this.flushIntervalMessages = flushIntervalMessages;
+      return this;
+    }
+
+    /**
+     * Sets the maximum time in milliseconds that a log message is kept in memory before flushing to disk.
+     * Default is 1000 milliseconds.
+     */
+    public Builder setFlushIntervalMillis(int flushIntervalMillis) {
+      Preconditions.checkArgument(flushIntervalMillis > 0,
+                                  "Flush interval milliseconds must be > 0: %s", flushIntervalMillis);
+      this.flushIntervalMillis = flushIntervalMillis;
+      return this;
+    }
+
+    /**
+     * Sets the location for archiving closed log segments. It must be on a file system accessible by the
+     * application master, such as HDFS, and outside of the application directory, which is removed when the
+     * application stops. If a retention size is set, it must be at least twice the segment size.
+     */
+    public Builder setArchiveLocation(@Nullable URI archiveLocation) {
+      this.archiveLocation = archiveLocation;
+      return this;
+    }
+
+    public LogRetention build() {
+      Preconditions.checkState(archiveLocation == null || retentionBytes == -1L || retentionBytes >= 2L * segmentBytes,
+                               "Retention bytes must be at least twice the segment bytes when archiving: %s < 2 * %s",
+                               retentionBytes, segmentBytes);
+      return new LogRetention(retentionHours, retentionBytes, segmentBytes, segmentHours,
+                              flushIntervalMessages, flushIntervalMillis, archiveLocation);
+    }
+
+    private Builder() {
+    }
+  }
+}
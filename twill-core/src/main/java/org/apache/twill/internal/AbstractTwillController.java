@@ -17,36 +17,34 @@
  */
 package org.apache.twill.internal;
 
-import com.google.common.base.Charsets;
 import com.google.common.collect.Iterables;
+import com.google.common.collect.Maps;
 import com.google.common.util.concurrent.ListenableFuture;
-import com.google.gson.Gson;
-import com.google.gson.GsonBuilder;
 import org.apache.twill.api.RunId;
 import org.apache.twill.api.TwillController;
-import org.apache.twill.api.logging.LogEntry;
+import org.apache.twill.api.logging.LogFilter;
 import org.apache.twill.api.logging.LogHandler;
-import org.apache.twill.api.logging.LogThrowable;
+import org.apache.twill.api.logging.LogQuery;
 import org.apache.twill.common.Cancellable;
 import org.apache.twill.discovery.DiscoveryServiceClient;
 import org.apache.twill.discovery.ServiceDiscovered;
 import org.apache.twill.discovery.ZKDiscoveryService;
-import org.apache.twill.internal.json.LogEntryDecoder;
-import org.apache.twill.internal.json.LogThrowableCodec;
-import org.apache.twill.internal.json.StackTraceElementCodec;
 import org.apache.twill.internal.kafka.client.ZKKafkaClientService;
+import org.apache.twill.internal.logging.LogDispatcher;
+import org.apache.twill.internal.logging.LogReplayer;
 import org.apache.twill.internal.state.SystemMessages;
-import org.apache.twill.kafka.client.FetchedMessage;
 import org.apache.twill.kafka.client.KafkaClientService;
-import org.apache.twill.kafka.client.KafkaConsumer;
+import org.apache.twill.zookeeper.NodeChildren;
 import org.apache.twill.zookeeper.ZKClient;
 import org.apache.twill.zookeeper.ZKClients;
+import org.apache.twill.zookeeper.ZKOperations;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.util.Iterator;
+import java.util.Map;
 import java.util.Queue;
 import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
 
 /**
  * A abstract base class for {@link TwillController} implementation that uses Zookeeper to controller a
@@ -55,27 +53,44 @@ import java.util.concurrent.ConcurrentLinkedQueue;
 public abstract class AbstractTwillController extends AbstractZKServiceController implements TwillController {
 
   private static final Logger LOG = LoggerFactory.getLogger(AbstractTwillController.class);
+  private static final long LOG_FETCH_MAX_WAIT_MILLIS = 1000L;
 
   private final Queue<LogHandler> logHandlers;
+  private final LogDispatcher logDispatcher;
+  private final ZKClient kafkaZKClient;
   private final KafkaClientService kafkaClient;
   private final DiscoveryServiceClient discoveryServiceClient;
   private volatile Cancellable logCancellable;
 
   public AbstractTwillController(RunId runId, ZKClient zkClient, Iterable<LogHandler> logHandlers) {
+    this(runId, zkClient, logHandlers, Configs.Defaults.LOG_HANDLER_DROP_ON_FULL);
+  }
+
+  /**
+   * Creates an instance.
+   *
+   * @param dropLogsOnFull {@code true} to drop log entries for a {@link LogHandler} that falls behind, {@code false}
+   *                       to slow down log consumption to the pace of the slowest handler.
+   */
+  public AbstractTwillController(RunId runId, ZKClient zkClient, Iterable<LogHandler> logHandlers,
+                                 boolean dropLogsOnFull) {
     super(runId, zkClient);
     this.logHandlers = new ConcurrentLinkedQueue<LogHandler>();
-    this.kafkaClient = new ZKKafkaClientService(ZKClients.namespace(zkClient, "/" + runId.getId() + "/kafka"));
+    this.kafkaZKClient = ZKClients.namespace(zkClient, "/" + runId.getId() + "/kafka");
+    this.kafkaClient = new ZKKafkaClientService(kafkaZKClient);
     this.discoveryServiceClient = new ZKDiscoveryService(zkClient);
+    this.logDispatcher = new LogDispatcher(dropLogsOnFull);
     Iterables.addAll(this.logHandlers, logHandlers);
+    for (LogHandler handler : logHandlers) {
+      logDispatcher.addLogHandler(handler);
+    }
   }
 
   @Override
   protected synchronized void doStartUp() {
     if (!logHandlers.isEmpty()) {
       kafkaClient.startAndWait();
-      logCancellable = kafkaClient.getConsumer().prepare()
-                                  .addFromBeginning(Constants.LOG_TOPIC, 0)
-                                  .consume(new LogMessageCallback(logHandlers));
+      logCancellable = startLogConsumption();
     }
   }
 
@@ -86,19 +101,29 @@ public abstract class AbstractTwillController extends AbstractZKServiceControlle
     }
     // Safe to call stop no matter when state the KafkaClientService is in.
     kafkaClient.stopAndWait();
+    logDispatcher.stop();
   }
 
   @Override
   public final synchronized void addLogHandler(LogHandler handler) {
     logHandlers.add(handler);
+    logDispatcher.addLogHandler(handler);
     if (logHandlers.size() == 1) {
       kafkaClient.startAndWait();
-      logCancellable = kafkaClient.getConsumer().prepare()
-        .addFromBeginning(Constants.LOG_TOPIC, 0)
-        .consume(new LogMessageCallback(logHandlers));
+      logCancellable = startLogConsumption();
     }
   }
 
+  @Override
+  public final int getLogHandlerLag(LogHandler handler) {
+    return logDispatcher.getLag(handler);
+  }
+
+  @Override
+  public final long getLogHandlerDroppedCount(LogHandler handler) {
+    return logDispatcher.getDroppedCount(handler);
+  }
+
   @Override
   public final ServiceDiscovered discoverService(String serviceName) {
     return discoveryServiceClient.discover(serviceName);
@@ -109,48 +134,86 @@ public abstract class AbstractTwillController extends AbstractZKServiceControlle
     return sendMessage(SystemMessages.setInstances(runnable, newCount), newCount);
   }
 
-  private static final class LogMessageCallback implements KafkaConsumer.MessageCallback {
+  @Override
+  public final ListenableFuture<LogFilter> setLogFilter(LogFilter filter) {
+    return sendMessage(SystemMessages.setLogFilter(null, filter), filter);
+  }
 
-    private static final Gson GSON = new GsonBuilder()
-      .registerTypeAdapter(LogEntry.class, new LogEntryDecoder())
-      .registerTypeAdapter(LogThrowable.class, new LogThrowableCodec())
-      .registerTypeAdapter(StackTraceElement.class, new StackTraceElementCodec())
-      .create();
+  @Override
+  public final ListenableFuture<LogFilter> setLogFilter(String runnable, LogFilter filter) {
+    return sendMessage(SystemMessages.setLogFilter(runnable, filter), filter);
+  }
+
+  @Override
+  public final synchronized ListenableFuture<LogQuery> replayLogs(LogQuery query, LogHandler handler) {
+    kafkaClient.startAndWait();
+    return LogReplayer.replay(kafkaClient.getConsumer(), kafkaZKClient, query, handler);
+  }
 
-    private final Iterable<LogHandler> logHandlers;
+  /**
+   * Starts consuming logs from all partitions of the log topic.
+   */
+  private Cancellable startLogConsumption() {
+    LogPartitionsConsumer consumer = new LogPartitionsConsumer();
+    consumer.start();
+    return consumer;
+  }
 
-    private LogMessageCallback(Iterable<LogHandler> logHandlers) {
-      this.logHandlers = logHandlers;
+  /**
+   * Consumes each partition of the log topic with a separate consumption, so that partitions are fetched and
+   * dispatched in parallel. Logs of a container are published to a single partition, hence are still dispatched
+   * in order. Partitions are discovered by watching the topic in the Kafka ZooKeeper namespace, as the topic is
+   * only created when the first log is published.
+   */
+  private final class LogPartitionsConsumer implements ZKOperations.ChildrenCallback, Cancellable {
+
+    // Guarded by this object.
+    private final Map<Integer, Cancellable> consumptions = Maps.newHashMap();
+    private boolean cancelled;
+    private Cancellable watchCancellable;
+
+    private synchronized void start() {
+      // Partition 0 always exists, hence it can be consumed before the topic is created.
+      consume(0);
+      watchCancellable = ZKOperations.watchChildren(kafkaZKClient, Constants.LOG_PARTITIONS_PATH, this);
     }
 
     @Override
-    public void onReceived(Iterator<FetchedMessage> messages) {
-      while (messages.hasNext()) {
-        String json = Charsets.UTF_8.decode(messages.next().getPayload()).toString();
+    public synchronized void updated(NodeChildren nodeChildren) {
+      for (String child : nodeChildren.getChildren()) {
         try {
-          LogEntry entry = GSON.fromJson(json, LogEntry.class);
-          if (entry != null) {
-            invokeHandlers(entry);
-          }
-        } catch (Exception e) {
-          LOG.error("Failed to decode log entry {}", json, e);
+          consume(Integer.parseInt(child));
+        } catch (NumberFormatException e) {
+          LOG.warn("Ignore unknown log partition {}.", child);
         }
       }
     }
 
     @Override
-    public void finished() {
-      // No-op
+    public synchronized void cancel() {
+      cancelled = true;
+      if (watchCancellable != null) {
+        watchCancellable.cancel();
+      }
+      for (Cancellable consumption : consumptions.values()) {
+        consumption.cancel();
+      }
+      consumptions.clear();
     }
 
-    private void invokeHandlers(LogEntry entry) {
-      for (LogHandler handler : logHandlers) {
-        try {
-          handler.onLog(entry);
-        } catch (Throwable t) {
-          LOG.warn("Exception while calling LogHandler {}", handler, t);
-        }
+    /**
+     * Starts consuming the given partition if it is not consumed yet. Long polling is used so that new logs are
+     * delivered as soon as they are published.
+     */
+    private void consume(int partition) {
+      if (cancelled || consumptions.containsKey(partition)) {
+        return;
       }
+      LOG.debug("Start consuming log partition {}.", partition);
+      consumptions.put(partition, kafkaClient.getConsumer().prepare()
+        .addFromBeginning(Constants.LOG_TOPIC, partition)
+        .setLongPoll(1, LOG_FETCH_MAX_WAIT_MILLIS, TimeUnit.MILLISECONDS)
+        .consume(logDispatcher));
     }
   }
 }
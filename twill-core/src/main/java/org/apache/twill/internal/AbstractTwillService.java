@@ -47,6 +47,7 @@ import org.slf4j.LoggerFactory;
 
 import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.ThreadPoolExecutor;
@@ -89,6 +90,8 @@ public abstract class AbstractTwillService extends AbstractExecutionThreadServic
   protected final ZKClient zkClient;
   protected final RunId runId;
   private ExecutorService messageCallbackExecutor;
+  // Id of the last message processed. Only accessed from the message callback thread.
+  private String lastMessageId;
 
   protected AbstractTwillService(final ZKClient zkClient, RunId runId) {
     this.zkClient = zkClient;
@@ -235,11 +238,23 @@ public abstract class AbstractTwillService extends AbstractExecutionThreadServic
       @Override
       public void onSuccess(NodeChildren result) {
         // Sort by the name, which is the messageId. Assumption is that message ids is ordered by time.
-        List<String> messages = Lists.newArrayList(result.getChildren());
+        final List<String> messages = Lists.newArrayList(result.getChildren());
         Collections.sort(messages);
+
+        // Fetch all messages in parallel, but process them in order in the message callback thread, since
+        // callbacks of different message nodes can be called from different ZK event threads.
+        final List<OperationFuture<NodeData>> futures = Lists.newArrayListWithCapacity(messages.size());
         for (String messageId : messages) {
-          processMessage(messagesPath + "/" + messageId, messageId);
+          futures.add(zkClient.getData(messagesPath + "/" + messageId));
         }
+        messageCallbackExecutor.execute(new Runnable() {
+          @Override
+          public void run() {
+            for (int i = 0; i < messages.size() && !Thread.currentThread().isInterrupted(); i++) {
+              processMessage(futures.get(i), messages.get(i));
+            }
+          }
+        });
       }
 
       @Override
@@ -250,35 +265,49 @@ public abstract class AbstractTwillService extends AbstractExecutionThreadServic
     }, Threads.SAME_THREAD_EXECUTOR);
   }
 
-  private void processMessage(final String path, final String messageId) {
-    Futures.addCallback(zkClient.getData(path), new FutureCallback<NodeData>() {
-      @Override
-      public void onSuccess(NodeData result) {
-        Runnable messageRemover = createMessageRemover(path, result.getStat().getVersion());
-
-        Message message = MessageCodec.decode(result.getData());
-        if (message == null) {
-          LOG.error("Failed to decode message for {} in {}", messageId, path);
-          messageRemover.run();
-          return;
-        }
-        if (LOG.isDebugEnabled()) {
-          LOG.debug("Message received from {}: {}", path, new String(MessageCodec.encode(message), Charsets.UTF_8));
-        }
+  /**
+   * Processes a message fetched by the given future. Must be called from the message callback thread.
+   */
+  private void processMessage(OperationFuture<NodeData> future, String messageId) {
+    // A message that is not yet removed can appear again in a later listing, which must not be processed again,
+    // otherwise it would be applied after messages sent after it.
+    if (lastMessageId != null && messageId.compareTo(lastMessageId) <= 0) {
+      return;
+    }
 
-        // Handle the stop message
-        if (handleStopMessage(message, messageRemover)) {
-          return;
-        }
-        // Otherwise, delegate to the child class to handle the message
-        handleMessage(messageId, message, messageRemover);
+    String path = future.getRequestPath();
+    NodeData result;
+    try {
+      result = future.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      return;
+    } catch (ExecutionException e) {
+      if (!(e.getCause() instanceof KeeperException.NoNodeException)) {
+        LOG.error("Failed to fetch message content from {}", path, e.getCause());
       }
+      return;
+    }
+    lastMessageId = messageId;
 
-      @Override
-      public void onFailure(Throwable t) {
-        LOG.error("Failed to fetch message content from {}", path, t);
-      }
-    }, messageCallbackExecutor);
+    Runnable messageRemover = createMessageRemover(path, result.getStat().getVersion());
+
+    Message message = MessageCodec.decode(result.getData());
+    if (message == null) {
+      LOG.error("Failed to decode message for {} in {}", messageId, path);
+      messageRemover.run();
+      return;
+    }
+    if (LOG.isDebugEnabled()) {
+      LOG.debug("Message received from {}: {}", path, new String(MessageCodec.encode(message), Charsets.UTF_8));
+    }
+
+    // Handle the stop message
+    if (handleStopMessage(message, messageRemover)) {
+      return;
+    }
+    // Otherwise, delegate to the child class to handle the message
+    handleMessage(messageId, message, messageRemover);
   }
 
   /**
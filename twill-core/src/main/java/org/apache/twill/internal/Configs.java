@@ -31,6 +31,23 @@ public final class Configs {
      */
     public static final String JAVA_RESERVED_MEMORY_MB = "twill.java.reserved.memory.mb";
 
+    /**
+     * Number of partitions of the log topic. Logs of each container go to one partition.
+     */
+    public static final String LOG_PARTITIONS = "twill.log.partitions";
+
+    /**
+     * Size in MB of the local file for holding logs in containers while Kafka is unavailable. Setting it to 0
+     * disables the spill file, in which case logs are dropped when they cannot be published.
+     */
+    public static final String LOG_SPILL_SIZE_MB = "twill.log.spill.size.mb";
+
+    /**
+     * Whether the controller drops log entries for a log handler that cannot keep up. When it is {@code false},
+     * log consumption is slowed down to the pace of the slowest handler instead.
+     */
+    public static final String LOG_HANDLER_DROP_ON_FULL = "twill.log.handler.drop.on.full";
+
     private Keys() {
     }
   }
@@ -42,6 +59,12 @@ public final class Configs {
     // By default have 200MB reserved for Java process.
     public static final int JAVA_RESERVED_MEMORY_MB = 200;
 
+    public static final int LOG_PARTITIONS = 1;
+
+    public static final int LOG_SPILL_SIZE_MB = 0;
+
+    public static final boolean LOG_HANDLER_DROP_ON_FULL = false;
+
     private Defaults() {
     }
   }
@@ -24,6 +24,9 @@ public final class Constants {
 
   public static final String LOG_TOPIC = "log";
 
+  /** ZooKeeper path of the partitions of the log topic, relative to the Kafka namespace. */
+  public static final String LOG_PARTITIONS_PATH = "/brokers/topics/" + LOG_TOPIC + "/partitions";
+
   /** Maximum number of seconds for AM to start. */
   public static final int APPLICATION_MAX_START_SECONDS = 60;
   /** Maximum number of seconds for AM to stop. */
@@ -58,6 +61,9 @@ public final class Constants {
     public static final String ARGUMENTS = "arguments.json";
     public static final String LOGBACK_TEMPLATE = "logback-template.xml";
     public static final String JVM_OPTIONS = "jvm.opts";
+    public static final String LOG_FILTERS = "logFilters.json";
+    public static final String LOG_RETENTION = "logRetention.json";
+    public static final String LOG_SPILL = "logs.spill";
     public static final String CREDENTIALS = "credentials.store";
 
     private Files() {
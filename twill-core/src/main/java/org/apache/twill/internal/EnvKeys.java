@@ -41,6 +41,27 @@ public final class EnvKeys {
 
   public static final String TWILL_LOG_KAFKA_ZK = "TWILL_LOG_KAFKA_ZK";
 
+  /**
+   * Name of the {@link org.apache.twill.api.logging.LogFormat} for publishing logs.
+   */
+  public static final String TWILL_LOG_FORMAT = "TWILL_LOG_FORMAT";
+
+  /**
+   * The {@link org.apache.twill.api.logging.LogFilter} of a runnable, encoded by
+   * {@link org.apache.twill.internal.logging.LogFilters#encode(org.apache.twill.api.logging.LogFilter)}.
+   */
+  public static final String TWILL_LOG_FILTER = "TWILL_LOG_FILTER";
+
+  /**
+   * Number of partitions of the log topic.
+   */
+  public static final String TWILL_LOG_PARTITIONS = "TWILL_LOG_PARTITIONS";
+
+  /**
+   * Size in MB of the local log spill file. The spill file is not used if it is missing or not positive.
+   */
+  public static final String TWILL_LOG_SPILL_SIZE_MB = "TWILL_LOG_SPILL_SIZE_MB";
+
   public static final String YARN_RM_SCHEDULER_ADDRESS = "YARN_RM_SCHEDULER_ADDRESS";
   public static final String YARN_APP_ID = "YARN_APP_ID";
   public static final String YARN_APP_ID_CLUSTER_TIME = "YARN_APP_ID_CLUSTER_TIME";
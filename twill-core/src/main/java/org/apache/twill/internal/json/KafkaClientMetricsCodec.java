@@ -0,0 +1,146 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.twill.internal.json;
+
+import com.google.common.collect.Maps;
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonDeserializationContext;
+import com.google.gson.JsonDeserializer;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonPrimitive;
+import com.google.gson.JsonSerializationContext;
+import com.google.gson.JsonSerializer;
+import org.apache.twill.kafka.client.KafkaClientMetrics;
+import org.apache.twill.kafka.client.TopicPartition;
+
+import java.io.Reader;
+import java.io.Writer;
+import java.lang.reflect.Type;
+import java.util.Map;
+
+/**
+ * Gson codec for {@link KafkaClientMetrics}.
+ */
+public final class KafkaClientMetricsCodec implements JsonSerializer<KafkaClientMetrics>,
+                                                      JsonDeserializer<KafkaClientMetrics> {
+
+  private static final Gson GSON = new GsonBuilder()
+    .registerTypeAdapter(KafkaClientMetrics.class, new KafkaClientMetricsCodec())
+    .create();
+
+  public static void encode(KafkaClientMetrics metrics, Writer writer) {
+    GSON.toJson(metrics, KafkaClientMetrics.class, writer);
+  }
+
+  public static KafkaClientMetrics decode(Reader reader) {
+    return GSON.fromJson(reader, KafkaClientMetrics.class);
+  }
+
+  @Override
+  public JsonElement serialize(KafkaClientMetrics src, Type typeOfSrc, JsonSerializationContext context) {
+    JsonObject json = new JsonObject();
+    json.addProperty("timestamp", src.getTimestamp());
+    json.addProperty("totalLag", src.getTotalLag());
+
+    JsonArray partitions = new JsonArray();
+    for (Map.Entry<TopicPartition, KafkaClientMetrics.PartitionMetrics> entry : src.getPartitions().entrySet()) {
+      JsonObject partition = new JsonObject();
+      partition.addProperty("topic", entry.getKey().getTopic());
+      partition.addProperty("partition", entry.getKey().getPartition());
+      partition.addProperty("offset", entry.getValue().getOffset());
+      partition.addProperty("highWatermark", entry.getValue().getHighWatermark());
+      partition.addProperty("lag", entry.getValue().getLag());
+      partitions.add(partition);
+    }
+    json.add("partitions", partitions);
+
+    JsonObject fetch = new JsonObject();
+    fetch.add("latency", serializeHistogram(src.getFetchLatency()));
+    fetch.addProperty("bytes", src.getFetchedBytes());
+    fetch.addProperty("errors", src.getFetchErrors());
+    json.add("fetch", fetch);
+
+    JsonObject publish = new JsonObject();
+    publish.add("latency", serializeHistogram(src.getPublishLatency()));
+    publish.add("batchMessages", serializeHistogram(src.getPublishBatchMessages()));
+    publish.add("batchBytes", serializeHistogram(src.getPublishBatchBytes()));
+    publish.addProperty("messages", src.getPublishedMessages());
+    publish.addProperty("bytes", src.getPublishedBytes());
+    publish.addProperty("errors", src.getPublishErrors());
+    json.add("publish", publish);
+
+    return json;
+  }
+
+  @Override
+  public KafkaClientMetrics deserialize(JsonElement json, Type typeOfT,
+                                        JsonDeserializationContext context) throws JsonParseException {
+    JsonObject jsonObj = json.getAsJsonObject();
+
+    Map<TopicPartition, KafkaClientMetrics.PartitionMetrics> partitions = Maps.newHashMap();
+    for (JsonElement element : jsonObj.getAsJsonArray("partitions")) {
+      JsonObject partition = element.getAsJsonObject();
+      partitions.put(new TopicPartition(partition.get("topic").getAsString(), partition.get("partition").getAsInt()),
+                     new KafkaClientMetrics.PartitionMetrics(partition.get("offset").getAsLong(),
+                                                             partition.get("highWatermark").getAsLong()));
+    }
+
+    JsonObject fetch = jsonObj.getAsJsonObject("fetch");
+    JsonObject publish = jsonObj.getAsJsonObject("publish");
+    return new KafkaClientMetrics(jsonObj.get("timestamp").getAsLong(), partitions,
+                                  deserializeHistogram(fetch.getAsJsonObject("latency")),
+                                  fetch.get("bytes").getAsLong(), fetch.get("errors").getAsLong(),
+                                  deserializeHistogram(publish.getAsJsonObject("latency")),
+                                  deserializeHistogram(publish.getAsJsonObject("batchMessages")),
+                                  deserializeHistogram(publish.getAsJsonObject("batchBytes")),
+                                  publish.get("messages").getAsLong(), publish.get("bytes").getAsLong(),
+                                  publish.get("errors").getAsLong());
+  }
+
+  private JsonObject serializeHistogram(KafkaClientMetrics.Histogram histogram) {
+    JsonObject json = new JsonObject();
+    json.addProperty("count", histogram.getCount());
+    json.addProperty("sum", histogram.getSum());
+    json.addProperty("min", histogram.getMin());
+    json.addProperty("max", histogram.getMax());
+    json.addProperty("mean", histogram.getMean());
+    json.addProperty("p50", histogram.getPercentile(50));
+    json.addProperty("p99", histogram.getPercentile(99));
+
+    JsonArray buckets = new JsonArray();
+    for (long bucket : histogram.getBuckets()) {
+      buckets.add(new JsonPrimitive(bucket));
+    }
+    json.add("buckets", buckets);
+    return json;
+  }
+
+  private KafkaClientMetrics.Histogram deserializeHistogram(JsonObject json) {
+    JsonArray jsonBuckets = json.getAsJsonArray("buckets");
+    long[] buckets = new long[jsonBuckets.size()];
+    for (int i = 0; i < buckets.length; i++) {
+      buckets[i] = jsonBuckets.get(i).getAsLong();
+    }
+    return new KafkaClientMetrics.Histogram(json.get("count").getAsLong(), json.get("sum").getAsLong(),
+                                            json.get("min").getAsLong(), json.get("max").getAsLong(), buckets);
+  }
+}
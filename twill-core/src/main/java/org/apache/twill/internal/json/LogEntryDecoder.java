@@ -24,6 +24,7 @@ import com.google.gson.JsonObject;
 import com.google.gson.JsonParseException;
 import org.apache.twill.api.logging.LogEntry;
 import org.apache.twill.api.logging.LogThrowable;
+import org.apache.twill.internal.InstanceLogEntry;
 
 import java.lang.reflect.Type;
 
@@ -53,9 +54,10 @@ public final class LogEntryDecoder implements JsonDeserializer<LogEntry> {
     final String thread = JsonUtils.getAsString(jsonObj, "thread");
     final String message = JsonUtils.getAsString(jsonObj, "message");
     final String runnableName = JsonUtils.getAsString(jsonObj, "runnableName");
+    final int instanceId = JsonUtils.getAsInt(jsonObj, "instanceId", -1);
     final LogThrowable logThrowable = context.deserialize(jsonObj.get("throwable"), LogThrowable.class);
 
-    return new LogEntry() {
+    return new InstanceLogEntry() {
       @Override
       public String getLoggerName() {
         return name;
@@ -115,6 +117,11 @@ public final class LogEntryDecoder implements JsonDeserializer<LogEntry> {
         return runnableName;
       }
 
+      @Override
+      public int getInstanceId() {
+        return instanceId;
+      }
+
       @Override
       public LogThrowable getThrowable() {
         return logThrowable;
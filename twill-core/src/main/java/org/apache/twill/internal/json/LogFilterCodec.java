@@ -0,0 +1,83 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.twill.internal.json;
+
+import com.google.common.collect.Maps;
+import com.google.common.io.InputSupplier;
+import com.google.common.io.OutputSupplier;
+import com.google.common.reflect.TypeToken;
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonDeserializationContext;
+import com.google.gson.JsonDeserializer;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonSerializationContext;
+import com.google.gson.JsonSerializer;
+import org.apache.twill.api.logging.LogFilter;
+import org.apache.twill.internal.logging.LogFilters;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.lang.reflect.Type;
+import java.util.Map;
+
+/**
+ * Gson codec for {@link LogFilter}. It also encodes and decodes the filters of all runnables of an application,
+ * keyed by runnable name.
+ */
+public final class LogFilterCodec implements JsonSerializer<LogFilter>, JsonDeserializer<LogFilter> {
+
+  private static final Gson GSON = new GsonBuilder().registerTypeAdapter(LogFilter.class, new LogFilterCodec())
+                                                    .create();
+  private static final Type FILTERS_TYPE = new TypeToken<Map<String, LogFilter>>() { }.getType();
+  private static final Type OPTIONS_TYPE = new TypeToken<Map<String, String>>() { }.getType();
+
+  public static void encode(Map<String, LogFilter> filters,
+                            OutputSupplier<? extends Writer> writerSupplier) throws IOException {
+    Writer writer = writerSupplier.getOutput();
+    try {
+      GSON.toJson(filters, FILTERS_TYPE, writer);
+    } finally {
+      writer.close();
+    }
+  }
+
+  public static Map<String, LogFilter> decode(InputSupplier<? extends Reader> readerSupplier) throws IOException {
+    Reader reader = readerSupplier.getInput();
+    try {
+      Map<String, LogFilter> filters = GSON.fromJson(reader, FILTERS_TYPE);
+      return filters == null ? Maps.<String, LogFilter>newHashMap() : filters;
+    } finally {
+      reader.close();
+    }
+  }
+
+  @Override
+  public JsonElement serialize(LogFilter src, Type typeOfSrc, JsonSerializationContext context) {
+    return context.serialize(LogFilters.toOptions(src), OPTIONS_TYPE);
+  }
+
+  @Override
+  public LogFilter deserialize(JsonElement json, Type typeOfT,
+                               JsonDeserializationContext context) throws JsonParseException {
+    Map<String, String> options = context.deserialize(json, OPTIONS_TYPE);
+    return LogFilters.fromOptions(options);
+  }
+}
@@ -0,0 +1,97 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.twill.internal.json;
+
+import com.google.common.io.InputSupplier;
+import com.google.common.io.OutputSupplier;
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonDeserializationContext;
+import com.google.gson.JsonDeserializer;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonSerializationContext;
+import com.google.gson.JsonSerializer;
+import org.apache.twill.api.logging.LogRetention;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.lang.reflect.Type;
+import java.net.URI;
+
+/**
+ * Gson codec for {@link LogRetention}.
+ */
+public final class LogRetentionCodec implements JsonSerializer<LogRetention>, JsonDeserializer<LogRetention> {
+
+  private static final Gson GSON = new GsonBuilder().registerTypeAdapter(LogRetention.class, new LogRetentionCodec())
+                                                    .create();
+
+  public static void encode(LogRetention retention,
+                            OutputSupplier<? extends Writer> writerSupplier) throws IOException {
+    Writer writer = writerSupplier.getOutput();
+    try {
+      GSON.toJson(retention, LogRetention.class, writer);
+    } finally {
+      writer.close();
+    }
+  }
+
+  public static LogRetention decode(InputSupplier<? extends Reader> readerSupplier) throws IOException {
+    Reader reader = readerSupplier.getInput();
+    try {
+      LogRetention retention = GSON.fromJson(reader, LogRetention.class);
+      return retention == null ? LogRetention.DEFAULT : retention;
+    } finally {
+      reader.close();
+    }
+  }
+
+  @Override
+  public JsonElement serialize(LogRetention src, Type typeOfSrc, JsonSerializationContext context) {
+    JsonObject json = new JsonObject();
+    json.addProperty("retentionHours", src.getRetentionHours());
+    json.addProperty("retentionBytes", src.getRetentionBytes());
+    json.addProperty("segmentBytes", src.getSegmentBytes());
+    json.addProperty("segmentHours", src.getSegmentHours());
+    json.addProperty("flushIntervalMessages", src.getFlushIntervalMessages());
+    json.addProperty("flushIntervalMillis", src.getFlushIntervalMillis());
+    if (src.getArchiveLocation() != null) {
+      json.addProperty("archiveLocation", src.getArchiveLocation().toASCIIString());
+    }
+    return json;
+  }
+
+  @Override
+  public LogRetention deserialize(JsonElement json, Type typeOfT,
+                                  JsonDeserializationContext context) throws JsonParseException {
+    JsonObject jsonObj = json.getAsJsonObject();
+    JsonElement archiveLocation = jsonObj.get("archiveLocation");
+    return LogRetention.Builder.create()
+      .setRetentionHours(jsonObj.get("retentionHours").getAsInt())
+      .setRetentionBytes(jsonObj.get("retentionBytes").getAsLong())
+      .setSegmentBytes(jsonObj.get("segmentBytes").getAsInt())
+      .setSegmentHours(jsonObj.get("segmentHours").getAsInt())
+      .setFlushIntervalMessages(jsonObj.get("flushIntervalMessages").getAsInt())
+      .setFlushIntervalMillis(jsonObj.get("flushIntervalMillis").getAsInt())
+      .setArchiveLocation(archiveLocation == null ? null : URI.create(archiveLocation.getAsString()))
+      .build();
+  }
+}
@@ -0,0 +1,164 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.twill.internal.kafka;
+
+import com.google.common.collect.Sets;
+import com.google.common.io.Files;
+import com.google.common.util.concurrent.AbstractIdleService;
+import org.apache.twill.common.Threads;
+import org.apache.twill.filesystem.Location;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.FileFilter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A {@link com.google.common.util.concurrent.Service} that periodically copies closed log segments of a Kafka
+ * server to a {@link Location}. The segments of each partition are copied to a directory of the same name under the
+ * archive location. The active segment of each partition is copied when the service stops, which should happen
+ * after the Kafka server stopped.
+ */
+public final class KafkaLogArchiver extends AbstractIdleService implements Runnable {
+
+  private static final Logger LOG = LoggerFactory.getLogger(KafkaLogArchiver.class);
+  private static final String SEGMENT_SUFFIX = ".log";
+
+  private final File logDir;
+  private final Location archiveLocation;
+  private final long intervalSeconds;
+  // Names of segments already archived, in the form of "partition/segment".
+  private final Set<String> archived;
+  private ScheduledExecutorService scheduler;
+
+  /**
+   * Creates an instance.
+   *
+   * @param logDir The Kafka log directory, which is the value of the {@code log.dir} setting.
+   * @param archiveLocation Location to copy log segments to.
+   * @param intervalSeconds Interval in seconds between archive runs.
+   */
+  public KafkaLogArchiver(File logDir, Location archiveLocation, long intervalSeconds) {
+    this.logDir = logDir;
+    this.archiveLocation = archiveLocation;
+    this.intervalSeconds = intervalSeconds;
+    this.archived = Sets.newHashSet();
+  }
+
+  @Override
+  public void run() {
+    archive(false);
+  }
+
+  @Override
+  protected void startUp() throws Exception {
+    scheduler = Executors.newSingleThreadScheduledExecutor(Threads.createDaemonThreadFactory("kafka-log-archiver"));
+    scheduler.scheduleWithFixedDelay(this, intervalSeconds, intervalSeconds, TimeUnit.SECONDS);
+    LOG.info("Archiving Kafka logs from {} to {}", logDir, archiveLocation);
+  }
+
+  @Override
+  protected void shutDown() throws Exception {
+    scheduler.shutdown();
+    scheduler.awaitTermination(intervalSeconds, TimeUnit.SECONDS);
+    archive(true);
+  }
+
+  /**
+   * Copies log segments that are not yet archived. Only called from the scheduler thread, or after the scheduler
+   * terminated.
+   *
+   * @param includeActive {@code true} to also copy the latest segment of each partition.
+   */
+  private void archive(boolean includeActive) {
+    File[] partitionDirs = logDir.listFiles(new FileFilter() {
+      @Override
+      public boolean accept(File file) {
+        return file.isDirectory();
+      }
+    });
+    if (partitionDirs == null) {
+      return;
+    }
+
+    Set<String> segments = Sets.newHashSet();
+    for (File partitionDir : partitionDirs) {
+      File[] files = partitionDir.listFiles(new FileFilter() {
+        @Override
+        public boolean accept(File file) {
+          return file.isFile() && file.getName().endsWith(SEGMENT_SUFFIX);
+        }
+      });
+      if (files == null || files.length == 0) {
+        continue;
+      }
+
+      // Segment file names are zero padded base offsets, hence the name order is the offset order.
+      Arrays.sort(files);
+      int count = includeActive ? files.length : files.length - 1;
+      for (int i = 0; i < count; i++) {
+        String name = partitionDir.getName() + "/" + files[i].getName();
+        segments.add(name);
+        if (archived.contains(name)) {
+          continue;
+        }
+        try {
+          copy(files[i], archiveLocation.append(partitionDir.getName()));
+          archived.add(name);
+        } catch (IOException e) {
+          // Retry in next run, unless Kafka deleted the segment already.
+          LOG.warn("Failed to archive log segment {} to {}.", files[i], archiveLocation, e);
+        }
+      }
+    }
+    // Forget segments that are deleted by Kafka, so that the set doesn't grow unbounded.
+    archived.retainAll(segments);
+  }
+
+  private void copy(File segment, Location dir) throws IOException {
+    Location target = dir.append(segment.getName());
+    if (target.exists() && target.length() == segment.length()) {
+      return;
+    }
+    dir.mkdirs();
+
+    // Copies to a temp file and renames it, so that no partial segment is left in the archive.
+    Location tmp = target.getTempFile(".tmp");
+    OutputStream os = tmp.getOutputStream();
+    try {
+      Files.copy(segment, os);
+    } finally {
+      os.close();
+    }
+    if (target.exists()) {
+      target.delete();
+    }
+    if (tmp.renameTo(target) == null) {
+      tmp.delete();
+      throw new IOException("Failed to rename " + tmp + " to " + target);
+    }
+    LOG.debug("Archived log segment {} to {}", segment, target);
+  }
+}
@@ -0,0 +1,436 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.twill.internal.kafka.client;
+
+import com.google.common.base.Function;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+import org.apache.twill.common.Cancellable;
+import org.apache.twill.common.Threads;
+import org.apache.twill.kafka.client.AsyncPublisherConfig;
+import org.apache.twill.kafka.client.KafkaPublisher;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.nio.ByteBuffer;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * A {@link KafkaPublisher} that accumulates messages in batches per topic and partition key, and sends them from
+ * a background thread through a {@link SimpleKafkaPublisher}. Futures returned by {@link Preparer#send()} are
+ * completed when the batches that carry the messages are acknowledged. Message buffers are retained until then,
+ * hence they shouldn't be modified after being added.
+ */
+final class AsyncKafkaPublisher implements KafkaPublisher {
+
+  private static final Logger LOG = LoggerFactory.getLogger(AsyncKafkaPublisher.class);
+
+  private final SimpleKafkaPublisher delegate;
+  private final Accumulator accumulator;
+
+  AsyncKafkaPublisher(SimpleKafkaPublisher delegate, AsyncPublisherConfig config) {
+    this.delegate = delegate;
+    this.accumulator = new Accumulator(delegate, config);
+  }
+
+  /**
+   * Start the publisher. This method must be called before other methods. This method is only to be called
+   * by KafkaClientService who own this object.
+   * @return A Cancellable for closing this publish. Pending messages are sent before the publisher is closed.
+   */
+  Cancellable start() {
+    ExecutorService senderExecutor
+      = Executors.newSingleThreadExecutor(Threads.createDaemonThreadFactory("kafka-async-publisher"));
+    Cancellable delegateCancellable = delegate.start();
+    senderExecutor.execute(accumulator);
+    return new PublisherCancellable(accumulator, senderExecutor, delegateCancellable);
+  }
+
+  @Override
+  public Preparer prepare(String topic) {
+    return new AsyncPreparer(topic);
+  }
+
+  private final class AsyncPreparer implements Preparer {
+
+    private final String topic;
+    private final MessageBatch messages;
+
+    private AsyncPreparer(String topic) {
+      this.topic = topic;
+      this.messages = new MessageBatch();
+    }
+
+    @Override
+    public Preparer add(ByteBuffer message, Object partitionKey) {
+      messages.add(message, MessageBatch.partitionKey(partitionKey));
+      return this;
+    }
+
+    @Override
+    public Preparer add(ByteBuffer message, int partitionKey) {
+      messages.add(message, MessageBatch.partitionKey(partitionKey));
+      return this;
+    }
+
+    @Override
+    public Preparer addAll(Iterable<ByteBuffer> messages, Object partitionKey) {
+      this.messages.addAll(messages, MessageBatch.partitionKey(partitionKey));
+      return this;
+    }
+
+    @Override
+    public ListenableFuture<Integer> send() {
+      try {
+        return accumulator.append(topic, messages);
+      } finally {
+        messages.clear();
+      }
+    }
+  }
+
+  /**
+   * Holds batches that are waiting to be sent and runs the sender loop. This class shouldn't hold any references
+   * to the publisher instance, so that the publisher can be garbage collected.
+   */
+  private static final class Accumulator implements Runnable {
+
+    private final SimpleKafkaPublisher delegate;
+    private final AsyncPublisherConfig config;
+    private final Semaphore memory;
+
+    // Fields guarded by this object.
+    private final Map<BatchKey, Batch> openBatches;
+    private final List<Batch> readyBatches;
+    private boolean closed;
+
+    private Accumulator(SimpleKafkaPublisher delegate, AsyncPublisherConfig config) {
+      this.delegate = delegate;
+      this.config = config;
+      this.memory = new Semaphore((int) config.getBufferMemory());
+      this.openBatches = Maps.newLinkedHashMap();
+      this.readyBatches = Lists.newArrayList();
+    }
+
+    /**
+     * Adds messages to the batches.
+     *
+     * @return A future that will be completed when all batches that the messages are added to are sent.
+     */
+    private ListenableFuture<Integer> append(String topic, MessageBatch messages) {
+      final int size = messages.size();
+      if (size == 0) {
+        return Futures.immediateFuture(0);
+      }
+
+      int bytes = 0;
+      for (int i = 0; i < size; i++) {
+        bytes += messages.getMessage(i).remaining();
+      }
+      if (bytes > config.getBufferMemory()) {
+        return Futures.immediateFailedFuture(new IllegalArgumentException(
+          String.format("Size of messages %d is larger than the buffer memory %d", bytes, config.getBufferMemory())));
+      }
+
+      // Blocks until there is enough buffer memory for the messages.
+      try {
+        if (!memory.tryAcquire(bytes, config.getMaxBlockMillis(), TimeUnit.MILLISECONDS)) {
+          return Futures.immediateFailedFuture(new TimeoutException(
+            String.format("Failed to allocate %d bytes within %d ms", bytes, config.getMaxBlockMillis())));
+        }
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        return Futures.immediateFailedFuture(e);
+      }
+
+      Set<Batch> batches = Collections.newSetFromMap(new IdentityHashMap<Batch, Boolean>());
+      synchronized (this) {
+        if (closed) {
+          memory.release(bytes);
+          return Futures.immediateFailedFuture(new IllegalStateException("Publisher is closed."));
+        }
+
+        long now = System.currentTimeMillis();
+        BatchKey key = null;
+        for (int i = 0; i < size; i++) {
+          // Consecutive messages of the same partition key share the same key object.
+          if (key == null || key.getPartitionKey() != messages.getPartitionKey(i)) {
+            key = new BatchKey(topic, messages.getPartitionKey(i));
+          }
+          Batch batch = openBatches.get(key);
+          if (batch == null) {
+            batch = new Batch(key, now);
+            openBatches.put(key, batch);
+          }
+          batch.add(messages.getMessage(i));
+          batches.add(batch);
+
+          if (batch.getBytes() >= config.getBatchSize()) {
+            openBatches.remove(key);
+            readyBatches.add(batch);
+          }
+        }
+        notifyAll();
+      }
+
+      List<ListenableFuture<Void>> futures = Lists.newArrayListWithCapacity(batches.size());
+      for (Batch batch : batches) {
+        futures.add(batch.getCompletion());
+      }
+      return Futures.transform(Futures.allAsList(futures), new Function<List<Void>, Integer>() {
+        @Override
+        public Integer apply(List<Void> input) {
+          return size;
+        }
+      });
+    }
+
+    /**
+     * Closes the accumulator. Pending batches will be sent by the sender loop before it returns.
+     */
+    private synchronized void close() {
+      closed = true;
+      notifyAll();
+    }
+
+    /**
+     * The sender loop.
+     */
+    @Override
+    public void run() {
+      List<Batch> batches = takeReadyBatches();
+      while (!batches.isEmpty()) {
+        send(batches);
+        batches = takeReadyBatches();
+      }
+      LOG.debug("Async publisher sender stopped.");
+    }
+
+    /**
+     * Blocks until there are batches ready to be sent.
+     *
+     * @return List of batches to send or an empty list if the accumulator is closed and no batch is pending.
+     */
+    private synchronized List<Batch> takeReadyBatches() {
+      try {
+        while (true) {
+          // Move batches that passed the linger time to the ready list. Also move all batches when closed.
+          long now = System.currentTimeMillis();
+          long nextExpire = Long.MAX_VALUE;
+          Iterator<Batch> iterator = openBatches.values().iterator();
+          while (iterator.hasNext()) {
+            Batch batch = iterator.next();
+            long expire = batch.getCreateTime() + config.getLingerMillis();
+            if (closed || expire <= now) {
+              readyBatches.add(batch);
+              iterator.remove();
+            } else {
+              nextExpire = Math.min(nextExpire, expire);
+            }
+          }
+
+          if (!readyBatches.isEmpty()) {
+            List<Batch> batches = Lists.newArrayList(readyBatches);
+            readyBatches.clear();
+            return batches;
+          }
+          if (closed) {
+            return Collections.emptyList();
+          }
+          wait(nextExpire == Long.MAX_VALUE ? 0L : nextExpire - now);
+        }
+      } catch (InterruptedException e) {
+        LOG.warn("Async publisher sender interrupted.", e);
+        Thread.currentThread().interrupt();
+        closed = true;
+        return Collections.emptyList();
+      }
+    }
+
+    /**
+     * Sends the given batches synchronously and completes the batch futures.
+     */
+    private void send(List<Batch> batches) {
+      // Sends all batches of the same topic together
+      Map<String, List<Batch>> topicBatches = Maps.newHashMap();
+      for (Batch batch : batches) {
+        List<Batch> list = topicBatches.get(batch.getKey().getTopic());
+        if (list == null) {
+          list = Lists.newArrayList();
+          topicBatches.put(batch.getKey().getTopic(), list);
+        }
+        list.add(batch);
+      }
+
+      for (Map.Entry<String, List<Batch>> entry : topicBatches.entrySet()) {
+        int bytes = 0;
+        Throwable failure = null;
+        try {
+          Preparer preparer = delegate.prepare(entry.getKey());
+          for (Batch batch : entry.getValue()) {
+            bytes += batch.getBytes();
+            for (ByteBuffer message : batch.getMessages()) {
+              preparer.add(message, batch.getKey().getPartitionKey());
+            }
+          }
+          preparer.send().get();
+        } catch (ExecutionException e) {
+          failure = e.getCause();
+        } catch (Throwable t) {
+          failure = t;
+        } finally {
+          memory.release(bytes);
+        }
+
+        for (Batch batch : entry.getValue()) {
+          if (failure == null) {
+            batch.getCompletion().set(null);
+          } else {
+            batch.getCompletion().setException(failure);
+          }
+        }
+      }
+    }
+  }
+
+  /**
+   * Identifies a batch by topic and partition key.
+   */
+  private static final class BatchKey {
+    private final String topic;
+    private final int partitionKey;
+
+    private BatchKey(String topic, int partitionKey) {
+      this.topic = topic;
+      this.partitionKey = partitionKey;
+    }
+
+    private String getTopic() {
+      return topic;
+    }
+
+    private int getPartitionKey() {
+      return partitionKey;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (this == o) {
+        return true;
+      }
+      if (o == null || getClass() != o.getClass()) {
+        return false;
+      }
+      BatchKey other = (BatchKey) o;
+      return partitionKey == other.partitionKey && topic.equals(other.topic);
+    }
+
+    @Override
+    public int hashCode() {
+      return 31 * topic.hashCode() + partitionKey;
+    }
+  }
+
+  /**
+   * A batch of messages to be sent together.
+   */
+  private static final class Batch {
+    private final BatchKey key;
+    private final long createTime;
+    private final List<ByteBuffer> messages;
+    private final SettableFuture<Void> completion;
+    private int bytes;
+
+    private Batch(BatchKey key, long createTime) {
+      this.key = key;
+      this.createTime = createTime;
+      this.messages = Lists.newArrayList();
+      this.completion = SettableFuture.create();
+    }
+
+    private void add(ByteBuffer message) {
+      messages.add(message);
+      bytes += message.remaining();
+    }
+
+    private BatchKey getKey() {
+      return key;
+    }
+
+    private long getCreateTime() {
+      return createTime;
+    }
+
+    private List<ByteBuffer> getMessages() {
+      return messages;
+    }
+
+    private int getBytes() {
+      return bytes;
+    }
+
+    private SettableFuture<Void> getCompletion() {
+      return completion;
+    }
+  }
+
+  /**
+   * For stopping and releasing resource for the publisher. This class shouldn't hold any references to the
+   * publisher instance.
+   */
+  private static final class PublisherCancellable implements Cancellable {
+    private final Accumulator accumulator;
+    private final ExecutorService senderExecutor;
+    private final Cancellable delegateCancellable;
+
+    private PublisherCancellable(Accumulator accumulator, ExecutorService senderExecutor,
+                                 Cancellable delegateCancellable) {
+      this.accumulator = accumulator;
+      this.senderExecutor = senderExecutor;
+      this.delegateCancellable = delegateCancellable;
+    }
+
+    @Override
+    public void cancel() {
+      // Let the sender loop send all pending batches before closing the underlying producer.
+      accumulator.close();
+      senderExecutor.shutdown();
+      try {
+        senderExecutor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+      } catch (InterruptedException e) {
+        LOG.warn("Interrupted while waiting for pending messages to be sent.", e);
+        Thread.currentThread().interrupt();
+      }
+      delegateCancellable.cancel();
+    }
+  }
+}
@@ -0,0 +1,159 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.twill.internal.kafka.client;
+
+import kafka.message.Message;
+import kafka.message.MessageSet;
+import org.apache.twill.kafka.client.FetchedMessageSet;
+import org.apache.twill.kafka.client.TopicPartition;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * An implementation of {@link FetchedMessageSet} that indexes a raw Kafka message set buffer. The index is built
+ * by reading the message headers only, without creating any object per message.
+ */
+final class BasicFetchedMessageSet implements FetchedMessageSet {
+
+  private static final int INITIAL_INDEX_SIZE = 16;
+
+  private final TopicPartition topicPartition;
+  private final ByteBuffer buffer;
+  private final int[] positions;
+  private final int size;
+  private final int validBytes;
+  private final long nextOffset;
+  private final boolean compressed;
+
+  /**
+   * Creates an instance by indexing the given message set buffer.
+   *
+   * @param topicPartition The topic partition that the messages are fetched from.
+   * @param buffer The message set buffer. The position and limit of it won't be modified.
+   * @param startOffset Messages before this offset are excluded from the index.
+   */
+  static BasicFetchedMessageSet create(TopicPartition topicPartition, ByteBuffer buffer, long startOffset) {
+    int logOverhead = MessageSet.LogOverhead();
+    int[] positions = new int[INITIAL_INDEX_SIZE];
+    int size = 0;
+    boolean compressed = false;
+    long nextOffset = startOffset;
+
+    int pos = buffer.position();
+    int validEnd = pos;
+    while (pos + logOverhead <= buffer.limit()) {
+      long offset = buffer.getLong(pos);
+      int messageEnd = pos + logOverhead + buffer.getInt(pos + MessageSet.OffsetLength());
+      if (messageEnd > buffer.limit()) {
+        // Partial message at the end of the buffer.
+        break;
+      }
+
+      // For a compressed message, the offset of the wrapper message is the offset of the last message inside it.
+      compressed |= (buffer.get(pos + logOverhead + Message.AttributesOffset()) & Message.CompressionCodeMask()) != 0;
+      if (compressed || offset >= startOffset) {
+        if (size == positions.length) {
+          positions = Arrays.copyOf(positions, size * 2);
+        }
+        positions[size++] = pos;
+      }
+      nextOffset = offset + 1;
+      validEnd = messageEnd;
+      pos = messageEnd;
+    }
+
+    return new BasicFetchedMessageSet(topicPartition, buffer, positions, size,
+                                      validEnd - buffer.position(), nextOffset, compressed);
+  }
+
+  private BasicFetchedMessageSet(TopicPartition topicPartition, ByteBuffer buffer, int[] positions, int size,
+                                 int validBytes, long nextOffset, boolean compressed) {
+    this.topicPartition = topicPartition;
+    this.buffer = buffer;
+    this.positions = positions;
+    this.size = size;
+    this.validBytes = validBytes;
+    this.nextOffset = nextOffset;
+    this.compressed = compressed;
+  }
+
+  @Override
+  public TopicPartition getTopicPartition() {
+    return topicPartition;
+  }
+
+  @Override
+  public ByteBuffer getBuffer() {
+    return buffer.asReadOnlyBuffer();
+  }
+
+  @Override
+  public int size() {
+    return size;
+  }
+
+  @Override
+  public long getOffset(int index) {
+    return buffer.getLong(positions[index]);
+  }
+
+  @Override
+  public int getPayloadPosition(int index) {
+    return getKeyPosition(index) + Math.max(getKeySize(index), 0) + Message.ValueSizeLength();
+  }
+
+  @Override
+  public int getPayloadLength(int index) {
+    return buffer.getInt(getKeyPosition(index) + Math.max(getKeySize(index), 0));
+  }
+
+  @Override
+  public long getNextOffset() {
+    return nextOffset;
+  }
+
+  /**
+   * Returns the underlying buffer. It is only for internal use that doesn't modify the buffer.
+   */
+  ByteBuffer getRawBuffer() {
+    return buffer;
+  }
+
+  /**
+   * Returns number of bytes of all complete messages in the buffer.
+   */
+  int getValidBytes() {
+    return validBytes;
+  }
+
+  /**
+   * Returns {@code true} if the message set contains compressed messages.
+   */
+  boolean isCompressed() {
+    return compressed;
+  }
+
+  private int getKeyPosition(int index) {
+    return positions[index] + MessageSet.LogOverhead() + Message.KeyOffset();
+  }
+
+  private int getKeySize(int index) {
+    return buffer.getInt(positions[index] + MessageSet.LogOverhead() + Message.KeySizeOffset());
+  }
+}
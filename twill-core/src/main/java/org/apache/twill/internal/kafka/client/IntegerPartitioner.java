@@ -29,6 +29,7 @@ public final class IntegerPartitioner implements Partitioner<Integer> {
   }
 
   public int partition(Integer key, int numPartitions) {
-    return key % numPartitions;
+    // Keys are non-negative, except for Integer.MIN_VALUE, which is the result of Math.abs(Integer.MIN_VALUE).
+    return Math.abs(key % numPartitions);
   }
 }
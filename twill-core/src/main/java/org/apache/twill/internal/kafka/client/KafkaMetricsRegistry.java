@@ -0,0 +1,183 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.twill.internal.kafka.client;
+
+import com.google.common.collect.Maps;
+import org.apache.twill.kafka.client.KafkaClientMetrics;
+import org.apache.twill.kafka.client.TopicPartition;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Collects metrics of the consumer and publishers of a {@link ZKKafkaClientService}. All recording methods are
+ * thread safe and lock free, so that they can be called from the fetch and publish paths.
+ */
+final class KafkaMetricsRegistry {
+
+  // Consumer positions, keyed by topic partition and then by the consumption that owns the position.
+  // The same partition can be consumed by multiple consumptions at the same time (e.g. live and replay).
+  private final ConcurrentMap<TopicPartition, ConcurrentMap<Object, KafkaClientMetrics.PartitionMetrics>> partitions;
+  private final HistogramRecorder fetchLatency;
+  private final AtomicLong fetchedBytes;
+  private final AtomicLong fetchErrors;
+  private final HistogramRecorder publishLatency;
+  private final HistogramRecorder publishBatchMessages;
+  private final HistogramRecorder publishBatchBytes;
+  private final AtomicLong publishedMessages;
+  private final AtomicLong publishedBytes;
+  private final AtomicLong publishErrors;
+
+  KafkaMetricsRegistry() {
+    this.partitions = Maps.newConcurrentMap();
+    this.fetchLatency = new HistogramRecorder();
+    this.fetchedBytes = new AtomicLong();
+    this.fetchErrors = new AtomicLong();
+    this.publishLatency = new HistogramRecorder();
+    this.publishBatchMessages = new HistogramRecorder();
+    this.publishBatchBytes = new HistogramRecorder();
+    this.publishedMessages = new AtomicLong();
+    this.publishedBytes = new AtomicLong();
+    this.publishErrors = new AtomicLong();
+  }
+
+  /**
+   * Records a completed fetch request.
+   *
+   * @param latency Round-trip time of the request in milliseconds.
+   * @param bytes Number of message bytes fetched.
+   */
+  void fetched(long latency, long bytes) {
+    fetchLatency.record(latency);
+    fetchedBytes.addAndGet(bytes);
+  }
+
+  void fetchFailed() {
+    fetchErrors.incrementAndGet();
+  }
+
+  /**
+   * Updates the position of a topic partition consumed by the given consumption.
+   *
+   * @param consumption Object identifying the consumption.
+   */
+  void updatePosition(Object consumption, TopicPartition topicPartition, long offset, long highWatermark) {
+    ConcurrentMap<Object, KafkaClientMetrics.PartitionMetrics> positions = partitions.get(topicPartition);
+    if (positions == null) {
+      ConcurrentMap<Object, KafkaClientMetrics.PartitionMetrics> newPositions = Maps.newConcurrentMap();
+      positions = partitions.putIfAbsent(topicPartition, newPositions);
+      positions = positions == null ? newPositions : positions;
+    }
+    positions.put(consumption, new KafkaClientMetrics.PartitionMetrics(offset, highWatermark));
+  }
+
+  /**
+   * Removes the position of a topic partition owned by the given consumption when it is no longer consumed.
+   * Positions of the same partition owned by other consumptions are not affected.
+   */
+  void removePosition(Object consumption, TopicPartition topicPartition) {
+    ConcurrentMap<Object, KafkaClientMetrics.PartitionMetrics> positions = partitions.get(topicPartition);
+    if (positions != null) {
+      positions.remove(consumption);
+    }
+  }
+
+  /**
+   * Records a successfully published batch.
+   *
+   * @param latency Time taken to send the batch in milliseconds.
+   * @param messages Number of messages in the batch.
+   * @param bytes Number of bytes in the batch.
+   */
+  void published(long latency, int messages, long bytes) {
+    publishLatency.record(latency);
+    publishBatchMessages.record(messages);
+    publishBatchBytes.record(bytes);
+    publishedMessages.addAndGet(messages);
+    publishedBytes.addAndGet(bytes);
+  }
+
+  void publishFailed() {
+    publishErrors.incrementAndGet();
+  }
+
+  /**
+   * Returns a snapshot of the current metrics.
+   */
+  KafkaClientMetrics snapshot() {
+    // For partition consumed by multiple consumptions, reports the one that is the furthest behind.
+    Map<TopicPartition, KafkaClientMetrics.PartitionMetrics> positions = Maps.newHashMap();
+    for (Map.Entry<TopicPartition, ConcurrentMap<Object, KafkaClientMetrics.PartitionMetrics>> entry
+      : partitions.entrySet()) {
+      KafkaClientMetrics.PartitionMetrics position = null;
+      for (KafkaClientMetrics.PartitionMetrics metrics : entry.getValue().values()) {
+        if (position == null || metrics.getLag() > position.getLag()) {
+          position = metrics;
+        }
+      }
+      if (position != null) {
+        positions.put(entry.getKey(), position);
+      }
+    }
+    return new KafkaClientMetrics(System.currentTimeMillis(), positions,
+                                  fetchLatency.snapshot(), fetchedBytes.get(), fetchErrors.get(),
+                                  publishLatency.snapshot(), publishBatchMessages.snapshot(),
+                                  publishBatchBytes.snapshot(), publishedMessages.get(), publishedBytes.get(),
+                                  publishErrors.get());
+  }
+
+  /**
+   * Records values into the exponential buckets described in {@link KafkaClientMetrics.Histogram}.
+   */
+  private static final class HistogramRecorder {
+
+    private final AtomicLongArray buckets = new AtomicLongArray(Long.SIZE);
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong sum = new AtomicLong();
+    private final AtomicLong min = new AtomicLong(Long.MAX_VALUE);
+    private final AtomicLong max = new AtomicLong(Long.MIN_VALUE);
+
+    void record(long value) {
+      long v = Math.max(0L, value);
+      buckets.incrementAndGet(Long.SIZE - Long.numberOfLeadingZeros(v));
+      count.incrementAndGet();
+      sum.addAndGet(v);
+
+      long current = min.get();
+      while (v < current && !min.compareAndSet(current, v)) {
+        current = min.get();
+      }
+      current = max.get();
+      while (v > current && !max.compareAndSet(current, v)) {
+        current = max.get();
+      }
+    }
+
+    KafkaClientMetrics.Histogram snapshot() {
+      long[] values = new long[buckets.length()];
+      for (int i = 0; i < values.length; i++) {
+        values[i] = buckets.get(i);
+      }
+      long n = count.get();
+      return new KafkaClientMetrics.Histogram(n, sum.get(), n == 0 ? 0L : min.get(), n == 0 ? 0L : max.get(),
+                                              values);
+    }
+  }
+}
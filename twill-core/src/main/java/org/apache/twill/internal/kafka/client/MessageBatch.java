@@ -0,0 +1,108 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.twill.internal.kafka.client;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * A growable list of message payloads with their partition keys, kept in parallel arrays so that adding a message
+ * doesn't allocate any per message object. The arrays are retained after {@link #clear()} for reuse.
+ * This class is not thread safe.
+ */
+final class MessageBatch {
+
+  private static final int DEFAULT_CAPACITY = 16;
+
+  private ByteBuffer[] messages;
+  private int[] partitionKeys;
+  private int size;
+
+  MessageBatch() {
+    this(DEFAULT_CAPACITY);
+  }
+
+  MessageBatch(int capacity) {
+    this.messages = new ByteBuffer[capacity];
+    this.partitionKeys = new int[capacity];
+  }
+
+  /**
+   * Adds a message with the given partition key.
+   */
+  void add(ByteBuffer message, int partitionKey) {
+    ensureCapacity(size + 1);
+    messages[size] = message;
+    partitionKeys[size] = partitionKey;
+    size++;
+  }
+
+  /**
+   * Adds all messages with the same partition key.
+   */
+  void addAll(Iterable<ByteBuffer> messages, int partitionKey) {
+    for (ByteBuffer message : messages) {
+      add(message, partitionKey);
+    }
+  }
+
+  int size() {
+    return size;
+  }
+
+  ByteBuffer getMessage(int idx) {
+    return messages[idx];
+  }
+
+  int getPartitionKey(int idx) {
+    return partitionKeys[idx];
+  }
+
+  /**
+   * Removes all messages. References to the message buffers are released while the arrays are kept.
+   */
+  void clear() {
+    Arrays.fill(messages, 0, size, null);
+    size = 0;
+  }
+
+  /**
+   * Computes the partition key from the given object in the same way for all publishers. The key is never negative,
+   * except for {@link Integer#MIN_VALUE}, which is handled by {@link IntegerPartitioner}.
+   */
+  static int partitionKey(Object partitionKey) {
+    return partitionKey(partitionKey.hashCode());
+  }
+
+  /**
+   * Computes the partition key from the given int key. It gives the same result as
+   * {@link #partitionKey(Object)} with the boxed key.
+   */
+  static int partitionKey(int partitionKey) {
+    return Math.abs(partitionKey);
+  }
+
+  private void ensureCapacity(int capacity) {
+    if (capacity <= messages.length) {
+      return;
+    }
+    int newCapacity = Math.max(capacity, messages.length * 2);
+    messages = Arrays.copyOf(messages, newCapacity);
+    partitionKeys = Arrays.copyOf(partitionKeys, newCapacity);
+  }
+}
@@ -17,18 +17,20 @@
  */
 package org.apache.twill.internal.kafka.client;
 
+import com.google.common.base.Preconditions;
 import com.google.common.cache.CacheBuilder;
 import com.google.common.cache.CacheLoader;
 import com.google.common.cache.LoadingCache;
 import com.google.common.cache.RemovalListener;
 import com.google.common.cache.RemovalNotification;
 import com.google.common.collect.AbstractIterator;
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
-import com.google.common.collect.Iterables;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
-import com.google.common.util.concurrent.Futures;
-import kafka.api.FetchRequest;
+import com.google.common.collect.Sets;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
 import kafka.api.FetchRequestBuilder;
 import kafka.api.PartitionOffsetRequestInfo;
 import kafka.common.ErrorMapping;
@@ -43,49 +45,72 @@ import org.apache.twill.common.Cancellable;
 import org.apache.twill.common.Threads;
 import org.apache.twill.kafka.client.BrokerInfo;
 import org.apache.twill.kafka.client.BrokerService;
+import org.apache.twill.kafka.client.ClusterMetadata;
 import org.apache.twill.kafka.client.FetchedMessage;
 import org.apache.twill.kafka.client.KafkaConsumer;
 import org.apache.twill.kafka.client.TopicPartition;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.nio.ByteBuffer;
 import java.nio.channels.ClosedByInterruptException;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
 import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
-import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * A {@link KafkaConsumer} implementation using the scala kafka api.
+ *
+ * Partitions of a consumption are grouped by their leader broker. Each group is served by one fetcher task running
+ * in a shared thread pool, which fetches from all partitions in the group with a single multi-partition fetch request.
  */
 final class SimpleKafkaConsumer implements KafkaConsumer {
 
   private static final Logger LOG = LoggerFactory.getLogger(SimpleKafkaConsumer.class);
-  private static final int FETCH_SIZE = 1024 * 1024;        // Use a default fetch size.
+  private static final int SOCKET_BUFFER_SIZE = 1024 * 1024; // Socket receive buffer size.
+  private static final int MIN_FETCH_SIZE = 64 * 1024;      // Fetch at least 64K per partition.
+  private static final int MAX_FETCH_SIZE = 16 * 1024 * 1024; // Fetch at most 16M per partition.
   private static final int SO_TIMEOUT = 5 * 1000;           // 5 seconds.
   private static final int MAX_WAIT = 1000;                 // 1 second.
+  private static final int MIN_BYTES = 0;                   // Respond immediately by default.
   private static final long CONSUMER_EXPIRE_MINUTES = 1L;   // close consumer if not used for 1 minute.
   private static final long CONSUMER_FAILURE_RETRY_INTERVAL = 2000L; // Sleep for 2 seconds if failure in consumer.
-  private static final long EMPTY_FETCH_WAIT = 500L;        // Sleep for 500 ms if no message is fetched.
+  private static final long EMPTY_FETCH_MIN_WAIT = 10L;     // Sleep for at least 10 ms if no message is fetched.
+  private static final long EMPTY_FETCH_MAX_WAIT = 500L;    // Sleep for at most 500 ms if no message is fetched.
+  private static final double FETCH_BYTES_WEIGHT = 0.25d;   // Weight of the latest fetch in average fetch bytes.
+  private static final int PREFETCH_LIMIT = 4;              // Maximum number of fetched message sets in flight.
 
   private final BrokerService brokerService;
   private final LoadingCache<BrokerInfo, SimpleConsumer> consumers;
   private final BlockingQueue<Cancellable> consumerCancels;
+  private final ExecutorService fetcherExecutor;
+  private final ScheduledExecutorService retryScheduler;
+  private final KafkaMetricsRegistry metrics;
 
-  SimpleKafkaConsumer(BrokerService brokerService) {
+  SimpleKafkaConsumer(BrokerService brokerService, KafkaMetricsRegistry metrics) {
     this.brokerService = brokerService;
+    this.metrics = metrics;
     this.consumers = CacheBuilder.newBuilder()
                                  .expireAfterAccess(CONSUMER_EXPIRE_MINUTES, TimeUnit.MINUTES)
                                  .removalListener(createRemovalListener())
                                  .build(createConsumerLoader());
     this.consumerCancels = new LinkedBlockingQueue<Cancellable>();
+    this.fetcherExecutor = Executors.newCachedThreadPool(Threads.createDaemonThreadFactory("kafka-consumer-%d"));
+    this.retryScheduler = Executors.newSingleThreadScheduledExecutor(
+      Threads.createDaemonThreadFactory("kafka-consumer-retry"));
   }
 
   @Override
@@ -104,6 +129,8 @@ final class SimpleKafkaConsumer implements KafkaConsumer {
     for (Cancellable cancel : cancels) {
       cancel.cancel();
     }
+    retryScheduler.shutdownNow();
+    fetcherExecutor.shutdownNow();
     consumers.invalidateAll();
     LOG.info("Kafka Consumer stopped");
   }
@@ -115,7 +142,8 @@ final class SimpleKafkaConsumer implements KafkaConsumer {
     return new CacheLoader<BrokerInfo, SimpleConsumer>() {
       @Override
       public SimpleConsumer load(BrokerInfo key) throws Exception {
-        return new SimpleConsumer(key.getHost(), key.getPort(), SO_TIMEOUT, FETCH_SIZE, "simple-kafka-client");
+        return new SimpleConsumer(key.getHost(), key.getPort(), SO_TIMEOUT,
+                                  SOCKET_BUFFER_SIZE, "simple-kafka-client");
       }
     };
   }
@@ -135,19 +163,45 @@ final class SimpleKafkaConsumer implements KafkaConsumer {
     };
   }
 
+  @Override
+  public ListenableFuture<Long> getOffset(final String topic, final int partition, final long time) {
+    return MoreExecutors.listeningDecorator(fetcherExecutor).submit(new Callable<Long>() {
+      @Override
+      public Long call() throws Exception {
+        return fetchOffset(new TopicPartition(topic, partition), time);
+      }
+    });
+  }
+
   /**
    * Retrieves the last offset before the given timestamp for a given topic partition.
    *
    * @return The last offset before the given timestamp or {@code 0} if failed to do so.
    */
   private long getLastOffset(TopicPartition topicPart, long timestamp) {
+    try {
+      long offset = fetchOffset(topicPart, timestamp);
+      LOG.debug("Offset {} fetched for {} with timestamp {}.", offset, topicPart, timestamp);
+      return offset;
+    } catch (Exception e) {
+      LOG.warn("{} Default offset to 0.", e.getMessage());
+      return 0L;
+    }
+  }
+
+  /**
+   * Requests the last offset before the given timestamp for a given topic partition from the leader broker.
+   *
+   * @return The last offset before the given timestamp or {@code 0} if the topic partition doesn't exist or
+   *         there is no offset before the given timestamp.
+   * @throws IllegalStateException If failed to get the offset from the leader broker.
+   */
+  private long fetchOffset(TopicPartition topicPart, long timestamp) {
     BrokerInfo brokerInfo = brokerService.getLeader(topicPart.getTopic(), topicPart.getPartition());
     SimpleConsumer consumer = brokerInfo == null ? null : consumers.getUnchecked(brokerInfo);
 
-    // If no broker, treat it as failure attempt.
     if (consumer == null) {
-      LOG.warn("Failed to talk to any broker. Default offset to 0 for {}", topicPart);
-      return 0L;
+      throw new IllegalStateException("Failed to talk to any broker for " + topicPart + ".");
     }
 
     // Fire offset request
@@ -163,16 +217,14 @@ final class SimpleKafkaConsumer implements KafkaConsumer {
     if (offsets == null || offsets.length <= 0) {
       short errorCode = response.errorCode(topicPart.getTopic(), topicPart.getPartition());
 
-      // If the topic partition doesn't exists, use offset 0 without logging error.
-      if (errorCode != ErrorMapping.UnknownTopicOrPartitionCode()) {
-        consumers.refresh(brokerInfo);
-        LOG.warn("Failed to fetch offset for {} with timestamp {}. Error: {}. Default offset to 0.",
-                 topicPart, timestamp, errorCode);
+      // If the topic partition doesn't exists or no offset is before the timestamp, use offset 0.
+      if (errorCode == ErrorMapping.NoError() || errorCode == ErrorMapping.UnknownTopicOrPartitionCode()) {
+        return 0L;
       }
-      return 0L;
+      consumers.refresh(brokerInfo);
+      throw new IllegalStateException(String.format("Failed to fetch offset for %s with timestamp %d. Error: %d.",
+                                                    topicPart, timestamp, errorCode));
     }
-
-    LOG.debug("Offset {} fetched for {} with timestamp {}.", offsets[0], topicPart, timestamp);
     return offsets[0];
   }
 
@@ -184,10 +236,24 @@ final class SimpleKafkaConsumer implements KafkaConsumer {
     // Map from TopicPartition to offset
     private final Map<TopicPartition, Long> requests;
     private final ThreadFactory threadFactory;
+    private int minBytes;
+    private int maxWait;
+    private long minEmptyWait;
+    private long maxEmptyWait;
+    private int minFetchSize;
+    private int maxFetchSize;
+    private int prefetchLimit;
 
     private SimplePreparer() {
       this.requests = Maps.newHashMap();
       this.threadFactory = Threads.createDaemonThreadFactory("message-callback-%d");
+      this.minBytes = MIN_BYTES;
+      this.maxWait = MAX_WAIT;
+      this.minEmptyWait = EMPTY_FETCH_MIN_WAIT;
+      this.maxEmptyWait = EMPTY_FETCH_MAX_WAIT;
+      this.minFetchSize = MIN_FETCH_SIZE;
+      this.maxFetchSize = MAX_FETCH_SIZE;
+      this.prefetchLimit = PREFETCH_LIMIT;
     }
 
     @Override
@@ -210,266 +276,745 @@ final class SimpleKafkaConsumer implements KafkaConsumer {
       return this;
     }
 
+    @Override
+    public Preparer setLongPoll(int minBytes, long maxWait, TimeUnit unit) {
+      long maxWaitMillis = unit.toMillis(maxWait);
+      Preconditions.checkArgument(minBytes >= 0, "Minimum bytes cannot be negative: %s", minBytes);
+      Preconditions.checkArgument(maxWaitMillis >= 0 && maxWaitMillis < SO_TIMEOUT,
+                                  "Maximum wait must be non-negative and less than %s ms: %s ms",
+                                  SO_TIMEOUT, maxWaitMillis);
+      this.minBytes = minBytes;
+      this.maxWait = (int) maxWaitMillis;
+      return this;
+    }
+
+    @Override
+    public Preparer setEmptyFetchBackoff(long minWait, long maxWait, TimeUnit unit) {
+      long minWaitMillis = unit.toMillis(minWait);
+      long maxWaitMillis = unit.toMillis(maxWait);
+      Preconditions.checkArgument(minWaitMillis >= 0 && minWaitMillis <= maxWaitMillis,
+                                  "Invalid backoff range: [%s, %s] ms", minWaitMillis, maxWaitMillis);
+      this.minEmptyWait = minWaitMillis;
+      this.maxEmptyWait = maxWaitMillis;
+      return this;
+    }
+
+    @Override
+    public Preparer setFetchSize(int minSize, int maxSize) {
+      Preconditions.checkArgument(minSize > 0 && minSize <= maxSize,
+                                  "Invalid fetch size range: [%s, %s]", minSize, maxSize);
+      this.minFetchSize = minSize;
+      this.maxFetchSize = maxSize;
+      return this;
+    }
+
+    @Override
+    public Preparer setPrefetchLimit(int limit) {
+      Preconditions.checkArgument(limit > 0, "Prefetch limit must be positive: %s", limit);
+      this.prefetchLimit = limit;
+      return this;
+    }
+
     @Override
     public Cancellable consume(MessageCallback callback) {
-      final ExecutorService executor = Executors.newSingleThreadExecutor(threadFactory);
-      final List<ConsumerThread> pollers = Lists.newArrayList();
+      FetchConfig fetchConfig = new FetchConfig(minBytes, maxWait, minEmptyWait, maxEmptyWait,
+                                                minFetchSize, maxFetchSize);
+      Consumption consumption = new Consumption(callback, fetchConfig, prefetchLimit,
+                                                Executors.newSingleThreadExecutor(threadFactory));
+      consumption.start(requests);
+      consumerCancels.add(consumption);
+      return consumption;
+    }
+  }
 
-      // When cancelling the consumption, first terminates all polling threads and then stop the executor service.
-      final AtomicBoolean cancelled = new AtomicBoolean();
-      Cancellable cancellable = new Cancellable() {
-        @Override
-        public void cancel() {
-          if (!cancelled.compareAndSet(false, true)) {
-            return;
-          }
-          consumerCancels.remove(this);
+  /**
+   * Represents a running consumption. It keeps one {@link BrokerFetcher} per leader broker and moves partitions
+   * between fetchers when the leader of a partition changes. Fetchers hand fetched message sets to a bounded
+   * queue, which is drained by a single thread that calls the {@link MessageCallback}. The queue bound limits
+   * how far fetching can run ahead of the callback.
+   */
+  private final class Consumption extends BrokerService.BrokerChangeListener implements Cancellable, Runnable {
+
+    private final ExecutorService callbackExecutor;
+    private final MessageCallback callback;
+    private final FetchConfig fetchConfig;
+    private final BlockingQueue<PrefetchedMessageSet> prefetchQueue;
+    private final AtomicBoolean cancelled;
+    private final Set<TopicPartition> topicPartitions;
+
+    // Both fields are guarded by this object.
+    private final Map<BrokerInfo, BrokerFetcher> fetchers;
+    private final Set<PartitionConsumer> leaderless;
+
+    private Cancellable cancelChangeListener;
+
+    private Consumption(MessageCallback callback, FetchConfig fetchConfig,
+                        int prefetchLimit, ExecutorService callbackExecutor) {
+      this.callbackExecutor = callbackExecutor;
+      this.callback = callback;
+      this.fetchConfig = fetchConfig;
+      this.prefetchQueue = new LinkedBlockingQueue<PrefetchedMessageSet>(prefetchLimit);
+      this.cancelled = new AtomicBoolean();
+      this.topicPartitions = Sets.newHashSet();
+      this.fetchers = Maps.newHashMap();
+      this.leaderless = Sets.newHashSet();
+    }
 
-          LOG.info("Requesting stop of all consumer threads.");
-          for (ConsumerThread consumerThread : pollers) {
-            consumerThread.terminate();
+    /**
+     * Starts fetching from the given partitions.
+     */
+    private void start(Map<TopicPartition, Long> requests) {
+      callbackExecutor.execute(new MessageDispatcher());
+      cancelChangeListener = brokerService.addChangeListener(this, retryScheduler);
+      topicPartitions.addAll(requests.keySet());
+      for (Map.Entry<TopicPartition, Long> entry : requests.entrySet()) {
+        assign(new PartitionConsumer(entry.getKey(), entry.getValue(), fetchConfig.getMinFetchSize()));
+      }
+    }
+
+    @Override
+    public void cancel() {
+      // When cancelling the consumption, first terminates all fetchers and then stop the executor service.
+      if (!cancelled.compareAndSet(false, true)) {
+        return;
+      }
+      consumerCancels.remove(this);
+      cancelChangeListener.cancel();
+
+      List<BrokerFetcher> stopping;
+      synchronized (this) {
+        stopping = ImmutableList.copyOf(fetchers.values());
+        fetchers.clear();
+        leaderless.clear();
+      }
+
+      LOG.info("Requesting stop of all consumer fetchers.");
+      for (BrokerFetcher fetcher : stopping) {
+        fetcher.terminate();
+      }
+      LOG.info("Wait for all consumer fetchers to stop.");
+      for (BrokerFetcher fetcher : stopping) {
+        try {
+          fetcher.awaitTermination();
+        } catch (InterruptedException e) {
+          LOG.warn("Interrupted exception while waiting for fetcher to complete.", e);
+        }
+      }
+      LOG.info("All consumer fetchers stopped.");
+
+      for (TopicPartition topicPartition : topicPartitions) {
+        metrics.removePosition(this, topicPartition);
+      }
+
+      // Discard prefetched messages and tell the dispatcher to finish. A fetcher may still be running if the wait
+      // above was interrupted and can refill the queue after it is cleared, hence retry until there is room.
+      do {
+        prefetchQueue.clear();
+      } while (!prefetchQueue.offer(PrefetchedMessageSet.FINISHED));
+
+      // Use shutdown so that the dispatcher still has chance to run, which is important for finished to get
+      // called.
+      callbackExecutor.shutdown();
+    }
+
+    @Override
+    public void changed(BrokerService brokerService, ClusterMetadata.Change change) {
+      // Leadership might have changed. Ask every fetcher to verify the leader of partitions it owns.
+      if (!change.getChangedLeaders().isEmpty() || !change.getRemovedBrokers().isEmpty()) {
+        synchronized (this) {
+          for (BrokerFetcher fetcher : fetchers.values()) {
+            fetcher.checkLeaders(change);
           }
-          LOG.info("Wait for all consumer threads to stop.");
-          for (ConsumerThread consumerThread : pollers) {
-            try {
-              consumerThread.join();
-            } catch (InterruptedException e) {
-              LOG.warn("Interrupted exception while waiting for thread to complete.", e);
-            }
+        }
+      }
+      run();
+    }
+
+    /**
+     * Retries assignment of partitions that don't have a leader.
+     */
+    @Override
+    public void run() {
+      List<PartitionConsumer> partitions;
+      synchronized (this) {
+        partitions = ImmutableList.copyOf(leaderless);
+        leaderless.clear();
+      }
+      for (PartitionConsumer partition : partitions) {
+        assign(partition);
+      }
+    }
+
+    /**
+     * Hands the given partition to the fetcher of the current leader broker, creating a new fetcher if needed.
+     */
+    private void assign(PartitionConsumer partition) {
+      if (cancelled.get()) {
+        return;
+      }
+      TopicPartition topicPart = partition.getTopicPartition();
+      BrokerInfo leader = brokerService.getLeader(topicPart.getTopic(), topicPart.getPartition());
+
+      synchronized (this) {
+        if (cancelled.get()) {
+          return;
+        }
+        if (leader == null) {
+          LOG.debug("No leader for topic partition {}.", topicPart);
+          if (leaderless.isEmpty()) {
+            retryScheduler.schedule(this, CONSUMER_FAILURE_RETRY_INTERVAL, TimeUnit.MILLISECONDS);
           }
-          LOG.info("All consumer threads stopped.");
-          // Use shutdown so that submitted task still has chance to execute, which is important for finished to get
-          // called.
-          executor.shutdown();
+          leaderless.add(partition);
+          return;
         }
-      };
 
-      // Wrap the callback with a single thread executor.
-      MessageCallback messageCallback = wrapCallback(callback, executor, cancellable);
+        BrokerFetcher fetcher = fetchers.get(leader);
+        if (fetcher == null) {
+          fetcher = new BrokerFetcher(this, leader);
+          fetchers.put(leader, fetcher);
+          fetcherExecutor.execute(fetcher);
+        }
+        fetcher.add(partition);
+      }
+    }
 
-      // Starts threads for polling new messages.
-      for (Map.Entry<TopicPartition, Long> entry : requests.entrySet()) {
-        ConsumerThread consumerThread = new ConsumerThread(entry.getKey(), entry.getValue(), messageCallback);
-        consumerThread.setDaemon(true);
-        consumerThread.start();
-        pollers.add(consumerThread);
+    /**
+     * Removes the given fetcher if it has no partition to fetch.
+     *
+     * @return {@code true} if the fetcher is removed, {@code false} otherwise.
+     */
+    private synchronized boolean removeIfIdle(BrokerFetcher fetcher) {
+      if (!fetcher.hasPending()) {
+        fetchers.remove(fetcher.getBroker());
+        return true;
       }
+      return false;
+    }
 
-      consumerCancels.add(cancellable);
-      return cancellable;
+    private FetchConfig getFetchConfig() {
+      return fetchConfig;
     }
 
     /**
-     * Wrap a given MessageCallback by a executor so that calls are executed in the given executor.
-     * By running the calls through the executor, it also block and wait for the task being completed so that
-     * it can block the poller thread depending on the rate of processing that the callback can handle.
+     * Puts a fetched message set into the prefetch queue, blocking if the queue is full.
      */
-    private MessageCallback wrapCallback(final MessageCallback callback,
-                                         final ExecutorService executor, final Cancellable cancellable) {
-      final AtomicBoolean stopped = new AtomicBoolean();
-      return new MessageCallback() {
-        @Override
-        public void onReceived(final Iterator<FetchedMessage> messages) {
-          if (stopped.get()) {
-            return;
-          }
-          Futures.getUnchecked(executor.submit(new Runnable() {
-            @Override
-            public void run() {
-              if (stopped.get()) {
-                return;
-              }
-              callback.onReceived(messages);
+    private void enqueue(PrefetchedMessageSet messageSet) throws InterruptedException {
+      prefetchQueue.put(messageSet);
+    }
+
+    /**
+     * Calls the {@link MessageCallback} with message sets taken from the prefetch queue, until the consumption
+     * is cancelled.
+     */
+    private final class MessageDispatcher implements Runnable {
+
+      @Override
+      public void run() {
+        try {
+          PrefetchedMessageSet messageSet = prefetchQueue.take();
+          while (messageSet != PrefetchedMessageSet.FINISHED) {
+            // Skip message sets that were fetched before a retry was requested for the partition.
+            if (!cancelled.get() && messageSet.isCurrent()) {
+              messageSet.invokeCallback(callback);
             }
-          }));
+            messageSet = prefetchQueue.take();
+          }
+        } catch (InterruptedException e) {
+          LOG.warn("Message dispatcher interrupted.", e);
         }
 
-        @Override
-        public void finished() {
-          // Make sure finished only get called once.
-          if (!stopped.compareAndSet(false, true)) {
-            return;
-          }
-          Futures.getUnchecked(executor.submit(new Runnable() {
-            @Override
-            public void run() {
-              // When finished is called, also cancel the consumption from all polling thread.
-              callback.finished();
-              cancellable.cancel();
-            }
-          }));
+        // When the consumption is done, call the callback finished method.
+        try {
+          callback.finished();
+        } catch (Throwable t) {
+          LOG.error("Exception thrown from MessageCallback.finished()", t);
         }
-      };
+      }
     }
   }
 
   /**
-   * The thread for polling kafka.
+   * Fetches messages from all partitions of a consumption that are led by the same broker, using one
+   * multi-partition fetch request per round.
    */
-  private final class ConsumerThread extends Thread {
+  private final class BrokerFetcher implements Runnable {
 
-    private final TopicPartition topicPart;
-    private final long startOffset;
-    private final MessageCallback callback;
-    private final BasicFetchedMessage fetchedMessage;
+    private final Consumption consumption;
+    private final BrokerInfo broker;
+    private final Queue<PartitionConsumer> pending;
+    private final List<PartitionConsumer> partitions;
+    private final AtomicBoolean leaderCheck;
+    private final CountDownLatch terminated;
     private volatile boolean running;
+    private Thread thread;
+    private long emptyWait;
 
-    private ConsumerThread(TopicPartition topicPart, long startOffset, MessageCallback callback) {
-      super(String.format("Kafka-Consumer-%s-%d", topicPart.getTopic(), topicPart.getPartition()));
-      this.topicPart = topicPart;
-      this.startOffset = startOffset;
-      this.callback = callback;
+    private BrokerFetcher(Consumption consumption, BrokerInfo broker) {
+      this.consumption = consumption;
+      this.broker = broker;
+      this.pending = new ConcurrentLinkedQueue<PartitionConsumer>();
+      this.partitions = Lists.newArrayList();
+      this.leaderCheck = new AtomicBoolean();
+      this.terminated = new CountDownLatch(1);
       this.running = true;
-      this.fetchedMessage = new BasicFetchedMessage(topicPart);
     }
 
     @Override
     public void run() {
-      final AtomicLong offset = new AtomicLong(startOffset);
+      synchronized (this) {
+        if (!running) {
+          terminated.countDown();
+          return;
+        }
+        thread = Thread.currentThread();
+      }
 
-      Map.Entry<BrokerInfo, SimpleConsumer> consumerEntry = null;
+      try {
+        while (running) {
+          // Pick up newly assigned partitions.
+          PartitionConsumer partition = pending.poll();
+          while (partition != null) {
+            partitions.add(partition);
+            partition = pending.poll();
+          }
 
-      while (running) {
-        if (consumerEntry == null && (consumerEntry = getConsumerEntry()) == null) {
-          LOG.debug("No leader for topic partition {}.", topicPart);
-          try {
-            TimeUnit.MILLISECONDS.sleep(CONSUMER_FAILURE_RETRY_INTERVAL);
-          } catch (InterruptedException e) {
-            // OK to ignore this, as interrupt would be caused by thread termination.
-            LOG.trace("Consumer sleep interrupted.", e);
+          if (leaderCheck.getAndSet(false)) {
+            releaseMovedPartitions();
           }
-          continue;
+          if (partitions.isEmpty()) {
+            if (consumption.removeIfIdle(this)) {
+              break;
+            }
+            continue;
+          }
+
+          fetchAndInvoke();
+        }
+      } finally {
+        synchronized (this) {
+          thread = null;
+          // Clear the interrupt flag so that the pool thread is reusable.
+          Thread.interrupted();
+        }
+        terminated.countDown();
+      }
+    }
+
+    private BrokerInfo getBroker() {
+      return broker;
+    }
+
+    private void add(PartitionConsumer partition) {
+      pending.add(partition);
+    }
+
+    private boolean hasPending() {
+      return !pending.isEmpty();
+    }
+
+    /**
+     * Requests verification of the leader of all partitions owned by this fetcher in the next round.
+     */
+    private void checkLeaders(ClusterMetadata.Change change) {
+      leaderCheck.set(true);
+
+      // If the broker is gone, close the consumer so that a fetch blocked on it fails fast instead of waiting
+      // for the socket timeout.
+      if (change.getRemovedBrokers().containsValue(broker)
+        && !change.getCurrent().getBrokers().containsValue(broker)) {
+        LOG.info("Broker {} is no longer available. Closing consumer.", broker);
+        consumers.invalidate(broker);
+      }
+    }
+
+    private void terminate() {
+      LOG.info("Terminate requested for fetcher of {}", broker);
+      synchronized (this) {
+        running = false;
+        if (thread != null) {
+          thread.interrupt();
         }
+      }
+    }
 
+    private void awaitTermination() throws InterruptedException {
+      terminated.await();
+    }
+
+    /**
+     * Hands partitions that are no longer led by the broker of this fetcher back to the consumption.
+     */
+    private void releaseMovedPartitions() {
+      Iterator<PartitionConsumer> iterator = partitions.iterator();
+      while (iterator.hasNext()) {
+        PartitionConsumer partition = iterator.next();
+        TopicPartition topicPart = partition.getTopicPartition();
+        if (!broker.equals(brokerService.getLeader(topicPart.getTopic(), topicPart.getPartition()))) {
+          LOG.debug("Leader changed for {}. Leaving broker {}.", topicPart, broker);
+          iterator.remove();
+          consumption.assign(partition);
+        }
+      }
+    }
+
+    /**
+     * Performs one round of fetch for all owned partitions and calls the message callback with the results.
+     */
+    private void fetchAndInvoke() {
+      SimpleConsumer consumer = consumers.getUnchecked(broker);
+      FetchConfig fetchConfig = consumption.getFetchConfig();
+      try {
         // If offset < 0, meaning it's special offset value that needs to fetch either the earliest or latest offset
         // from kafak server.
-        long off = offset.get();
-        if (off < 0) {
-          offset.set(getLastOffset(topicPart, off));
+        FetchRequestBuilder builder = new FetchRequestBuilder()
+          .clientId(consumer.clientId())
+          .minBytes(fetchConfig.getMinBytes())
+          .maxWait(fetchConfig.getMaxWait());
+        for (PartitionConsumer partition : partitions) {
+          TopicPartition topicPart = partition.getTopicPartition();
+          long offset = partition.prepareFetch();
+          if (offset < 0) {
+            offset = getLastOffset(topicPart, offset);
+            partition.updateFetchOffset(offset);
+          }
+          builder.addFetch(topicPart.getTopic(), topicPart.getPartition(), offset, partition.getFetchSize());
         }
 
-        SimpleConsumer consumer = consumerEntry.getValue();
-
         // Fire a fetch message request
-        try {
-          FetchResponse response = fetchMessages(consumer, offset.get());
+        long fetchStart = System.currentTimeMillis();
+        FetchResponse response = consumer.fetch(builder.build());
+        long fetchTime = System.currentTimeMillis() - fetchStart;
+        long fetchedBytes = 0;
+
+        boolean empty = true;
+        for (PartitionConsumer partition : partitions) {
+          TopicPartition topicPart = partition.getTopicPartition();
 
-          // Failure response, set consumer entry to null and let next round of loop to handle it.
+          // Failure response, let the next round to verify the leader of the partition.
           if (response.hasError()) {
             short errorCode = response.errorCode(topicPart.getTopic(), topicPart.getPartition());
-            LOG.info("Failed to fetch message on {}. Error: {}", topicPart, errorCode);
-            // If it is out of range error, reset to earliest offset
-            if (errorCode == ErrorMapping.OffsetOutOfRangeCode()) {
-              offset.set(kafka.api.OffsetRequest.EarliestTime());
+            if (errorCode != ErrorMapping.NoError()) {
+              LOG.info("Failed to fetch message on {}. Error: {}", topicPart, errorCode);
+              metrics.fetchFailed();
+              // If it is out of range error, reset to earliest offset
+              if (errorCode == ErrorMapping.OffsetOutOfRangeCode()) {
+                partition.updateFetchOffset(kafka.api.OffsetRequest.EarliestTime());
+              }
+              leaderCheck.set(true);
+              continue;
             }
-
-            consumers.refresh(consumerEntry.getKey());
-            consumerEntry = null;
-            continue;
           }
 
-          ByteBufferMessageSet messages = response.messageSet(topicPart.getTopic(), topicPart.getPartition());
-          if (sleepIfEmpty(messages)) {
+          ByteBuffer buffer = response.messageSet(topicPart.getTopic(), topicPart.getPartition()).getBuffer();
+          BasicFetchedMessageSet messages = partition.createMessageSet(buffer);
+          partition.updateFetchSize(buffer, messages.getValidBytes(), fetchConfig);
+          metrics.updatePosition(consumption, topicPart, messages.getNextOffset(),
+                                 response.highWatermark(topicPart.getTopic(), topicPart.getPartition()));
+          if (messages.getValidBytes() == 0) {
             continue;
           }
+          empty = false;
+          fetchedBytes += messages.getValidBytes();
 
-          // Call the callback
-          invokeCallback(messages, offset);
-        } catch (Throwable t) {
-          if (running || !(t instanceof ClosedByInterruptException)) {
-            // Only log if it is still running, otherwise, it just the interrupt caused by the stop.
-            LOG.info("Exception when fetching message on {}.", topicPart, t);
+          // Hand the messages to the callback dispatcher. It blocks if the dispatcher falls behind.
+          PrefetchedMessageSet messageSet = partition.advance(messages);
+          if (messageSet != null) {
+            consumption.enqueue(messageSet);
           }
-          consumers.refresh(consumerEntry.getKey());
-          consumerEntry = null;
         }
+        metrics.fetched(fetchTime, fetchedBytes);
+
+        if (empty) {
+          sleepIfEmpty(fetchConfig, System.currentTimeMillis() - fetchStart);
+        } else {
+          emptyWait = 0L;
+        }
+      } catch (InterruptedException e) {
+        // It's interrupted from stop while waiting for the dispatcher, ok to ignore.
+        LOG.trace("Fetcher of {} interrupted.", broker, e);
+      } catch (Throwable t) {
+        if (running || !(t instanceof ClosedByInterruptException)) {
+          // Only log if it is still running, otherwise, it just the interrupt caused by the stop.
+          LOG.info("Exception when fetching message from {}.", broker, t);
+          metrics.fetchFailed();
+        }
+        consumers.refresh(broker);
+        leaderCheck.set(true);
       }
+    }
 
-      // When the thread is done, call the callback finished method.
+    /**
+     * Sleeps after a round that fetched no message. The wait time doubles for every consecutive empty round,
+     * and the time already spent in the fetch request is deducted from it.
+     *
+     * @param fetchConfig Configuration that provides the backoff range.
+     * @param fetchTime Time in milliseconds spent in the fetch request.
+     */
+    private void sleepIfEmpty(FetchConfig fetchConfig, long fetchTime) {
+      emptyWait = (emptyWait == 0L) ? fetchConfig.getMinEmptyWait()
+                                    : Math.min(emptyWait * 2, fetchConfig.getMaxEmptyWait());
+      long sleepTime = emptyWait - fetchTime;
+      if (sleepTime <= 0) {
+        return;
+      }
+      LOG.trace("No message fetched. Sleep for {} ms before next fetch.", sleepTime);
       try {
-        callback.finished();
-      } catch (Throwable t) {
-        LOG.error("Exception thrown from MessageCallback.finished({})", running, t);
+        TimeUnit.MILLISECONDS.sleep(sleepTime);
+      } catch (InterruptedException e) {
+        // It's interrupted from stop, ok to ignore.
       }
     }
+  }
+
+  /**
+   * Fetch settings of a consumption.
+   */
+  private static final class FetchConfig {
+
+    private final int minBytes;
+    private final int maxWait;
+    private final long minEmptyWait;
+    private final long maxEmptyWait;
+    private final int minFetchSize;
+    private final int maxFetchSize;
+
+    private FetchConfig(int minBytes, int maxWait, long minEmptyWait, long maxEmptyWait,
+                        int minFetchSize, int maxFetchSize) {
+      this.minBytes = minBytes;
+      this.maxWait = maxWait;
+      this.minEmptyWait = minEmptyWait;
+      this.maxEmptyWait = maxEmptyWait;
+      this.minFetchSize = minFetchSize;
+      this.maxFetchSize = maxFetchSize;
+    }
+
+    private int getMinBytes() {
+      return minBytes;
+    }
 
-    public void terminate() {
-      LOG.info("Terminate requested {}", getName());
-      running = false;
-      interrupt();
+    private int getMaxWait() {
+      return maxWait;
+    }
+
+    private long getMinEmptyWait() {
+      return minEmptyWait;
+    }
+
+    private long getMaxEmptyWait() {
+      return maxEmptyWait;
+    }
+
+    private int getMinFetchSize() {
+      return minFetchSize;
+    }
+
+    private int getMaxFetchSize() {
+      return maxFetchSize;
+    }
+  }
+
+  /**
+   * Consumption state of a single topic partition. It is owned by at most one {@link BrokerFetcher} at a time.
+   * The fetch offset is advanced by the fetcher and reset by the dispatcher when the callback fails, hence
+   * it is guarded by this object. Every reset starts a new epoch, which invalidates message sets that are
+   * fetched from the previous epoch.
+   */
+  private static final class PartitionConsumer {
+
+    private final TopicPartition topicPart;
+    private final BasicFetchedMessage fetchedMessage;
+    private int fetchSize;
+    private double avgFetchBytes;
+
+    // Fields guarded by this object.
+    private long offset;
+    private int epoch;
+    private int fetchEpoch;
+
+    private PartitionConsumer(TopicPartition topicPart, long startOffset, int fetchSize) {
+      this.topicPart = topicPart;
+      this.offset = startOffset;
+      this.fetchedMessage = new BasicFetchedMessage(topicPart);
+      this.fetchSize = fetchSize;
+    }
+
+    private TopicPartition getTopicPartition() {
+      return topicPart;
     }
 
     /**
-     * Gets the leader broker and the associated SimpleConsumer for the current topic and partition.
+     * Marks the start of a fetch.
+     *
+     * @return The offset to fetch from.
      */
-    private Map.Entry<BrokerInfo, SimpleConsumer> getConsumerEntry() {
-      BrokerInfo leader = brokerService.getLeader(topicPart.getTopic(), topicPart.getPartition());
-      return leader == null ? null : Maps.immutableEntry(leader, consumers.getUnchecked(leader));
+    private synchronized long prepareFetch() {
+      fetchEpoch = epoch;
+      return offset;
     }
 
     /**
-     * Makes a call to kafka to fetch messages.
+     * Updates the fetch offset, unless it has been reset since the last {@link #prepareFetch()}.
      */
-    private FetchResponse fetchMessages(SimpleConsumer consumer, long offset) {
-      FetchRequest request = new FetchRequestBuilder()
-        .clientId(consumer.clientId())
-        .addFetch(topicPart.getTopic(), topicPart.getPartition(), offset, FETCH_SIZE)
-        .maxWait(MAX_WAIT)
-        .build();
-      return consumer.fetch(request);
+    private synchronized void updateFetchOffset(long offset) {
+      if (fetchEpoch == epoch) {
+        this.offset = offset;
+      }
     }
 
     /**
-     * Sleeps if the message set is empty.
-     * @return {@code true} if it is empty, {@code false} otherwise.
+     * Creates a {@link BasicFetchedMessageSet} from the message set buffer fetched from the current fetch offset.
      */
-    private boolean sleepIfEmpty(ByteBufferMessageSet messages) {
-      if (Iterables.isEmpty(messages)) {
-        LOG.trace("No message fetched. Sleep for {} ms before next fetch.", EMPTY_FETCH_WAIT);
-        try {
-          TimeUnit.MILLISECONDS.sleep(EMPTY_FETCH_WAIT);
-        } catch (InterruptedException e) {
-          // It's interrupted from stop, ok to ignore.
+    private synchronized BasicFetchedMessageSet createMessageSet(ByteBuffer buffer) {
+      return BasicFetchedMessageSet.create(topicPart, buffer, offset);
+    }
+
+    /**
+     * Advances the fetch offset past the given message set.
+     *
+     * @return A {@link PrefetchedMessageSet} for the callback or {@code null} if the fetch offset has been reset
+     *         since the last {@link #prepareFetch()}.
+     */
+    private synchronized PrefetchedMessageSet advance(BasicFetchedMessageSet messages) {
+      if (fetchEpoch != epoch) {
+        return null;
+      }
+      PrefetchedMessageSet messageSet = new PrefetchedMessageSet(this, messages, offset, epoch);
+      offset = messages.getNextOffset();
+      return messageSet;
+    }
+
+    /**
+     * Resets the fetch offset so that messages are fetched again starting from the given offset.
+     */
+    private synchronized void reset(long offset, int epoch) {
+      if (this.epoch == epoch) {
+        this.epoch++;
+        this.offset = offset;
+      }
+    }
+
+    private synchronized boolean isCurrent(int epoch) {
+      return this.epoch == epoch;
+    }
+
+    private int getFetchSize() {
+      return fetchSize;
+    }
+
+    /**
+     * Adjusts the fetch size based on the result of the last fetch. The fetch size doubles when the response
+     * fills up the fetch buffer, and halves when the average bytes fetched drop below a quarter of it. If the
+     * buffer is too small to hold a single message, it grows to fit the message.
+     *
+     * @param buffer The message set buffer fetched.
+     * @param validBytes Number of bytes of complete messages in the message set.
+     * @param fetchConfig Configuration that provides the fetch size range.
+     */
+    private void updateFetchSize(ByteBuffer buffer, int validBytes, FetchConfig fetchConfig) {
+      int oldSize = fetchSize;
+      int sizeInBytes = buffer.remaining();
+
+      if (validBytes == 0 && sizeInBytes >= kafka.message.MessageSet.LogOverhead()) {
+        // The fetch buffer only contains a partial message. Grow the fetch size to fit the whole message.
+        int messageSize = buffer.getInt(buffer.position() + kafka.message.MessageSet.OffsetLength())
+                            + kafka.message.MessageSet.LogOverhead();
+        fetchSize = (int) Math.min(fetchConfig.getMaxFetchSize(), Math.max(fetchSize * 2L, messageSize));
+        if (messageSize > fetchSize) {
+          LOG.warn("Message of size {} on {} exceeds maximum fetch size {}.",
+                   messageSize, topicPart, fetchConfig.getMaxFetchSize());
+        }
+      } else {
+        avgFetchBytes = avgFetchBytes * (1 - FETCH_BYTES_WEIGHT) + validBytes * FETCH_BYTES_WEIGHT;
+        if (sizeInBytes >= fetchSize) {
+          fetchSize = (int) Math.min(fetchConfig.getMaxFetchSize(), fetchSize * 2L);
+        } else if (avgFetchBytes * 4 < fetchSize) {
+          fetchSize = Math.max(fetchConfig.getMinFetchSize(), fetchSize / 2);
         }
-        return true;
       }
-      return false;
+
+      if (oldSize != fetchSize) {
+        LOG.debug("Fetch size changed from {} to {} for {}", oldSize, fetchSize, topicPart);
+      }
     }
 
     /**
-     * Calls the message callback with the given message set.
+     * Calls the message callback with the given message set. If the callback fails, messages will be fetched
+     * again from the start of the message set.
      */
-    private void invokeCallback(ByteBufferMessageSet messages, AtomicLong offset) {
-      long savedOffset = offset.get();
+    private void invokeCallback(MessageCallback callback, PrefetchedMessageSet messageSet) {
+      BasicFetchedMessageSet messages = messageSet.getMessages();
       try {
-        callback.onReceived(createFetchedMessages(messages, offset));
+        if (callback instanceof MessageSetCallback && !messages.isCompressed()) {
+          ((MessageSetCallback) callback).onReceived(messages);
+        } else {
+          callback.onReceived(createFetchedMessages(messages, messageSet.getStartOffset()));
+        }
       } catch (Throwable t) {
-        LOG.error("Callback throws exception. Retry from offset {} for {}", startOffset, topicPart, t);
-        offset.set(savedOffset);
+        LOG.error("Callback throws exception. Retry from offset {} for {}",
+                  messageSet.getStartOffset(), topicPart, t);
+        reset(messageSet.getStartOffset(), messageSet.getEpoch());
       }
     }
 
     /**
-     * Creates an Iterator of FetchedMessage based on the given message set. The iterator would also updates
-     * the offset while iterating.
+     * Creates an Iterator of FetchedMessage based on the given message set. Messages before the given
+     * start offset are skipped.
      */
-    private Iterator<FetchedMessage> createFetchedMessages(ByteBufferMessageSet messageSet, final AtomicLong offset) {
-      final Iterator<MessageAndOffset> messages = messageSet.iterator();
+    private Iterator<FetchedMessage> createFetchedMessages(final BasicFetchedMessageSet messageSet,
+                                                          final long startOffset) {
+      if (messageSet.isCompressed()) {
+        return createDecompressedMessages(messageSet, startOffset);
+      }
+
+      // Uncompressed messages are read directly from the message set buffer through the index. The same payload
+      // buffer is reused for every message.
+      final ByteBuffer payload = messageSet.getRawBuffer().duplicate();
+      return new AbstractIterator<FetchedMessage>() {
+        private int index;
+
+        @Override
+        protected FetchedMessage computeNext() {
+          if (index >= messageSet.size()) {
+            return endOfData();
+          }
+          int payloadLength = messageSet.getPayloadLength(index);
+          if (payloadLength < 0) {
+            fetchedMessage.setPayload(null);
+          } else {
+            int payloadPosition = messageSet.getPayloadPosition(index);
+            payload.clear();
+            payload.position(payloadPosition);
+            payload.limit(payloadPosition + payloadLength);
+            fetchedMessage.setPayload(payload);
+          }
+          fetchedMessage.setNextOffset(messageSet.getOffset(index) + 1);
+          index++;
+          return fetchedMessage;
+        }
+      };
+    }
+
+    /**
+     * Creates an Iterator of FetchedMessage by decompressing messages in the given message set through the
+     * kafka api.
+     */
+    private Iterator<FetchedMessage> createDecompressedMessages(BasicFetchedMessageSet messageSet,
+                                                                final long startOffset) {
+      final Iterator<MessageAndOffset> messages = new ByteBufferMessageSet(messageSet.getRawBuffer()).iterator();
       return new AbstractIterator<FetchedMessage>() {
         @Override
         protected FetchedMessage computeNext() {
           while (messages.hasNext()) {
             MessageAndOffset message = messages.next();
             long msgOffset = message.offset();
-            if (msgOffset < offset.get()) {
+            if (msgOffset < startOffset) {
               LOG.trace("Received old offset {}, expecting {} on {}. Message Ignored.",
-                        msgOffset, offset.get(), topicPart);
+                        msgOffset, startOffset, topicPart);
               continue;
             }
 
-            offset.set(message.nextOffset());
             fetchedMessage.setPayload(message.message().payload());
-            fetchedMessage.setNextOffset(offset.get());
+            fetchedMessage.setNextOffset(message.nextOffset());
 
             return fetchedMessage;
           }
@@ -478,4 +1023,48 @@ final class SimpleKafkaConsumer implements KafkaConsumer {
       };
     }
   }
+
+  /**
+   * A message set fetched from a partition, waiting in the prefetch queue to be delivered to the callback.
+   */
+  private static final class PrefetchedMessageSet {
+
+    /**
+     * Special instance to signal the end of consumption.
+     */
+    private static final PrefetchedMessageSet FINISHED = new PrefetchedMessageSet(null, null, -1L, -1);
+
+    private final PartitionConsumer partition;
+    private final BasicFetchedMessageSet messages;
+    private final long startOffset;
+    private final int epoch;
+
+    private PrefetchedMessageSet(PartitionConsumer partition, BasicFetchedMessageSet messages,
+                                 long startOffset, int epoch) {
+      this.partition = partition;
+      this.messages = messages;
+      this.startOffset = startOffset;
+      this.epoch = epoch;
+    }
+
+    private BasicFetchedMessageSet getMessages() {
+      return messages;
+    }
+
+    private long getStartOffset() {
+      return startOffset;
+    }
+
+    private int getEpoch() {
+      return epoch;
+    }
+
+    private boolean isCurrent() {
+      return partition.isCurrent(epoch);
+    }
+
+    private void invokeCallback(MessageCallback callback) {
+      partition.invokeCallback(callback, this);
+    }
+  }
 }
@@ -27,6 +27,7 @@ import kafka.producer.ProducerConfig;
 import org.apache.twill.common.Cancellable;
 import org.apache.twill.common.Threads;
 import org.apache.twill.kafka.client.BrokerService;
+import org.apache.twill.kafka.client.ClusterMetadata;
 import org.apache.twill.kafka.client.Compression;
 import org.apache.twill.kafka.client.KafkaPublisher;
 import org.slf4j.Logger;
@@ -53,13 +54,16 @@ final class SimpleKafkaPublisher implements KafkaPublisher {
   private final Compression compression;
   private final AtomicReference<Producer<Integer, ByteBuffer>> producer;
   private final AtomicBoolean listenerCancelled;
+  private final KafkaMetricsRegistry metrics;
 
-  public SimpleKafkaPublisher(BrokerService brokerService, Ack ack, Compression compression) {
+  public SimpleKafkaPublisher(BrokerService brokerService, Ack ack, Compression compression,
+                              KafkaMetricsRegistry metrics) {
     this.brokerService = brokerService;
     this.ack = ack;
     this.compression = compression;
     this.producer = new AtomicReference<Producer<Integer, ByteBuffer>>();
     this.listenerCancelled = new AtomicBoolean(false);
+    this.metrics = metrics;
   }
 
   /**
@@ -98,16 +102,30 @@ final class SimpleKafkaPublisher implements KafkaPublisher {
   private final class SimplePreparer implements Preparer {
 
     private final String topic;
-    private final List<KeyedMessage<Integer, ByteBuffer>> messages;
+    private final MessageBatch messages;
+    private final List<KeyedMessage<Integer, ByteBuffer>> keyedMessages;
 
     private SimplePreparer(String topic) {
       this.topic = topic;
-      this.messages = Lists.newLinkedList();
+      this.messages = new MessageBatch();
+      this.keyedMessages = Lists.newArrayList();
     }
 
     @Override
     public Preparer add(ByteBuffer message, Object partitionKey) {
-      messages.add(new KeyedMessage<Integer, ByteBuffer>(topic, Math.abs(partitionKey.hashCode()), message));
+      messages.add(message, MessageBatch.partitionKey(partitionKey));
+      return this;
+    }
+
+    @Override
+    public Preparer add(ByteBuffer message, int partitionKey) {
+      messages.add(message, MessageBatch.partitionKey(partitionKey));
+      return this;
+    }
+
+    @Override
+    public Preparer addAll(Iterable<ByteBuffer> messages, Object partitionKey) {
+      this.messages.addAll(messages, MessageBatch.partitionKey(partitionKey));
       return this;
     }
 
@@ -117,16 +135,41 @@ final class SimpleKafkaPublisher implements KafkaPublisher {
         int size = messages.size();
         Producer<Integer, ByteBuffer> kafkaProducer = producer.get();
         if (kafkaProducer == null) {
+          metrics.publishFailed();
           return Futures.immediateFailedFuture(new IllegalStateException("No kafka producer available."));
         }
-        kafkaProducer.send(messages);
+        long bytes = 0;
+        for (int i = 0; i < size; i++) {
+          bytes += messages.getMessage(i).remaining();
+        }
+        long startTime = System.currentTimeMillis();
+        kafkaProducer.send(toKeyedMessages());
+        metrics.published(System.currentTimeMillis() - startTime, size, bytes);
         return Futures.immediateFuture(size);
       } catch (Exception e) {
+        metrics.publishFailed();
         return Futures.immediateFailedFuture(e);
       } finally {
         messages.clear();
+        keyedMessages.clear();
       }
     }
+
+    /**
+     * Converts the batch into the form required by the Kafka producer. The boxed key is shared by consecutive
+     * messages of the same partition key.
+     */
+    private List<KeyedMessage<Integer, ByteBuffer>> toKeyedMessages() {
+      Integer key = null;
+      for (int i = 0; i < messages.size(); i++) {
+        int partitionKey = messages.getPartitionKey(i);
+        if (key == null || key != partitionKey) {
+          key = partitionKey;
+        }
+        keyedMessages.add(new KeyedMessage<Integer, ByteBuffer>(topic, key, messages.getMessage(i)));
+      }
+      return keyedMessages;
+    }
   }
 
   /**
@@ -152,6 +195,14 @@ final class SimpleKafkaPublisher implements KafkaPublisher {
       this.compression = compression;
     }
 
+    @Override
+    public void changed(BrokerService brokerService, ClusterMetadata.Change change) {
+      // Only the broker list matters to the producer.
+      if (change.isBrokersChanged()) {
+        changed(brokerService);
+      }
+    }
+
     @Override
     public void changed(BrokerService brokerService) {
       if (listenerCancelled.get()) {
@@ -18,28 +18,23 @@
 package org.apache.twill.internal.kafka.client;
 
 import com.google.common.base.Charsets;
-import com.google.common.base.Function;
-import com.google.common.base.Joiner;
 import com.google.common.base.Preconditions;
-import com.google.common.base.Supplier;
-import com.google.common.base.Suppliers;
-import com.google.common.base.Throwables;
-import com.google.common.cache.CacheBuilder;
-import com.google.common.cache.CacheLoader;
-import com.google.common.cache.LoadingCache;
-import com.google.common.collect.ImmutableList;
-import com.google.common.collect.Iterables;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Iterators;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
 import com.google.common.collect.Sets;
-import com.google.common.primitives.Ints;
 import com.google.common.util.concurrent.AbstractIdleService;
 import com.google.common.util.concurrent.FutureCallback;
 import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
 import com.google.common.util.concurrent.SettableFuture;
 import com.google.gson.Gson;
 import org.apache.twill.common.Cancellable;
 import org.apache.twill.common.Threads;
 import org.apache.twill.kafka.client.BrokerInfo;
 import org.apache.twill.kafka.client.BrokerService;
+import org.apache.twill.kafka.client.ClusterMetadata;
 import org.apache.twill.kafka.client.TopicPartition;
 import org.apache.twill.zookeeper.NodeChildren;
 import org.apache.twill.zookeeper.NodeData;
@@ -51,8 +46,10 @@ import org.apache.zookeeper.data.Stat;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.Iterator;
+import java.util.List;
 import java.util.Set;
-import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.Executor;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
@@ -61,7 +58,8 @@ import java.util.concurrent.atomic.AtomicReference;
 
 /**
  * A {@link BrokerService} that watches kafka zk nodes for updates of broker lists and leader for
- * each topic partition.
+ * each topic partition. All information is kept in a single immutable {@link ClusterMetadata} snapshot, which is
+ * replaced with a copy-on-write swap whenever a watch fires, so that readers never take a lock.
  */
 final class ZKBrokerService extends AbstractIdleService implements BrokerService {
 
@@ -70,50 +68,42 @@ final class ZKBrokerService extends AbstractIdleService implements BrokerService
   private static final String BROKER_TOPICS_PATH = "/brokers/topics";
   private static final long FAILURE_RETRY_SECONDS = 5;
   private static final Gson GSON = new Gson();
-  private static final Function<String, BrokerId> BROKER_ID_TRANSFORMER = new Function<String, BrokerId>() {
-    @Override
-    public BrokerId apply(String input) {
-      return new BrokerId(Integer.parseInt(input));
-    }
-  };
-  private static final Function<BrokerInfo, String> BROKER_INFO_TO_ADDRESS = new Function<BrokerInfo, String>() {
-    @Override
-    public String apply(BrokerInfo input) {
-      return String.format("%s:%d", input.getHost(), input.getPort());
-    }
-  };
 
   private final ZKClient zkClient;
-  private final LoadingCache<BrokerId, Supplier<BrokerInfo>> brokerInfos;
-  private final LoadingCache<KeyPathTopicPartition, Supplier<PartitionInfo>> partitionInfos;
+  private final AtomicReference<ClusterMetadata> metadata;
+  private final AtomicReference<SettableFuture<?>> brokersReady;
+  private final ConcurrentMap<String, SettableFuture<?>> topicsReady;
   private final Set<ListenerExecutor> listeners;
+  private final Iterable<BrokerInfo> brokers;
+
+  // Broker ids and topic partitions that have a data watch set. Only accessed from the executorService thread.
+  private final Set<Integer> watchedBrokers;
+  private final Set<TopicPartition> watchedPartitions;
 
   private ExecutorService executorService;
-  private Supplier<Iterable<BrokerInfo>> brokerList;
 
   ZKBrokerService(ZKClient zkClient) {
     this.zkClient = zkClient;
-    this.brokerInfos = CacheBuilder.newBuilder().build(createCacheLoader(new CacheInvalidater<BrokerId>() {
-      @Override
-      public void invalidate(BrokerId key) {
-        brokerInfos.invalidate(key);
-      }
-    }, BrokerInfo.class));
-    this.partitionInfos = CacheBuilder.newBuilder().build(createCacheLoader(
-      new CacheInvalidater<KeyPathTopicPartition>() {
-      @Override
-      public void invalidate(KeyPathTopicPartition key) {
-        partitionInfos.invalidate(key);
-      }
-    }, PartitionInfo.class));
+    this.metadata = new AtomicReference<ClusterMetadata>(ClusterMetadata.EMPTY);
+    this.brokersReady = new AtomicReference<SettableFuture<?>>();
+    this.topicsReady = Maps.newConcurrentMap();
 
     // Use CopyOnWriteArraySet so that it's thread safe and order of listener is maintain as the insertion order.
     this.listeners = Sets.newCopyOnWriteArraySet();
+    this.brokers = new Iterable<BrokerInfo>() {
+      @Override
+      public Iterator<BrokerInfo> iterator() {
+        return Iterators.unmodifiableIterator(metadata.get().getBrokers().values().iterator());
+      }
+    };
+    this.watchedBrokers = Sets.newHashSet();
+    this.watchedPartitions = Sets.newHashSet();
   }
 
   @Override
   protected void startUp() throws Exception {
-    executorService = Executors.newCachedThreadPool(Threads.createDaemonThreadFactory("zk-kafka-broker"));
+    // Single thread so that snapshot updates and listener notifications happen in the order of the ZK events.
+    executorService = Executors.newSingleThreadExecutor(Threads.createDaemonThreadFactory("zk-kafka-broker"));
   }
 
   @Override
@@ -124,49 +114,130 @@ final class ZKBrokerService extends AbstractIdleService implements BrokerService
   @Override
   public BrokerInfo getLeader(String topic, int partition) {
     Preconditions.checkState(isRunning(), "BrokerService is not running.");
-    PartitionInfo partitionInfo = partitionInfos.getUnchecked(new KeyPathTopicPartition(topic, partition)).get();
-    return partitionInfo == null ? null : brokerInfos.getUnchecked(new BrokerId(partitionInfo.getLeader())).get();
+    awaitBrokers();
+    awaitTopic(topic);
+    return metadata.get().getLeader(topic, partition);
   }
 
   @Override
-  public synchronized Iterable<BrokerInfo> getBrokers() {
+  public Iterable<BrokerInfo> getBrokers() {
     Preconditions.checkState(isRunning(), "BrokerService is not running.");
+    awaitBrokers();
+    return brokers;
+  }
+
+  @Override
+  public String getBrokerList() {
+    Preconditions.checkState(isRunning(), "BrokerService is not running.");
+    awaitBrokers();
+    return metadata.get().getBrokerList();
+  }
+
+  @Override
+  public ClusterMetadata getMetadata() {
+    Preconditions.checkState(isRunning(), "BrokerService is not running.");
+    awaitBrokers();
+    return metadata.get();
+  }
+
+  @Override
+  public Cancellable addChangeListener(BrokerChangeListener listener, Executor executor) {
+    final ListenerExecutor listenerExecutor = new ListenerExecutor(listener, executor);
+    listeners.add(listenerExecutor);
+
+    return new Cancellable() {
+      @Override
+      public void cancel() {
+        listeners.remove(listenerExecutor);
+      }
+    };
+  }
 
-    if (brokerList != null) {
-      return brokerList.get();
+  /**
+   * Starts watching the broker list on the first call and blocks until the initial list is loaded.
+   */
+  private void awaitBrokers() {
+    SettableFuture<?> readyFuture = brokersReady.get();
+    if (readyFuture == null) {
+      SettableFuture<?> newFuture = SettableFuture.create();
+      if (brokersReady.compareAndSet(null, newFuture)) {
+        watchBrokers(newFuture);
+      }
+      readyFuture = brokersReady.get();
+    }
+    try {
+      Futures.getUnchecked(readyFuture);
+    } catch (RuntimeException e) {
+      // Clear the failed attempt so that the next call will try again.
+      brokersReady.compareAndSet(readyFuture, null);
+      throw e;
     }
+  }
 
-    final SettableFuture<?> readerFuture = SettableFuture.create();
-    final AtomicReference<Iterable<BrokerInfo>> brokers =
-      new AtomicReference<Iterable<BrokerInfo>>(ImmutableList.<BrokerInfo>of());
+  /**
+   * Starts watching the partitions of the given topic on the first call and blocks until the initial partition
+   * leaders are loaded.
+   */
+  private void awaitTopic(String topic) {
+    SettableFuture<?> readyFuture = topicsReady.get(topic);
+    if (readyFuture == null) {
+      SettableFuture<?> newFuture = SettableFuture.create();
+      readyFuture = topicsReady.putIfAbsent(topic, newFuture);
+      if (readyFuture == null) {
+        readyFuture = newFuture;
+        watchTopic(topic, newFuture);
+      }
+    }
+    try {
+      Futures.getUnchecked(readyFuture);
+    } catch (RuntimeException e) {
+      // Clear the failed attempt so that the next call will try again.
+      topicsReady.remove(topic, readyFuture);
+      throw e;
+    }
+  }
 
+  /**
+   * Watches the broker ids node for broker additions and removals.
+   */
+  private void watchBrokers(final SettableFuture<?> readyFuture) {
     actOnExists(BROKER_IDS_PATH, new Runnable() {
       @Override
       public void run() {
-        // Callback for fetching children list. This callback should be executed in the executorService.
+        // Callback for fetching children list. This callback is executed in the executorService.
         final FutureCallback<NodeChildren> childrenCallback = new FutureCallback<NodeChildren>() {
           @Override
           public void onSuccess(NodeChildren result) {
-            try {
-              // For each children node, get the BrokerInfo from the brokerInfo cache.
-              brokers.set(
-                ImmutableList.copyOf(
-                  Iterables.transform(
-                    brokerInfos.getAll(Iterables.transform(result.getChildren(), BROKER_ID_TRANSFORMER)).values(),
-                    Suppliers.<BrokerInfo>supplierFunction())));
-              readerFuture.set(null);
-
-              for (ListenerExecutor listener : listeners) {
-                listener.changed(ZKBrokerService.this);
+            Set<Integer> brokerIds = Sets.newHashSet();
+            for (String child : result.getChildren()) {
+              brokerIds.add(Integer.parseInt(child));
+            }
+
+            // Remove brokers that are gone and start watching new brokers.
+            final Set<Integer> removed = ImmutableSet.copyOf(Sets.difference(watchedBrokers, brokerIds));
+            watchedBrokers.removeAll(removed);
+            update(new MetadataUpdate() {
+              @Override
+              public ClusterMetadata apply(ClusterMetadata current) {
+                return current.withoutBrokers(removed);
               }
-            } catch (ExecutionException e) {
-              readerFuture.setException(e.getCause());
+            });
+
+            List<ListenableFuture<?>> futures = Lists.newArrayList();
+            for (int brokerId : Sets.difference(brokerIds, watchedBrokers)) {
+              watchedBrokers.add(brokerId);
+              futures.add(watchBroker(brokerId));
             }
+            completeOnAll(futures, readyFuture);
           }
 
           @Override
           public void onFailure(Throwable t) {
-            readerFuture.setException(t);
+            if (t instanceof KeeperException.NoNodeException) {
+              readyFuture.set(null);
+              return;
+            }
+            readyFuture.setException(t);
           }
         };
 
@@ -183,101 +254,241 @@ final class ZKBrokerService extends AbstractIdleService implements BrokerService
           }
         }), childrenCallback, executorService);
       }
-    }, readerFuture, FAILURE_RETRY_SECONDS, TimeUnit.SECONDS);
-
-    brokerList = createSupplier(brokers);
-    try {
-      readerFuture.get();
-    } catch (Exception e) {
-      throw Throwables.propagate(e);
-    }
-    return brokerList.get();
+    }, readyFuture, FAILURE_RETRY_SECONDS, TimeUnit.SECONDS);
   }
 
-  @Override
-  public String getBrokerList() {
-    return Joiner.on(',').join(Iterables.transform(getBrokers(), BROKER_INFO_TO_ADDRESS));
-  }
+  /**
+   * Watches the data node of the given broker. Removal of the broker is handled by the broker ids watch.
+   *
+   * @return A future that completes when the first fetch is done.
+   */
+  private ListenableFuture<?> watchBroker(final int brokerId) {
+    final SettableFuture<?> readyFuture = SettableFuture.create();
+    final String path = BROKER_IDS_PATH + "/" + brokerId;
 
-  @Override
-  public Cancellable addChangeListener(BrokerChangeListener listener, Executor executor) {
-    final ListenerExecutor listenerExecutor = new ListenerExecutor(listener, executor);
-    listeners.add(listenerExecutor);
+    final FutureCallback<NodeData> dataCallback = new FutureCallback<NodeData>() {
+      @Override
+      public void onSuccess(NodeData result) {
+        final BrokerInfo brokerInfo = decodeNodeData(result, BrokerInfo.class);
+        if (brokerInfo != null && watchedBrokers.contains(brokerId)) {
+          update(new MetadataUpdate() {
+            @Override
+            public ClusterMetadata apply(ClusterMetadata current) {
+              return current.withBroker(brokerId, brokerInfo);
+            }
+          });
+        }
+        readyFuture.set(null);
+      }
 
-    return new Cancellable() {
       @Override
-      public void cancel() {
-        listeners.remove(listenerExecutor);
+      public void onFailure(Throwable t) {
+        // The broker is gone. If it comes back, it will be picked up by the broker ids watch.
+        if (!(t instanceof KeeperException.NoNodeException)) {
+          LOG.error("Failed to fetch node data on {}", path, t);
+        }
+        watchedBrokers.remove(brokerId);
+        update(new MetadataUpdate() {
+          @Override
+          public ClusterMetadata apply(ClusterMetadata current) {
+            return current.withoutBrokers(ImmutableSet.of(brokerId));
+          }
+        });
+        readyFuture.set(null);
       }
     };
+
+    Futures.addCallback(zkClient.getData(path, new Watcher() {
+      @Override
+      public void process(WatchedEvent event) {
+        if (!isRunning()) {
+          return;
+        }
+        // On deletion, fetch again as well, since the broker may have been restarted before the broker ids
+        // watch is re-armed. The fetch fails if it is really gone.
+        if (event.getType() == Event.EventType.NodeDataChanged || event.getType() == Event.EventType.NodeDeleted) {
+          Futures.addCallback(zkClient.getData(path, this), dataCallback, executorService);
+        }
+      }
+    }), dataCallback, executorService);
+
+    return readyFuture;
   }
 
   /**
-   * Creates a cache loader for the given path to supply data with the data node.
+   * Watches the partitions node of the given topic for changes in the number of partitions.
    */
-  private <K extends KeyPath, T> CacheLoader<K, Supplier<T>> createCacheLoader(final CacheInvalidater<K> invalidater,
-                                                                               final Class<T> resultType) {
-    return new CacheLoader<K, Supplier<T>>() {
+  private void watchTopic(final String topic, final SettableFuture<?> readyFuture) {
+    final String path = String.format("%s/%s/partitions", BROKER_TOPICS_PATH, topic);
 
+    actOnExists(path, new Runnable() {
       @Override
-      public Supplier<T> load(final K key) throws Exception {
-        // A future to tell if the result is ready, even it is failure.
-        final SettableFuture<T> readyFuture = SettableFuture.create();
-        final AtomicReference<T> resultValue = new AtomicReference<T>();
-
-        // Fetch for node data when it exists.
-        final String path = key.getPath();
-        actOnExists(path, new Runnable() {
+      public void run() {
+        final FutureCallback<NodeChildren> childrenCallback = new FutureCallback<NodeChildren>() {
           @Override
-          public void run() {
-            // Callback for getData call
-            final FutureCallback<NodeData> dataCallback = new FutureCallback<NodeData>() {
+          public void onSuccess(NodeChildren result) {
+            final int count = result.getChildren().size();
+            update(new MetadataUpdate() {
               @Override
-              public void onSuccess(NodeData result) {
-                // Update with latest data
-                T value = decodeNodeData(result, resultType);
-                resultValue.set(value);
-                readyFuture.set(value);
+              public ClusterMetadata apply(ClusterMetadata current) {
+                return current.withPartitionCount(topic, count);
               }
+            });
 
-              @Override
-              public void onFailure(Throwable t) {
-                LOG.error("Failed to fetch node data on {}", path, t);
-                if (t instanceof KeeperException.NoNodeException) {
-                  resultValue.set(null);
-                  readyFuture.set(null);
-                  return;
+            List<ListenableFuture<?>> futures = Lists.newArrayList();
+            for (String child : result.getChildren()) {
+              TopicPartition topicPartition = new TopicPartition(topic, Integer.parseInt(child));
+              if (watchedPartitions.add(topicPartition)) {
+                futures.add(watchPartition(topicPartition));
+              }
+            }
+            completeOnAll(futures, readyFuture);
+          }
+
+          @Override
+          public void onFailure(Throwable t) {
+            if (t instanceof KeeperException.NoNodeException) {
+              readyFuture.set(null);
+              return;
+            }
+            readyFuture.setException(t);
+          }
+        };
+
+        Futures.addCallback(zkClient.getChildren(path, new Watcher() {
+          @Override
+          public void process(WatchedEvent event) {
+            if (!isRunning()) {
+              return;
+            }
+            if (event.getType() == Event.EventType.NodeChildrenChanged) {
+              Futures.addCallback(zkClient.getChildren(path, this), childrenCallback, executorService);
+            } else if (event.getType() == Event.EventType.NodeDeleted) {
+              // Topic deleted. Remove it and wait for it to be recreated.
+              executorService.execute(new Runnable() {
+                @Override
+                public void run() {
+                  update(new MetadataUpdate() {
+                    @Override
+                    public ClusterMetadata apply(ClusterMetadata current) {
+                      return current.withPartitionCount(topic, -1);
+                    }
+                  });
                 }
+              });
+              watchTopic(topic, SettableFuture.create());
+            }
+          }
+        }), childrenCallback, executorService);
+      }
+    }, readyFuture, FAILURE_RETRY_SECONDS, TimeUnit.SECONDS);
+  }
 
-                // On error, simply invalidate the key so that it'll be fetched next time.
-                invalidater.invalidate(key);
-                readyFuture.setException(t);
-              }
-            };
+  /**
+   * Watches the state node of the given topic partition for leader changes.
+   *
+   * @return A future that completes when the first fetch is done.
+   */
+  private ListenableFuture<?> watchPartition(final TopicPartition topicPartition) {
+    final SettableFuture<?> readyFuture = SettableFuture.create();
+    final String path = String.format("%s/%s/partitions/%d/state", BROKER_TOPICS_PATH,
+                                      topicPartition.getTopic(), topicPartition.getPartition());
 
-            // Fetch node data
-            Futures.addCallback(zkClient.getData(path, new Watcher() {
+    actOnExists(path, new Runnable() {
+      @Override
+      public void run() {
+        final FutureCallback<NodeData> dataCallback = new FutureCallback<NodeData>() {
+          @Override
+          public void onSuccess(NodeData result) {
+            PartitionInfo partitionInfo = decodeNodeData(result, PartitionInfo.class);
+            final int leader = partitionInfo == null ? -1 : partitionInfo.getLeader();
+            update(new MetadataUpdate() {
               @Override
-              public void process(WatchedEvent event) {
-                if (!isRunning()) {
-                  return;
-                }
-                if (event.getType() == Event.EventType.NodeDataChanged) {
-                  // If node data changed, fetch it again.
-                  Futures.addCallback(zkClient.getData(path, this), dataCallback, executorService);
-                } else if (event.getType() == Event.EventType.NodeDeleted) {
-                  // If node removed, invalidate the cached value.
-                  brokerInfos.invalidate(key);
-                }
+              public ClusterMetadata apply(ClusterMetadata current) {
+                return current.withLeader(topicPartition, leader);
               }
-            }), dataCallback, executorService);
+            });
+            readyFuture.set(null);
+          }
+
+          @Override
+          public void onFailure(Throwable t) {
+            if (!(t instanceof KeeperException.NoNodeException)) {
+              LOG.error("Failed to fetch node data on {}", path, t);
+              readyFuture.setException(t);
+              return;
+            }
+            readyFuture.set(null);
           }
-        }, readyFuture, FAILURE_RETRY_SECONDS, TimeUnit.SECONDS);
+        };
 
-        readyFuture.get();
-        return createSupplier(resultValue);
+        Futures.addCallback(zkClient.getData(path, new Watcher() {
+          @Override
+          public void process(WatchedEvent event) {
+            if (!isRunning()) {
+              return;
+            }
+            if (event.getType() == Event.EventType.NodeDataChanged) {
+              Futures.addCallback(zkClient.getData(path, this), dataCallback, executorService);
+            } else if (event.getType() == Event.EventType.NodeDeleted) {
+              // Partition has no leader until the state node is recreated.
+              executorService.execute(new Runnable() {
+                @Override
+                public void run() {
+                  update(new MetadataUpdate() {
+                    @Override
+                    public ClusterMetadata apply(ClusterMetadata current) {
+                      return current.withoutLeaders(ImmutableSet.of(topicPartition));
+                    }
+                  });
+                }
+              });
+              watchPartition(topicPartition);
+            }
+          }
+        }), dataCallback, executorService);
       }
-    };
+    }, readyFuture, FAILURE_RETRY_SECONDS, TimeUnit.SECONDS);
+
+    return readyFuture;
+  }
+
+  /**
+   * Applies an update to the metadata snapshot with a copy-on-write swap and notifies listeners with the
+   * difference if there is any change.
+   */
+  private void update(MetadataUpdate update) {
+    ClusterMetadata previous;
+    ClusterMetadata current;
+    do {
+      previous = metadata.get();
+      current = update.apply(previous);
+    } while (current != previous && !metadata.compareAndSet(previous, current));
+
+    if (current == previous) {
+      return;
+    }
+    ClusterMetadata.Change change = ClusterMetadata.Change.between(previous, current);
+    LOG.debug("Cluster metadata changed: {}", change);
+    for (ListenerExecutor listener : listeners) {
+      listener.changed(this, change);
+    }
+  }
+
+  /**
+   * Completes the given future when all the given futures are completed, regardless of their results.
+   */
+  private void completeOnAll(List<ListenableFuture<?>> futures, final SettableFuture<?> readyFuture) {
+    if (futures.isEmpty()) {
+      readyFuture.set(null);
+      return;
+    }
+    Futures.successfulAsList(futures).addListener(new Runnable() {
+      @Override
+      public void run() {
+        readyFuture.set(null);
+      }
+    }, Threads.SAME_THREAD_EXECUTOR);
   }
 
   /**
@@ -343,69 +554,10 @@ final class ZKBrokerService extends AbstractIdleService implements BrokerService
   }
 
   /**
-   * Creates a supplier that always return latest copy from an {@link java.util.concurrent.atomic.AtomicReference}.
-   */
-  private <T> Supplier<T> createSupplier(final AtomicReference<T> ref) {
-    return new Supplier<T>() {
-      @Override
-      public T get() {
-        return ref.get();
-      }
-    };
-  }
-
-
-  /**
-   * Interface for invalidating an entry in a cache.
-   * @param <T> Key type.
+   * A modification to the {@link ClusterMetadata}. It may be applied more than once if there is concurrent update.
    */
-  private interface CacheInvalidater<T> {
-    void invalidate(T key);
-  }
-
-  /**
-   * Represents a path in zookeeper for cache key.
-   */
-  private interface KeyPath {
-    String getPath();
-  }
-
-  private static final class BrokerId implements KeyPath {
-    private final int id;
-
-    private BrokerId(int id) {
-      this.id = id;
-    }
-
-    @Override
-    public boolean equals(Object o) {
-      return this == o || !(o == null || getClass() != o.getClass()) && id == ((BrokerId) o).id;
-    }
-
-    @Override
-    public int hashCode() {
-      return Ints.hashCode(id);
-    }
-
-    @Override
-    public String getPath() {
-      return BROKER_IDS_PATH + "/" + id;
-    }
-  }
-
-  /**
-   * Represents a topic + partition combination. Used for loading cache key.
-   */
-  private static final class KeyPathTopicPartition extends TopicPartition implements KeyPath {
-
-    private KeyPathTopicPartition(String topic, int partition) {
-      super(topic, partition);
-    }
-
-    @Override
-    public String getPath() {
-      return String.format("%s/%s/partitions/%d/state", BROKER_TOPICS_PATH, getTopic(), getPartition());
-    }
+  private interface MetadataUpdate {
+    ClusterMetadata apply(ClusterMetadata current);
   }
 
   /**
@@ -439,14 +591,14 @@ final class ZKBrokerService extends AbstractIdleService implements BrokerService
     }
 
     @Override
-    public void changed(final BrokerService brokerService) {
+    public void changed(final BrokerService brokerService, final ClusterMetadata.Change change) {
       try {
         executor.execute(new Runnable() {
 
           @Override
           public void run() {
             try {
-              listener.changed(brokerService);
+              listener.changed(brokerService, change);
             } catch (Throwable t) {
               LOG.error("Failure when calling BrokerChangeListener.", t);
             }
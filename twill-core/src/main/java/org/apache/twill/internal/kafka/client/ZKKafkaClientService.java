@@ -21,8 +21,10 @@ import com.google.common.base.Preconditions;
 import com.google.common.util.concurrent.AbstractIdleService;
 import org.apache.twill.common.Cancellable;
 import org.apache.twill.common.Threads;
+import org.apache.twill.kafka.client.AsyncPublisherConfig;
 import org.apache.twill.kafka.client.BrokerService;
 import org.apache.twill.kafka.client.Compression;
+import org.apache.twill.kafka.client.KafkaClientMetrics;
 import org.apache.twill.kafka.client.KafkaClientService;
 import org.apache.twill.kafka.client.KafkaConsumer;
 import org.apache.twill.kafka.client.KafkaPublisher;
@@ -55,6 +57,7 @@ public class ZKKafkaClientService extends AbstractIdleService implements KafkaCl
   private final ReferenceQueue<KafkaPublisher> referenceQueue;
 
   private final SimpleKafkaConsumer consumer;
+  private final KafkaMetricsRegistry metrics;
 
   // For running cleanup job
   private ScheduledExecutorService scheduler;
@@ -63,7 +66,8 @@ public class ZKKafkaClientService extends AbstractIdleService implements KafkaCl
     this.brokerService = new ZKBrokerService(zkClient);
     this.publishers = Collections.synchronizedMap(new IdentityHashMap<WeakReference<KafkaPublisher>, Cancellable>());
     this.referenceQueue = new ReferenceQueue<KafkaPublisher>();
-    this.consumer = new SimpleKafkaConsumer(brokerService);
+    this.metrics = new KafkaMetricsRegistry();
+    this.consumer = new SimpleKafkaConsumer(brokerService, metrics);
   }
 
   @Override
@@ -71,7 +75,17 @@ public class ZKKafkaClientService extends AbstractIdleService implements KafkaCl
     Preconditions.checkState(isRunning(), "Service is not running.");
 
     // Wrap the publisher with a weak reference and save the cancellable for closing the publisher.
-    SimpleKafkaPublisher publisher = new SimpleKafkaPublisher(brokerService, ack, compression);
+    SimpleKafkaPublisher publisher = new SimpleKafkaPublisher(brokerService, ack, compression, metrics);
+    publishers.put(new WeakReference<KafkaPublisher>(publisher, referenceQueue), publisher.start());
+    return publisher;
+  }
+
+  @Override
+  public KafkaPublisher getPublisher(KafkaPublisher.Ack ack, Compression compression, AsyncPublisherConfig config) {
+    Preconditions.checkState(isRunning(), "Service is not running.");
+
+    AsyncKafkaPublisher publisher = new AsyncKafkaPublisher(
+      new SimpleKafkaPublisher(brokerService, ack, compression, metrics), config);
     publishers.put(new WeakReference<KafkaPublisher>(publisher, referenceQueue), publisher.start());
     return publisher;
   }
@@ -82,6 +96,11 @@ public class ZKKafkaClientService extends AbstractIdleService implements KafkaCl
     return consumer;
   }
 
+  @Override
+  public KafkaClientMetrics getMetrics() {
+    return metrics.snapshot();
+  }
+
   @Override
   public void run() {
     // For calling publisher.producer.close() on garbage collected
@@ -0,0 +1,390 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.twill.internal.logging;
+
+import com.google.common.base.Charsets;
+import com.google.common.collect.Lists;
+import org.apache.twill.api.logging.LogEntry;
+import org.apache.twill.api.logging.LogThrowable;
+import org.apache.twill.internal.InstanceLogEntry;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Codec for the binary log format {@link org.apache.twill.api.logging.LogFormat#BINARY}. A message in this format
+ * starts with a magic byte and a version byte, followed by a sequence of log entries until the end of the message.
+ *
+ * <p>
+ * Integers are written as variable length integers, with signed values zigzag encoded. Strings are written
+ * through a per message string table: the first occurrence of a string is written inline and later occurrences
+ * refer to it by index. Stack frames of a cause that are shared with the enclosing throwable are written as a count.
+ * </p>
+ */
+public final class BinaryLogEntryCodec {
+
+  /**
+   * Magic byte that starts a message in binary format. It can never start a valid UTF-8 sequence, hence it
+   * distinguishes binary messages from JSON messages.
+   */
+  static final byte MAGIC = (byte) 0xB1;
+  static final byte VERSION = 2;
+
+  // Version 1 has no instance id.
+  private static final byte VERSION_1 = 1;
+
+  private static final StackTraceElement[] EMPTY_STACK_TRACES = new StackTraceElement[0];
+
+  /**
+   * Returns {@code true} if the given message payload is in the binary log format.
+   */
+  public static boolean isBinary(ByteBuffer payload) {
+    return payload.remaining() > 0 && payload.get(payload.position()) == MAGIC;
+  }
+
+  /**
+   * Decodes all log entries in the given message payload.
+   *
+   * @throws IllegalArgumentException if the payload is not a valid binary log message.
+   */
+  public static List<LogEntry> decode(ByteBuffer payload) {
+    ByteBuffer buffer = payload.slice();
+    if (buffer.remaining() < 2 || buffer.get() != MAGIC) {
+      throw new IllegalArgumentException("Not a binary log message.");
+    }
+    byte version = buffer.get();
+    if (version != VERSION && version != VERSION_1) {
+      throw new IllegalArgumentException("Unsupported binary log message version " + version);
+    }
+
+    List<String> strings = Lists.newArrayList();
+    List<LogEntry> entries = Lists.newArrayList();
+    long timestamp = 0L;
+    try {
+      while (buffer.hasRemaining()) {
+        String loggerName = readString(buffer, strings);
+        String host = readString(buffer, strings);
+        timestamp += readSignedVarLong(buffer);
+        LogEntry.Level level = LogEntry.Level.valueOf(readString(buffer, strings));
+        String className = readString(buffer, strings);
+        String method = readString(buffer, strings);
+        String file = readString(buffer, strings);
+        int line = readSignedVarInt(buffer);
+        String thread = readString(buffer, strings);
+        String message = readRawString(buffer);
+        String runnableName = readString(buffer, strings);
+        int instanceId = version == VERSION_1 ? -1 : readSignedVarInt(buffer);
+        LogThrowable throwable = readThrowable(buffer, strings, EMPTY_STACK_TRACES);
+
+        entries.add(new BinaryLogEntry(loggerName, host, timestamp, level, className, method, file, line,
+                                       thread, message, runnableName, instanceId, throwable));
+      }
+    } catch (RuntimeException e) {
+      throw new IllegalArgumentException("Corrupted binary log message.", e);
+    }
+    return entries;
+  }
+
+  private static LogThrowable readThrowable(ByteBuffer buffer, List<String> strings,
+                                            StackTraceElement[] enclosingTraces) {
+    if (buffer.get() == 0) {
+      return null;
+    }
+    String className = readString(buffer, strings);
+    String message = readRawString(buffer);
+    int commonFrames = readVarInt(buffer);
+    int ownFrames = readVarInt(buffer);
+
+    StackTraceElement[] stackTraces = new StackTraceElement[ownFrames + commonFrames];
+    for (int i = 0; i < ownFrames; i++) {
+      stackTraces[i] = new StackTraceElement(readString(buffer, strings), readString(buffer, strings),
+                                             readString(buffer, strings), readSignedVarInt(buffer));
+    }
+    System.arraycopy(enclosingTraces, enclosingTraces.length - commonFrames, stackTraces, ownFrames, commonFrames);
+
+    LogThrowable cause = readThrowable(buffer, strings, stackTraces);
+    return new BinaryLogThrowable(className, message, stackTraces, cause);
+  }
+
+  /**
+   * Reads a string written by {@link #writeString(OutputStream, String, Map)}.
+   */
+  private static String readString(ByteBuffer buffer, List<String> strings) {
+    int value = readVarInt(buffer);
+    if (value == 0) {
+      return null;
+    }
+    if ((value & 1) == 0) {
+      return strings.get((value >>> 1) - 1);
+    }
+    String str = decodeUTF8(buffer, value >>> 1);
+    strings.add(str);
+    return str;
+  }
+
+  /**
+   * Reads a string written by {@link #writeRawString(OutputStream, String)}.
+   */
+  private static String readRawString(ByteBuffer buffer) {
+    int len = readVarInt(buffer);
+    return len == 0 ? null : decodeUTF8(buffer, len - 1);
+  }
+
+  private static String decodeUTF8(ByteBuffer buffer, int len) {
+    ByteBuffer slice = buffer.slice();
+    slice.limit(len);
+    buffer.position(buffer.position() + len);
+    return Charsets.UTF_8.decode(slice).toString();
+  }
+
+  private static int readVarInt(ByteBuffer buffer) {
+    return (int) readVarLong(buffer);
+  }
+
+  private static int readSignedVarInt(ByteBuffer buffer) {
+    int value = readVarInt(buffer);
+    return (value >>> 1) ^ -(value & 1);
+  }
+
+  private static long readSignedVarLong(ByteBuffer buffer) {
+    long value = readVarLong(buffer);
+    return (value >>> 1) ^ -(value & 1);
+  }
+
+  private static long readVarLong(ByteBuffer buffer) {
+    long result = 0;
+    int shift = 0;
+    while (shift < 64) {
+      byte b = buffer.get();
+      result |= (long) (b & 0x7f) << shift;
+      if ((b & 0x80) == 0) {
+        return result;
+      }
+      shift += 7;
+    }
+    throw new IllegalArgumentException("Malformed variable length integer.");
+  }
+
+  /**
+   * Writes a string through the string table. The value written is {@code 0} for {@code null},
+   * {@code (index + 1) << 1} for a string already in the table, or {@code (length << 1) | 1} followed by the UTF-8
+   * bytes for a new string, which is then added to the table.
+   */
+  static void writeString(OutputStream output, String str, Map<String, Integer> strings) throws IOException {
+    if (str == null) {
+      writeVarInt(output, 0);
+      return;
+    }
+    Integer idx = strings.get(str);
+    if (idx != null) {
+      writeVarInt(output, (idx + 1) << 1);
+      return;
+    }
+    byte[] bytes = str.getBytes(Charsets.UTF_8);
+    writeVarInt(output, (bytes.length << 1) | 1);
+    output.write(bytes);
+    strings.put(str, strings.size());
+  }
+
+  /**
+   * Writes a string that is not added to the string table. The value written is {@code 0} for {@code null},
+   * or the length plus one followed by the UTF-8 bytes.
+   */
+  static void writeRawString(OutputStream output, String str) throws IOException {
+    if (str == null) {
+      writeVarInt(output, 0);
+      return;
+    }
+    byte[] bytes = str.getBytes(Charsets.UTF_8);
+    writeVarInt(output, bytes.length + 1);
+    output.write(bytes);
+  }
+
+  static void writeSignedVarInt(OutputStream output, int value) throws IOException {
+    writeVarInt(output, (value << 1) ^ (value >> 31));
+  }
+
+  static void writeSignedVarLong(OutputStream output, long value) throws IOException {
+    writeVarLong(output, (value << 1) ^ (value >> 63));
+  }
+
+  static void writeVarInt(OutputStream output, int value) throws IOException {
+    writeVarLong(output, value & 0xffffffffL);
+  }
+
+  static void writeVarLong(OutputStream output, long value) throws IOException {
+    while ((value & ~0x7fL) != 0) {
+      output.write((int) ((value & 0x7f) | 0x80));
+      value >>>= 7;
+    }
+    output.write((int) value);
+  }
+
+  /**
+   * A {@link LogEntry} decoded from the binary format.
+   */
+  private static final class BinaryLogEntry implements InstanceLogEntry {
+
+    private final String loggerName;
+    private final String host;
+    private final long timestamp;
+    private final Level level;
+    private final String className;
+    private final String method;
+    private final String file;
+    private final int line;
+    private final String thread;
+    private final String message;
+    private final String runnableName;
+    private final int instanceId;
+    private final LogThrowable throwable;
+
+    private BinaryLogEntry(String loggerName, String host, long timestamp, Level level, String className,
+                           String method, String file, int line, String thread, String message,
+                           String runnableName, int instanceId, LogThrowable throwable) {
+      this.loggerName = loggerName;
+      this.host = host;
+      this.timestamp = timestamp;
+      this.level = level;
+      this.className = className;
+      this.method = method;
+      this.file = file;
+      this.line = line;
+      this.thread = thread;
+      this.message = message;
+      this.runnableName = runnableName;
+      this.instanceId = instanceId;
+      this.throwable = throwable;
+    }
+
+    @Override
+    public String getLoggerName() {
+      return loggerName;
+    }
+
+    @Override
+    public String getHost() {
+      return host;
+    }
+
+    @Override
+    public long getTimestamp() {
+      return timestamp;
+    }
+
+    @Override
+    public Level getLogLevel() {
+      return level;
+    }
+
+    @Override
+    public String getSourceClassName() {
+      return className;
+    }
+
+    @Override
+    public String getSourceMethodName() {
+      return method;
+    }
+
+    @Override
+    public String getFileName() {
+      return file;
+    }
+
+    @Override
+    public int getLineNumber() {
+      return line;
+    }
+
+    @Override
+    public String getThreadName() {
+      return thread;
+    }
+
+    @Override
+    public String getMessage() {
+      return message;
+    }
+
+    @Override
+    public String getRunnableName() {
+      return runnableName;
+    }
+
+    @Override
+    public int getInstanceId() {
+      return instanceId;
+    }
+
+    @Override
+    public LogThrowable getThrowable() {
+      return throwable;
+    }
+
+    @Override
+    public StackTraceElement[] getStackTraces() {
+      return (throwable == null) ? EMPTY_STACK_TRACES : throwable.getStackTraces();
+    }
+  }
+
+  /**
+   * A {@link LogThrowable} decoded from the binary format.
+   */
+  private static final class BinaryLogThrowable implements LogThrowable {
+
+    private final String className;
+    private final String message;
+    private final StackTraceElement[] stackTraces;
+    private final LogThrowable cause;
+
+    private BinaryLogThrowable(String className, String message, StackTraceElement[] stackTraces,
+                               LogThrowable cause) {
+      this.className = className;
+      this.message = message;
+      this.stackTraces = stackTraces;
+      this.cause = cause;
+    }
+
+    @Override
+    public String getClassName() {
+      return className;
+    }
+
+    @Override
+    public String getMessage() {
+      return message;
+    }
+
+    @Override
+    public StackTraceElement[] getStackTraces() {
+      return stackTraces;
+    }
+
+    @Override
+    public LogThrowable getCause() {
+      return cause;
+    }
+  }
+
+  private BinaryLogEntryCodec() {
+  }
+}
@@ -0,0 +1,144 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.twill.internal.logging;
+
+import ch.qos.logback.classic.spi.CallerData;
+import ch.qos.logback.classic.spi.IThrowableProxy;
+import ch.qos.logback.classic.spi.StackTraceElementProxy;
+import com.google.common.collect.Maps;
+
+import java.io.IOException;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A {@link LogEventEncoder} that encodes events in the format defined by {@link BinaryLogEntryCodec}. Multiple
+ * events are packed into one message, up to a maximum message size, so that they share the same string table.
+ */
+final class BinaryLogEventEncoder extends LogEventEncoder {
+
+  /**
+   * Once a message reaches this size, the next event goes to a new message.
+   */
+  private static final int MAX_MESSAGE_SIZE = 64 * 1024;
+
+  private final Map<String, Integer> strings;
+  private final StackTraceElementProxy[] emptyFrames;
+
+  BinaryLogEventEncoder(String hostname, String runnableName, int instanceId) {
+    super(hostname, runnableName, instanceId);
+    this.strings = Maps.newHashMap();
+    this.emptyFrames = new StackTraceElementProxy[0];
+  }
+
+  @Override
+  protected void encode(Collection<LogEventSnapshot> events,
+                        BufferOutputStream output, List<Integer> offsets) throws IOException {
+    int messageStart = -1;
+    long timestamp = 0L;
+
+    for (LogEventSnapshot event : events) {
+      if (messageStart < 0) {
+        messageStart = output.size();
+        output.write(BinaryLogEntryCodec.MAGIC);
+        output.write(BinaryLogEntryCodec.VERSION);
+        strings.clear();
+        timestamp = 0L;
+      }
+
+      BinaryLogEntryCodec.writeString(output, event.getLoggerName(), strings);
+      BinaryLogEntryCodec.writeString(output, hostname, strings);
+      // Timestamp is written as delta from the previous event in the same message
+      BinaryLogEntryCodec.writeSignedVarLong(output, event.getTimestamp() - timestamp);
+      timestamp = event.getTimestamp();
+      BinaryLogEntryCodec.writeString(output, event.getLevel(), strings);
+      BinaryLogEntryCodec.writeString(output, event.getClassName(), strings);
+      BinaryLogEntryCodec.writeString(output, event.getMethod(), strings);
+      BinaryLogEntryCodec.writeString(output, event.getFile(), strings);
+      BinaryLogEntryCodec.writeSignedVarInt(output, parseLine(event.getLine()));
+      BinaryLogEntryCodec.writeString(output, event.getThread(), strings);
+      BinaryLogEntryCodec.writeRawString(output, event.getMessage());
+      BinaryLogEntryCodec.writeString(output, runnableName, strings);
+      BinaryLogEntryCodec.writeSignedVarInt(output, instanceId);
+      writeThrowable(output, event.getThrowableProxy(), emptyFrames);
+
+      if (output.size() - messageStart >= MAX_MESSAGE_SIZE) {
+        offsets.add(output.size());
+        messageStart = -1;
+      }
+    }
+
+    if (messageStart >= 0) {
+      offsets.add(output.size());
+    }
+  }
+
+  private void writeThrowable(BufferOutputStream output, IThrowableProxy throwable,
+                              StackTraceElementProxy[] enclosingFrames) throws IOException {
+    if (throwable == null) {
+      output.write(0);
+      return;
+    }
+    output.write(1);
+    BinaryLogEntryCodec.writeString(output, throwable.getClassName(), strings);
+    BinaryLogEntryCodec.writeRawString(output, throwable.getMessage());
+
+    // Only writes the frames that are not in common with the enclosing throwable
+    StackTraceElementProxy[] frames = throwable.getStackTraceElementProxyArray();
+    int commonFrames = countCommonFrames(frames, enclosingFrames);
+    int ownFrames = frames.length - commonFrames;
+    BinaryLogEntryCodec.writeVarInt(output, commonFrames);
+    BinaryLogEntryCodec.writeVarInt(output, ownFrames);
+    for (int i = 0; i < ownFrames; i++) {
+      StackTraceElement element = frames[i].getStackTraceElement();
+      BinaryLogEntryCodec.writeString(output, element.getClassName(), strings);
+      BinaryLogEntryCodec.writeString(output, element.getMethodName(), strings);
+      BinaryLogEntryCodec.writeString(output, element.getFileName(), strings);
+      BinaryLogEntryCodec.writeSignedVarInt(output, element.getLineNumber());
+    }
+
+    writeThrowable(output, throwable.getCause(), frames);
+  }
+
+  /**
+   * Counts the number of frames at the bottom of the stack that are the same as the enclosing one.
+   */
+  private int countCommonFrames(StackTraceElementProxy[] frames, StackTraceElementProxy[] enclosingFrames) {
+    int count = 0;
+    int i = frames.length - 1;
+    int j = enclosingFrames.length - 1;
+    while (i >= 0 && j >= 0 && frames[i].getStackTraceElement().equals(enclosingFrames[j].getStackTraceElement())) {
+      count++;
+      i--;
+      j--;
+    }
+    return count;
+  }
+
+  private int parseLine(String line) {
+    if (CallerData.NA.equals(line)) {
+      return -1;
+    }
+    try {
+      return Integer.parseInt(line);
+    } catch (NumberFormatException e) {
+      return -1;
+    }
+  }
+}
@@ -0,0 +1,113 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.twill.internal.logging;
+
+import ch.qos.logback.classic.spi.IThrowableProxy;
+import ch.qos.logback.classic.spi.StackTraceElementProxy;
+import com.google.common.base.Charsets;
+import com.google.gson.stream.JsonWriter;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * A {@link LogEventEncoder} that encodes each event as a JSON message, in the same format as produced by
+ * {@link org.apache.twill.internal.json.ILoggingEventSerializer}. Events are written with a streaming writer
+ * directly as UTF-8 bytes.
+ */
+final class JsonLogEventEncoder extends LogEventEncoder {
+
+  private OutputStream output;
+  private Writer writer;
+
+  JsonLogEventEncoder(String hostname, String runnableName, int instanceId) {
+    super(hostname, runnableName, instanceId);
+  }
+
+  @Override
+  protected void encode(Collection<LogEventSnapshot> events,
+                        BufferOutputStream output, List<Integer> offsets) throws IOException {
+    if (this.output != output) {
+      this.output = output;
+      this.writer = new OutputStreamWriter(output, Charsets.UTF_8);
+    }
+
+    for (LogEventSnapshot event : events) {
+      JsonWriter jsonWriter = new JsonWriter(writer);
+      jsonWriter.setSerializeNulls(false);
+      write(jsonWriter, event);
+      jsonWriter.flush();
+      offsets.add(output.size());
+    }
+  }
+
+  @Override
+  protected void outputReleased() {
+    output = null;
+    writer = null;
+  }
+
+  private void write(JsonWriter writer, LogEventSnapshot event) throws IOException {
+    writer.beginObject();
+    writer.name("name").value(event.getLoggerName());
+    writer.name("host").value(hostname);
+    writer.name("timestamp").value(Long.toString(event.getTimestamp()));
+    writer.name("level").value(event.getLevel());
+    writer.name("className").value(event.getClassName());
+    writer.name("method").value(event.getMethod());
+    writer.name("file").value(event.getFile());
+    writer.name("line").value(event.getLine());
+    writer.name("thread").value(event.getThread());
+    writer.name("message").value(event.getMessage());
+    writer.name("runnableName").value(runnableName);
+    if (instanceId >= 0) {
+      writer.name("instanceId").value(instanceId);
+    }
+    if (event.getThrowableProxy() != null) {
+      writer.name("throwable");
+      writeThrowable(writer, event.getThrowableProxy());
+    }
+    writer.endObject();
+  }
+
+  private void writeThrowable(JsonWriter writer, IThrowableProxy throwable) throws IOException {
+    writer.beginObject();
+    writer.name("className").value(throwable.getClassName());
+    writer.name("message").value(throwable.getMessage());
+    writer.name("stackTraces").beginArray();
+    for (StackTraceElementProxy proxy : throwable.getStackTraceElementProxyArray()) {
+      StackTraceElement element = proxy.getStackTraceElement();
+      writer.beginObject();
+      writer.name("className").value(element.getClassName());
+      writer.name("method").value(element.getMethodName());
+      writer.name("file").value(element.getFileName());
+      writer.name("line").value(element.getLineNumber());
+      writer.endObject();
+    }
+    writer.endArray();
+    if (throwable.getCause() != null) {
+      writer.name("cause");
+      writeThrowable(writer, throwable.getCause());
+    }
+    writer.endObject();
+  }
+}
@@ -18,26 +18,22 @@
 package org.apache.twill.internal.logging;
 
 import ch.qos.logback.classic.spi.ILoggingEvent;
-import ch.qos.logback.core.AppenderBase;
-import com.google.common.base.Charsets;
+import ch.qos.logback.core.UnsynchronizedAppenderBase;
 import com.google.common.base.Preconditions;
 import com.google.common.base.Stopwatch;
-import com.google.common.collect.Iterables;
 import com.google.common.collect.Lists;
 import com.google.common.util.concurrent.FutureCallback;
 import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.ListenableFuture;
 import com.google.common.util.concurrent.Service;
-import com.google.gson.Gson;
-import com.google.gson.GsonBuilder;
-import org.apache.twill.api.logging.LogThrowable;
+import org.apache.twill.api.logging.LogFilter;
+import org.apache.twill.api.logging.LogFormat;
 import org.apache.twill.common.Services;
 import org.apache.twill.common.Threads;
-import org.apache.twill.internal.json.ILoggingEventSerializer;
-import org.apache.twill.internal.json.LogThrowableCodec;
-import org.apache.twill.internal.json.StackTraceElementCodec;
 import org.apache.twill.internal.kafka.client.ZKKafkaClientService;
+import org.apache.twill.kafka.client.AsyncPublisherConfig;
 import org.apache.twill.kafka.client.Compression;
+import org.apache.twill.kafka.client.KafkaClientMetrics;
 import org.apache.twill.kafka.client.KafkaClientService;
 import org.apache.twill.kafka.client.KafkaPublisher;
 import org.apache.twill.zookeeper.RetryStrategies;
@@ -47,50 +43,108 @@ import org.apache.twill.zookeeper.ZKClients;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.File;
+import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.util.Collection;
 import java.util.List;
-import java.util.Queue;
-import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
-import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
 
 /**
+ * A logback appender that publishes log events to Kafka. Log events are buffered in a bounded ring buffer and
+ * are published from a background thread. When the buffer is full, events are handled according to the
+ * {@link OverflowPolicy}. Events rejected by the current {@link LogFilter} are dropped before buffering.
  *
+ * <p>
+ * Optionally, a spill file can be set for holding logs that cannot be published because Kafka is unavailable.
+ * Spilled logs are published in order before newer logs once Kafka is available again. A log batch could be
+ * published more than once if the publish timed out but eventually succeeded.
+ * </p>
  */
-public final class KafkaAppender extends AppenderBase<ILoggingEvent> {
+public final class KafkaAppender extends UnsynchronizedAppenderBase<ILoggingEvent> {
 
   private static final Logger LOG = LoggerFactory.getLogger(KafkaAppender.class);
+  private static final long BLOCK_PARK_NANOS = TimeUnit.MICROSECONDS.toNanos(100);
+  private static final int REPLAY_BATCH_BYTES = 1024 * 1024;
+  private static final int REPLAY_BATCHES_PER_FLUSH = 16;
 
-  private final AtomicReference<KafkaPublisher.Preparer> publisher;
-  private final Runnable flushTask;
   /**
-   * Rough count of how many entries are being buffered. It's just approximate, not exact.
+   * Policy for handling log events when the buffer is full.
    */
-  private final AtomicInteger bufferedSize;
+  public enum OverflowPolicy {
+    /**
+     * Blocks the logging thread until there is space in the buffer, up to the block timeout. The event is
+     * dropped if the timeout is reached.
+     */
+    BLOCK,
+
+    /**
+     * Drops the oldest event in the buffer to make space for the new event.
+     */
+    DROP_OLDEST,
+
+    /**
+     * Drops the new event.
+     */
+    DROP_NEWEST,
+
+    /**
+     * Only accepts one out of every sample rate events once the buffer is half full. Drops the new event when
+     * the buffer is full.
+     */
+    SAMPLE
+  }
 
-  private LogEventConverter eventConverter;
+  private final AtomicReference<KafkaPublisher.Preparer> publisher;
+  private final Object publishLock;
+  private final Runnable flushTask;
+  private final AtomicBoolean flushPending;
+  private final AtomicLong droppedCount;
+  private final AtomicLong filteredCount;
+  private final AtomicLong sampleCount;
+
+  private LogEventEncoder eventEncoder;
   private ZKClientService zkClientService;
-  private KafkaClientService kafkaClient;
+  private volatile KafkaClientService kafkaClient;
   private String zkConnectStr;
   private String hostname;
   private String runnableName;
+  private int instanceId = -1;
+  private Object partitionKey;
   private String topic;
-  private Queue<String> buffer;
+  private RingBuffer<LogEventSnapshot> buffer;
   private int flushLimit = 20;
   private int flushPeriod = 100;
+  private int bufferSize = 8192;
+  private OverflowPolicy overflowPolicy = OverflowPolicy.DROP_OLDEST;
+  private int blockTimeout = 1000;
+  private int sampleRate = 10;
+  private LogFormat format = LogFormat.JSON;
+  private String spillFile;
+  private int spillSize = 64;
+  private LogSpillFile spill;
+  private boolean spilling;
+  private long reportedDropCount;
+  private volatile Thread flushThread;
+  private volatile LogEventFilter logFilter;
   private ScheduledExecutorService scheduler;
 
   public KafkaAppender() {
     publisher = new AtomicReference<KafkaPublisher.Preparer>();
+    publishLock = new Object();
     flushTask = createFlushTask();
-    bufferedSize = new AtomicInteger();
-    buffer = new ConcurrentLinkedQueue<String>();
+    flushPending = new AtomicBoolean();
+    droppedCount = new AtomicLong();
+    filteredCount = new AtomicLong();
+    sampleCount = new AtomicLong();
   }
 
   /**
@@ -117,6 +171,14 @@ public final class KafkaAppender extends AppenderBase<ILoggingEvent> {
     this.runnableName = runnableName;
   }
 
+  /**
+   * Sets the instance id of the runnable. Called by slf4j.
+   */
+  @SuppressWarnings("unused")
+  public void setInstanceId(int instanceId) {
+    this.instanceId = instanceId;
+  }
+
   /**
    * Sets the topic name for publishing logs. Called by slf4j.
    */
@@ -141,17 +203,135 @@ public final class KafkaAppender extends AppenderBase<ILoggingEvent> {
     this.flushPeriod = flushPeriod;
   }
 
+  /**
+   * Sets the maximum number of log entries being buffered. Called by slf4j.
+   */
+  @SuppressWarnings("unused")
+  public void setBufferSize(int bufferSize) {
+    this.bufferSize = bufferSize;
+  }
+
+  /**
+   * Sets the name of the {@link OverflowPolicy} for handling log events when the buffer is full. Called by slf4j.
+   */
+  @SuppressWarnings("unused")
+  public void setOverflowPolicy(String overflowPolicy) {
+    this.overflowPolicy = OverflowPolicy.valueOf(overflowPolicy.trim().toUpperCase());
+  }
+
+  /**
+   * Sets the maximum time in milliseconds to block a logging thread for the {@link OverflowPolicy#BLOCK} policy.
+   * Called by slf4j.
+   */
+  @SuppressWarnings("unused")
+  public void setBlockTimeout(int blockTimeout) {
+    this.blockTimeout = blockTimeout;
+  }
+
+  /**
+   * Sets the sampling rate for the {@link OverflowPolicy#SAMPLE} policy. Called by slf4j.
+   */
+  @SuppressWarnings("unused")
+  public void setSampleRate(int sampleRate) {
+    this.sampleRate = sampleRate;
+  }
+
+  /**
+   * Sets the name of the {@link LogFormat} for encoding log events. Called by slf4j.
+   */
+  @SuppressWarnings("unused")
+  public void setFormat(String format) {
+    this.format = LogFormat.valueOf(format.trim().toUpperCase());
+  }
+
+  /**
+   * Sets the path of the file for holding logs while Kafka is unavailable. Called by slf4j.
+   */
+  @SuppressWarnings("unused")
+  public void setSpillFile(String spillFile) {
+    this.spillFile = spillFile;
+  }
+
+  /**
+   * Sets the size in MB of the spill file. Called by slf4j.
+   */
+  @SuppressWarnings("unused")
+  public void setSpillSize(int spillSize) {
+    this.spillSize = spillSize;
+  }
+
+  /**
+   * Sets the {@link LogFilter} in the form encoded by {@link LogFilters#encode(LogFilter)}. Called by slf4j.
+   */
+  @SuppressWarnings("unused")
+  public void setFilterSpec(String filterSpec) {
+    setLogFilter(LogFilters.decode(filterSpec));
+  }
+
+  /**
+   * Sets the {@link LogFilter} for dropping log events before publishing. It can be changed while running.
+   */
+  public void setLogFilter(LogFilter filter) {
+    logFilter = LogFilter.ALL.equals(filter) ? null : new LogEventFilter(filter);
+  }
+
+  /**
+   * Returns the current {@link LogFilter}.
+   */
+  public LogFilter getLogFilter() {
+    LogEventFilter filter = logFilter;
+    return filter == null ? LogFilter.ALL : filter.getFilter();
+  }
+
+  /**
+   * Returns the total number of log events dropped since this appender is created.
+   */
+  public long getDroppedCount() {
+    return droppedCount.get();
+  }
+
+  /**
+   * Returns the total number of log events rejected by the {@link LogFilter} since this appender is created.
+   */
+  public long getFilteredCount() {
+    return filteredCount.get();
+  }
+
+  /**
+   * Returns the metrics of the Kafka client used for publishing logs, or {@code null} if the appender is not started.
+   */
+  public KafkaClientMetrics getKafkaClientMetrics() {
+    KafkaClientService client = kafkaClient;
+    return client == null ? null : client.getMetrics();
+  }
+
   @Override
   public void start() {
     Preconditions.checkNotNull(zkConnectStr);
+    Preconditions.checkArgument(bufferSize > 0, "Buffer size must be > 0: %s", bufferSize);
+    Preconditions.checkArgument(sampleRate > 0, "Sample rate must be > 0: %s", sampleRate);
+    Preconditions.checkArgument(spillSize > 0 && spillSize < 2048, "Spill size must be in (0, 2048): %s", spillSize);
+
+    buffer = new RingBuffer<LogEventSnapshot>(bufferSize);
+
+    // Logs of the same container always go to the same partition, so that they are consumed in order, while
+    // logs of different containers spread across partitions.
+    partitionKey = runnableName + "#" + instanceId;
 
-    eventConverter = new LogEventConverter(hostname, runnableName);
+    eventEncoder = LogEventEncoder.create(format, hostname, runnableName, instanceId);
+    if (spillFile != null) {
+      try {
+        spill = new LogSpillFile(new File(spillFile), spillSize * 1024 * 1024);
+      } catch (IOException e) {
+        LOG.error("Failed to open log spill file {}. Logs are dropped when Kafka is unavailable.", spillFile, e);
+      }
+    }
     scheduler = Executors.newSingleThreadScheduledExecutor(Threads.createDaemonThreadFactory("kafka-logger"));
 
     zkClientService = ZKClientServices.delegate(
       ZKClients.reWatchOnExpire(
         ZKClients.retryOnFailure(ZKClientService.Builder.of(zkConnectStr).build(),
-                                 RetryStrategies.fixDelay(1, TimeUnit.SECONDS))));
+                                 RetryStrategies.jitterDelay(500, 10000, TimeUnit.MILLISECONDS))));
 
     kafkaClient = new ZKKafkaClientService(zkClientService);
     Futures.addCallback(Services.chainStart(zkClientService, kafkaClient),
@@ -181,6 +361,16 @@ public final class KafkaAppender extends AppenderBase<ILoggingEvent> {
     super.stop();
     scheduler.shutdownNow();
     Futures.getUnchecked(Services.chainStop(kafkaClient, zkClientService));
+    synchronized (publishLock) {
+      if (spill != null) {
+        try {
+          spill.close();
+        } catch (IOException e) {
+          LOG.warn("Failed to close log spill file {}.", spill, e);
+        }
+        spill = null;
+      }
+    }
   }
 
   public void forceFlush() {
@@ -193,9 +383,67 @@ public final class KafkaAppender extends AppenderBase<ILoggingEvent> {
 
   @Override
   protected void append(ILoggingEvent eventObject) {
-    buffer.offer(eventConverter.convert(eventObject));
-    if (bufferedSize.incrementAndGet() >= flushLimit && publisher.get() != null) {
-      // Try to do a extra flush
+    LogEventFilter filter = logFilter;
+    if (filter != null && !filter.accept(eventObject)) {
+      filteredCount.incrementAndGet();
+      return;
+    }
+    if (!enqueue(LogEventSnapshot.create(eventObject))) {
+      droppedCount.incrementAndGet();
+    }
+    if (buffer.size() >= flushLimit) {
+      requestFlush();
+    }
+  }
+
+  /**
+   * Inserts a log entry into the buffer based on the overflow policy.
+   *
+   * @return {@code true} if the entry is inserted, {@code false} if it is dropped.
+   */
+  private boolean enqueue(LogEventSnapshot entry) {
+    switch (overflowPolicy) {
+      case DROP_NEWEST:
+        return buffer.offer(entry);
+      case DROP_OLDEST:
+        while (!buffer.offer(entry)) {
+          if (buffer.poll() != null) {
+            droppedCount.incrementAndGet();
+          }
+        }
+        return true;
+      case SAMPLE:
+        if (buffer.size() >= buffer.capacity() / 2 && sampleCount.incrementAndGet() % sampleRate != 0) {
+          return false;
+        }
+        return buffer.offer(entry);
+      case BLOCK:
+        if (buffer.offer(entry)) {
+          return true;
+        }
+        // Never block the flush thread, as it is the one that makes space in the buffer.
+        if (Thread.currentThread() == flushThread) {
+          return false;
+        }
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(blockTimeout);
+        requestFlush();
+        while (!buffer.offer(entry)) {
+          if (System.nanoTime() - deadline >= 0 || Thread.currentThread().isInterrupted()) {
+            return false;
+          }
+          LockSupport.parkNanos(BLOCK_PARK_NANOS);
+        }
+        return true;
+      default:
+        throw new IllegalStateException("Unsupported overflow policy " + overflowPolicy);
+    }
+  }
+
+  /**
+   * Submits a flush task if there is no pending one and the publisher is ready.
+   */
+  private void requestFlush() {
+    if (publisher.get() != null && flushPending.compareAndSet(false, true)) {
       scheduler.submit(flushTask);
     }
   }
@@ -207,12 +455,112 @@ public final class KafkaAppender extends AppenderBase<ILoggingEvent> {
    * @throws TimeoutException If timeout reached before publish completed.
    */
   private int publishLogs(long timeout, TimeUnit timeoutUnit) throws TimeoutException {
-    List<ByteBuffer> logs = Lists.newArrayListWithExpectedSize(bufferedSize.get());
+    // Guards the encoder and the spill file, which are shared by the flush thread and callers of forceFlush.
+    synchronized (publishLock) {
+      int published = 0;
+      if (spill != null && !spill.isEmpty()) {
+        published += replaySpill(timeout, timeoutUnit);
+      }
+
+      List<LogEventSnapshot> events = Lists.newArrayListWithExpectedSize(buffer.size());
+      buffer.drainTo(events, Integer.MAX_VALUE);
+      if (events.isEmpty()) {
+        return published;
+      }
+
+      List<ByteBuffer> logs;
+      try {
+        logs = eventEncoder.encode(events);
+      } catch (IOException e) {
+        // Shouldn't happen as it is writing to memory.
+        LOG.error("Failed to encode log events. Log entries dropped.", e);
+        eventEncoder.release(false);
+        return published;
+      }
+
+      boolean completed = false;
+      try {
+        if (spill == null) {
+          published += publishLogs(logs, timeout, timeoutUnit);
+          completed = true;
+          return published;
+        }
 
-    for (String json : Iterables.consumingIterable(buffer)) {
-      logs.add(Charsets.UTF_8.encode(json));
+        // While there are spilled logs, newer logs are spilled behind them to keep the order.
+        completed = true;
+        if (spill.isEmpty()) {
+          try {
+            return published + doPublishLogs(logs).get(timeout, timeoutUnit);
+          } catch (ExecutionException e) {
+            LOG.debug("Failed to publish logs to Kafka.", e);
+          } catch (TimeoutException e) {
+            // The buffers could still be used by the publisher.
+            completed = false;
+          } catch (InterruptedException e) {
+            completed = false;
+            Thread.currentThread().interrupt();
+          }
+        }
+        spill(logs, events.size());
+        return published;
+      } finally {
+        // If the publish is timed out, the buffers could still be in used by the publisher.
+        eventEncoder.release(completed);
+      }
     }
+  }
 
+  /**
+   * Publishes logs in the spill file in order, until the spill file is drained, publish failed or the limit
+   * per flush is reached. Only called with the publish lock held.
+   *
+   * @return Number of logs published.
+   */
+  private int replaySpill(long timeout, TimeUnit timeoutUnit) {
+    int published = 0;
+    for (int i = 0; i < REPLAY_BATCHES_PER_FLUSH && !spill.isEmpty(); i++) {
+      List<ByteBuffer> logs = spill.peek(REPLAY_BATCH_BYTES);
+      try {
+        published += doPublishLogs(logs).get(timeout, timeoutUnit);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        return published;
+      } catch (Exception e) {
+        LOG.debug("Failed to publish spilled logs to Kafka.", e);
+        return published;
+      }
+      spill.remove(logs.size());
+    }
+    if (spilling && spill.isEmpty()) {
+      LOG.info("Published all spilled logs to Kafka.");
+      spilling = false;
+    }
+    return published;
+  }
+
+  /**
+   * Appends the given logs to the spill file. Logs are dropped if the spill file is full. Only called with the
+   * publish lock held.
+   */
+  private void spill(List<ByteBuffer> logs, int eventCount) {
+    // Duplicates and rewinds the buffers, as they could be consumed or still be used by a failed publish attempt.
+    List<ByteBuffer> messages = Lists.newArrayListWithCapacity(logs.size());
+    for (ByteBuffer log : logs) {
+      ByteBuffer message = log.duplicate();
+      message.rewind();
+      messages.add(message);
+    }
+    if (!spill.append(messages)) {
+      droppedCount.addAndGet(eventCount);
+      return;
+    }
+    if (!spilling) {
+      LOG.warn("Kafka is unavailable. Spilling logs to {}.", spill);
+      spilling = true;
+    }
+  }
+
+  private int publishLogs(List<ByteBuffer> logs, long timeout, TimeUnit timeoutUnit) throws TimeoutException {
     long backOffTime = timeoutUnit.toNanos(timeout) / 10;
     if (backOffTime <= 0) {
       backOffTime = 1;
@@ -225,11 +573,13 @@ public final class KafkaAppender extends AppenderBase<ILoggingEvent> {
 
       do {
         try {
-          int published = doPublishLogs(logs).get(publishTimeout, timeoutUnit);
-          bufferedSize.addAndGet(-published);
-          return published;
+          return doPublishLogs(logs).get(publishTimeout, timeoutUnit);
         } catch (ExecutionException e) {
           LOG.error("Failed to publish logs to Kafka.", e);
+          // Rewind the buffers consumed by the failed attempt.
+          for (ByteBuffer log : logs) {
+            log.rewind();
+          }
           TimeUnit.NANOSECONDS.sleep(backOffTime);
           publishTimeout -= stopwatch.elapsedTime(timeoutUnit);
           stopwatch.reset();
@@ -252,8 +602,11 @@ public final class KafkaAppender extends AppenderBase<ILoggingEvent> {
     KafkaPublisher.Preparer publisher = KafkaAppender.this.publisher.get();
     if (publisher == null) {
       try {
+        // Publishes asynchronously, so that the flush thread is not blocked by the broker round trip.
         KafkaPublisher.Preparer preparer = kafkaClient.getPublisher(KafkaPublisher.Ack.LEADER_RECEIVED,
-                                                                    Compression.SNAPPY).prepare(topic);
+                                                                    Compression.SNAPPY,
+                                                                    AsyncPublisherConfig.builder().build())
+                                                      .prepare(topic);
         KafkaAppender.this.publisher.compareAndSet(null, preparer);
         publisher = KafkaAppender.this.publisher.get();
       } catch (Exception e) {
@@ -261,11 +614,7 @@ public final class KafkaAppender extends AppenderBase<ILoggingEvent> {
       }
     }
 
-    for (ByteBuffer buffer : logs) {
-      publisher.add(buffer, 0);
-    }
-
-    return publisher.send();
+    return publisher.addAll(logs, partitionKey).send();
   }
 
   /**
@@ -276,6 +625,9 @@ public final class KafkaAppender extends AppenderBase<ILoggingEvent> {
     return new Runnable() {
       @Override
       public void run() {
+        flushThread = Thread.currentThread();
+        flushPending.set(false);
+        reportDropped();
         try {
           int published = publishLogs(2L, TimeUnit.SECONDS);
           if (LOG.isDebugEnabled()) {
@@ -289,22 +641,13 @@ public final class KafkaAppender extends AppenderBase<ILoggingEvent> {
   }
 
   /**
-   * Helper class to convert {@link ILoggingEvent} into json string.
+   * Logs the number of log events dropped since last report. Only called from the flush thread.
    */
-  private static final class LogEventConverter {
-
-    private final Gson gson;
-
-    private LogEventConverter(String hostname, String runnableName) {
-      gson = new GsonBuilder()
-        .registerTypeAdapter(StackTraceElement.class, new StackTraceElementCodec())
-        .registerTypeAdapter(LogThrowable.class, new LogThrowableCodec())
-        .registerTypeAdapter(ILoggingEvent.class, new ILoggingEventSerializer(hostname, runnableName))
-        .create();
-    }
-
-    private String convert(ILoggingEvent event) {
-      return gson.toJson(event, ILoggingEvent.class);
+  private void reportDropped() {
+    long dropped = droppedCount.get();
+    if (dropped > reportedDropCount) {
+      LOG.warn("Dropped {} log events due to full buffer. Total dropped: {}", dropped - reportedDropCount, dropped);
+      reportedDropCount = dropped;
     }
   }
 }
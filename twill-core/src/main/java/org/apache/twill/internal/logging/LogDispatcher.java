@@ -0,0 +1,312 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.twill.internal.logging;
+
+import com.google.common.base.Charsets;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListeningExecutorService;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import org.apache.twill.api.logging.LogEntry;
+import org.apache.twill.api.logging.LogHandler;
+import org.apache.twill.api.logging.LogThrowable;
+import org.apache.twill.common.Threads;
+import org.apache.twill.internal.json.LogEntryDecoder;
+import org.apache.twill.internal.json.LogThrowableCodec;
+import org.apache.twill.internal.json.StackTraceElementCodec;
+import org.apache.twill.kafka.client.FetchedMessage;
+import org.apache.twill.kafka.client.KafkaConsumer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A {@link KafkaConsumer.MessageCallback} that decodes log messages and dispatches the {@link LogEntry} to
+ * {@link LogHandler}s. Messages are decoded in parallel on a worker pool, while entries are dispatched in the
+ * order they are consumed, hence entries from the same container are always delivered in order. The same instance
+ * can be used by the consumptions of multiple partitions concurrently, with no ordering between partitions.
+ * Each handler has its own thread and bounded queue, so that a slow handler doesn't hold up consumption or other
+ * handlers. When a handler queue is full, dispatching either blocks until there is room, which eventually slows
+ * down consumption, or drops the entry for that handler, depending on how the dispatcher is created.
+ */
+public final class LogDispatcher implements KafkaConsumer.MessageCallback {
+
+  private static final Logger LOG = LoggerFactory.getLogger(LogDispatcher.class);
+
+  private static final Gson GSON = new GsonBuilder()
+    .registerTypeAdapter(LogEntry.class, new LogEntryDecoder())
+    .registerTypeAdapter(LogThrowable.class, new LogThrowableCodec())
+    .registerTypeAdapter(StackTraceElement.class, new StackTraceElementCodec())
+    .create();
+
+  /**
+   * Number of messages decoded by one decode task.
+   */
+  private static final int DECODE_BATCH_SIZE = 64;
+  private static final int DEFAULT_HANDLER_QUEUE_SIZE = 10000;
+  /**
+   * Maximum time in milliseconds to block on a full handler queue before checking if the dispatcher is stopped.
+   */
+  private static final long OFFER_WAIT_MILLIS = 100L;
+
+  private final int handlerQueueSize;
+  private final boolean dropOnFull;
+  private final ListeningExecutorService decodeExecutor;
+  private final ExecutorService handlerExecutor;
+  private volatile Map<LogHandler, HandlerWorker> workers;
+
+  /**
+   * Creates an instance that blocks dispatching when a handler queue is full.
+   */
+  public LogDispatcher() {
+    this(false);
+  }
+
+  /**
+   * Creates an instance with the default number of decode threads and handler queue size.
+   *
+   * @param dropOnFull {@code true} to drop entries for a handler when its queue is full, {@code false} to block
+   *                   until there is room in the queue.
+   */
+  public LogDispatcher(boolean dropOnFull) {
+    this(Runtime.getRuntime().availableProcessors(), DEFAULT_HANDLER_QUEUE_SIZE, dropOnFull);
+  }
+
+  public LogDispatcher(int decodeThreads, int handlerQueueSize, boolean dropOnFull) {
+    this.handlerQueueSize = handlerQueueSize;
+    this.dropOnFull = dropOnFull;
+    this.decodeExecutor = MoreExecutors.listeningDecorator(
+      Executors.newFixedThreadPool(decodeThreads, Threads.createDaemonThreadFactory("log-decoder-%d")));
+    this.handlerExecutor = Executors.newCachedThreadPool(Threads.createDaemonThreadFactory("log-handler-%d"));
+    this.workers = Maps.newIdentityHashMap();
+  }
+
+  /**
+   * Adds a {@link LogHandler} to receive log entries dispatched after this call.
+   */
+  public synchronized void addLogHandler(LogHandler handler) {
+    if (workers.containsKey(handler)) {
+      return;
+    }
+    HandlerWorker worker = new HandlerWorker(handler, new LinkedBlockingQueue<LogEntry>(handlerQueueSize),
+                                             dropOnFull);
+    handlerExecutor.execute(worker);
+    workers = copyAndPut(workers, handler, worker);
+  }
+
+  /**
+   * Returns the number of log entries waiting to be delivered to the given handler.
+   */
+  public int getLag(LogHandler handler) {
+    HandlerWorker worker = workers.get(handler);
+    return worker == null ? 0 : worker.getQueue().size();
+  }
+
+  /**
+   * Returns the number of log entries dropped for the given handler due to full queue. It is always {@code 0}
+   * if the dispatcher blocks on full queue.
+   */
+  public long getDroppedCount(LogHandler handler) {
+    HandlerWorker worker = workers.get(handler);
+    return worker == null ? 0L : worker.getDroppedCount();
+  }
+
+  /**
+   * Stops dispatching. Entries that are not yet delivered are discarded.
+   */
+  public void stop() {
+    for (HandlerWorker worker : workers.values()) {
+      worker.stop();
+    }
+    decodeExecutor.shutdownNow();
+    handlerExecutor.shutdownNow();
+  }
+
+  @Override
+  public void onReceived(Iterator<FetchedMessage> messages) {
+    // Submits decode tasks for the whole batch first, then dispatches the results in order.
+    // Since this method waits for the decode tasks, payloads are valid throughout the decoding.
+    List<ListenableFuture<List<LogEntry>>> futures = Lists.newArrayList();
+    List<ByteBuffer> payloads = Lists.newArrayListWithCapacity(DECODE_BATCH_SIZE);
+    while (messages.hasNext()) {
+      // The payload buffer could be reused by the iterator, hence a duplicate is needed.
+      payloads.add(messages.next().getPayload().duplicate());
+      if (payloads.size() == DECODE_BATCH_SIZE) {
+        futures.add(decodeExecutor.submit(new DecodeTask(payloads)));
+        payloads = Lists.newArrayListWithCapacity(DECODE_BATCH_SIZE);
+      }
+    }
+
+    // Decode the last partial batch in the current thread.
+    List<LogEntry> lastEntries = new DecodeTask(payloads).call();
+    for (ListenableFuture<List<LogEntry>> future : futures) {
+      dispatch(Futures.getUnchecked(future));
+    }
+    dispatch(lastEntries);
+  }
+
+  @Override
+  public void finished() {
+    // No-op
+  }
+
+  private void dispatch(List<LogEntry> entries) {
+    Map<LogHandler, HandlerWorker> workers = this.workers;
+    for (LogEntry entry : entries) {
+      for (HandlerWorker worker : workers.values()) {
+        worker.offer(entry);
+      }
+    }
+  }
+
+  /**
+   * Decodes a log message, which could be in JSON or binary format.
+   */
+  static void decode(ByteBuffer payload, List<LogEntry> entries) {
+    if (BinaryLogEntryCodec.isBinary(payload)) {
+      try {
+        entries.addAll(BinaryLogEntryCodec.decode(payload));
+      } catch (Exception e) {
+        LOG.error("Failed to decode binary log message of {} bytes", payload.remaining(), e);
+      }
+      return;
+    }
+
+    String json = Charsets.UTF_8.decode(payload).toString();
+    try {
+      LogEntry entry = GSON.fromJson(json, LogEntry.class);
+      if (entry != null) {
+        entries.add(entry);
+      }
+    } catch (Exception e) {
+      LOG.error("Failed to decode log entry {}", json, e);
+    }
+  }
+
+  private static <K, V> Map<K, V> copyAndPut(Map<K, V> map, K key, V value) {
+    Map<K, V> copy = Maps.newIdentityHashMap();
+    copy.putAll(map);
+    copy.put(key, value);
+    return copy;
+  }
+
+  /**
+   * Task for decoding a list of log messages.
+   */
+  private static final class DecodeTask implements Callable<List<LogEntry>> {
+
+    private final List<ByteBuffer> payloads;
+
+    private DecodeTask(List<ByteBuffer> payloads) {
+      this.payloads = payloads;
+    }
+
+    @Override
+    public List<LogEntry> call() {
+      List<LogEntry> entries = Lists.newArrayListWithCapacity(payloads.size());
+      for (ByteBuffer payload : payloads) {
+        decode(payload, entries);
+      }
+      return entries;
+    }
+  }
+
+  /**
+   * Delivers log entries to one {@link LogHandler} from a bounded queue.
+   */
+  private static final class HandlerWorker implements Runnable {
+
+    private final LogHandler handler;
+    private final BlockingQueue<LogEntry> queue;
+    private final boolean dropOnFull;
+    private final AtomicLong droppedCount;
+    private volatile boolean stopped;
+
+    private HandlerWorker(LogHandler handler, BlockingQueue<LogEntry> queue, boolean dropOnFull) {
+      this.handler = handler;
+      this.queue = queue;
+      this.dropOnFull = dropOnFull;
+      this.droppedCount = new AtomicLong();
+    }
+
+    private void stop() {
+      stopped = true;
+    }
+
+    private BlockingQueue<LogEntry> getQueue() {
+      return queue;
+    }
+
+    private long getDroppedCount() {
+      return droppedCount.get();
+    }
+
+    private void offer(LogEntry entry) {
+      if (!dropOnFull) {
+        // Blocks until there is room, with periodic checks so that a stopped worker won't block the caller forever.
+        try {
+          while (!stopped && !queue.offer(entry, OFFER_WAIT_MILLIS, TimeUnit.MILLISECONDS)) {
+            LOG.trace("LogHandler {} is falling behind. Waiting for room in the queue.", handler);
+          }
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+        return;
+      }
+      if (!queue.offer(entry)) {
+        long dropped = droppedCount.incrementAndGet();
+        // Log on the first drop and then every 1000 drops to avoid flooding.
+        if (dropped % 1000 == 1) {
+          LOG.warn("LogHandler {} is falling behind. Total {} log entries dropped.", handler, dropped);
+        }
+      }
+    }
+
+    @Override
+    public void run() {
+      try {
+        while (!Thread.currentThread().isInterrupted()) {
+          LogEntry entry = queue.take();
+          try {
+            handler.onLog(entry);
+          } catch (Throwable t) {
+            LOG.warn("Exception while calling LogHandler {}", handler, t);
+          }
+        }
+      } catch (InterruptedException e) {
+        // Interrupted by stop.
+        LOG.debug("LogHandler worker stopped for {}", handler);
+      }
+    }
+  }
+}
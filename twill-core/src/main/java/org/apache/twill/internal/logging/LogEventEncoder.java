@@ -0,0 +1,167 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.twill.internal.logging;
+
+import com.google.common.collect.Lists;
+import org.apache.twill.api.logging.LogFormat;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Encodes {@link LogEventSnapshot} into buffers for publishing. Events are written directly as bytes into a buffer
+ * that is reused across calls to {@link #encode(Collection)}. This class is not thread safe.
+ */
+abstract class LogEventEncoder {
+
+  private static final int INITIAL_BUFFER_SIZE = 64 * 1024;
+  private static final int MAX_RETAINED_BUFFER_SIZE = 1024 * 1024;
+
+  protected final String hostname;
+  protected final String runnableName;
+  protected final int instanceId;
+  private BufferOutputStream output;
+
+  /**
+   * Creates a {@link LogEventEncoder} for the given format.
+   */
+  static LogEventEncoder create(LogFormat format, String hostname, String runnableName, int instanceId) {
+    switch (format) {
+      case JSON:
+        return new JsonLogEventEncoder(hostname, runnableName, instanceId);
+      case BINARY:
+        return new BinaryLogEventEncoder(hostname, runnableName, instanceId);
+      default:
+        throw new IllegalArgumentException("Unsupported log format " + format);
+    }
+  }
+
+  protected LogEventEncoder(String hostname, String runnableName, int instanceId) {
+    this.hostname = hostname;
+    this.runnableName = runnableName;
+    this.instanceId = instanceId;
+  }
+
+  /**
+   * Encodes the given events. The returned buffers share the same underlying storage, which will be reused
+   * after {@link #release(boolean)} is called.
+   *
+   * @return A list of buffers, each to be published as one message.
+   */
+  final List<ByteBuffer> encode(Collection<LogEventSnapshot> events) throws IOException {
+    if (output == null) {
+      output = new BufferOutputStream(INITIAL_BUFFER_SIZE);
+    }
+
+    List<Integer> offsets = Lists.newArrayListWithCapacity(events.size() + 1);
+    offsets.add(output.size());
+    encode(events, output, offsets);
+
+    // Slices are created after all events are written, as the underlying array can be replaced when growing.
+    List<ByteBuffer> buffers = Lists.newArrayListWithCapacity(offsets.size() - 1);
+    for (int i = 0; i < offsets.size() - 1; i++) {
+      int offset = offsets.get(i);
+      buffers.add(ByteBuffer.wrap(output.getBuffer(), offset, offsets.get(i + 1) - offset).slice());
+    }
+    return buffers;
+  }
+
+  /**
+   * Releases the buffers returned by the last call to {@link #encode(Collection)}.
+   *
+   * @param reusable {@code true} if the buffers are no longer used, {@code false} if they could still be used,
+   *                 in which case a new storage will be allocated for the next encode.
+   */
+  final void release(boolean reusable) {
+    if (output == null) {
+      return;
+    }
+    if (reusable && output.getBuffer().length <= MAX_RETAINED_BUFFER_SIZE) {
+      output.reset();
+    } else {
+      output = null;
+      outputReleased();
+    }
+  }
+
+  /**
+   * Writes the given events to the output.
+   *
+   * @param events events to write
+   * @param output the stream to write to
+   * @param offsets list for recording the end offset in the output of each message written
+   */
+  protected abstract void encode(Collection<LogEventSnapshot> events,
+                                 BufferOutputStream output, List<Integer> offsets) throws IOException;
+
+  /**
+   * Called when the output stream is discarded. Subclasses should release resources bound to the stream.
+   */
+  protected void outputReleased() {
+    // No-op by default
+  }
+
+  /**
+   * An {@link OutputStream} that writes to a growable byte array, which can be reset for reuse.
+   */
+  static final class BufferOutputStream extends OutputStream {
+
+    private byte[] buffer;
+    private int size;
+
+    private BufferOutputStream(int initialSize) {
+      this.buffer = new byte[initialSize];
+    }
+
+    @Override
+    public void write(int b) {
+      ensureCapacity(size + 1);
+      buffer[size++] = (byte) b;
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) {
+      ensureCapacity(size + len);
+      System.arraycopy(b, off, buffer, size, len);
+      size += len;
+    }
+
+    int size() {
+      return size;
+    }
+
+    private byte[] getBuffer() {
+      return buffer;
+    }
+
+    private void reset() {
+      size = 0;
+    }
+
+    private void ensureCapacity(int capacity) {
+      if (capacity > buffer.length) {
+        byte[] newBuffer = new byte[Math.max(capacity, buffer.length * 2)];
+        System.arraycopy(buffer, 0, newBuffer, 0, size);
+        buffer = newBuffer;
+      }
+    }
+  }
+}
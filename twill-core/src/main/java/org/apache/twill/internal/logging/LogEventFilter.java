@@ -0,0 +1,107 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.twill.internal.logging;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import org.apache.twill.api.logging.LogEntry;
+import org.apache.twill.api.logging.LogFilter;
+
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Applies a {@link LogFilter} to logback events. The rate cap counts accepted events in one second windows.
+ * It is approximate under contention, as the window is reset without blocking the logging threads.
+ */
+final class LogEventFilter {
+
+  private static final long WINDOW_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+  private final LogFilter filter;
+  private final Level level;
+  private final Set<String> includes;
+  private final Set<String> excludes;
+  private final int maxEventsPerSecond;
+  private final AtomicLong windowStart;
+  private final AtomicInteger windowCount;
+
+  LogEventFilter(LogFilter filter) {
+    this.filter = filter;
+    this.level = toLevel(filter.getLevel());
+    this.includes = filter.getIncludes();
+    this.excludes = filter.getExcludes();
+    this.maxEventsPerSecond = filter.getMaxEventsPerSecond();
+    this.windowStart = new AtomicLong(System.nanoTime());
+    this.windowCount = new AtomicInteger();
+  }
+
+  LogFilter getFilter() {
+    return filter;
+  }
+
+  /**
+   * Returns {@code true} if the given event should be published.
+   */
+  boolean accept(ILoggingEvent event) {
+    if (level != null && !event.getLevel().isGreaterOrEqual(level)) {
+      return false;
+    }
+    String loggerName = event.getLoggerName();
+    if (!includes.isEmpty() && !startsWithAny(loggerName, includes)) {
+      return false;
+    }
+    if (!excludes.isEmpty() && startsWithAny(loggerName, excludes)) {
+      return false;
+    }
+    return maxEventsPerSecond <= 0 || acquire();
+  }
+
+  /**
+   * Counts an event against the rate cap of the current window.
+   */
+  private boolean acquire() {
+    long now = System.nanoTime();
+    long start = windowStart.get();
+    if (now - start >= WINDOW_NANOS && windowStart.compareAndSet(start, now)) {
+      windowCount.set(0);
+    }
+    return windowCount.incrementAndGet() <= maxEventsPerSecond;
+  }
+
+  private static boolean startsWithAny(String loggerName, Set<String> prefixes) {
+    for (String prefix : prefixes) {
+      if (loggerName.startsWith(prefix)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Converts {@link LogEntry.Level} to logback {@link Level}. Logback has no fatal level, which maps to error.
+   */
+  private static Level toLevel(LogEntry.Level level) {
+    if (level == null) {
+      return null;
+    }
+    return level == LogEntry.Level.FATAL ? Level.ERROR : Level.toLevel(level.name());
+  }
+}
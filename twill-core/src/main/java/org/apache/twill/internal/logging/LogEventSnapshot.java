@@ -0,0 +1,104 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.twill.internal.logging;
+
+import ch.qos.logback.classic.spi.CallerData;
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import ch.qos.logback.classic.spi.IThrowableProxy;
+
+/**
+ * An immutable snapshot of the fields of {@link ILoggingEvent} that are published by {@link KafkaAppender}.
+ * Only the fields that depend on the logging thread are captured at creation time, so that the
+ * serialization can be done later by another thread.
+ */
+final class LogEventSnapshot {
+
+  private final String loggerName;
+  private final long timestamp;
+  private final String level;
+  private final String className;
+  private final String method;
+  private final String file;
+  private final String line;
+  private final String thread;
+  private final String message;
+  private final IThrowableProxy throwableProxy;
+
+  /**
+   * Creates a snapshot of the given event. This method must be called from the logging thread.
+   */
+  static LogEventSnapshot create(ILoggingEvent event) {
+    StackTraceElement[] callerData = event.getCallerData();
+    StackTraceElement caller = (callerData == null || callerData.length == 0) ? null : callerData[0];
+    return new LogEventSnapshot(event, caller);
+  }
+
+  private LogEventSnapshot(ILoggingEvent event, StackTraceElement caller) {
+    this.loggerName = event.getLoggerName();
+    this.timestamp = event.getTimeStamp();
+    this.level = event.getLevel().toString();
+    this.className = caller == null ? CallerData.NA : caller.getClassName();
+    this.method = caller == null ? CallerData.NA : caller.getMethodName();
+    this.file = caller == null ? CallerData.NA : caller.getFileName();
+    this.line = caller == null ? CallerData.NA : Integer.toString(caller.getLineNumber());
+    this.thread = event.getThreadName();
+    this.message = event.getFormattedMessage();
+    // The throwable proxy is not modified after the event is created.
+    this.throwableProxy = event.getThrowableProxy();
+  }
+
+  String getLoggerName() {
+    return loggerName;
+  }
+
+  long getTimestamp() {
+    return timestamp;
+  }
+
+  String getLevel() {
+    return level;
+  }
+
+  String getClassName() {
+    return className;
+  }
+
+  String getMethod() {
+    return method;
+  }
+
+  String getFile() {
+    return file;
+  }
+
+  String getLine() {
+    return line;
+  }
+
+  String getThread() {
+    return thread;
+  }
+
+  String getMessage() {
+    return message;
+  }
+
+  IThrowableProxy getThrowableProxy() {
+    return throwableProxy;
+  }
+}
@@ -0,0 +1,110 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.twill.internal.logging;
+
+import com.google.common.base.Joiner;
+import com.google.common.base.Splitter;
+import com.google.common.collect.ImmutableMap;
+import org.apache.twill.api.logging.LogEntry;
+import org.apache.twill.api.logging.LogFilter;
+
+import java.util.Map;
+
+/**
+ * Utility class for converting {@link LogFilter} to and from a string map, which is used as command options
+ * when sending the filter to running containers, and to and from a flat string used in environment and
+ * logback configuration.
+ */
+public final class LogFilters {
+
+  private static final String LEVEL = "level";
+  private static final String INCLUDES = "includes";
+  private static final String EXCLUDES = "excludes";
+  private static final String RATE = "rate";
+
+  private static final Joiner PREFIX_JOINER = Joiner.on(',');
+  private static final Splitter PREFIX_SPLITTER = Splitter.on(',').trimResults().omitEmptyStrings();
+  private static final Joiner.MapJoiner OPTIONS_JOINER = Joiner.on(';').withKeyValueSeparator("=");
+  private static final Splitter.MapSplitter OPTIONS_SPLITTER = Splitter.on(';').omitEmptyStrings()
+                                                                       .withKeyValueSeparator("=");
+
+  /**
+   * Converts the given {@link LogFilter} into a map. Only non-default settings are included.
+   */
+  public static Map<String, String> toOptions(LogFilter filter) {
+    ImmutableMap.Builder<String, String> options = ImmutableMap.builder();
+    if (filter.getLevel() != null) {
+      options.put(LEVEL, filter.getLevel().name());
+    }
+    if (!filter.getIncludes().isEmpty()) {
+      options.put(INCLUDES, PREFIX_JOINER.join(filter.getIncludes()));
+    }
+    if (!filter.getExcludes().isEmpty()) {
+      options.put(EXCLUDES, PREFIX_JOINER.join(filter.getExcludes()));
+    }
+    if (filter.getMaxEventsPerSecond() > 0) {
+      options.put(RATE, Integer.toString(filter.getMaxEventsPerSecond()));
+    }
+    return options.build();
+  }
+
+  /**
+   * Creates a {@link LogFilter} from a map created by {@link #toOptions(LogFilter)}. Unknown keys are ignored.
+   */
+  public static LogFilter fromOptions(Map<String, String> options) {
+    LogFilter.Builder builder = LogFilter.Builder.create();
+    String level = options.get(LEVEL);
+    if (level != null) {
+      builder.setLevel(LogEntry.Level.valueOf(level.trim().toUpperCase()));
+    }
+    String includes = options.get(INCLUDES);
+    if (includes != null) {
+      for (String prefix : PREFIX_SPLITTER.split(includes)) {
+        builder.include(prefix);
+      }
+    }
+    String excludes = options.get(EXCLUDES);
+    if (excludes != null) {
+      for (String prefix : PREFIX_SPLITTER.split(excludes)) {
+        builder.exclude(prefix);
+      }
+    }
+    String rate = options.get(RATE);
+    if (rate != null) {
+      builder.setMaxEventsPerSecond(Integer.parseInt(rate.trim()));
+    }
+    return builder.build();
+  }
+
+  /**
+   * Encodes the given {@link LogFilter} into a single line string, e.g. {@code level=INFO;excludes=org.apache}.
+   */
+  public static String encode(LogFilter filter) {
+    return OPTIONS_JOINER.join(toOptions(filter));
+  }
+
+  /**
+   * Decodes a string created by {@link #encode(LogFilter)}.
+   */
+  public static LogFilter decode(String encoded) {
+    return fromOptions(OPTIONS_SPLITTER.split(encoded.trim()));
+  }
+
+  private LogFilters() {
+  }
+}
@@ -0,0 +1,254 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.twill.internal.logging;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+import org.apache.twill.api.logging.LogEntry;
+import org.apache.twill.api.logging.LogHandler;
+import org.apache.twill.api.logging.LogQuery;
+import org.apache.twill.common.Cancellable;
+import org.apache.twill.common.Threads;
+import org.apache.twill.internal.Constants;
+import org.apache.twill.kafka.client.FetchedMessage;
+import org.apache.twill.kafka.client.KafkaConsumer;
+import org.apache.twill.zookeeper.NodeChildren;
+import org.apache.twill.zookeeper.ZKClient;
+import org.apache.zookeeper.KeeperException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Replays log entries that match a {@link LogQuery} from the log topic to a {@link LogHandler}. Each partition of
+ * the log topic is consumed from the offset looked up by the start time of the query, until the latest offset at the
+ * time the replay started. Entries are decoded and delivered as messages are consumed, without buffering the range.
+ */
+public final class LogReplayer {
+
+  private static final Logger LOG = LoggerFactory.getLogger(LogReplayer.class);
+  private static final long LATEST_OFFSET = -1L;
+
+  private final KafkaConsumer consumer;
+  private final ZKClient kafkaZKClient;
+  private final LogQuery query;
+  private final LogHandler handler;
+  private final SettableFuture<LogQuery> completion;
+  private final ExecutorService cancelExecutor;
+
+  // Guarded by this object. Keyed by partition, the value is null until the consumption started.
+  private final Map<Integer, Cancellable> consumptions;
+
+  /**
+   * Starts a replay.
+   *
+   * @param consumer The {@link KafkaConsumer} for consuming the log topic.
+   * @param kafkaZKClient The {@link ZKClient} of the Kafka ZooKeeper namespace, for discovering log partitions.
+   * @param query The {@link LogQuery} for selecting log entries.
+   * @param handler The {@link LogHandler} for receiving log entries.
+   * @return A {@link ListenableFuture} that completes when the replay is done. Cancelling it stops the replay.
+   */
+  public static ListenableFuture<LogQuery> replay(KafkaConsumer consumer, ZKClient kafkaZKClient,
+                                                  LogQuery query, LogHandler handler) {
+    LogReplayer replayer = new LogReplayer(consumer, kafkaZKClient, query, handler);
+    replayer.start();
+    return replayer.completion;
+  }
+
+  private LogReplayer(KafkaConsumer consumer, ZKClient kafkaZKClient, LogQuery query, LogHandler handler) {
+    this.consumer = consumer;
+    this.kafkaZKClient = kafkaZKClient;
+    this.query = query;
+    this.handler = handler;
+    this.completion = SettableFuture.create();
+    this.cancelExecutor = Executors.newSingleThreadExecutor(Threads.createDaemonThreadFactory("log-replay"));
+    this.consumptions = Maps.newHashMap();
+  }
+
+  private void start() {
+    completion.addListener(new Runnable() {
+      @Override
+      public void run() {
+        // Stops all consumptions when the replay completed or cancelled.
+        List<Cancellable> cancels;
+        synchronized (LogReplayer.this) {
+          cancels = Lists.newArrayList(consumptions.values());
+          consumptions.clear();
+        }
+        for (Cancellable cancel : cancels) {
+          if (cancel != null) {
+            cancel.cancel();
+          }
+        }
+        cancelExecutor.shutdown();
+      }
+    }, cancelExecutor);
+
+    Futures.addCallback(kafkaZKClient.getChildren(Constants.LOG_PARTITIONS_PATH), new FutureCallback<NodeChildren>() {
+      @Override
+      public void onSuccess(NodeChildren result) {
+        List<Integer> partitions = Lists.newArrayList();
+        for (String child : result.getChildren()) {
+          try {
+            partitions.add(Integer.parseInt(child));
+          } catch (NumberFormatException e) {
+            LOG.warn("Ignore unknown log partition {}.", child);
+          }
+        }
+        start(partitions);
+      }
+
+      @Override
+      public void onFailure(Throwable t) {
+        if (t instanceof KeeperException.NoNodeException) {
+          // No log has been published yet.
+          completion.set(query);
+        } else {
+          completion.setException(t);
+        }
+      }
+    }, Threads.SAME_THREAD_EXECUTOR);
+  }
+
+  private void start(List<Integer> partitions) {
+    synchronized (this) {
+      for (int partition : partitions) {
+        consumptions.put(partition, null);
+      }
+    }
+    if (partitions.isEmpty()) {
+      completion.set(query);
+      return;
+    }
+
+    for (final int partition : partitions) {
+      ListenableFuture<List<Long>> offsets = Futures.allAsList(ImmutableList.of(
+        consumer.getOffset(Constants.LOG_TOPIC, partition, query.getStartTime()),
+        consumer.getOffset(Constants.LOG_TOPIC, partition, LATEST_OFFSET)));
+
+      Futures.addCallback(offsets, new FutureCallback<List<Long>>() {
+        @Override
+        public void onSuccess(List<Long> result) {
+          consume(partition, result.get(0), result.get(1));
+        }
+
+        @Override
+        public void onFailure(Throwable t) {
+          completion.setException(t);
+        }
+      }, Threads.SAME_THREAD_EXECUTOR);
+    }
+  }
+
+  /**
+   * Starts consuming the given partition, or marks it as done if there is nothing to consume.
+   */
+  private synchronized void consume(int partition, long startOffset, long endOffset) {
+    if (completion.isDone()) {
+      return;
+    }
+    if (startOffset >= endOffset) {
+      partitionDone(partition);
+      return;
+    }
+    LOG.debug("Replay log partition {} from offset {} to {}.", partition, startOffset, endOffset);
+    consumptions.put(partition, consumer.prepare()
+      .add(Constants.LOG_TOPIC, partition, startOffset)
+      .consume(new ReplayCallback(partition, endOffset)));
+  }
+
+  /**
+   * Removes the given partition from the replay and completes the replay if all partitions are done.
+   */
+  private synchronized void partitionDone(int partition) {
+    final Cancellable cancel = consumptions.remove(partition);
+    if (cancel != null) {
+      // Cancel asynchronously, as cancelling a consumption waits for its callback thread, which is calling this.
+      cancelExecutor.execute(new Runnable() {
+        @Override
+        public void run() {
+          cancel.cancel();
+        }
+      });
+    }
+    if (consumptions.isEmpty()) {
+      completion.set(query);
+    }
+  }
+
+  /**
+   * Decodes messages of a partition and delivers matching entries to the handler until the end offset is reached.
+   */
+  private final class ReplayCallback implements KafkaConsumer.MessageCallback {
+
+    private final int partition;
+    private final long endOffset;
+    private final List<LogEntry> entries;
+    private boolean done;
+
+    private ReplayCallback(int partition, long endOffset) {
+      this.partition = partition;
+      this.endOffset = endOffset;
+      this.entries = Lists.newArrayList();
+    }
+
+    @Override
+    public void onReceived(Iterator<FetchedMessage> messages) {
+      while (!done && !completion.isDone() && messages.hasNext()) {
+        FetchedMessage message = messages.next();
+        entries.clear();
+        LogDispatcher.decode(message.getPayload().duplicate(), entries);
+        for (LogEntry entry : entries) {
+          if (query.matches(entry)) {
+            deliver(entry);
+          }
+        }
+        if (message.getNextOffset() >= endOffset) {
+          done = true;
+          partitionDone(partition);
+        }
+      }
+    }
+
+    @Override
+    public void finished() {
+      // No-op
+    }
+
+    private void deliver(LogEntry entry) {
+      // Only one thread calls the handler at a time.
+      synchronized (handler) {
+        try {
+          handler.onLog(entry);
+        } catch (Throwable t) {
+          LOG.warn("Exception raised from LogHandler {} when replaying logs.", handler, t);
+        }
+      }
+    }
+  }
+}
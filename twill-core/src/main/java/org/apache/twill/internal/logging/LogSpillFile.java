@@ -0,0 +1,259 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.twill.internal.logging;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.List;
+
+/**
+ * A bounded, append-only queue of log messages backed by a memory mapped file. It holds encoded log messages
+ * while Kafka is unavailable, without keeping them on heap. Messages are read back in the order they are appended.
+ *
+ * <p>
+ * The file starts with a header that records the read and write positions, followed by records of a 4 bytes
+ * length and the message bytes. The header is updated after the records are written, so that the queue can be
+ * recovered from the file by a new instance, for example after the process restarted. When the end of the file is
+ * reached, unread records are moved to the beginning of the file.
+ * </p>
+ *
+ * <p>
+ * This class is not thread safe.
+ * </p>
+ */
+final class LogSpillFile implements Closeable {
+
+  private static final Logger LOG = LoggerFactory.getLogger(LogSpillFile.class);
+
+  private static final int MAGIC = 0x54574c53;
+  private static final int VERSION = 1;
+  private static final int READ_POS_OFFSET = 8;
+  private static final int WRITE_POS_OFFSET = 12;
+  private static final int HEADER_SIZE = 16;
+  private static final int COPY_BUFFER_SIZE = 8192;
+
+  private final File file;
+  private final RandomAccessFile raf;
+  private final MappedByteBuffer buffer;
+  private final int capacity;
+  private int readPos;
+  private int writePos;
+
+  /**
+   * Opens the spill file. If the file contains a valid queue of the same capacity, the queue is recovered.
+   * Otherwise, the file is reset to an empty queue.
+   *
+   * @param file The file to use.
+   * @param capacity Size of the file in bytes.
+   */
+  LogSpillFile(File file, int capacity) throws IOException {
+    Preconditions.checkArgument(capacity > HEADER_SIZE, "Capacity must be > %s: %s", HEADER_SIZE, capacity);
+    this.file = file;
+    this.capacity = capacity;
+    this.raf = new RandomAccessFile(file, "rw");
+    try {
+      boolean sameSize = raf.length() == capacity;
+      raf.setLength(capacity);
+      this.buffer = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, capacity);
+      if (!sameSize || !recover()) {
+        reset();
+      }
+    } catch (IOException e) {
+      raf.close();
+      throw e;
+    }
+  }
+
+  /**
+   * Returns {@code true} if there is no message in the queue.
+   */
+  boolean isEmpty() {
+    return readPos == writePos;
+  }
+
+  /**
+   * Returns the number of bytes of unread records.
+   */
+  int size() {
+    return writePos - readPos;
+  }
+
+  /**
+   * Appends the given messages. Either all or none of the messages are appended. The positions of the
+   * given buffers are not changed.
+   *
+   * @return {@code true} if the messages are appended, {@code false} if there is not enough space.
+   */
+  boolean append(List<ByteBuffer> messages) {
+    long bytes = 0;
+    for (ByteBuffer message : messages) {
+      bytes += 4 + message.remaining();
+    }
+    if (bytes > capacity - HEADER_SIZE - size()) {
+      return false;
+    }
+    if (writePos + bytes > capacity) {
+      compact();
+    }
+
+    for (ByteBuffer message : messages) {
+      buffer.putInt(writePos, message.remaining());
+      ByteBuffer dest = buffer.duplicate();
+      dest.position(writePos + 4);
+      dest.put(message.duplicate());
+      writePos = dest.position();
+    }
+    buffer.putInt(WRITE_POS_OFFSET, writePos);
+    return true;
+  }
+
+  /**
+   * Reads messages from the head of the queue without removing them. Messages are copied to heap buffers, so that
+   * they stay valid when the file content is moved. At least one message is returned if the queue is not empty.
+   *
+   * @param maxBytes Maximum total size of the messages to read.
+   * @return List of messages in the order they are appended.
+   */
+  List<ByteBuffer> peek(int maxBytes) {
+    ImmutableList.Builder<ByteBuffer> messages = ImmutableList.builder();
+    int pos = readPos;
+    int bytes = 0;
+    while (pos < writePos) {
+      int length = buffer.getInt(pos);
+      if (bytes > 0 && bytes + length > maxBytes) {
+        break;
+      }
+      ByteBuffer src = buffer.duplicate();
+      src.position(pos + 4);
+      src.limit(pos + 4 + length);
+      ByteBuffer message = ByteBuffer.allocate(length);
+      message.put(src).flip();
+      messages.add(message);
+
+      bytes += length;
+      pos += 4 + length;
+    }
+    return messages.build();
+  }
+
+  /**
+   * Removes the given number of messages from the head of the queue.
+   */
+  void remove(int count) {
+    for (int i = 0; i < count && readPos < writePos; i++) {
+      readPos += 4 + buffer.getInt(readPos);
+    }
+    if (readPos == writePos) {
+      // Start from the beginning again when the queue is drained, which avoids moving data on next append.
+      readPos = writePos = HEADER_SIZE;
+      buffer.putInt(WRITE_POS_OFFSET, writePos);
+    }
+    buffer.putInt(READ_POS_OFFSET, readPos);
+  }
+
+  @Override
+  public void close() throws IOException {
+    try {
+      buffer.force();
+    } finally {
+      raf.close();
+    }
+  }
+
+  @Override
+  public String toString() {
+    return file.getAbsolutePath();
+  }
+
+  /**
+   * Moves the unread records to the beginning of the file.
+   */
+  private void compact() {
+    if (readPos == HEADER_SIZE) {
+      return;
+    }
+    // Copy forward in chunks. It is safe for overlapping regions as the destination is before the source.
+    byte[] bytes = new byte[COPY_BUFFER_SIZE];
+    ByteBuffer src = buffer.duplicate();
+    ByteBuffer dest = buffer.duplicate();
+    src.position(readPos);
+    src.limit(writePos);
+    dest.position(HEADER_SIZE);
+    while (src.hasRemaining()) {
+      int len = Math.min(bytes.length, src.remaining());
+      src.get(bytes, 0, len);
+      dest.put(bytes, 0, len);
+    }
+    // Update the write position first, so that a crash in between leaves the queue empty instead of corrupted.
+    writePos = dest.position();
+    readPos = HEADER_SIZE;
+    buffer.putInt(WRITE_POS_OFFSET, readPos);
+    buffer.putInt(READ_POS_OFFSET, readPos);
+    buffer.putInt(WRITE_POS_OFFSET, writePos);
+  }
+
+  /**
+   * Recovers the queue positions from the file header.
+   *
+   * @return {@code true} if the header is valid.
+   */
+  private boolean recover() {
+    if (buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION) {
+      return false;
+    }
+    int read = buffer.getInt(READ_POS_OFFSET);
+    int write = buffer.getInt(WRITE_POS_OFFSET);
+    if (read < HEADER_SIZE || read > write || write > capacity) {
+      return false;
+    }
+
+    // Validates the records
+    int pos = read;
+    while (pos < write) {
+      int length = buffer.getInt(pos);
+      if (length < 0 || pos + 4 + length > write) {
+        return false;
+      }
+      pos += 4 + length;
+    }
+    readPos = read;
+    writePos = write;
+    if (!isEmpty()) {
+      LOG.info("Recovered {} bytes of log messages from {}.", size(), file);
+    }
+    return true;
+  }
+
+  private void reset() {
+    readPos = writePos = HEADER_SIZE;
+    buffer.putInt(0, MAGIC);
+    buffer.putInt(4, VERSION);
+    buffer.putInt(READ_POS_OFFSET, readPos);
+    buffer.putInt(WRITE_POS_OFFSET, writePos);
+  }
+}
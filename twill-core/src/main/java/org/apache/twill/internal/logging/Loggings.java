@@ -21,6 +21,8 @@ import ch.qos.logback.classic.Logger;
 import ch.qos.logback.classic.LoggerContext;
 import ch.qos.logback.classic.spi.ILoggingEvent;
 import ch.qos.logback.core.Appender;
+import org.apache.twill.api.logging.LogFilter;
+import org.apache.twill.kafka.client.KafkaClientMetrics;
 import org.slf4j.ILoggerFactory;
 import org.slf4j.LoggerFactory;
 
@@ -30,15 +32,47 @@ import org.slf4j.LoggerFactory;
 public final class Loggings {
 
   public static void forceFlush() {
+    KafkaAppender appender = getKafkaAppender();
+    if (appender != null) {
+      appender.forceFlush();
+    }
+  }
+
+  /**
+   * Sets the {@link LogFilter} of the {@link KafkaAppender} attached to the root logger.
+   *
+   * @return {@code true} if the filter is set, {@code false} if there is no {@link KafkaAppender}.
+   */
+  public static boolean setLogFilter(LogFilter filter) {
+    KafkaAppender appender = getKafkaAppender();
+    if (appender == null) {
+      return false;
+    }
+    appender.setLogFilter(filter);
+    return true;
+  }
+
+  /**
+   * Returns the metrics of the Kafka client of the {@link KafkaAppender} attached to the root logger.
+   *
+   * @return the metrics or {@code null} if there is no started {@link KafkaAppender}.
+   */
+  public static KafkaClientMetrics getKafkaClientMetrics() {
+    KafkaAppender appender = getKafkaAppender();
+    return appender == null ? null : appender.getKafkaClientMetrics();
+  }
+
+  private static KafkaAppender getKafkaAppender() {
     ILoggerFactory loggerFactory = LoggerFactory.getILoggerFactory();
 
     if (loggerFactory instanceof LoggerContext) {
       Appender<ILoggingEvent> appender = ((LoggerContext) loggerFactory).getLogger(Logger.ROOT_LOGGER_NAME)
                                                                         .getAppender("KAFKA");
-      if (appender != null && appender instanceof KafkaAppender) {
-        ((KafkaAppender) appender).forceFlush();
+      if (appender instanceof KafkaAppender) {
+        return (KafkaAppender) appender;
       }
     }
+    return null;
   }
 
   private Loggings() {
@@ -0,0 +1,149 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.twill.internal.logging;
+
+import com.google.common.base.Preconditions;
+
+import java.util.Collection;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * A bounded, lock-free queue backed by a ring buffer. Each slot carries a sequence number that tells whether
+ * it is ready to be written or read, so that multiple producers and consumers can operate on the buffer
+ * concurrently without locking. The capacity is rounded up to the next power of two.
+ *
+ * @param <E> Type of elements in the buffer.
+ */
+final class RingBuffer<E> {
+
+  private final int mask;
+  private final AtomicReferenceArray<E> elements;
+  private final AtomicLongArray sequences;
+  private final AtomicLong head;
+  private final AtomicLong tail;
+
+  RingBuffer(int capacity) {
+    Preconditions.checkArgument(capacity > 0 && capacity <= (1 << 30),
+                                "Capacity must be between 1 and 2^30: %s", capacity);
+    int size = Integer.highestOneBit(capacity);
+    if (size < capacity) {
+      size <<= 1;
+    }
+    this.mask = size - 1;
+    this.elements = new AtomicReferenceArray<E>(size);
+    this.sequences = new AtomicLongArray(size);
+    for (int i = 0; i < size; i++) {
+      sequences.set(i, i);
+    }
+    this.head = new AtomicLong();
+    this.tail = new AtomicLong();
+  }
+
+  /**
+   * Returns the capacity of this buffer.
+   */
+  int capacity() {
+    return mask + 1;
+  }
+
+  /**
+   * Returns an approximate number of elements in the buffer.
+   */
+  int size() {
+    long size = tail.get() - head.get();
+    return (int) Math.max(0L, Math.min(size, capacity()));
+  }
+
+  /**
+   * Inserts an element to the tail of the buffer.
+   *
+   * @return {@code true} if the element is inserted, {@code false} if the buffer is full.
+   */
+  boolean offer(E element) {
+    Preconditions.checkNotNull(element);
+    long pos = tail.get();
+    while (true) {
+      int idx = (int) (pos & mask);
+      long diff = sequences.get(idx) - pos;
+      if (diff == 0) {
+        if (tail.compareAndSet(pos, pos + 1)) {
+          elements.set(idx, element);
+          // Publish the slot for consumer
+          sequences.set(idx, pos + 1);
+          return true;
+        }
+        pos = tail.get();
+      } else if (diff < 0) {
+        // The slot is not yet consumed, meaning the buffer is full.
+        return false;
+      } else {
+        // Other producer claimed the slot.
+        pos = tail.get();
+      }
+    }
+  }
+
+  /**
+   * Removes the element at the head of the buffer.
+   *
+   * @return The element or {@code null} if the buffer is empty.
+   */
+  E poll() {
+    long pos = head.get();
+    while (true) {
+      int idx = (int) (pos & mask);
+      long diff = sequences.get(idx) - (pos + 1);
+      if (diff == 0) {
+        if (head.compareAndSet(pos, pos + 1)) {
+          E element = elements.get(idx);
+          elements.set(idx, null);
+          // Release the slot for producer of the next round
+          sequences.set(idx, pos + mask + 1);
+          return element;
+        }
+        pos = head.get();
+      } else if (diff < 0) {
+        // The slot is not yet published, meaning the buffer is empty.
+        return null;
+      } else {
+        // Other consumer took the slot.
+        pos = head.get();
+      }
+    }
+  }
+
+  /**
+   * Removes at most the given number of elements from the buffer and adds them to the given collection.
+   *
+   * @return Number of elements removed.
+   */
+  int drainTo(Collection<? super E> collection, int maxElements) {
+    int count = 0;
+    while (count < maxElements) {
+      E element = poll();
+      if (element == null) {
+        break;
+      }
+      collection.add(element);
+      count++;
+    }
+    return count;
+  }
+}
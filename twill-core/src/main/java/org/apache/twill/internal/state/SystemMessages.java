@@ -19,6 +19,8 @@ package org.apache.twill.internal.state;
 
 import com.google.common.base.Preconditions;
 import org.apache.twill.api.Command;
+import org.apache.twill.api.logging.LogFilter;
+import org.apache.twill.internal.logging.LogFilters;
 
 /**
  * Collection of predefined system messages.
@@ -26,6 +28,7 @@ import org.apache.twill.api.Command;
 public final class SystemMessages {
 
   public static final Command STOP_COMMAND = Command.Builder.of("stop").build();
+  public static final String LOG_FILTER_COMMAND = "logFilter";
   public static final Message SECURE_STORE_UPDATED = new SimpleMessage(
     Message.Type.SYSTEM, Message.Scope.APPLICATION, null, Command.Builder.of("secureStoreUpdated").build());
 
@@ -43,6 +46,29 @@ public final class SystemMessages {
                              Command.Builder.of("instances").addOption("count", Integer.toString(instances)).build());
   }
 
+  /**
+   * Creates a message for changing the {@link LogFilter} of the given runnable, or of all runnables if the
+   * runnable name is {@code null}.
+   */
+  public static Message setLogFilter(String runnableName, LogFilter filter) {
+    Command command = Command.Builder.of(LOG_FILTER_COMMAND).addOptions(LogFilters.toOptions(filter)).build();
+    if (runnableName == null) {
+      return new SimpleMessage(Message.Type.SYSTEM, Message.Scope.ALL_RUNNABLE, null, command);
+    }
+    return new SimpleMessage(Message.Type.SYSTEM, Message.Scope.RUNNABLE, runnableName, command);
+  }
+
+  /**
+   * Returns the {@link LogFilter} carried by the given message or {@code null} if the message is not
+   * created by {@link #setLogFilter(String, LogFilter)}.
+   */
+  public static LogFilter getLogFilter(Message message) {
+    if (message.getType() != Message.Type.SYSTEM || !LOG_FILTER_COMMAND.equals(message.getCommand().getCommand())) {
+      return null;
+    }
+    return LogFilters.fromOptions(message.getCommand().getOptions());
+  }
+
   private SystemMessages() {
   }
 }
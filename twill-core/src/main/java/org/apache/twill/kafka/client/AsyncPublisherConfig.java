@@ -0,0 +1,145 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.twill.kafka.client;
+
+import com.google.common.base.Objects;
+import com.google.common.base.Preconditions;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Configurations for a {@link KafkaPublisher} that publishes asynchronously. Messages sent through such publisher
+ * are accumulated in batches per topic and partition key. A batch is sent when its size reaches the batch size or
+ * when it has been waiting for the linger time, whichever comes first.
+ */
+public final class AsyncPublisherConfig {
+
+  private final long lingerMillis;
+  private final int batchSize;
+  private final long bufferMemory;
+  private final long maxBlockMillis;
+
+  /**
+   * Creates a {@link Builder} for building {@link AsyncPublisherConfig}.
+   */
+  public static Builder builder() {
+    return new Builder();
+  }
+
+  private AsyncPublisherConfig(long lingerMillis, int batchSize, long bufferMemory, long maxBlockMillis) {
+    this.lingerMillis = lingerMillis;
+    this.batchSize = batchSize;
+    this.bufferMemory = bufferMemory;
+    this.maxBlockMillis = maxBlockMillis;
+  }
+
+  /**
+   * Returns the maximum time in milliseconds that a message waits for more messages to join its batch.
+   */
+  public long getLingerMillis() {
+    return lingerMillis;
+  }
+
+  /**
+   * Returns the size in bytes that triggers the send of a batch.
+   */
+  public int getBatchSize() {
+    return batchSize;
+  }
+
+  /**
+   * Returns the maximum number of bytes of messages that can be waiting to be sent.
+   */
+  public long getBufferMemory() {
+    return bufferMemory;
+  }
+
+  /**
+   * Returns the maximum time in milliseconds that a send waits for buffer memory to become available.
+   */
+  public long getMaxBlockMillis() {
+    return maxBlockMillis;
+  }
+
+  @Override
+  public String toString() {
+    return Objects.toStringHelper(this)
+      .add("lingerMillis", lingerMillis)
+      .add("batchSize", batchSize)
+      .add("bufferMemory", bufferMemory)
+      .add("maxBlockMillis", maxBlockMillis)
+      .toString();
+  }
+
+  /**
+   * Builder for creating {@link AsyncPublisherConfig}.
+   */
+  public static final class Builder {
+
+    private long lingerMillis = 5L;
+    private int batchSize = 64 * 1024;
+    private long bufferMemory = 32L * 1024 * 1024;
+    private long maxBlockMillis = 60000L;
+
+    /**
+     * Sets the maximum time that a message waits for more messages to join its batch. Default is 5 milliseconds.
+     */
+    public Builder setLinger(long linger, TimeUnit unit) {
+      Preconditions.checkArgument(linger >= 0, "Linger time cannot be negative: %s", linger);
+      this.lingerMillis = unit.toMillis(linger);
+      return this;
+    }
+
+    /**
+     * Sets the size in bytes that triggers the send of a batch. Default is 64K.
+     */
+    public Builder setBatchSize(int batchSize) {
+      Preconditions.checkArgument(batchSize > 0, "Batch size must be positive: %s", batchSize);
+      this.batchSize = batchSize;
+      return this;
+    }
+
+    /**
+     * Sets the maximum number of bytes of messages that can be waiting to be sent. Default is 32M.
+     */
+    public Builder setBufferMemory(long bufferMemory) {
+      Preconditions.checkArgument(bufferMemory > 0 && bufferMemory <= Integer.MAX_VALUE,
+                                  "Buffer memory must be positive and not larger than %s: %s",
+                                  Integer.MAX_VALUE, bufferMemory);
+      this.bufferMemory = bufferMemory;
+      return this;
+    }
+
+    /**
+     * Sets the maximum time that a send waits for buffer memory to become available. When the time is reached,
+     * the send fails. Default is 60 seconds.
+     */
+    public Builder setMaxBlock(long maxBlock, TimeUnit unit) {
+      Preconditions.checkArgument(maxBlock >= 0, "Max block time cannot be negative: %s", maxBlock);
+      this.maxBlockMillis = unit.toMillis(maxBlock);
+      return this;
+    }
+
+    public AsyncPublisherConfig build() {
+      return new AsyncPublisherConfig(lingerMillis, batchSize, bufferMemory, maxBlockMillis);
+    }
+
+    private Builder() {
+    }
+  }
+}
@@ -50,7 +50,15 @@ public interface BrokerService extends Service {
   String getBrokerList();
 
   /**
-   * Adds a listener to changes in broker list managed by this service.
+   * Returns the latest snapshot of the cluster metadata. Topic partitions that have not been looked up through
+   * {@link #getLeader(String, int)} may not be included.
+   *
+   * @return An immutable {@link ClusterMetadata}.
+   */
+  ClusterMetadata getMetadata();
+
+  /**
+   * Adds a listener to changes in broker list and partition leaders managed by this service.
    *
    * @param listener The listener to invoke when there is changes.
    * @param executor Executor to use for invocation to the listener.
@@ -59,17 +67,28 @@ public interface BrokerService extends Service {
   Cancellable addChangeListener(BrokerChangeListener listener, Executor executor);
 
   /**
-   * Listener for changes in broker list.
+   * Listener for changes in broker list and partition leaders.
    */
   abstract class BrokerChangeListener {
 
     /**
-     * Invoked when there is a change in the broker list.
+     * Invoked when there is a change in the broker list or in the leader of a topic partition.
      *
      * @param brokerService The {@link BrokerService} that has broker list changes.
      */
     public void changed(BrokerService brokerService) {
       // No-op
     }
+
+    /**
+     * Invoked when there is a change in the broker list or in the leader of a topic partition. By default it calls
+     * {@link #changed(BrokerService)}. Override this method to act only on the parts that have changed.
+     *
+     * @param brokerService The {@link BrokerService} that has broker list changes.
+     * @param change The difference between the previous and the current {@link ClusterMetadata}.
+     */
+    public void changed(BrokerService brokerService, ClusterMetadata.Change change) {
+      changed(brokerService);
+    }
   }
 }
@@ -0,0 +1,335 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.twill.kafka.client;
+
+import com.google.common.base.Function;
+import com.google.common.base.Joiner;
+import com.google.common.base.Objects;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.ImmutableSortedMap;
+import com.google.common.collect.Iterables;
+import com.google.common.collect.MapDifference;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * An immutable snapshot of the Kafka cluster metadata known to a {@link BrokerService}. It contains the live brokers,
+ * the leader of each topic partition and the number of partitions of each topic. Every modification creates a new
+ * instance with an incremented version, hence a snapshot can be shared freely between threads.
+ */
+public final class ClusterMetadata {
+
+  private static final Function<BrokerInfo, String> BROKER_INFO_TO_ADDRESS = new Function<BrokerInfo, String>() {
+    @Override
+    public String apply(BrokerInfo input) {
+      return String.format("%s:%d", input.getHost(), input.getPort());
+    }
+  };
+
+  /**
+   * An empty snapshot with version {@code 0}.
+   */
+  public static final ClusterMetadata EMPTY = new ClusterMetadata(0L, ImmutableSortedMap.<Integer, BrokerInfo>of(),
+                                                                  ImmutableMap.<TopicPartition, Integer>of(),
+                                                                  ImmutableMap.<String, Integer>of());
+
+  private final long version;
+  private final ImmutableSortedMap<Integer, BrokerInfo> brokers;
+  private final ImmutableMap<TopicPartition, Integer> leaders;
+  private final ImmutableMap<String, Integer> partitionCounts;
+  private final String brokerList;
+
+  private ClusterMetadata(long version, ImmutableSortedMap<Integer, BrokerInfo> brokers,
+                          ImmutableMap<TopicPartition, Integer> leaders,
+                          ImmutableMap<String, Integer> partitionCounts) {
+    this.version = version;
+    this.brokers = brokers;
+    this.leaders = leaders;
+    this.partitionCounts = partitionCounts;
+    this.brokerList = Joiner.on(',').join(Iterables.transform(brokers.values(), BROKER_INFO_TO_ADDRESS));
+  }
+
+  /**
+   * Returns the version of this snapshot. The version is incremented on every modification.
+   */
+  public long getVersion() {
+    return version;
+  }
+
+  /**
+   * Returns an immutable map from broker id to {@link BrokerInfo} of all live brokers, ordered by broker id.
+   */
+  public Map<Integer, BrokerInfo> getBrokers() {
+    return brokers;
+  }
+
+  /**
+   * Returns the {@link BrokerInfo} of the given broker id or {@code null} if the broker is unknown.
+   */
+  public BrokerInfo getBroker(int brokerId) {
+    return brokers.get(brokerId);
+  }
+
+  /**
+   * Returns an immutable map from topic partition to the id of its leader broker.
+   */
+  public Map<TopicPartition, Integer> getLeaders() {
+    return leaders;
+  }
+
+  /**
+   * Returns the {@link BrokerInfo} of the leader of the given topic partition or {@code null} if the leader
+   * is unknown or the leader broker is not live.
+   */
+  public BrokerInfo getLeader(String topic, int partition) {
+    Integer leader = leaders.get(new TopicPartition(topic, partition));
+    return leader == null ? null : brokers.get(leader);
+  }
+
+  /**
+   * Returns an immutable map from topic to its number of partitions.
+   */
+  public Map<String, Integer> getPartitionCounts() {
+    return partitionCounts;
+  }
+
+  /**
+   * Returns the number of partitions of the given topic or {@code -1} if it is unknown.
+   */
+  public int getPartitionCount(String topic) {
+    Integer count = partitionCounts.get(topic);
+    return count == null ? -1 : count;
+  }
+
+  /**
+   * Returns a comma separated string of all live brokers.
+   * @return A string in the format {@code host1:port1,host2:port2} or empty string if there is no broker.
+   */
+  public String getBrokerList() {
+    return brokerList;
+  }
+
+  /**
+   * Returns a snapshot with the given broker added or updated. Returns this instance if nothing changed.
+   */
+  public ClusterMetadata withBroker(int brokerId, BrokerInfo brokerInfo) {
+    if (brokerInfo.equals(brokers.get(brokerId))) {
+      return this;
+    }
+    Map<Integer, BrokerInfo> newBrokers = Maps.newTreeMap(brokers);
+    newBrokers.put(brokerId, brokerInfo);
+    return new ClusterMetadata(version + 1, ImmutableSortedMap.copyOf(newBrokers), leaders, partitionCounts);
+  }
+
+  /**
+   * Returns a snapshot without the given brokers. Returns this instance if nothing changed.
+   */
+  public ClusterMetadata withoutBrokers(Set<Integer> brokerIds) {
+    if (Sets.intersection(brokers.keySet(), brokerIds).isEmpty()) {
+      return this;
+    }
+    Map<Integer, BrokerInfo> newBrokers = Maps.newTreeMap(brokers);
+    newBrokers.keySet().removeAll(brokerIds);
+    return new ClusterMetadata(version + 1, ImmutableSortedMap.copyOf(newBrokers), leaders, partitionCounts);
+  }
+
+  /**
+   * Returns a snapshot with the leader of the given topic partition set. A negative leader id removes the leader.
+   * Returns this instance if nothing changed.
+   */
+  public ClusterMetadata withLeader(TopicPartition topicPartition, int leader) {
+    if (leader < 0) {
+      return withoutLeaders(ImmutableSet.of(topicPartition));
+    }
+    if (Integer.valueOf(leader).equals(leaders.get(topicPartition))) {
+      return this;
+    }
+    Map<TopicPartition, Integer> newLeaders = Maps.newHashMap(leaders);
+    newLeaders.put(topicPartition, leader);
+    return new ClusterMetadata(version + 1, brokers, ImmutableMap.copyOf(newLeaders), partitionCounts);
+  }
+
+  /**
+   * Returns a snapshot without leader information of the given topic partitions. Returns this instance if nothing
+   * changed.
+   */
+  public ClusterMetadata withoutLeaders(Set<TopicPartition> topicPartitions) {
+    if (Sets.intersection(leaders.keySet(), topicPartitions).isEmpty()) {
+      return this;
+    }
+    Map<TopicPartition, Integer> newLeaders = Maps.newHashMap(leaders);
+    newLeaders.keySet().removeAll(topicPartitions);
+    return new ClusterMetadata(version + 1, brokers, ImmutableMap.copyOf(newLeaders), partitionCounts);
+  }
+
+  /**
+   * Returns a snapshot with the partition count of the given topic set. A negative count removes the topic
+   * together with the leaders of all its partitions. Returns this instance if nothing changed.
+   */
+  public ClusterMetadata withPartitionCount(String topic, int count) {
+    Map<String, Integer> newCounts = Maps.newHashMap(partitionCounts);
+    Map<TopicPartition, Integer> newLeaders = Maps.newHashMap(leaders);
+    if (count < 0) {
+      newCounts.remove(topic);
+    } else {
+      newCounts.put(topic, count);
+    }
+    // Drop leaders of partitions that no longer exist
+    for (TopicPartition topicPartition : leaders.keySet()) {
+      if (topicPartition.getTopic().equals(topic) && topicPartition.getPartition() >= Math.max(count, 0)) {
+        newLeaders.remove(topicPartition);
+      }
+    }
+    if (newCounts.equals(partitionCounts) && newLeaders.size() == leaders.size()) {
+      return this;
+    }
+    return new ClusterMetadata(version + 1, brokers, ImmutableMap.copyOf(newLeaders), ImmutableMap.copyOf(newCounts));
+  }
+
+  @Override
+  public String toString() {
+    return Objects.toStringHelper(this)
+      .add("version", version)
+      .add("brokers", brokers)
+      .add("leaders", leaders)
+      .add("partitionCounts", partitionCounts)
+      .toString();
+  }
+
+  /**
+   * Represents the difference between two {@link ClusterMetadata} snapshots.
+   */
+  public static final class Change {
+
+    private final ClusterMetadata previous;
+    private final ClusterMetadata current;
+    private final Map<Integer, BrokerInfo> addedBrokers;
+    private final Map<Integer, BrokerInfo> removedBrokers;
+    private final Set<TopicPartition> changedLeaders;
+    private final Set<String> changedTopics;
+
+    /**
+     * Computes the change from the previous snapshot to the current snapshot. A broker that changed its address
+     * is reported as both removed (with the old address) and added (with the new address).
+     */
+    public static Change between(ClusterMetadata previous, ClusterMetadata current) {
+      return new Change(previous, current);
+    }
+
+    private Change(ClusterMetadata previous, ClusterMetadata current) {
+      this.previous = previous;
+      this.current = current;
+
+      MapDifference<Integer, BrokerInfo> brokerDiff = Maps.difference(previous.getBrokers(), current.getBrokers());
+      ImmutableMap.Builder<Integer, BrokerInfo> added = ImmutableMap.builder();
+      ImmutableMap.Builder<Integer, BrokerInfo> removed = ImmutableMap.builder();
+      added.putAll(brokerDiff.entriesOnlyOnRight());
+      removed.putAll(brokerDiff.entriesOnlyOnLeft());
+      for (Map.Entry<Integer, MapDifference.ValueDifference<BrokerInfo>> entry
+                                                        : brokerDiff.entriesDiffering().entrySet()) {
+        added.put(entry.getKey(), entry.getValue().rightValue());
+        removed.put(entry.getKey(), entry.getValue().leftValue());
+      }
+      this.addedBrokers = added.build();
+      this.removedBrokers = removed.build();
+
+      MapDifference<TopicPartition, Integer> leaderDiff = Maps.difference(previous.getLeaders(), current.getLeaders());
+      this.changedLeaders = ImmutableSet.copyOf(Sets.union(Sets.union(leaderDiff.entriesOnlyOnLeft().keySet(),
+                                                                      leaderDiff.entriesOnlyOnRight().keySet()),
+                                                           leaderDiff.entriesDiffering().keySet()));
+
+      MapDifference<String, Integer> countDiff = Maps.difference(previous.getPartitionCounts(),
+                                                                 current.getPartitionCounts());
+      this.changedTopics = ImmutableSet.copyOf(Sets.union(Sets.union(countDiff.entriesOnlyOnLeft().keySet(),
+                                                                     countDiff.entriesOnlyOnRight().keySet()),
+                                                          countDiff.entriesDiffering().keySet()));
+    }
+
+    /**
+     * Returns the snapshot before the change.
+     */
+    public ClusterMetadata getPrevious() {
+      return previous;
+    }
+
+    /**
+     * Returns the snapshot after the change.
+     */
+    public ClusterMetadata getCurrent() {
+      return current;
+    }
+
+    /**
+     * Returns brokers that are new or have a new address.
+     */
+    public Map<Integer, BrokerInfo> getAddedBrokers() {
+      return addedBrokers;
+    }
+
+    /**
+     * Returns brokers that are gone or have changed their address, with the old {@link BrokerInfo}.
+     */
+    public Map<Integer, BrokerInfo> getRemovedBrokers() {
+      return removedBrokers;
+    }
+
+    /**
+     * Returns topic partitions whose leader has been added, removed or changed.
+     */
+    public Set<TopicPartition> getChangedLeaders() {
+      return changedLeaders;
+    }
+
+    /**
+     * Returns topics whose partition count has been added, removed or changed.
+     */
+    public Set<String> getChangedTopics() {
+      return changedTopics;
+    }
+
+    /**
+     * Returns {@code true} if the broker list is changed.
+     */
+    public boolean isBrokersChanged() {
+      return !addedBrokers.isEmpty() || !removedBrokers.isEmpty();
+    }
+
+    /**
+     * Returns {@code true} if there is no difference between the two snapshots.
+     */
+    public boolean isEmpty() {
+      return !isBrokersChanged() && changedLeaders.isEmpty() && changedTopics.isEmpty();
+    }
+
+    @Override
+    public String toString() {
+      return Objects.toStringHelper(this)
+        .add("fromVersion", previous.getVersion())
+        .add("toVersion", current.getVersion())
+        .add("addedBrokers", addedBrokers)
+        .add("removedBrokers", removedBrokers)
+        .add("changedLeaders", changedLeaders)
+        .add("changedTopics", changedTopics)
+        .toString();
+    }
+  }
+}
@@ -26,6 +26,9 @@ public interface FetchedMessage {
 
   TopicPartition getTopicPartition();
 
+  /**
+   * Returns the payload of the message. The buffer maybe reused for the next message in the same iteration.
+   */
   ByteBuffer getPayload();
 
   /**
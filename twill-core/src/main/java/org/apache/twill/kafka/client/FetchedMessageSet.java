@@ -0,0 +1,60 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.twill.kafka.client;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A set of messages fetched from a topic partition. It gives direct access to the raw message set buffer
+ * returned by Kafka, together with an index of the messages inside it.
+ */
+public interface FetchedMessageSet {
+
+  TopicPartition getTopicPartition();
+
+  /**
+   * Returns a read-only view of the raw message set buffer. Positions returned by
+   * {@link #getPayloadPosition(int)} are absolute positions in this buffer.
+   */
+  ByteBuffer getBuffer();
+
+  /**
+   * Returns number of messages in this set.
+   */
+  int size();
+
+  /**
+   * Returns the offset of the message at the given index.
+   */
+  long getOffset(int index);
+
+  /**
+   * Returns the position in the buffer where the payload of the message at the given index starts.
+   */
+  int getPayloadPosition(int index);
+
+  /**
+   * Returns the length of the payload of the message at the given index or {@code -1} if the payload is null.
+   */
+  int getPayloadLength(int index);
+
+  /**
+   * Returns the offset for the next message to be read after this set.
+   */
+  long getNextOffset();
+}
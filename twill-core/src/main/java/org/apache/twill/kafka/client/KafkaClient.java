@@ -30,6 +30,17 @@ public interface KafkaClient {
    */
   KafkaPublisher getPublisher(KafkaPublisher.Ack ack, Compression compression);
 
+  /**
+   * Creates a {@link KafkaPublisher} that publishes asynchronously. Messages are accumulated in batches and sent
+   * from a background thread. The future returned by {@link KafkaPublisher.Preparer#send()} is completed only when
+   * all messages sent through it are acknowledged by the broker, as defined by the given {@link KafkaPublisher.Ack}.
+   * @param ack Type of ack that the publisher would use for all it's publish.
+   * @param compression The compression type for messages published through the returned publisher.
+   * @param config Configurations for batching messages.
+   * @return A {@link KafkaPublisher}.
+   */
+  KafkaPublisher getPublisher(KafkaPublisher.Ack ack, Compression compression, AsyncPublisherConfig config);
+
   /**
    * Creates a {@link KafkaConsumer} for consuming messages.
    * @return A {@link KafkaConsumer}.
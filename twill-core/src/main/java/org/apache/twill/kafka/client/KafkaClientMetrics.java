@@ -0,0 +1,294 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.twill.kafka.client;
+
+import com.google.common.base.Objects;
+import com.google.common.collect.ImmutableMap;
+
+import java.util.Arrays;
+import java.util.Map;
+
+/**
+ * An immutable snapshot of the metrics collected by a {@link KafkaClientService}. Counters are cumulative since
+ * the client started, so rates such as bytes per second are computed from two snapshots and their timestamps.
+ */
+public final class KafkaClientMetrics {
+
+  private final long timestamp;
+  private final Map<TopicPartition, PartitionMetrics> partitions;
+  private final Histogram fetchLatency;
+  private final long fetchedBytes;
+  private final long fetchErrors;
+  private final Histogram publishLatency;
+  private final Histogram publishBatchMessages;
+  private final Histogram publishBatchBytes;
+  private final long publishedMessages;
+  private final long publishedBytes;
+  private final long publishErrors;
+
+  public KafkaClientMetrics(long timestamp, Map<TopicPartition, PartitionMetrics> partitions,
+                            Histogram fetchLatency, long fetchedBytes, long fetchErrors,
+                            Histogram publishLatency, Histogram publishBatchMessages, Histogram publishBatchBytes,
+                            long publishedMessages, long publishedBytes, long publishErrors) {
+    this.timestamp = timestamp;
+    this.partitions = ImmutableMap.copyOf(partitions);
+    this.fetchLatency = fetchLatency;
+    this.fetchedBytes = fetchedBytes;
+    this.fetchErrors = fetchErrors;
+    this.publishLatency = publishLatency;
+    this.publishBatchMessages = publishBatchMessages;
+    this.publishBatchBytes = publishBatchBytes;
+    this.publishedMessages = publishedMessages;
+    this.publishedBytes = publishedBytes;
+    this.publishErrors = publishErrors;
+  }
+
+  /**
+   * Returns the time in milliseconds when this snapshot was taken.
+   */
+  public long getTimestamp() {
+    return timestamp;
+  }
+
+  /**
+   * Returns the consumer position of every topic partition that is being consumed. If a topic partition is
+   * consumed by multiple consumers at the same time, the position of the one with the largest lag is returned.
+   */
+  public Map<TopicPartition, PartitionMetrics> getPartitions() {
+    return partitions;
+  }
+
+  /**
+   * Returns the sum of the lag of all consumed topic partitions.
+   */
+  public long getTotalLag() {
+    long lag = 0;
+    for (PartitionMetrics partition : partitions.values()) {
+      lag += partition.getLag();
+    }
+    return lag;
+  }
+
+  /**
+   * Returns the round-trip time in milliseconds of fetch requests.
+   */
+  public Histogram getFetchLatency() {
+    return fetchLatency;
+  }
+
+  /**
+   * Returns the total number of message bytes fetched.
+   */
+  public long getFetchedBytes() {
+    return fetchedBytes;
+  }
+
+  /**
+   * Returns the number of failed fetch requests, including failures reported for individual partitions.
+   */
+  public long getFetchErrors() {
+    return fetchErrors;
+  }
+
+  /**
+   * Returns the time in milliseconds taken to send a batch of messages.
+   */
+  public Histogram getPublishLatency() {
+    return publishLatency;
+  }
+
+  /**
+   * Returns the number of messages in each published batch.
+   */
+  public Histogram getPublishBatchMessages() {
+    return publishBatchMessages;
+  }
+
+  /**
+   * Returns the number of bytes in each published batch.
+   */
+  public Histogram getPublishBatchBytes() {
+    return publishBatchBytes;
+  }
+
+  /**
+   * Returns the total number of messages published successfully.
+   */
+  public long getPublishedMessages() {
+    return publishedMessages;
+  }
+
+  /**
+   * Returns the total number of bytes published successfully.
+   */
+  public long getPublishedBytes() {
+    return publishedBytes;
+  }
+
+  /**
+   * Returns the number of batches that failed to publish.
+   */
+  public long getPublishErrors() {
+    return publishErrors;
+  }
+
+  @Override
+  public String toString() {
+    return Objects.toStringHelper(this)
+      .add("timestamp", timestamp)
+      .add("partitions", partitions)
+      .add("fetchLatency", fetchLatency)
+      .add("fetchedBytes", fetchedBytes)
+      .add("fetchErrors", fetchErrors)
+      .add("publishLatency", publishLatency)
+      .add("publishBatchMessages", publishBatchMessages)
+      .add("publishBatchBytes", publishBatchBytes)
+      .add("publishedMessages", publishedMessages)
+      .add("publishedBytes", publishedBytes)
+      .add("publishErrors", publishErrors)
+      .toString();
+  }
+
+  /**
+   * Consumer position of a topic partition.
+   */
+  public static final class PartitionMetrics {
+
+    private final long offset;
+    private final long highWatermark;
+
+    public PartitionMetrics(long offset, long highWatermark) {
+      this.offset = offset;
+      this.highWatermark = highWatermark;
+    }
+
+    /**
+     * Returns the offset of the next message to fetch.
+     */
+    public long getOffset() {
+      return offset;
+    }
+
+    /**
+     * Returns the offset after the last committed message in the partition, as of the last fetch.
+     */
+    public long getHighWatermark() {
+      return highWatermark;
+    }
+
+    /**
+     * Returns the number of messages that are not yet fetched.
+     */
+    public long getLag() {
+      return Math.max(0L, highWatermark - offset);
+    }
+
+    @Override
+    public String toString() {
+      return Objects.toStringHelper(this)
+        .add("offset", offset)
+        .add("highWatermark", highWatermark)
+        .add("lag", getLag())
+        .toString();
+    }
+  }
+
+  /**
+   * A histogram of non-negative values with exponential buckets. Bucket {@code 0} counts the value {@code 0} and
+   * bucket {@code i} counts values in the range {@code [2^(i-1), 2^i)}.
+   */
+  public static final class Histogram {
+
+    private final long count;
+    private final long sum;
+    private final long min;
+    private final long max;
+    private final long[] buckets;
+
+    public Histogram(long count, long sum, long min, long max, long[] buckets) {
+      this.count = count;
+      this.sum = sum;
+      this.min = min;
+      this.max = max;
+      this.buckets = Arrays.copyOf(buckets, buckets.length);
+    }
+
+    public long getCount() {
+      return count;
+    }
+
+    public long getSum() {
+      return sum;
+    }
+
+    /**
+     * Returns the minimum value recorded or {@code 0} if there is no value.
+     */
+    public long getMin() {
+      return min;
+    }
+
+    /**
+     * Returns the maximum value recorded or {@code 0} if there is no value.
+     */
+    public long getMax() {
+      return max;
+    }
+
+    /**
+     * Returns a copy of the bucket counts.
+     */
+    public long[] getBuckets() {
+      return Arrays.copyOf(buckets, buckets.length);
+    }
+
+    public double getMean() {
+      return count == 0 ? 0d : (double) sum / count;
+    }
+
+    /**
+     * Returns an estimate of the given percentile, which is the upper bound of the bucket that contains it,
+     * capped by the maximum value.
+     *
+     * @param percentile A value between {@code 0} and {@code 100}.
+     */
+    public long getPercentile(double percentile) {
+      long rank = (long) Math.ceil(count * percentile / 100d);
+      long seen = 0;
+      for (int i = 0; i < buckets.length; i++) {
+        seen += buckets[i];
+        if (seen >= rank && seen > 0) {
+          return i == 0 ? 0L : Math.min(max, (1L << i) - 1);
+        }
+      }
+      return max;
+    }
+
+    @Override
+    public String toString() {
+      return Objects.toStringHelper(this)
+        .add("count", count)
+        .add("min", min)
+        .add("max", max)
+        .add("mean", getMean())
+        .add("p50", getPercentile(50))
+        .add("p99", getPercentile(99))
+        .toString();
+    }
+  }
+}
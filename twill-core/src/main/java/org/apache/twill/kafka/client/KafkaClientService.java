@@ -23,4 +23,9 @@ import com.google.common.util.concurrent.Service;
  * A {@link KafkaClient} that extends {@link Service} to provide lifecycle management.
  */
 public interface KafkaClientService extends KafkaClient, Service {
+
+  /**
+   * Returns a snapshot of the metrics of the consumer and all publishers created by this client.
+   */
+  KafkaClientMetrics getMetrics();
 }
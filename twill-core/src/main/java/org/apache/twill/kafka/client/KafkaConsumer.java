@@ -17,9 +17,11 @@
  */
 package org.apache.twill.kafka.client;
 
+import com.google.common.util.concurrent.ListenableFuture;
 import org.apache.twill.common.Cancellable;
 
 import java.util.Iterator;
+import java.util.concurrent.TimeUnit;
 
 /**
  * A consumer for consuming (reading) messages published to a Kafka server cluster.
@@ -33,8 +35,8 @@ public interface KafkaConsumer {
 
     /**
      * Invoked when new messages is available.
-     * @param messages Iterator of new messages. The {@link FetchedMessage} instance maybe reused in the Iterator
-     *                 and across different invocation.
+     * @param messages Iterator of new messages. The {@link FetchedMessage} instance and its payload buffer maybe
+     *                 reused in the Iterator and across different invocation.
      */
     void onReceived(Iterator<FetchedMessage> messages);
 
@@ -45,6 +47,19 @@ public interface KafkaConsumer {
     void finished();
   }
 
+  /**
+   * A {@link MessageCallback} that receives fetched messages in bulk. Message sets that contain compressed
+   * messages are still delivered through {@link #onReceived(java.util.Iterator)}.
+   */
+  interface MessageSetCallback extends MessageCallback {
+
+    /**
+     * Invoked when a new set of messages is available.
+     * @param messageSet Set of new messages. The {@link FetchedMessageSet} is only valid during this call.
+     */
+    void onReceived(FetchedMessageSet messageSet);
+  }
+
   /**
    * A builder for preparing message consumption.
    */
@@ -76,6 +91,46 @@ public interface KafkaConsumer {
      */
     Preparer addLatest(String topic, int partition);
 
+    /**
+     * Enables long polling. Each fetch request waits on the broker until at least {@code minBytes} of messages
+     * are available or until {@code maxWait} has passed, whichever comes first. Fetches return as soon as new
+     * messages arrive.
+     * @param minBytes Minimum number of bytes of messages that the broker should accumulate before responding.
+     * @param maxWait Maximum amount of time that the broker waits before responding.
+     * @param unit Unit of the {@code maxWait}.
+     * @return This {@link Preparer} instance.
+     */
+    Preparer setLongPoll(int minBytes, long maxWait, TimeUnit unit);
+
+    /**
+     * Sets the wait time between fetches when no message is fetched. The wait starts from {@code minWait} and
+     * doubles for every consecutive empty fetch, up to {@code maxWait}. It is reset once messages are fetched.
+     * Time spent by the broker for long polling is counted as part of the wait.
+     * @param minWait Wait time after the first empty fetch.
+     * @param maxWait Maximum wait time between empty fetches.
+     * @param unit Unit of the wait times.
+     * @return This {@link Preparer} instance.
+     */
+    Preparer setEmptyFetchBackoff(long minWait, long maxWait, TimeUnit unit);
+
+    /**
+     * Sets the range of the fetch size used for each partition. The actual fetch size of a partition adapts to
+     * the observed volume of messages in that partition. It grows automatically, up to {@code maxSize}, when a
+     * message larger than the current fetch size is encountered.
+     * @param minSize Minimum number of bytes to fetch from a partition per request.
+     * @param maxSize Maximum number of bytes to fetch from a partition per request.
+     * @return This {@link Preparer} instance.
+     */
+    Preparer setFetchSize(int minSize, int maxSize);
+
+    /**
+     * Sets the maximum number of fetched message sets that can be waiting for the {@link MessageCallback}.
+     * Fetching continues while the callback is processing messages, and pauses when this limit is reached.
+     * @param limit Maximum number of message sets fetched ahead of the callback.
+     * @return This {@link Preparer} instance.
+     */
+    Preparer setPrefetchLimit(int limit);
+
     /**
      * Starts the consumption as being configured by this {@link Preparer}.
      * @param callback The {@link MessageCallback} for receiving new messages.
@@ -89,4 +144,17 @@ public interface KafkaConsumer {
    * @return A {@link Preparer} to setup details about message consumption.
    */
   Preparer prepare();
+
+  /**
+   * Looks up the offset of a topic partition by time. As the broker only keeps track of the time of each log
+   * segment, the offset returned is the first offset of the latest segment that was last modified before the
+   * given time, hence messages published before the given time could be found after the offset.
+   * @param topic Topic of the partition.
+   * @param partition Partition in the topic.
+   * @param time Time in milliseconds. {@code -1} for the offset of the next message to be published and
+   *             {@code -2} for the earliest offset.
+   * @return A {@link ListenableFuture} that completes with the offset, which is {@code 0} if the topic partition
+   *         doesn't exist or there is no offset before the given time.
+   */
+  ListenableFuture<Long> getOffset(String topic, int partition, long time);
 }
@@ -42,6 +42,24 @@ public interface KafkaPublisher {
      */
     Preparer add(ByteBuffer message, Object partitionKey);
 
+    /**
+     * Adds the given message to the message set, partitioned with the given integer partition key. This is the
+     * same as calling {@link #add(ByteBuffer, Object)} with the boxed key, without creating the boxed key.
+     * @param message Remaining bytes in the ByteBuffer will be used as message payload.
+     * @param partitionKey Key for computing the partition Id to publish to.
+     * @return This {@link Preparer} instance.
+     */
+    Preparer add(ByteBuffer message, int partitionKey);
+
+    /**
+     * Adds all the given messages to the message set, all partitioned with the same partition key.
+     * @param messages Remaining bytes in each ByteBuffer will be used as message payload.
+     * @param partitionKey Key for computing the partition Id to publish to. The {@link Object#hashCode()} method
+     *                     will be invoked once to compute the id.
+     * @return This {@link Preparer} instance.
+     */
+    Preparer addAll(Iterable<ByteBuffer> messages, Object partitionKey);
+
     /**
      * Sends all the messages being added through the {@link #add} method.
      *
@@ -18,6 +18,9 @@
 package org.apache.twill.internal;
 
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
 import com.google.common.util.concurrent.Service;
 import org.apache.twill.api.Command;
 import org.apache.twill.api.ResourceReport;
@@ -27,6 +30,7 @@ import org.apache.twill.api.TwillController;
 import org.apache.twill.api.logging.LogHandler;
 import org.apache.twill.common.ServiceListenerAdapter;
 import org.apache.twill.common.Threads;
+import org.apache.twill.internal.state.Message;
 import org.apache.twill.internal.zookeeper.InMemoryZKServer;
 import org.apache.twill.zookeeper.NodeData;
 import org.apache.twill.zookeeper.ZKClient;
@@ -37,6 +41,8 @@ import org.junit.Test;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.Collections;
+import java.util.List;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.TimeUnit;
@@ -163,6 +169,59 @@ public class ControllerTest {
     }
   }
 
+  @Test
+  public void testMessageOrder() throws Exception {
+    InMemoryZKServer zkServer = InMemoryZKServer.builder().build();
+    zkServer.startAndWait();
+
+    try {
+      RunId runId = RunIds.generate();
+      // Use multiple event threads, so that callbacks of different message nodes run in different threads
+      ZKClientService zkClientService = ZKClientService.Builder.of(zkServer.getConnectionStr())
+        .setEventThreads(8)
+        .build();
+      zkClientService.startAndWait();
+
+      final List<String> received = Collections.synchronizedList(Lists.<String>newArrayList());
+      Service service = new AbstractTwillService(zkClientService, runId) {
+        private final CountDownLatch stopLatch = new CountDownLatch(1);
+
+        @Override
+        public ListenableFuture<String> onReceived(String messageId, Message message) {
+          received.add(message.getCommand().getCommand());
+          return Futures.immediateFuture(messageId);
+        }
+
+        @Override
+        protected void doRun() throws Exception {
+          stopLatch.await();
+        }
+
+        @Override
+        protected void triggerShutdown() {
+          stopLatch.countDown();
+        }
+      };
+      service.startAndWait();
+
+      TwillController controller = getController(zkClientService, runId);
+      List<String> sent = Lists.newArrayList();
+      List<ListenableFuture<Command>> futures = Lists.newArrayList();
+      for (int i = 0; i < 50; i++) {
+        String command = "command" + i;
+        sent.add(command);
+        futures.add(controller.sendCommand(Command.Builder.of(command).build()));
+      }
+      Futures.allAsList(futures).get(10, TimeUnit.SECONDS);
+      Assert.assertEquals(sent, received);
+
+      controller.stop().get(10, TimeUnit.SECONDS);
+      zkClientService.stopAndWait();
+    } finally {
+      zkServer.stopAndWait();
+    }
+  }
+
   private Service createService(ZKClient zkClient, RunId runId) {
     return new AbstractTwillService(zkClient, runId) {
 
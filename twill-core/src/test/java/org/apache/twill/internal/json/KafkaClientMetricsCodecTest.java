@@ -0,0 +1,67 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.twill.internal.json;
+
+import com.google.common.collect.ImmutableMap;
+import org.apache.twill.kafka.client.KafkaClientMetrics;
+import org.apache.twill.kafka.client.TopicPartition;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.StringReader;
+import java.io.StringWriter;
+
+/**
+ * Tests the {@link KafkaClientMetricsCodec}.
+ */
+public class KafkaClientMetricsCodecTest {
+
+  @Test
+  public void testCodec() {
+    long[] latencyBuckets = new long[Long.SIZE];
+    latencyBuckets[0] = 1;
+    latencyBuckets[4] = 3;
+    latencyBuckets[10] = 1;
+    KafkaClientMetrics.Histogram latency = new KafkaClientMetrics.Histogram(5, 1100, 0, 1000, latencyBuckets);
+    KafkaClientMetrics.Histogram empty = new KafkaClientMetrics.Histogram(0, 0, 0, 0, new long[Long.SIZE]);
+
+    KafkaClientMetrics metrics = new KafkaClientMetrics(
+      1234L, ImmutableMap.of(new TopicPartition("log", 0), new KafkaClientMetrics.PartitionMetrics(10, 25),
+                             new TopicPartition("log", 1), new KafkaClientMetrics.PartitionMetrics(5, 5)),
+      latency, 4096L, 2L, empty, empty, empty, 0L, 0L, 1L);
+
+    StringWriter writer = new StringWriter();
+    KafkaClientMetricsCodec.encode(metrics, writer);
+    KafkaClientMetrics decoded = KafkaClientMetricsCodec.decode(new StringReader(writer.toString()));
+
+    Assert.assertEquals(1234L, decoded.getTimestamp());
+    Assert.assertEquals(15L, decoded.getTotalLag());
+    Assert.assertEquals(15L, decoded.getPartitions().get(new TopicPartition("log", 0)).getLag());
+    Assert.assertEquals(0L, decoded.getPartitions().get(new TopicPartition("log", 1)).getLag());
+    Assert.assertEquals(4096L, decoded.getFetchedBytes());
+    Assert.assertEquals(2L, decoded.getFetchErrors());
+    Assert.assertEquals(1L, decoded.getPublishErrors());
+
+    Assert.assertEquals(5L, decoded.getFetchLatency().getCount());
+    Assert.assertEquals(1000L, decoded.getFetchLatency().getMax());
+    Assert.assertArrayEquals(latencyBuckets, decoded.getFetchLatency().getBuckets());
+    Assert.assertEquals(15L, decoded.getFetchLatency().getPercentile(50));
+    Assert.assertEquals(1000L, decoded.getFetchLatency().getPercentile(99));
+    Assert.assertEquals(0L, decoded.getPublishLatency().getPercentile(99));
+  }
+}
@@ -0,0 +1,89 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.twill.internal.json;
+
+import com.google.common.io.InputSupplier;
+import com.google.common.io.OutputSupplier;
+import org.apache.twill.api.logging.LogRetention;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.net.URI;
+
+/**
+ * Tests the {@link LogRetentionCodec}.
+ */
+public class LogRetentionCodecTest {
+
+  @Test
+  public void testCodec() throws IOException {
+    Assert.assertEquals(LogRetention.DEFAULT, encodeDecode(LogRetention.DEFAULT));
+
+    LogRetention retention = LogRetention.Builder.create()
+      .setRetentionHours(48)
+      .setRetentionBytes(1024L * 1024 * 1024 * 10)
+      .setSegmentBytes(64 * 1024 * 1024)
+      .setSegmentHours(1)
+      .setFlushIntervalMessages(100)
+      .setFlushIntervalMillis(500)
+      .setArchiveLocation(URI.create("hdfs://namenode/twill/logs"))
+      .build();
+    Assert.assertEquals(retention, encodeDecode(retention));
+  }
+
+  @Test
+  public void testArchiveRetentionBytes() {
+    LogRetention.Builder builder = LogRetention.Builder.create()
+      .setRetentionBytes(100L * 1024 * 1024)
+      .setSegmentBytes(64 * 1024 * 1024);
+
+    // Small retention size is fine without archiving
+    builder.build();
+
+    // With archiving, retention must hold at least two segments
+    builder.setArchiveLocation(URI.create("hdfs://namenode/twill/logs"));
+    try {
+      builder.build();
+      Assert.fail("Expected retention bytes smaller than two segments to be rejected.");
+    } catch (IllegalStateException e) {
+      // Expected
+    }
+    builder.setRetentionBytes(128L * 1024 * 1024).build();
+  }
+
+  private LogRetention encodeDecode(LogRetention retention) throws IOException {
+    final StringWriter writer = new StringWriter();
+    LogRetentionCodec.encode(retention, new OutputSupplier<Writer>() {
+      @Override
+      public Writer getOutput() throws IOException {
+        return writer;
+      }
+    });
+    return LogRetentionCodec.decode(new InputSupplier<Reader>() {
+      @Override
+      public Reader getInput() throws IOException {
+        return new StringReader(writer.toString());
+      }
+    });
+  }
+}
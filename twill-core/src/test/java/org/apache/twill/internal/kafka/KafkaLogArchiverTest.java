@@ -0,0 +1,93 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.twill.internal.kafka;
+
+import com.google.common.base.Charsets;
+import com.google.common.io.CharStreams;
+import com.google.common.io.Files;
+import com.google.common.io.InputSupplier;
+import org.apache.twill.filesystem.LocalLocationFactory;
+import org.apache.twill.filesystem.Location;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+
+/**
+ * Tests for {@link KafkaLogArchiver}.
+ */
+public class KafkaLogArchiverTest {
+
+  @Rule
+  public TemporaryFolder tmpFolder = new TemporaryFolder();
+
+  @Test
+  public void testArchive() throws Exception {
+    File logDir = tmpFolder.newFolder();
+    Location archiveLocation = new LocalLocationFactory(tmpFolder.newFolder()).create("archive");
+
+    File partitionDir = new File(logDir, "log-0");
+    Assert.assertTrue(partitionDir.mkdirs());
+    writeSegment(partitionDir, 0, "segment0");
+    writeSegment(partitionDir, 100, "segment1");
+    Files.write("index", new File(partitionDir, String.format("%020d.index", 0)), Charsets.UTF_8);
+
+    KafkaLogArchiver archiver = new KafkaLogArchiver(logDir, archiveLocation, 3600);
+    archiver.startAndWait();
+    try {
+      // Only the closed segment is archived
+      archiver.run();
+      Location partitionLocation = archiveLocation.append("log-0");
+      Assert.assertEquals(1, partitionLocation.list().size());
+      Assert.assertEquals("segment0", read(partitionLocation.append(String.format("%020d.log", 0))));
+
+      // Roll a new segment and deletes the oldest one
+      writeSegment(partitionDir, 200, "segment2");
+      Assert.assertTrue(new File(partitionDir, String.format("%020d.log", 0)).delete());
+      archiver.run();
+      Assert.assertEquals(2, partitionLocation.list().size());
+      Assert.assertEquals("segment1", read(partitionLocation.append(String.format("%020d.log", 100))));
+    } finally {
+      archiver.stopAndWait();
+    }
+
+    // The active segment is archived on stop
+    Location partitionLocation = archiveLocation.append("log-0");
+    Assert.assertEquals(3, partitionLocation.list().size());
+    Assert.assertEquals("segment2", read(partitionLocation.append(String.format("%020d.log", 200))));
+  }
+
+  private void writeSegment(File partitionDir, long offset, String content) throws IOException {
+    Files.write(content, new File(partitionDir, String.format("%020d.log", offset)), Charsets.UTF_8);
+  }
+
+  private String read(final Location location) throws IOException {
+    return CharStreams.toString(new InputSupplier<InputStreamReader>() {
+      @Override
+      public InputStreamReader getInput() throws IOException {
+        InputStream is = location.getInputStream();
+        return new InputStreamReader(is, Charsets.UTF_8);
+      }
+    });
+  }
+}
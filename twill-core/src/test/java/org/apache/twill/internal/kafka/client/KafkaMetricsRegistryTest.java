@@ -0,0 +1,58 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.twill.internal.kafka.client;
+
+import org.apache.twill.kafka.client.KafkaClientMetrics;
+import org.apache.twill.kafka.client.TopicPartition;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Tests for {@link KafkaMetricsRegistry}.
+ */
+public class KafkaMetricsRegistryTest {
+
+  @Test
+  public void testPositionsPerConsumption() {
+    KafkaMetricsRegistry registry = new KafkaMetricsRegistry();
+    TopicPartition topicPartition = new TopicPartition("log", 0);
+    Object live = new Object();
+    Object replay = new Object();
+
+    registry.updatePosition(live, topicPartition, 990L, 1000L);
+    registry.updatePosition(replay, topicPartition, 100L, 1000L);
+
+    // The consumption that is the furthest behind is reported
+    KafkaClientMetrics.PartitionMetrics position = registry.snapshot().getPartitions().get(topicPartition);
+    Assert.assertEquals(100L, position.getOffset());
+    Assert.assertEquals(900L, position.getLag());
+
+    // Updates from one consumption don't overwrite the other
+    registry.updatePosition(live, topicPartition, 1000L, 1000L);
+    Assert.assertEquals(100L, registry.snapshot().getPartitions().get(topicPartition).getOffset());
+
+    // Removing the replay keeps the live position
+    registry.removePosition(replay, topicPartition);
+    position = registry.snapshot().getPartitions().get(topicPartition);
+    Assert.assertEquals(1000L, position.getOffset());
+    Assert.assertEquals(0L, position.getLag());
+
+    registry.removePosition(live, topicPartition);
+    Assert.assertFalse(registry.snapshot().getPartitions().containsKey(topicPartition));
+  }
+}
@@ -0,0 +1,66 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.twill.internal.kafka.client;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Tests for {@link MessageBatch}.
+ */
+public class MessageBatchTest {
+
+  @Test
+  public void testPartitionKey() {
+    // Object keys keep the Math.abs mapping, so that keys stay in the same partition across upgrades
+    for (final int hashCode : new int[] { 0, 1, 7, -1, -7, Integer.MAX_VALUE, Integer.MIN_VALUE + 1 }) {
+      Object key = new Object() {
+        @Override
+        public int hashCode() {
+          return hashCode;
+        }
+      };
+      Assert.assertEquals(Math.abs(hashCode), MessageBatch.partitionKey(key));
+    }
+  }
+
+  @Test
+  public void testIntPartitionKey() {
+    for (int key : new int[] { 0, 1, 7, -1, -7, Integer.MAX_VALUE, Integer.MIN_VALUE, Integer.MIN_VALUE + 1 }) {
+      // The int and the boxed key must map to the same partition key
+      Assert.assertEquals(Math.abs(key), MessageBatch.partitionKey(key));
+      Assert.assertEquals(MessageBatch.partitionKey(Integer.valueOf(key)), MessageBatch.partitionKey(key));
+    }
+  }
+
+  @Test
+  public void testPartitioner() {
+    IntegerPartitioner partitioner = new IntegerPartitioner(null);
+    int[] keys = { 0, 1, 7, Integer.MAX_VALUE, Integer.MIN_VALUE };
+    for (int numPartitions = 1; numPartitions <= 10; numPartitions++) {
+      for (int key : keys) {
+        int partition = partitioner.partition(key, numPartitions);
+        Assert.assertTrue("Invalid partition " + partition + " for key " + key,
+                          partition >= 0 && partition < numPartitions);
+        if (key >= 0) {
+          Assert.assertEquals(key % numPartitions, partition);
+        }
+      }
+    }
+  }
+}
@@ -0,0 +1,207 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.twill.internal.logging;
+
+import com.google.common.base.Charsets;
+import com.google.common.collect.Lists;
+import org.apache.twill.api.logging.LogEntry;
+import org.apache.twill.api.logging.LogHandler;
+import org.apache.twill.kafka.client.FetchedMessage;
+import org.apache.twill.kafka.client.TopicPartition;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tests for {@link LogDispatcher}.
+ */
+public class LogDispatcherTest {
+
+  @Test
+  public void testDispatch() throws Exception {
+    LogDispatcher dispatcher = new LogDispatcher(4, 300, true);
+    try {
+      final BlockingQueue<String> fastMessages = new LinkedBlockingQueue<String>();
+      LogHandler fastHandler = new LogHandler() {
+        @Override
+        public void onLog(LogEntry logEntry) {
+          fastMessages.add(logEntry.getMessage());
+        }
+      };
+
+      // A handler that blocks until released
+      final CountDownLatch enteredLatch = new CountDownLatch(1);
+      final CountDownLatch releaseLatch = new CountDownLatch(1);
+      final BlockingQueue<String> slowMessages = new LinkedBlockingQueue<String>();
+      LogHandler slowHandler = new LogHandler() {
+        @Override
+        public void onLog(LogEntry logEntry) {
+          enteredLatch.countDown();
+          try {
+            releaseLatch.await();
+          } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+          }
+          slowMessages.add(logEntry.getMessage());
+        }
+      };
+
+      dispatcher.addLogHandler(fastHandler);
+      dispatcher.addLogHandler(slowHandler);
+
+      // Dispatch two rounds. The slow handler shouldn't block the dispatch.
+      for (int round = 0; round < 2; round++) {
+        List<FetchedMessage> messages = Lists.newArrayList();
+        for (int i = 0; i < 250; i++) {
+          messages.add(createMessage("Message " + (round * 250 + i)));
+        }
+        dispatcher.onReceived(messages.iterator());
+
+        // Fast handler gets all entries in order.
+        for (int i = 0; i < 250; i++) {
+          Assert.assertEquals("Message " + (round * 250 + i), fastMessages.poll(5, TimeUnit.SECONDS));
+        }
+        Assert.assertTrue(enteredLatch.await(5, TimeUnit.SECONDS));
+      }
+      Assert.assertEquals(0, dispatcher.getDroppedCount(fastHandler));
+
+      // Slow handler has a full queue, one entry being handled, and the rest are dropped.
+      Assert.assertEquals(300, dispatcher.getLag(slowHandler));
+      Assert.assertEquals(199, dispatcher.getDroppedCount(slowHandler));
+
+      releaseLatch.countDown();
+      for (int i = 0; i < 301; i++) {
+        Assert.assertEquals("Message " + i, slowMessages.poll(5, TimeUnit.SECONDS));
+      }
+    } finally {
+      dispatcher.stop();
+    }
+  }
+
+  @Test
+  public void testBlockOnFull() throws Exception {
+    final LogDispatcher dispatcher = new LogDispatcher(4, 10, false);
+    try {
+      final CountDownLatch releaseLatch = new CountDownLatch(1);
+      final BlockingQueue<String> messages = new LinkedBlockingQueue<String>();
+      LogHandler slowHandler = new LogHandler() {
+        @Override
+        public void onLog(LogEntry logEntry) {
+          try {
+            releaseLatch.await();
+          } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+          }
+          messages.add(logEntry.getMessage());
+        }
+      };
+      dispatcher.addLogHandler(slowHandler);
+
+      final List<FetchedMessage> fetched = Lists.newArrayList();
+      for (int i = 0; i < 100; i++) {
+        fetched.add(createMessage("Message " + i));
+      }
+      final CountDownLatch dispatchedLatch = new CountDownLatch(1);
+      Thread dispatchThread = new Thread() {
+        @Override
+        public void run() {
+          dispatcher.onReceived(fetched.iterator());
+          dispatchedLatch.countDown();
+        }
+      };
+      dispatchThread.start();
+
+      // Dispatch is blocked by the full queue of the slow handler
+      Assert.assertFalse(dispatchedLatch.await(1, TimeUnit.SECONDS));
+      Assert.assertEquals(10, dispatcher.getLag(slowHandler));
+
+      // Once the handler catches up, all entries are delivered in order without any drop
+      releaseLatch.countDown();
+      Assert.assertTrue(dispatchedLatch.await(5, TimeUnit.SECONDS));
+      for (int i = 0; i < 100; i++) {
+        Assert.assertEquals("Message " + i, messages.poll(5, TimeUnit.SECONDS));
+      }
+      Assert.assertEquals(0, dispatcher.getDroppedCount(slowHandler));
+    } finally {
+      dispatcher.stop();
+    }
+  }
+
+  @Test
+  public void testStopUnblocks() throws Exception {
+    final LogDispatcher dispatcher = new LogDispatcher(4, 10, false);
+    final CountDownLatch releaseLatch = new CountDownLatch(1);
+    dispatcher.addLogHandler(new LogHandler() {
+      @Override
+      public void onLog(LogEntry logEntry) {
+        try {
+          releaseLatch.await();
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+      }
+    });
+
+    final List<FetchedMessage> fetched = Lists.newArrayList();
+    for (int i = 0; i < 100; i++) {
+      fetched.add(createMessage("Message " + i));
+    }
+    final CountDownLatch dispatchedLatch = new CountDownLatch(1);
+    Thread dispatchThread = new Thread() {
+      @Override
+      public void run() {
+        dispatcher.onReceived(fetched.iterator());
+        dispatchedLatch.countDown();
+      }
+    };
+    dispatchThread.start();
+    Assert.assertFalse(dispatchedLatch.await(1, TimeUnit.SECONDS));
+
+    // Stopping the dispatcher shouldn't leave the dispatching thread blocked
+    dispatcher.stop();
+    Assert.assertTrue(dispatchedLatch.await(5, TimeUnit.SECONDS));
+  }
+
+  private FetchedMessage createMessage(String message) {
+    final ByteBuffer payload = Charsets.UTF_8.encode("{\"name\":\"test\",\"host\":\"localhost\",\"timestamp\":\"0\","
+                                                       + "\"level\":\"INFO\",\"line\":\"1\",\"message\":\""
+                                                       + message + "\"}");
+    return new FetchedMessage() {
+      @Override
+      public TopicPartition getTopicPartition() {
+        return new TopicPartition("log", 0);
+      }
+
+      @Override
+      public ByteBuffer getPayload() {
+        return payload;
+      }
+
+      @Override
+      public long getNextOffset() {
+        return 0;
+      }
+    };
+  }
+}
@@ -0,0 +1,123 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.twill.internal.logging;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.Logger;
+import ch.qos.logback.classic.LoggerContext;
+import ch.qos.logback.classic.spi.LoggingEvent;
+import com.google.common.base.Charsets;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import org.apache.twill.api.logging.LogEntry;
+import org.apache.twill.api.logging.LogFormat;
+import org.apache.twill.api.logging.LogThrowable;
+import org.apache.twill.internal.InstanceLogEntry;
+import org.apache.twill.internal.json.LogEntryDecoder;
+import org.apache.twill.internal.json.LogThrowableCodec;
+import org.apache.twill.internal.json.StackTraceElementCodec;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+
+/**
+ * Tests for {@link LogEventEncoder}.
+ */
+public class LogEventEncoderTest {
+
+  private static final Gson GSON = new GsonBuilder()
+    .registerTypeAdapter(LogEntry.class, new LogEntryDecoder())
+    .registerTypeAdapter(LogThrowable.class, new LogThrowableCodec())
+    .registerTypeAdapter(StackTraceElement.class, new StackTraceElementCodec())
+    .create();
+
+  @Test
+  public void testJson() throws Exception {
+    testEncode(LogFormat.JSON);
+  }
+
+  @Test
+  public void testBinary() throws Exception {
+    testEncode(LogFormat.BINARY);
+  }
+
+  private void testEncode(LogFormat format) throws Exception {
+    Logger logger = new LoggerContext().getLogger(LogEventEncoderTest.class);
+    // Caller data is extracted from the stack when the snapshot is created, hence using the snapshot class as the
+    // logger class in order to get this test method as the caller.
+    String fqcn = LogEventSnapshot.class.getName();
+    Exception exception = new IllegalStateException("Failure", new RuntimeException("Cause"));
+    LoggingEvent infoEvent = new LoggingEvent(fqcn, logger, Level.INFO, "Message {} \u00e9\u4e2d",
+                                              null, new Object[] { 1 });
+    LoggingEvent errorEvent = new LoggingEvent(fqcn, logger, Level.ERROR, "Error", exception, null);
+
+    LogEventEncoder encoder = LogEventEncoder.create(format, "host", "runnable", 1);
+    for (int i = 0; i < 2; i++) {
+      // Encode twice to verify buffer reuse
+      List<LogEntry> entries = decode(encoder.encode(ImmutableList.of(LogEventSnapshot.create(infoEvent),
+                                                                      LogEventSnapshot.create(errorEvent))));
+      Assert.assertEquals(2, entries.size());
+
+      LogEntry info = entries.get(0);
+      Assert.assertEquals(logger.getName(), info.getLoggerName());
+      Assert.assertEquals("host", info.getHost());
+      Assert.assertEquals("runnable", info.getRunnableName());
+      Assert.assertEquals(1, ((InstanceLogEntry) info).getInstanceId());
+      Assert.assertEquals(infoEvent.getTimeStamp(), info.getTimestamp());
+      Assert.assertEquals(LogEntry.Level.INFO, info.getLogLevel());
+      Assert.assertEquals("Message 1 \u00e9\u4e2d", info.getMessage());
+      Assert.assertEquals(LogEventEncoderTest.class.getName(), info.getSourceClassName());
+      Assert.assertEquals("testEncode", info.getSourceMethodName());
+      Assert.assertTrue(info.getLineNumber() > 0);
+      Assert.assertEquals(Thread.currentThread().getName(), info.getThreadName());
+      Assert.assertNull(info.getThrowable());
+
+      LogEntry error = entries.get(1);
+      Assert.assertEquals(LogEntry.Level.ERROR, error.getLogLevel());
+      Assert.assertEquals("runnable", error.getRunnableName());
+      Assert.assertEquals(IllegalStateException.class.getName(), error.getThrowable().getClassName());
+      Assert.assertEquals("Failure", error.getThrowable().getMessage());
+      Assert.assertArrayEquals(exception.getStackTrace(), error.getThrowable().getStackTraces());
+      Assert.assertEquals("Cause", error.getThrowable().getCause().getMessage());
+      Assert.assertArrayEquals(exception.getCause().getStackTrace(),
+                               error.getThrowable().getCause().getStackTraces());
+      Assert.assertNull(error.getThrowable().getCause().getCause());
+
+      encoder.release(true);
+    }
+  }
+
+  /**
+   * Decodes messages the same way as the log consumer, by detecting the format of each message.
+   */
+  private List<LogEntry> decode(List<ByteBuffer> messages) {
+    List<LogEntry> entries = Lists.newArrayList();
+    for (ByteBuffer message : messages) {
+      if (BinaryLogEntryCodec.isBinary(message)) {
+        entries.addAll(BinaryLogEntryCodec.decode(message));
+      } else {
+        entries.add(GSON.fromJson(Charsets.UTF_8.decode(message).toString(), LogEntry.class));
+      }
+    }
+    return entries;
+  }
+}
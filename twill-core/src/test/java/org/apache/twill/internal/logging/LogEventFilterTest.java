@@ -0,0 +1,138 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.twill.internal.logging;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.LoggerContext;
+import ch.qos.logback.classic.spi.LoggingEvent;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.io.CharStreams;
+import com.google.common.io.OutputSupplier;
+import org.apache.twill.api.logging.LogEntry;
+import org.apache.twill.api.logging.LogFilter;
+import org.apache.twill.internal.json.LogFilterCodec;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.util.Map;
+
+/**
+ * Tests for {@link LogEventFilter} and {@link LogFilters}.
+ */
+public class LogEventFilterTest {
+
+  private final LoggerContext context = new LoggerContext();
+
+  @Test
+  public void testFilter() {
+    LogEventFilter filter = new LogEventFilter(LogFilter.Builder.create()
+                                                 .setLevel(LogEntry.Level.INFO)
+                                                 .include("com.example")
+                                                 .exclude("com.example.noisy")
+                                                 .build());
+
+    Assert.assertTrue(filter.accept(createEvent("com.example.Service", Level.INFO)));
+    Assert.assertTrue(filter.accept(createEvent("com.example.Service", Level.ERROR)));
+    Assert.assertFalse(filter.accept(createEvent("com.example.Service", Level.DEBUG)));
+    Assert.assertFalse(filter.accept(createEvent("org.example.Service", Level.ERROR)));
+    Assert.assertFalse(filter.accept(createEvent("com.example.noisy.Service", Level.ERROR)));
+
+    // Fatal maps to error, as logback has no fatal level
+    filter = new LogEventFilter(LogFilter.Builder.create().setLevel(LogEntry.Level.FATAL).build());
+    Assert.assertTrue(filter.accept(createEvent("com.example.Service", Level.ERROR)));
+    Assert.assertFalse(filter.accept(createEvent("com.example.Service", Level.WARN)));
+  }
+
+  @Test
+  public void testRateCap() throws InterruptedException {
+    LogEventFilter filter = new LogEventFilter(LogFilter.Builder.create().setMaxEventsPerSecond(10).build());
+
+    int accepted = 0;
+    for (int i = 0; i < 100; i++) {
+      if (filter.accept(createEvent("com.example.Service", Level.INFO))) {
+        accepted++;
+      }
+    }
+    // Could be up to 20 if a new window starts during the loop
+    Assert.assertTrue(accepted >= 10 && accepted <= 20);
+
+    // In the next window, events should be accepted again
+    Thread.sleep(1100);
+    Assert.assertTrue(filter.accept(createEvent("com.example.Service", Level.INFO)));
+  }
+
+  @Test
+  public void testCodec() throws Exception {
+    LogFilter filter = LogFilter.Builder.create()
+      .setLevel(LogEntry.Level.WARN)
+      .include("com.example")
+      .include("org.example")
+      .exclude("com.example.noisy")
+      .setMaxEventsPerSecond(100)
+      .build();
+
+    Assert.assertEquals(filter, LogFilters.decode(LogFilters.encode(filter)));
+    Assert.assertEquals(filter, LogFilters.fromOptions(LogFilters.toOptions(filter)));
+    Assert.assertEquals(LogFilter.ALL, LogFilters.decode(LogFilters.encode(LogFilter.ALL)));
+
+    Map<String, LogFilter> filters = ImmutableMap.of("r1", filter, "r2", LogFilter.ALL);
+    final StringWriter writer = new StringWriter();
+    LogFilterCodec.encode(filters, new OutputSupplier<Writer>() {
+      @Override
+      public Writer getOutput() throws IOException {
+        return writer;
+      }
+    });
+    Assert.assertEquals(filters, LogFilterCodec.decode(CharStreams.newReaderSupplier(writer.toString())));
+  }
+
+  @Test
+  public void testCodecSpecialCharacters() {
+    // Characters that are valid in logger names, including ones that need escaping in XML, survive the encoding
+    LogFilter filter = LogFilter.Builder.create()
+      .include("com.example.Outer$Inner")
+      .include("com.example.<generated>")
+      .exclude("a&b\"c'd")
+      .build();
+    Assert.assertEquals(filter, LogFilters.decode(LogFilters.encode(filter)));
+    Assert.assertEquals(filter, LogFilters.fromOptions(LogFilters.toOptions(filter)));
+
+    // Characters used by the encoding are rejected
+    for (String prefix : new String[] { "com.example,other", "com.example;other", "com.example=other", " com" }) {
+      try {
+        LogFilter.Builder.create().include(prefix);
+        Assert.fail("Expected prefix to be rejected: " + prefix);
+      } catch (IllegalArgumentException e) {
+        // Expected
+      }
+      try {
+        LogFilter.Builder.create().exclude(prefix);
+        Assert.fail("Expected prefix to be rejected: " + prefix);
+      } catch (IllegalArgumentException e) {
+        // Expected
+      }
+    }
+  }
+
+  private LoggingEvent createEvent(String loggerName, Level level) {
+    return new LoggingEvent(getClass().getName(), context.getLogger(loggerName), level, "Message", null, null);
+  }
+}
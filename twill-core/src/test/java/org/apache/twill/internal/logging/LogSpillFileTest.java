@@ -0,0 +1,136 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.twill.internal.logging;
+
+import com.google.common.base.Charsets;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.List;
+
+/**
+ * Tests for {@link LogSpillFile}.
+ */
+public class LogSpillFileTest {
+
+  @Rule
+  public TemporaryFolder tmpFolder = new TemporaryFolder();
+
+  @Test
+  public void testAppendRemove() throws IOException {
+    File file = tmpFolder.newFile();
+    LogSpillFile spill = new LogSpillFile(file, 1024);
+    try {
+      Assert.assertTrue(spill.isEmpty());
+      Assert.assertTrue(spill.peek(100).isEmpty());
+
+      List<ByteBuffer> messages = toBuffers("m1", "m2", "m3");
+      Assert.assertTrue(spill.append(messages));
+      // Buffers passed in are not consumed
+      Assert.assertEquals(2, messages.get(0).remaining());
+
+      // Always returns at least one message
+      Assert.assertEquals(ImmutableList.of("m1"), toStrings(spill.peek(1)));
+      Assert.assertEquals(ImmutableList.of("m1", "m2"), toStrings(spill.peek(4)));
+      spill.remove(2);
+      Assert.assertEquals(ImmutableList.of("m3"), toStrings(spill.peek(100)));
+
+      spill.append(toBuffers("m4"));
+      Assert.assertEquals(ImmutableList.of("m3", "m4"), toStrings(spill.peek(100)));
+      spill.remove(2);
+      Assert.assertTrue(spill.isEmpty());
+    } finally {
+      spill.close();
+    }
+  }
+
+  @Test
+  public void testBounded() throws IOException {
+    File file = tmpFolder.newFile();
+    // 16 bytes header, 100 bytes for records
+    LogSpillFile spill = new LogSpillFile(file, 116);
+    try {
+      // Each record takes 4 + 16 = 20 bytes
+      for (int i = 0; i < 5; i++) {
+        Assert.assertTrue(spill.append(toBuffers(String.format("message-%08d", i))));
+      }
+      Assert.assertFalse(spill.append(toBuffers(String.format("message-%08d", 5))));
+
+      // After removing from the head, new messages are appended by moving the remaining to the beginning.
+      spill.remove(2);
+      Assert.assertTrue(spill.append(toBuffers(String.format("message-%08d", 5), String.format("message-%08d", 6))));
+      Assert.assertFalse(spill.append(toBuffers("x")));
+
+      List<String> messages = toStrings(spill.peek(Integer.MAX_VALUE));
+      Assert.assertEquals(5, messages.size());
+      for (int i = 0; i < messages.size(); i++) {
+        Assert.assertEquals(String.format("message-%08d", i + 2), messages.get(i));
+      }
+    } finally {
+      spill.close();
+    }
+  }
+
+  @Test
+  public void testRecover() throws IOException {
+    File file = tmpFolder.newFile();
+    LogSpillFile spill = new LogSpillFile(file, 1024);
+    spill.append(toBuffers("m1", "m2", "m3"));
+    spill.remove(1);
+    spill.close();
+
+    // Reopen recovers the unread messages
+    spill = new LogSpillFile(file, 1024);
+    try {
+      Assert.assertEquals(ImmutableList.of("m2", "m3"), toStrings(spill.peek(100)));
+    } finally {
+      spill.close();
+    }
+
+    // Reopen with a different size starts with an empty file
+    spill = new LogSpillFile(file, 2048);
+    try {
+      Assert.assertTrue(spill.isEmpty());
+    } finally {
+      spill.close();
+    }
+  }
+
+  private List<ByteBuffer> toBuffers(String...messages) {
+    List<ByteBuffer> buffers = Lists.newArrayList();
+    for (String message : messages) {
+      buffers.add(Charsets.UTF_8.encode(message));
+    }
+    return buffers;
+  }
+
+  private List<String> toStrings(List<ByteBuffer> buffers) {
+    List<String> messages = Lists.newArrayList();
+    for (ByteBuffer buffer : buffers) {
+      messages.add(Charsets.UTF_8.decode(buffer).toString());
+    }
+    return messages;
+  }
+}
@@ -0,0 +1,103 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.twill.internal.logging;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tests for {@link RingBuffer}.
+ */
+public class RingBufferTest {
+
+  @Test
+  public void testBounded() {
+    RingBuffer<Integer> buffer = new RingBuffer<Integer>(5);
+    Assert.assertEquals(8, buffer.capacity());
+
+    for (int i = 0; i < 8; i++) {
+      Assert.assertTrue(buffer.offer(i));
+    }
+    Assert.assertFalse(buffer.offer(8));
+    Assert.assertEquals(8, buffer.size());
+
+    // Wraps around after polling
+    Assert.assertEquals(0, buffer.poll().intValue());
+    Assert.assertTrue(buffer.offer(8));
+
+    List<Integer> drained = Lists.newArrayList();
+    Assert.assertEquals(8, buffer.drainTo(drained, 10));
+    for (int i = 0; i < 8; i++) {
+      Assert.assertEquals(i + 1, drained.get(i).intValue());
+    }
+    Assert.assertNull(buffer.poll());
+    Assert.assertEquals(0, buffer.size());
+  }
+
+  @Test
+  public void testConcurrentProducers() throws InterruptedException {
+    final RingBuffer<Integer> buffer = new RingBuffer<Integer>(64);
+    final int producers = 4;
+    final int count = 10000;
+    final CountDownLatch startLatch = new CountDownLatch(1);
+
+    List<Thread> threads = Lists.newArrayList();
+    for (int i = 0; i < producers; i++) {
+      final int base = i * count;
+      Thread t = new Thread() {
+        @Override
+        public void run() {
+          try {
+            startLatch.await();
+          } catch (InterruptedException e) {
+            return;
+          }
+          for (int j = 0; j < count; j++) {
+            while (!buffer.offer(base + j)) {
+              Thread.yield();
+            }
+          }
+        }
+      };
+      t.start();
+      threads.add(t);
+    }
+
+    startLatch.countDown();
+    Set<Integer> received = Sets.newHashSet();
+    long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+    while (received.size() < producers * count && System.nanoTime() < deadline) {
+      Integer element = buffer.poll();
+      if (element != null) {
+        Assert.assertTrue(received.add(element));
+      }
+    }
+    for (Thread t : threads) {
+      t.join();
+    }
+    Assert.assertEquals(producers * count, received.size());
+    Assert.assertNull(buffer.poll());
+  }
+}
@@ -0,0 +1,102 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.twill.kafka.client;
+
+import com.google.common.collect.ImmutableSet;
+import com.google.gson.Gson;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Tests for {@link ClusterMetadata}.
+ */
+public class ClusterMetadataTest {
+
+  private static final Gson GSON = new Gson();
+
+  @Test
+  public void testCopyOnWrite() {
+    ClusterMetadata empty = ClusterMetadata.EMPTY;
+    ClusterMetadata metadata = empty.withBroker(1, broker("host1", 9092))
+                                    .withBroker(0, broker("host0", 9092))
+                                    .withPartitionCount("topic", 2)
+                                    .withLeader(new TopicPartition("topic", 0), 0)
+                                    .withLeader(new TopicPartition("topic", 1), 1);
+
+    // The original snapshot is not modified
+    Assert.assertTrue(empty.getBrokers().isEmpty());
+    Assert.assertEquals("", empty.getBrokerList());
+
+    Assert.assertEquals(5L, metadata.getVersion());
+    Assert.assertEquals("host0:9092,host1:9092", metadata.getBrokerList());
+    Assert.assertEquals(2, metadata.getPartitionCount("topic"));
+    Assert.assertEquals(-1, metadata.getPartitionCount("unknown"));
+    Assert.assertEquals(broker("host1", 9092), metadata.getLeader("topic", 1));
+    Assert.assertNull(metadata.getLeader("topic", 2));
+
+    // No-op modifications return the same instance
+    Assert.assertSame(metadata, metadata.withBroker(0, broker("host0", 9092)));
+    Assert.assertSame(metadata, metadata.withLeader(new TopicPartition("topic", 0), 0));
+    Assert.assertSame(metadata, metadata.withPartitionCount("topic", 2));
+    Assert.assertSame(metadata, metadata.withoutBrokers(ImmutableSet.of(5)));
+
+    // Leader of a broker that is gone is unknown
+    ClusterMetadata noBroker1 = metadata.withoutBrokers(ImmutableSet.of(1));
+    Assert.assertNull(noBroker1.getLeader("topic", 1));
+    Assert.assertEquals("host0:9092", noBroker1.getBrokerList());
+
+    // Shrinking the partition count drops leaders of removed partitions
+    ClusterMetadata shrunk = metadata.withPartitionCount("topic", 1);
+    Assert.assertEquals(1, shrunk.getLeaders().size());
+    Assert.assertTrue(metadata.withPartitionCount("topic", -1).getLeaders().isEmpty());
+  }
+
+  @Test
+  public void testChange() {
+    ClusterMetadata previous = ClusterMetadata.EMPTY.withBroker(0, broker("host0", 9092))
+                                                    .withBroker(1, broker("host1", 9092))
+                                                    .withPartitionCount("topic", 1)
+                                                    .withLeader(new TopicPartition("topic", 0), 0);
+
+    Assert.assertTrue(ClusterMetadata.Change.between(previous, previous).isEmpty());
+
+    // Broker 0 moves to a new port, broker 1 is gone and broker 2 joins. Leadership moves to broker 2.
+    ClusterMetadata current = previous.withBroker(0, broker("host0", 9093))
+                                      .withoutBrokers(ImmutableSet.of(1))
+                                      .withBroker(2, broker("host2", 9092))
+                                      .withLeader(new TopicPartition("topic", 0), 2);
+
+    ClusterMetadata.Change change = ClusterMetadata.Change.between(previous, current);
+    Assert.assertFalse(change.isEmpty());
+    Assert.assertTrue(change.isBrokersChanged());
+    Assert.assertEquals(ImmutableSet.of(0, 2), change.getAddedBrokers().keySet());
+    Assert.assertEquals(broker("host0", 9093), change.getAddedBrokers().get(0));
+    Assert.assertEquals(ImmutableSet.of(0, 1), change.getRemovedBrokers().keySet());
+    Assert.assertEquals(broker("host0", 9092), change.getRemovedBrokers().get(0));
+    Assert.assertEquals(ImmutableSet.of(new TopicPartition("topic", 0)), change.getChangedLeaders());
+    Assert.assertTrue(change.getChangedTopics().isEmpty());
+
+    change = ClusterMetadata.Change.between(current, current.withPartitionCount("topic", 2));
+    Assert.assertFalse(change.isBrokersChanged());
+    Assert.assertEquals(ImmutableSet.of("topic"), change.getChangedTopics());
+  }
+
+  private BrokerInfo broker(String host, int port) {
+    return GSON.fromJson(String.format("{\"host\":\"%s\",\"port\":%d}", host, port), BrokerInfo.class);
+  }
+}
@@ -19,12 +19,25 @@ package org.apache.twill.kafka.client;
 
 import com.google.common.base.Charsets;
 import com.google.common.base.Preconditions;
+import com.google.common.base.Strings;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
 import com.google.common.collect.Queues;
+import com.google.common.collect.Sets;
 import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import org.apache.twill.api.logging.LogEntry;
+import org.apache.twill.api.logging.LogHandler;
+import org.apache.twill.api.logging.LogQuery;
 import org.apache.twill.common.Cancellable;
 import org.apache.twill.common.Services;
+import org.apache.twill.internal.Constants;
+import org.apache.twill.internal.InstanceLogEntry;
 import org.apache.twill.internal.kafka.EmbeddedKafkaServer;
 import org.apache.twill.internal.kafka.client.ZKKafkaClientService;
+import org.apache.twill.internal.logging.LogReplayer;
 import org.apache.twill.internal.utils.Networks;
 import org.apache.twill.internal.zookeeper.InMemoryZKServer;
 import org.apache.twill.zookeeper.ZKClientService;
@@ -40,11 +53,15 @@ import org.slf4j.LoggerFactory;
 
 import java.io.File;
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Properties;
+import java.util.Set;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
  *
@@ -120,6 +137,268 @@ public class KafkaTest {
     Assert.assertTrue(stopLatch.await(1, TimeUnit.SECONDS));
   }
 
+  @Test
+  public void testLongPoll() throws Exception {
+    String topic = "testLongPoll";
+
+    // Publish one message to make sure the topic exists before consuming
+    KafkaPublisher publisher = kafkaClient.getPublisher(KafkaPublisher.Ack.LEADER_RECEIVED, Compression.NONE);
+    publisher.prepare(topic).add(Charsets.UTF_8.encode("Message 0"), 0).send().get();
+
+    final BlockingQueue<String> consumedMessages = Queues.newLinkedBlockingQueue();
+    Cancellable cancel = kafkaClient.getConsumer().prepare()
+      .addFromBeginning(topic, 0)
+      .setLongPoll(1, 2, TimeUnit.SECONDS)
+      .setEmptyFetchBackoff(10, 100, TimeUnit.MILLISECONDS)
+      .consume(new KafkaConsumer.MessageCallback() {
+        @Override
+        public void onReceived(Iterator<FetchedMessage> messages) {
+          while (messages.hasNext()) {
+            consumedMessages.add(Charsets.UTF_8.decode(messages.next().getPayload()).toString());
+          }
+        }
+
+        @Override
+        public void finished() {
+          // No-op
+        }
+      });
+
+    Assert.assertEquals("Message 0", consumedMessages.poll(5, TimeUnit.SECONDS));
+
+    // Messages published while the consumer is waiting on the broker should be delivered.
+    for (int i = 1; i <= 3; i++) {
+      publisher.prepare(topic).add(Charsets.UTF_8.encode("Message " + i), 0).send().get();
+      Assert.assertEquals("Message " + i, consumedMessages.poll(5, TimeUnit.SECONDS));
+    }
+    cancel.cancel();
+  }
+
+  @Test
+  public void testLargeMessage() throws Exception {
+    String topic = "testLargeMessage";
+
+    // Publish messages larger than the minimum fetch size
+    KafkaPublisher publisher = kafkaClient.getPublisher(KafkaPublisher.Ack.LEADER_RECEIVED, Compression.NONE);
+    String largeMessage = Strings.repeat("0123456789", 2000);
+    publisher.prepare(topic)
+      .add(Charsets.UTF_8.encode("Small message"), 0)
+      .add(Charsets.UTF_8.encode(largeMessage), 0)
+      .add(Charsets.UTF_8.encode("Small message"), 0)
+      .send().get();
+
+    final BlockingQueue<String> consumedMessages = Queues.newLinkedBlockingQueue();
+    Cancellable cancel = kafkaClient.getConsumer().prepare()
+      .addFromBeginning(topic, 0)
+      .setFetchSize(1024, 1024 * 1024)
+      .consume(new KafkaConsumer.MessageCallback() {
+        @Override
+        public void onReceived(Iterator<FetchedMessage> messages) {
+          while (messages.hasNext()) {
+            consumedMessages.add(Charsets.UTF_8.decode(messages.next().getPayload()).toString());
+          }
+        }
+
+        @Override
+        public void finished() {
+          // No-op
+        }
+      });
+
+    // The fetch size should grow to fit the large message
+    Assert.assertEquals("Small message", consumedMessages.poll(5, TimeUnit.SECONDS));
+    Assert.assertEquals(largeMessage, consumedMessages.poll(5, TimeUnit.SECONDS));
+    Assert.assertEquals("Small message", consumedMessages.poll(5, TimeUnit.SECONDS));
+    cancel.cancel();
+  }
+
+  @Test
+  public void testCallbackRetry() throws Exception {
+    String topic = "testCallbackRetry";
+
+    KafkaPublisher publisher = kafkaClient.getPublisher(KafkaPublisher.Ack.LEADER_RECEIVED, Compression.NONE);
+    for (int i = 0; i < 10; i++) {
+      publisher.prepare(topic).add(Charsets.UTF_8.encode("Message " + i), 0).send().get();
+    }
+
+    // Fails the callback once in the middle of a message set. Messages should be delivered again from the
+    // start of the failed message set, while message sets prefetched before the failure are discarded.
+    final List<String> consumedMessages = Lists.newCopyOnWriteArrayList();
+    final AtomicBoolean failed = new AtomicBoolean();
+    final CountDownLatch latch = new CountDownLatch(1);
+    Cancellable cancel = kafkaClient.getConsumer().prepare()
+      .addFromBeginning(topic, 0)
+      .setFetchSize(64, 1024)
+      .setPrefetchLimit(2)
+      .consume(new KafkaConsumer.MessageCallback() {
+        @Override
+        public void onReceived(Iterator<FetchedMessage> messages) {
+          while (messages.hasNext()) {
+            String message = Charsets.UTF_8.decode(messages.next().getPayload()).toString();
+            if (message.equals("Message 5") && failed.compareAndSet(false, true)) {
+              throw new IllegalStateException("Expected failure");
+            }
+            consumedMessages.add(message);
+            if (message.equals("Message 9")) {
+              latch.countDown();
+            }
+          }
+        }
+
+        @Override
+        public void finished() {
+          // No-op
+        }
+      });
+
+    Assert.assertTrue(latch.await(10, TimeUnit.SECONDS));
+    cancel.cancel();
+
+    // Every message is seen at least once and in order after removing duplicates from the retry.
+    Assert.assertTrue(failed.get());
+    List<String> expected = Lists.newArrayList();
+    for (int i = 0; i < 10; i++) {
+      expected.add("Message " + i);
+    }
+    Assert.assertEquals(expected, ImmutableList.copyOf(ImmutableSet.copyOf(consumedMessages)));
+  }
+
+  @Test
+  public void testMessageSetCallback() throws Exception {
+    String topic = "testMessageSetCallback";
+
+    KafkaPublisher publisher = kafkaClient.getPublisher(KafkaPublisher.Ack.LEADER_RECEIVED, Compression.NONE);
+    KafkaPublisher.Preparer preparer = publisher.prepare(topic);
+    for (int i = 0; i < 10; i++) {
+      preparer.add(Charsets.UTF_8.encode("Message " + i), 0);
+    }
+    preparer.send().get();
+
+    final List<String> consumedMessages = Lists.newCopyOnWriteArrayList();
+    final CountDownLatch latch = new CountDownLatch(10);
+    Cancellable cancel = kafkaClient.getConsumer().prepare()
+      .addFromBeginning(topic, 0)
+      .consume(new KafkaConsumer.MessageSetCallback() {
+        @Override
+        public void onReceived(FetchedMessageSet messageSet) {
+          ByteBuffer buffer = messageSet.getBuffer();
+          for (int i = 0; i < messageSet.size(); i++) {
+            int position = messageSet.getPayloadPosition(i);
+            buffer.limit(position + messageSet.getPayloadLength(i)).position(position);
+            consumedMessages.add(Charsets.UTF_8.decode(buffer).toString());
+            buffer.clear();
+            latch.countDown();
+          }
+        }
+
+        @Override
+        public void onReceived(Iterator<FetchedMessage> messages) {
+          Assert.fail("Uncompressed messages should be delivered as message set.");
+        }
+
+        @Override
+        public void finished() {
+          // No-op
+        }
+      });
+
+    Assert.assertTrue(latch.await(5, TimeUnit.SECONDS));
+    cancel.cancel();
+
+    for (int i = 0; i < 10; i++) {
+      Assert.assertEquals("Message " + i, consumedMessages.get(i));
+    }
+  }
+
+  @Test
+  public void testAsyncPublisher() throws Exception {
+    String topic = "testAsyncPublisher";
+
+    // Small batch size to have messages sent in multiple batches.
+    KafkaPublisher publisher = kafkaClient.getPublisher(KafkaPublisher.Ack.LEADER_RECEIVED, Compression.NONE,
+                                                        AsyncPublisherConfig.builder()
+                                                          .setLinger(50, TimeUnit.MILLISECONDS)
+                                                          .setBatchSize(64)
+                                                          .build());
+    List<ListenableFuture<Integer>> futures = Lists.newArrayList();
+    for (int i = 0; i < 10; i++) {
+      KafkaPublisher.Preparer preparer = publisher.prepare(topic);
+      for (int j = 0; j < 5; j++) {
+        preparer.add(Charsets.UTF_8.encode("Message " + (i * 5 + j)), 0);
+      }
+      futures.add(preparer.send());
+    }
+    for (ListenableFuture<Integer> future : futures) {
+      Assert.assertEquals(5, future.get(5, TimeUnit.SECONDS).intValue());
+    }
+
+    final BlockingQueue<String> consumedMessages = Queues.newLinkedBlockingQueue();
+    Cancellable cancel = kafkaClient.getConsumer().prepare()
+      .addFromBeginning(topic, 0)
+      .consume(new KafkaConsumer.MessageCallback() {
+        @Override
+        public void onReceived(Iterator<FetchedMessage> messages) {
+          while (messages.hasNext()) {
+            consumedMessages.add(Charsets.UTF_8.decode(messages.next().getPayload()).toString());
+          }
+        }
+
+        @Override
+        public void finished() {
+          // No-op
+        }
+      });
+
+    for (int i = 0; i < 50; i++) {
+      Assert.assertEquals("Message " + i, consumedMessages.poll(5, TimeUnit.SECONDS));
+    }
+    cancel.cancel();
+  }
+
+  @Test
+  public void testBulkAdd() throws Exception {
+    String topic = "testBulkAdd";
+
+    KafkaPublisher publisher = kafkaClient.getPublisher(KafkaPublisher.Ack.LEADER_RECEIVED, Compression.NONE);
+    KafkaPublisher.Preparer preparer = publisher.prepare(topic);
+    List<ByteBuffer> messages = Lists.newArrayList();
+    for (int i = 0; i < 5; i++) {
+      messages.add(Charsets.UTF_8.encode("Message " + i));
+    }
+    Assert.assertEquals(10, preparer.addAll(messages, 0)
+                                    .add(Charsets.UTF_8.encode("Message 5"), 1)
+                                    .add(Charsets.UTF_8.encode("Message 6"), "key")
+                                    .addAll(ImmutableList.of(Charsets.UTF_8.encode("Message 7"),
+                                                             Charsets.UTF_8.encode("Message 8"),
+                                                             Charsets.UTF_8.encode("Message 9")), 0)
+                                    .send().get().intValue());
+
+    // Reuse the preparer after send
+    Assert.assertEquals(1, preparer.add(Charsets.UTF_8.encode("Message 10"), 0).send().get().intValue());
+
+    final BlockingQueue<String> consumedMessages = Queues.newLinkedBlockingQueue();
+    Cancellable cancel = kafkaClient.getConsumer().prepare()
+      .addFromBeginning(topic, 0)
+      .consume(new KafkaConsumer.MessageCallback() {
+        @Override
+        public void onReceived(Iterator<FetchedMessage> messages) {
+          while (messages.hasNext()) {
+            consumedMessages.add(Charsets.UTF_8.decode(messages.next().getPayload()).toString());
+          }
+        }
+
+        @Override
+        public void finished() {
+          // No-op
+        }
+      });
+
+    for (int i = 0; i <= 10; i++) {
+      Assert.assertEquals("Message " + i, consumedMessages.poll(5, TimeUnit.SECONDS));
+    }
+    cancel.cancel();
+  }
+
   @Test
   public void testBrokerChange() throws Exception {
     // Create a new namespace in ZK for Kafka server for this test case
@@ -178,6 +457,101 @@ public class KafkaTest {
     server.stopAndWait();
   }
 
+  @Test
+  public void testMultiPartitions() throws Exception {
+    // Create a new namespace in ZK for Kafka server for this test case
+    String connectionStr = zkServer.getConnectionStr() + "/multi_partitions";
+    ZKClientService zkClient = ZKClientService.Builder.of(connectionStr).build();
+    zkClient.startAndWait();
+    zkClient.create("/", null, CreateMode.PERSISTENT).get();
+
+    // Start a new kafka server with multiple partitions per topic
+    Properties config = generateKafkaConfig(connectionStr, TMP_FOLDER.newFolder());
+    config.setProperty("num.partitions", "3");
+    EmbeddedKafkaServer server = new EmbeddedKafkaServer(config);
+    server.startAndWait();
+
+    KafkaClientService kafkaClient = new ZKKafkaClientService(zkClient);
+    kafkaClient.startAndWait();
+
+    // Publish messages to all partitions
+    String topic = "testMultiPartitions";
+    KafkaPublisher publisher = kafkaClient.getPublisher(KafkaPublisher.Ack.ALL_RECEIVED, Compression.NONE);
+    KafkaPublisher.Preparer preparer = publisher.prepare(topic);
+    for (int i = 0; i < 30; i++) {
+      preparer.add(Charsets.UTF_8.encode("Message " + i), i);
+    }
+    preparer.send().get();
+
+    // Consume from all partitions with one consumption. All partitions are on the same broker.
+    final Set<String> consumedMessages = Sets.newSetFromMap(Maps.<String, Boolean>newConcurrentMap());
+    final Set<Integer> partitions = Sets.newSetFromMap(Maps.<Integer, Boolean>newConcurrentMap());
+    final CountDownLatch latch = new CountDownLatch(30);
+    Cancellable cancel = kafkaClient.getConsumer().prepare()
+      .addFromBeginning(topic, 0)
+      .addFromBeginning(topic, 1)
+      .addFromBeginning(topic, 2)
+      .consume(new KafkaConsumer.MessageCallback() {
+        @Override
+        public void onReceived(Iterator<FetchedMessage> messages) {
+          while (messages.hasNext()) {
+            FetchedMessage message = messages.next();
+            partitions.add(message.getTopicPartition().getPartition());
+            consumedMessages.add(Charsets.UTF_8.decode(message.getPayload()).toString());
+            latch.countDown();
+          }
+        }
+
+        @Override
+        public void finished() {
+          // No-op
+        }
+      });
+
+    Assert.assertTrue(latch.await(10, TimeUnit.SECONDS));
+    Assert.assertEquals(30, consumedMessages.size());
+    Assert.assertEquals(ImmutableSet.of(0, 1, 2), partitions);
+    cancel.cancel();
+
+    kafkaClient.stopAndWait();
+    zkClient.stopAndWait();
+    server.stopAndWait();
+  }
+
+  @Test
+  public void testLogReplay() throws Exception {
+    // Publish log entries of two instances, with timestamps from 1000 to 1009 and alternating levels.
+    KafkaPublisher publisher = kafkaClient.getPublisher(KafkaPublisher.Ack.LEADER_RECEIVED, Compression.NONE);
+    KafkaPublisher.Preparer preparer = publisher.prepare(Constants.LOG_TOPIC);
+    for (int i = 0; i < 10; i++) {
+      for (int instanceId = 0; instanceId < 2; instanceId++) {
+        String json = String.format("{\"name\":\"test\",\"host\":\"localhost\",\"timestamp\":\"%d\"," +
+                                      "\"level\":\"%s\",\"line\":\"1\",\"message\":\"Message %d\"," +
+                                      "\"runnableName\":\"runnable\",\"instanceId\":%d}",
+                                    1000 + i, i % 2 == 0 ? "INFO" : "DEBUG", i, instanceId);
+        preparer.add(Charsets.UTF_8.encode(json), 0);
+      }
+    }
+    preparer.send().get();
+    Assert.assertEquals(20L, kafkaClient.getConsumer().getOffset(Constants.LOG_TOPIC, 0, -1L).get().longValue());
+
+    LogQuery query = LogQuery.Builder.create(1003, 1008)
+      .setRunnable("runnable", 1)
+      .setLevel(LogEntry.Level.INFO)
+      .build();
+    final List<String> messages = Lists.newArrayList();
+    ListenableFuture<LogQuery> replay = LogReplayer.replay(kafkaClient.getConsumer(), zkClientService, query,
+                                                           new LogHandler() {
+      @Override
+      public void onLog(LogEntry logEntry) {
+        Assert.assertEquals(1, ((InstanceLogEntry) logEntry).getInstanceId());
+        messages.add(logEntry.getMessage());
+      }
+    });
+    Assert.assertEquals(query, replay.get(10, TimeUnit.SECONDS));
+    Assert.assertEquals(ImmutableList.of("Message 4", "Message 6", "Message 8"), messages);
+  }
+
   private Thread createPublishThread(final KafkaClient kafkaClient, final String topic,
                                      final Compression compression, final String message, final int count) {
     return createPublishThread(kafkaClient, topic, compression, message, count, 0);
@@ -17,28 +17,31 @@
  */
 package org.apache.twill.discovery;
 
+import com.google.common.base.Function;
 import com.google.common.cache.CacheBuilder;
 import com.google.common.cache.CacheLoader;
 import com.google.common.cache.LoadingCache;
 import com.google.common.collect.HashMultimap;
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Multimap;
 import com.google.common.hash.Hashing;
 import com.google.common.util.concurrent.FutureCallback;
 import com.google.common.util.concurrent.Futures;
-import com.google.common.util.concurrent.ListenableFuture;
 import com.google.common.util.concurrent.SettableFuture;
 import org.apache.twill.common.Cancellable;
 import org.apache.twill.common.Threads;
-import org.apache.twill.zookeeper.NodeChildren;
 import org.apache.twill.zookeeper.NodeData;
 import org.apache.twill.zookeeper.OperationFuture;
 import org.apache.twill.zookeeper.ZKClient;
 import org.apache.twill.zookeeper.ZKClients;
+import org.apache.twill.zookeeper.ZKOp;
 import org.apache.twill.zookeeper.ZKOperations;
+import org.apache.twill.zookeeper.ZKTreeCache;
 import org.apache.zookeeper.CreateMode;
 import org.apache.zookeeper.KeeperException;
+import org.apache.zookeeper.OpResult;
 import org.apache.zookeeper.WatchedEvent;
 import org.apache.zookeeper.Watcher;
 import org.apache.zookeeper.data.Stat;
@@ -98,6 +101,13 @@ public class ZKDiscoveryService implements DiscoveryService, DiscoveryServiceCli
 
   private static final long RETRY_MILLIS = 1000;
 
+  private static final Function<NodeData, Discoverable> DISCOVERABLE_DECODER = new Function<NodeData, Discoverable>() {
+    @Override
+    public Discoverable apply(NodeData nodeData) {
+      return DiscoverableAdapter.decode(nodeData.getData());
+    }
+  };
+
   // In memory map for recreating ephemeral nodes after session expires.
   // It map from discoverable to the corresponding Cancellable
   private final Multimap<Discoverable, DiscoveryCancellable> discoverables;
@@ -284,38 +294,77 @@ public class ZKDiscoveryService implements DiscoveryService, DiscoveryServiceCli
         } else if (event.getState() == Event.KeeperState.SyncConnected && expired) {
           LOG.info("Reconnected after expiration: {}", zkClient.getConnectString());
           expired = false;
-
-          // Re-register all services
-          lock.lock();
-          try {
-            for (final Map.Entry<Discoverable, DiscoveryCancellable> entry : discoverables.entries()) {
-              LOG.info("Re-registering service: {}", entry.getKey());
-
-              // Must be non-blocking in here.
-              Futures.addCallback(doRegister(entry.getKey()), new FutureCallback<String>() {
-                @Override
-                public void onSuccess(String result) {
-                  // Updates the cancellable to the newly created sequential node.
-                  entry.getValue().setPath(result);
-                  LOG.debug("Service re-registered: {} {}", entry.getKey(), result);
-                }
-
-                @Override
-                public void onFailure(Throwable t) {
-                  // When failed to create the node, there would be no retry and simply make the cancellable do nothing.
-                  entry.getValue().setPath(null);
-                  LOG.error("Failed to re-register service: {}", entry.getKey(), t);
-                }
-              }, Threads.SAME_THREAD_EXECUTOR);
-            }
-          } finally {
-            lock.unlock();
-          }
+          reRegisterAll();
         }
       }
     };
   }
 
+  /**
+   * Re-registers all services after session expiration. All ephemeral nodes are created in one batch. If the
+   * batch creation failed, fallback to register each service individually.
+   */
+  private void reRegisterAll() {
+    final List<Map.Entry<Discoverable, DiscoveryCancellable>> entries;
+    lock.lock();
+    try {
+      entries = ImmutableList.copyOf(discoverables.entries());
+    } finally {
+      lock.unlock();
+    }
+    if (entries.isEmpty()) {
+      return;
+    }
+
+    LOG.info("Re-registering {} services", entries.size());
+    List<ZKOp> ops = Lists.newArrayListWithCapacity(entries.size());
+    for (Map.Entry<Discoverable, DiscoveryCancellable> entry : entries) {
+      Discoverable discoverable = entry.getKey();
+      ops.add(ZKOp.create(getNodePath(discoverable), DiscoverableAdapter.encode(discoverable), CreateMode.EPHEMERAL));
+    }
+
+    // Must be non-blocking in here.
+    Futures.addCallback(zkClient.multi(ops), new FutureCallback<List<OpResult>>() {
+      @Override
+      public void onSuccess(List<OpResult> results) {
+        for (int i = 0; i < entries.size(); i++) {
+          Map.Entry<Discoverable, DiscoveryCancellable> entry = entries.get(i);
+          String path = ((OpResult.CreateResult) results.get(i)).getPath();
+          // Updates the cancellable to the newly created node.
+          entry.getValue().setPath(path);
+          LOG.debug("Service re-registered: {} {}", entry.getKey(), path);
+        }
+      }
+
+      @Override
+      public void onFailure(Throwable t) {
+        LOG.warn("Failed to re-register services in batch. Re-registering individually.", t);
+        for (Map.Entry<Discoverable, DiscoveryCancellable> entry : entries) {
+          reRegister(entry);
+        }
+      }
+    }, Threads.SAME_THREAD_EXECUTOR);
+  }
+
+  private void reRegister(final Map.Entry<Discoverable, DiscoveryCancellable> entry) {
+    LOG.info("Re-registering service: {}", entry.getKey());
+    Futures.addCallback(doRegister(entry.getKey()), new FutureCallback<String>() {
+      @Override
+      public void onSuccess(String result) {
+        // Updates the cancellable to the newly created sequential node.
+        entry.getValue().setPath(result);
+        LOG.debug("Service re-registered: {} {}", entry.getKey(), result);
+      }
+
+      @Override
+      public void onFailure(Throwable t) {
+        // When failed to create the node, there would be no retry and simply make the cancellable do nothing.
+        entry.getValue().setPath(null);
+        LOG.error("Failed to re-register service: {}", entry.getKey(), t);
+      }
+    }, Threads.SAME_THREAD_EXECUTOR);
+  }
+
   /**
    * Creates a CacheLoader for creating live Iterable for watching instances changes for a given service.
    */
@@ -326,42 +375,53 @@ public class ZKDiscoveryService implements DiscoveryService, DiscoveryServiceCli
         final DefaultServiceDiscovered serviceDiscovered = new DefaultServiceDiscovered(service);
         final String serviceBase = "/" + service;
 
-        // Watch for children changes in /service
-        ZKOperations.watchChildren(zkClient, serviceBase, new ZKOperations.ChildrenCallback() {
+        // Mirror the children of /service. Only the data of new or changed nodes is fetched on changes.
+        final ZKTreeCache<Discoverable> cache = ZKTreeCache.create(zkClient, serviceBase, 1, DISCOVERABLE_DECODER);
+        cache.addListener(new ZKTreeCache.Listener<Discoverable>() {
           @Override
-          public void updated(NodeChildren nodeChildren) {
-            // Fetch data of all children nodes in parallel.
-            List<String> children = nodeChildren.getChildren();
-            List<OperationFuture<NodeData>> dataFutures = Lists.newArrayListWithCapacity(children.size());
-            for (String child : children) {
-              dataFutures.add(zkClient.getData(serviceBase + "/" + child));
-            }
+          public void nodeAdded(String path, Discoverable data) {
+            update();
+          }
 
-            // Update the service map when all fetching are done.
-            final ListenableFuture<List<NodeData>> fetchFuture = Futures.successfulAsList(dataFutures);
-            fetchFuture.addListener(new Runnable() {
-              @Override
-              public void run() {
-                ImmutableSet.Builder<Discoverable> builder = ImmutableSet.builder();
-                for (NodeData nodeData : Futures.getUnchecked(fetchFuture)) {
-                  // For successful fetch, decode the content.
-                  if (nodeData != null) {
-                    Discoverable discoverable = DiscoverableAdapter.decode(nodeData.getData());
-                    if (discoverable != null) {
-                      builder.add(discoverable);
-                    }
-                  }
-                }
-                serviceDiscovered.setDiscoverables(builder.build());
-              }
-            }, Threads.SAME_THREAD_EXECUTOR);
+          @Override
+          public void nodeChanged(String path, Discoverable data) {
+            update();
           }
-        });
+
+          @Override
+          public void nodeRemoved(String path) {
+            update();
+          }
+
+          private void update() {
+            // Avoid notifying for every node while the cache is loading.
+            if (cache.getInitialized().isDone()) {
+              updateDiscoverables(serviceDiscovered, cache);
+            }
+          }
+        }, Threads.SAME_THREAD_EXECUTOR);
+        cache.getInitialized().addListener(new Runnable() {
+          @Override
+          public void run() {
+            updateDiscoverables(serviceDiscovered, cache);
+          }
+        }, Threads.SAME_THREAD_EXECUTOR);
         return serviceDiscovered;
       }
     };
   }
 
+  /**
+   * Updates the given {@link DefaultServiceDiscovered} with the children in the given {@link ZKTreeCache}.
+   * Cache events of different nodes can be delivered from different threads. Taking the snapshot and setting it
+   * under the same lock makes sure that an older snapshot never overwrites a newer one.
+   */
+  private void updateDiscoverables(DefaultServiceDiscovered serviceDiscovered, ZKTreeCache<Discoverable> cache) {
+    synchronized (serviceDiscovered) {
+      serviceDiscovered.setDiscoverables(ImmutableSet.copyOf(cache.getChildren().values()));
+    }
+  }
+
   /**
    * Inner class for cancelling (un-register) discovery service.
    */
@@ -17,6 +17,7 @@
  */
 package org.apache.twill.discovery;
 
+import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
 import com.google.common.util.concurrent.Futures;
 import org.apache.twill.common.Cancellable;
@@ -34,7 +35,12 @@ import org.junit.Test;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
 
 /**
@@ -143,6 +149,62 @@ public class ZKDiscoveryServiceTest extends DiscoveryServiceTestBase {
     Assert.assertTrue(waitTillExpected(0, discoverables));
   }
 
+  @Test
+  public void testConcurrentChanges() throws Exception {
+    // Use multiple event threads so that events of different nodes are delivered in parallel
+    ZKClientService zkClient2 = ZKClientServices.delegate(
+      ZKClients.retryOnFailure(
+        ZKClients.reWatchOnExpire(
+          ZKClientService.Builder.of(zkServer.getConnectionStr()).setEventThreads(8).build()),
+        RetryStrategies.fixDelay(1, TimeUnit.SECONDS)));
+    zkClient2.startAndWait();
+
+    ExecutorService executor = Executors.newFixedThreadPool(10);
+    try {
+      final DiscoveryService discoveryService = new ZKDiscoveryService(zkClient2);
+      ServiceDiscovered discoverables = new ZKDiscoveryService(zkClient2).discover("test_concurrent");
+      Assert.assertTrue(waitTillExpected(0, discoverables));
+
+      int count = 20;
+      for (int round = 0; round < 3; round++) {
+        // Register all endpoints concurrently
+        List<Future<Cancellable>> futures = Lists.newArrayList();
+        for (int i = 0; i < count; i++) {
+          final int port = 10000 + i;
+          futures.add(executor.submit(new Callable<Cancellable>() {
+            @Override
+            public Cancellable call() throws Exception {
+              return register(discoveryService, "test_concurrent", "localhost", port);
+            }
+          }));
+        }
+        List<Cancellable> cancellables = Lists.newArrayList();
+        for (Future<Cancellable> future : futures) {
+          cancellables.add(future.get());
+        }
+        Assert.assertTrue(waitTillExpected(count, discoverables));
+
+        // Cancel all concurrently
+        List<Future<?>> cancelFutures = Lists.newArrayList();
+        for (final Cancellable cancellable : cancellables) {
+          cancelFutures.add(executor.submit(new Runnable() {
+            @Override
+            public void run() {
+              cancellable.cancel();
+            }
+          }));
+        }
+        for (Future<?> future : cancelFutures) {
+          future.get();
+        }
+        Assert.assertTrue(waitTillExpected(0, discoverables));
+      }
+    } finally {
+      executor.shutdownNow();
+      zkClient2.stopAndWait();
+    }
+  }
+
   @Override
   protected Map.Entry<DiscoveryService, DiscoveryServiceClient> create() {
     DiscoveryService discoveryService = new ZKDiscoveryService(zkClient);
@@ -28,6 +28,7 @@ import com.google.common.util.concurrent.Service;
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.fs.FileSystem;
 import org.apache.hadoop.security.UserGroupInformation;
+import org.apache.twill.api.logging.LogFormat;
 import org.apache.twill.common.Services;
 import org.apache.twill.filesystem.HDFSLocationFactory;
 import org.apache.twill.filesystem.LocalLocationFactory;
@@ -106,6 +107,14 @@ public abstract class ServiceMain {
 
   protected abstract String getRunnableName();
 
+  /**
+   * Returns the {@link LogFormat} for publishing logs based on the env {@link EnvKeys#TWILL_LOG_FORMAT}.
+   */
+  protected static LogFormat getLogFormat() {
+    String format = System.getenv(EnvKeys.TWILL_LOG_FORMAT);
+    return format == null ? LogFormat.JSON : LogFormat.valueOf(format);
+  }
+
   /**
    * Returns the {@link Location} for the application based on the env {@link EnvKeys#TWILL_APP_DIR}.
    */
@@ -180,6 +189,9 @@ public abstract class ServiceMain {
       "        <hostname>" + getHostname() + "</hostname>\n" +
       "        <zookeeper>" + getKafkaZKConnect() + "</zookeeper>\n" +
       appendRunnable() +
+      "        <format>" + getLogFormat().name() + "</format>\n" +
+      appendLogFilter() +
+      appendLogSpill() +
       "    </appender>\n" +
       "    <logger name=\"org.apache.twill.internal.logging\" additivity=\"false\" />\n" +
       "    <root level=\"" + rootLevel + "\">\n" +
@@ -194,8 +206,69 @@ public abstract class ServiceMain {
     if (getRunnableName() == null) {
      return "";
     } else {
-      return "        <runnableName>" + getRunnableName() + "</runnableName>\n";
+      String instanceId = System.getenv(EnvKeys.TWILL_INSTANCE_ID);
+      return "        <runnableName>" + getRunnableName() + "</runnableName>\n" +
+        (instanceId == null ? "" : "        <instanceId>" + instanceId + "</instanceId>\n");
+    }
+  }
+
+  /**
+   * Appends the log filter from the env {@link EnvKeys#TWILL_LOG_FILTER} to the log config if it is set.
+   */
+  private String appendLogFilter() {
+    String filterSpec = System.getenv(EnvKeys.TWILL_LOG_FILTER);
+    if (filterSpec == null || filterSpec.isEmpty()) {
+      return "";
+    }
+    return "        <filterSpec>" + escapeXml(filterSpec) + "</filterSpec>\n";
+  }
+
+  /**
+   * Escapes the given string so that it can be used as text content in the XML log config.
+   */
+  private static String escapeXml(String text) {
+    StringBuilder builder = new StringBuilder(text.length());
+    for (int i = 0; i < text.length(); i++) {
+      char c = text.charAt(i);
+      switch (c) {
+        case '&':
+          builder.append("&amp;");
+          break;
+        case '<':
+          builder.append("&lt;");
+          break;
+        case '>':
+          builder.append("&gt;");
+          break;
+        case '"':
+          builder.append("&quot;");
+          break;
+        case '\'':
+          builder.append("&apos;");
+          break;
+        default:
+          builder.append(c);
+      }
+    }
+    return builder.toString();
+  }
+
+  /**
+   * Appends the log spill file in the current directory to the log config if the env
+   * {@link EnvKeys#TWILL_LOG_SPILL_SIZE_MB} is positive.
+   */
+  private String appendLogSpill() {
+    String spillSize = System.getenv(EnvKeys.TWILL_LOG_SPILL_SIZE_MB);
+    try {
+      if (spillSize == null || Integer.parseInt(spillSize) <= 0) {
+        return "";
+      }
+    } catch (NumberFormatException e) {
+      LOG.warn("Ignoring invalid log spill size {}.", spillSize);
+      return "";
     }
+    return "        <spillFile>" + new File(Constants.Files.LOG_SPILL).getAbsolutePath() + "</spillFile>\n" +
+      "        <spillSize>" + spillSize + "</spillSize>\n";
   }
 
   private String getLoggerLevel(Logger logger) {
@@ -54,6 +54,9 @@ import org.apache.twill.api.RunId;
 import org.apache.twill.api.RuntimeSpecification;
 import org.apache.twill.api.TwillRunResources;
 import org.apache.twill.api.TwillSpecification;
+import org.apache.twill.api.logging.LogFilter;
+import org.apache.twill.api.logging.LogFormat;
+import org.apache.twill.api.logging.LogRetention;
 import org.apache.twill.common.Threads;
 import org.apache.twill.filesystem.Location;
 import org.apache.twill.internal.Configs;
@@ -66,10 +69,15 @@ import org.apache.twill.internal.ProcessLauncher;
 import org.apache.twill.internal.TwillContainerLauncher;
 import org.apache.twill.internal.json.JvmOptionsCodec;
 import org.apache.twill.internal.json.LocalFileCodec;
+import org.apache.twill.internal.json.LogFilterCodec;
+import org.apache.twill.internal.json.LogRetentionCodec;
 import org.apache.twill.internal.json.TwillSpecificationAdapter;
 import org.apache.twill.internal.kafka.EmbeddedKafkaServer;
+import org.apache.twill.internal.kafka.KafkaLogArchiver;
+import org.apache.twill.internal.logging.LogFilters;
 import org.apache.twill.internal.logging.Loggings;
 import org.apache.twill.internal.state.Message;
+import org.apache.twill.internal.state.SystemMessages;
 import org.apache.twill.internal.utils.Instances;
 import org.apache.twill.internal.utils.Networks;
 import org.apache.twill.internal.yarn.AbstractYarnTwillService;
@@ -78,6 +86,7 @@ import org.apache.twill.internal.yarn.YarnAMClientFactory;
 import org.apache.twill.internal.yarn.YarnContainerInfo;
 import org.apache.twill.internal.yarn.YarnContainerStatus;
 import org.apache.twill.internal.yarn.YarnUtils;
+import org.apache.twill.kafka.client.KafkaClientMetrics;
 import org.apache.twill.zookeeper.ZKClient;
 import org.apache.twill.zookeeper.ZKClients;
 import org.apache.zookeeper.CreateMode;
@@ -88,6 +97,7 @@ import java.io.File;
 import java.io.FileReader;
 import java.io.IOException;
 import java.io.Reader;
+import java.net.URI;
 import java.net.URL;
 import java.util.Collection;
 import java.util.Iterator;
@@ -96,6 +106,7 @@ import java.util.Map;
 import java.util.Properties;
 import java.util.Queue;
 import java.util.Set;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
@@ -106,6 +117,11 @@ import java.util.concurrent.TimeUnit;
 public final class ApplicationMasterService extends AbstractYarnTwillService {
 
   private static final Logger LOG = LoggerFactory.getLogger(ApplicationMasterService.class);
+  private static final String KAFKA_LOG_DIR = "kafka-logs";
+  private static final long KAFKA_LOG_ARCHIVE_INTERVAL_SECONDS = 60;
+  // Minimum number of archive runs within the log retention time, so that closed segments are archived well
+  // before Kafka deletes them.
+  private static final int KAFKA_LOG_ARCHIVE_RUNS_PER_RETENTION = 10;
 
   // Copied from org.apache.hadoop.yarn.security.AMRMTokenIdentifier.KIND_NAME since it's missing in Hadoop-2.0
   private static final Text AMRM_TOKEN_KIND_NAME = new Text("YARN_AM_RM_TOKEN");
@@ -123,9 +139,12 @@ public final class ApplicationMasterService extends AbstractYarnTwillService {
   private final EventHandler eventHandler;
   private final Location applicationLocation;
   private final PlacementPolicyManager placementPolicyManager;
+  private final ConcurrentMap<String, LogFilter> logFilters;
+  private final LogRetention logRetention;
 
   private volatile boolean stopped;
   private EmbeddedKafkaServer kafkaServer;
+  private KafkaLogArchiver kafkaLogArchiver;
   private Queue<RunnableContainerRequest> runnableContainerRequests;
   private ExecutorService instanceChangeExecutor;
 
@@ -140,6 +159,8 @@ public final class ApplicationMasterService extends AbstractYarnTwillService {
     this.amClient = amClientFactory.create();
     this.credentials = createCredentials();
     this.jvmOpts = loadJvmOptions();
+    this.logFilters = loadLogFilters();
+    this.logRetention = loadLogRetention();
     this.reservedMemory = getReservedMemory();
     this.placementPolicyManager = new PlacementPolicyManager(twillSpec.getPlacementPolicies());
 
@@ -154,6 +175,11 @@ public final class ApplicationMasterService extends AbstractYarnTwillService {
       public ResourceReport get() {
         return runningContainers.getResourceReport();
       }
+    }, new Supplier<KafkaClientMetrics>() {
+      @Override
+      public KafkaClientMetrics get() {
+        return Loggings.getKafkaClientMetrics();
+      }
     }, amClient.getHost());
     eventHandler = createEventHandler(twillSpec);
   }
@@ -171,6 +197,48 @@ public final class ApplicationMasterService extends AbstractYarnTwillService {
     });
   }
 
+  private LogRetention loadLogRetention() throws IOException {
+    final File logRetentionFile = new File(Constants.Files.LOG_RETENTION);
+    if (!logRetentionFile.exists()) {
+      return LogRetention.DEFAULT;
+    }
+    return LogRetentionCodec.decode(new InputSupplier<Reader>() {
+      @Override
+      public Reader getInput() throws IOException {
+        return new FileReader(logRetentionFile);
+      }
+    });
+  }
+
+  private ConcurrentMap<String, LogFilter> loadLogFilters() throws IOException {
+    ConcurrentMap<String, LogFilter> filters = Maps.newConcurrentMap();
+    final File logFiltersFile = new File(Constants.Files.LOG_FILTERS);
+    if (logFiltersFile.exists()) {
+      filters.putAll(LogFilterCodec.decode(new InputSupplier<Reader>() {
+        @Override
+        public Reader getInput() throws IOException {
+          return new FileReader(logFiltersFile);
+        }
+      }));
+    }
+    return filters;
+  }
+
+  /**
+   * Returns the number of partitions of the log topic set by the client.
+   */
+  private int getLogPartitions() {
+    String value = System.getenv(EnvKeys.TWILL_LOG_PARTITIONS);
+    if (value == null) {
+      return Configs.Defaults.LOG_PARTITIONS;
+    }
+    try {
+      return Math.max(1, Integer.parseInt(value));
+    } catch (Exception e) {
+      return Configs.Defaults.LOG_PARTITIONS;
+    }
+  }
+
   private int getReservedMemory() {
     String value = System.getenv(EnvKeys.TWILL_RESERVED_MEMORY_MB);
     if (value == null) {
@@ -252,6 +320,15 @@ public final class ApplicationMasterService extends AbstractYarnTwillService {
     kafkaServer.startAndWait();
     LOG.info("Kafka server started");
 
+    URI archiveLocation = logRetention.getArchiveLocation();
+    if (archiveLocation != null) {
+      kafkaLogArchiver = new KafkaLogArchiver(
+        new File(KAFKA_LOG_DIR).getAbsoluteFile(),
+        applicationLocation.getLocationFactory().create(archiveLocation).append(runId.getId()),
+        getLogArchiveIntervalSeconds());
+      kafkaLogArchiver.startAndWait();
+    }
+
     runnableContainerRequests = initContainerRequests();
   }
 
@@ -312,6 +389,10 @@ public final class ApplicationMasterService extends AbstractYarnTwillService {
         } finally {
           kafkaServer.stopAndWait();
           LOG.info("Kafka server stopped");
+          if (kafkaLogArchiver != null) {
+            // Stops after the Kafka server, so that the active log segments are archived as well.
+            kafkaLogArchiver.stopAndWait();
+          }
         }
       } finally {
         // Stops the AMClient
@@ -341,6 +422,9 @@ public final class ApplicationMasterService extends AbstractYarnTwillService {
       return result;
     }
 
+    // Remember the log filter for containers started later. The message is replicated to running containers below.
+    updateLogFilters(message);
+
     // Replicate messages to all runnables
     if (message.getScope() == Message.Scope.ALL_RUNNABLE) {
       runningContainers.sendToAll(message, completion);
@@ -679,16 +763,25 @@ public final class ApplicationMasterService extends AbstractYarnTwillService {
 
       int containerCount = expectedContainers.getExpected(runnableName);
 
+      ImmutableMap.Builder<String, String> env = ImmutableMap.<String, String>builder()
+        .put(EnvKeys.TWILL_APP_DIR, System.getenv(EnvKeys.TWILL_APP_DIR))
+        .put(EnvKeys.TWILL_FS_USER, System.getenv(EnvKeys.TWILL_FS_USER))
+        .put(EnvKeys.TWILL_APP_RUN_ID, runId.getId())
+        .put(EnvKeys.TWILL_APP_NAME, twillSpec.getName())
+        .put(EnvKeys.TWILL_ZK_CONNECT, zkClient.getConnectString())
+        .put(EnvKeys.TWILL_LOG_KAFKA_ZK, getKafkaZKConnect())
+        .put(EnvKeys.TWILL_LOG_FORMAT, getLogFormat());
+      String logSpillSize = System.getenv(EnvKeys.TWILL_LOG_SPILL_SIZE_MB);
+      if (logSpillSize != null) {
+        env.put(EnvKeys.TWILL_LOG_SPILL_SIZE_MB, logSpillSize);
+      }
+      LogFilter logFilter = logFilters.get(runnableName);
+      if (logFilter != null && !LogFilter.ALL.equals(logFilter)) {
+        env.put(EnvKeys.TWILL_LOG_FILTER, LogFilters.encode(logFilter));
+      }
+
       ProcessLauncher.PrepareLaunchContext launchContext = processLauncher.prepareLaunch(
-        ImmutableMap.<String, String>builder()
-          .put(EnvKeys.TWILL_APP_DIR, System.getenv(EnvKeys.TWILL_APP_DIR))
-          .put(EnvKeys.TWILL_FS_USER, System.getenv(EnvKeys.TWILL_FS_USER))
-          .put(EnvKeys.TWILL_APP_RUN_ID, runId.getId())
-          .put(EnvKeys.TWILL_APP_NAME, twillSpec.getName())
-          .put(EnvKeys.TWILL_ZK_CONNECT, zkClient.getConnectString())
-          .put(EnvKeys.TWILL_LOG_KAFKA_ZK, getKafkaZKConnect())
-          .build()
-        , getLocalizeFiles(), credentials
+        env.build(), getLocalizeFiles(), credentials
       );
 
       TwillContainerLauncher launcher = new TwillContainerLauncher(
@@ -735,28 +828,68 @@ public final class ApplicationMasterService extends AbstractYarnTwillService {
     return String.format("%s/%s/kafka", zkClient.getConnectString(), runId.getId());
   }
 
+  /**
+   * Returns the name of the {@link LogFormat} set by the client, which is passed to all runnable containers.
+   */
+  private String getLogFormat() {
+    String format = System.getenv(EnvKeys.TWILL_LOG_FORMAT);
+    return format == null ? LogFormat.JSON.name() : format;
+  }
+
+  /**
+   * Returns the interval in seconds between archive runs of Kafka log segments, which is derived from the log
+   * retention time. Size based retention is checked by {@link LogRetention}.
+   */
+  private long getLogArchiveIntervalSeconds() {
+    long retentionSeconds = TimeUnit.HOURS.toSeconds(logRetention.getRetentionHours());
+    return Math.max(1L, Math.min(KAFKA_LOG_ARCHIVE_INTERVAL_SECONDS,
+                                 retentionSeconds / KAFKA_LOG_ARCHIVE_RUNS_PER_RETENTION));
+  }
+
   private Properties generateKafkaConfig() {
     int port = Networks.getRandomPort();
     Preconditions.checkState(port > 0, "Failed to get random port.");
 
     Properties prop = new Properties();
-    prop.setProperty("log.dir", new File("kafka-logs").getAbsolutePath());
+    prop.setProperty("log.dir", new File(KAFKA_LOG_DIR).getAbsolutePath());
     prop.setProperty("port", Integer.toString(port));
     prop.setProperty("broker.id", "1");
     prop.setProperty("socket.send.buffer.bytes", "1048576");
     prop.setProperty("socket.receive.buffer.bytes", "1048576");
     prop.setProperty("socket.request.max.bytes", "104857600");
-    prop.setProperty("num.partitions", "1");
-    prop.setProperty("log.retention.hours", "24");
-    prop.setProperty("log.flush.interval.messages", "10000");
-    prop.setProperty("log.flush.interval.ms", "1000");
-    prop.setProperty("log.segment.bytes", "536870912");
+    prop.setProperty("num.partitions", Integer.toString(getLogPartitions()));
+    prop.setProperty("log.retention.hours", Integer.toString(logRetention.getRetentionHours()));
+    prop.setProperty("log.retention.bytes", Long.toString(logRetention.getRetentionBytes()));
+    prop.setProperty("log.flush.interval.messages", Integer.toString(logRetention.getFlushIntervalMessages()));
+    prop.setProperty("log.flush.interval.ms", Integer.toString(logRetention.getFlushIntervalMillis()));
+    prop.setProperty("log.segment.bytes", Integer.toString(logRetention.getSegmentBytes()));
+    prop.setProperty("log.roll.hours", Integer.toString(logRetention.getSegmentHours()));
     prop.setProperty("zookeeper.connect", getKafkaZKConnect());
     prop.setProperty("zookeeper.connection.timeout.ms", "1000000");
     prop.setProperty("default.replication.factor", "1");
     return prop;
   }
 
+  /**
+   * Updates the {@link LogFilter} of runnables if the message is a log filter change request.
+   */
+  private void updateLogFilters(Message message) {
+    LogFilter filter = SystemMessages.getLogFilter(message);
+    if (filter == null) {
+      return;
+    }
+    if (message.getScope() == Message.Scope.ALL_RUNNABLE) {
+      for (String runnableName : twillSpec.getRunnables().keySet()) {
+        logFilters.put(runnableName, filter);
+      }
+    } else if (message.getScope() == Message.Scope.RUNNABLE
+      && twillSpec.getRunnables().containsKey(message.getRunnableName())) {
+      logFilters.put(message.getRunnableName(), filter);
+    }
+    LOG.info("Log filter changed to {} for {}.", filter,
+             message.getRunnableName() == null ? "all runnables" : message.getRunnableName());
+  }
+
   /**
    * Attempts to change the number of running instances.
    * @return {@code true} if the message does requests for changes in number of running instances of a runnable,
@@ -21,7 +21,9 @@ import com.google.common.base.Supplier;
 import com.google.common.util.concurrent.AbstractIdleService;
 import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import org.apache.twill.api.ResourceReport;
+import org.apache.twill.internal.json.KafkaClientMetricsCodec;
 import org.apache.twill.internal.json.ResourceReportAdapter;
+import org.apache.twill.kafka.client.KafkaClientMetrics;
 import org.jboss.netty.bootstrap.ServerBootstrap;
 import org.jboss.netty.buffer.ChannelBuffer;
 import org.jboss.netty.buffer.ChannelBufferOutputStream;
@@ -74,6 +76,7 @@ public final class TrackerService extends AbstractIdleService {
 
   // TODO: This is temporary. When support more REST API, this would get moved.
   public static final String PATH = "/resources";
+  public static final String KAFKA_METRICS_PATH = "/kafka";
 
   private static final Logger LOG  = LoggerFactory.getLogger(TrackerService.class);
   private static final int NUM_BOSS_THREADS = 1;
@@ -86,16 +89,20 @@ public final class TrackerService extends AbstractIdleService {
   private URL url;
   private final ChannelGroup channelGroup;
   private final Supplier<ResourceReport> resourceReport;
+  private final Supplier<KafkaClientMetrics> kafkaMetrics;
 
   /**
    * Initialize the service.
    *
    * @param resourceReport live report that the service will return to clients.
+   * @param kafkaMetrics metrics of the Kafka client used for log publishing; the supplier may return {@code null}.
    * @param appMasterHost the application master host.
    */
-  public TrackerService(Supplier<ResourceReport> resourceReport, String appMasterHost) {
+  public TrackerService(Supplier<ResourceReport> resourceReport, Supplier<KafkaClientMetrics> kafkaMetrics,
+                        String appMasterHost) {
     this.channelGroup = new DefaultChannelGroup("appMasterTracker");
     this.resourceReport = resourceReport;
+    this.kafkaMetrics = kafkaMetrics;
     this.host = appMasterHost;
   }
 
@@ -138,7 +145,7 @@ public final class TrackerService extends AbstractIdleService {
         pipeline.addLast("aggregator", new HttpChunkAggregator(MAX_INPUT_SIZE));
         pipeline.addLast("encoder", new HttpResponseEncoder());
         pipeline.addLast("compressor", new HttpContentCompressor());
-        pipeline.addLast("handler", new ReportHandler(resourceReport));
+        pipeline.addLast("handler", new ReportHandler(resourceReport, kafkaMetrics));
 
         return pipeline;
       }
@@ -164,30 +171,43 @@ public final class TrackerService extends AbstractIdleService {
   /**
    * Handler to return resources used by this application master, which will be available through
    * the host and port set when this application master registered itself to the resource manager.
+   * It also returns the metrics of the Kafka client of the application master.
    */
   public class ReportHandler extends SimpleChannelUpstreamHandler {
     private final Supplier<ResourceReport> report;
+    private final Supplier<KafkaClientMetrics> kafkaMetrics;
     private final ResourceReportAdapter reportAdapter;
 
-    public ReportHandler(Supplier<ResourceReport> report) {
+    public ReportHandler(Supplier<ResourceReport> report, Supplier<KafkaClientMetrics> kafkaMetrics) {
       this.report = report;
+      this.kafkaMetrics = kafkaMetrics;
       this.reportAdapter = ResourceReportAdapter.create();
     }
 
     @Override
     public void messageReceived(ChannelHandlerContext ctx, MessageEvent e) throws Exception {
       HttpRequest request = (HttpRequest) e.getMessage();
-      if (!isValid(request)) {
+      if (request.getMethod() != HttpMethod.GET) {
         write404(e);
         return;
       }
 
-      writeResponse(e);
-    }
+      if (PATH.equals(request.getUri())) {
+        writeResponse(e);
+        return;
+      }
+
+      if (KAFKA_METRICS_PATH.equals(request.getUri())) {
+        KafkaClientMetrics metrics = kafkaMetrics.get();
+        if (metrics == null) {
+          write404(e);
+        } else {
+          writeKafkaMetrics(e, metrics);
+        }
+        return;
+      }
 
-    // only accepts GET on /resources for now
-    private boolean isValid(HttpRequest request) {
-      return (request.getMethod() == HttpMethod.GET) && PATH.equals(request.getUri());
+      write404(e);
     }
 
     private void write404(MessageEvent e) {
@@ -213,6 +233,23 @@ public final class TrackerService extends AbstractIdleService {
       future.addListener(ChannelFutureListener.CLOSE);
     }
 
+    private void writeKafkaMetrics(MessageEvent e, KafkaClientMetrics metrics) {
+      HttpResponse response = new DefaultHttpResponse(HttpVersion.HTTP_1_1, HttpResponseStatus.OK);
+      response.setHeader(HttpHeaders.Names.CONTENT_TYPE, "application/json; charset=UTF-8");
+
+      ChannelBuffer content = ChannelBuffers.dynamicBuffer();
+      Writer writer = new OutputStreamWriter(new ChannelBufferOutputStream(content), CharsetUtil.UTF_8);
+      KafkaClientMetricsCodec.encode(metrics, writer);
+      try {
+        writer.close();
+      } catch (IOException e1) {
+        LOG.error("error writing kafka metrics", e1);
+      }
+      response.setContent(content);
+      ChannelFuture future = e.getChannel().write(response);
+      future.addListener(ChannelFutureListener.CLOSE);
+    }
+
     @Override
     public void exceptionCaught(ChannelHandlerContext ctx, ExceptionEvent e) {
       e.getChannel().close();
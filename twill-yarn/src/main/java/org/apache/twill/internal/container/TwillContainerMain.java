@@ -84,7 +84,7 @@ public final class TwillContainerMain extends ServiceMain {
     ZKClientService zkClientService = ZKClientServices.delegate(
       ZKClients.reWatchOnExpire(
         ZKClients.retryOnFailure(ZKClientService.Builder.of(zkConnectStr).build(),
-                                 RetryStrategies.fixDelay(1, TimeUnit.SECONDS))));
+                                 RetryStrategies.jitterDelay(500, 10000, TimeUnit.MILLISECONDS))));
 
     ZKDiscoveryService discoveryService = new ZKDiscoveryService(zkClientService);
 
@@ -25,6 +25,7 @@ import org.apache.twill.api.Command;
 import org.apache.twill.api.RunId;
 import org.apache.twill.api.TwillRunnable;
 import org.apache.twill.api.TwillRunnableSpecification;
+import org.apache.twill.api.logging.LogFilter;
 import org.apache.twill.common.Threads;
 import org.apache.twill.filesystem.Location;
 import org.apache.twill.internal.BasicTwillContext;
@@ -32,6 +33,7 @@ import org.apache.twill.internal.ContainerInfo;
 import org.apache.twill.internal.ContainerLiveNodeData;
 import org.apache.twill.internal.logging.Loggings;
 import org.apache.twill.internal.state.Message;
+import org.apache.twill.internal.state.SystemMessages;
 import org.apache.twill.internal.utils.Instances;
 import org.apache.twill.internal.yarn.AbstractYarnTwillService;
 import org.apache.twill.zookeeper.ZKClient;
@@ -90,6 +92,14 @@ public final class TwillContainerService extends AbstractYarnTwillService {
       return Futures.immediateFuture(messageId);
     }
 
+    LogFilter logFilter = SystemMessages.getLogFilter(message);
+    if (logFilter != null) {
+      if (Loggings.setLogFilter(logFilter)) {
+        LOG.info("Log filter changed to {}.", logFilter);
+      }
+      return Futures.immediateFuture(messageId);
+    }
+
     final SettableFuture<String> result = SettableFuture.create();
     Command command = message.getCommand();
     if (message.getType() == Message.Type.SYSTEM
@@ -68,14 +68,14 @@ final class YarnTwillController extends AbstractTwillController implements Twill
   /**
    * Creates an instance without any {@link LogHandler}.
    */
-  YarnTwillController(String appName, RunId runId, ZKClient zkClient,
+  YarnTwillController(String appName, RunId runId, ZKClient zkClient, boolean dropLogsOnFull,
                       Callable<ProcessController<YarnApplicationReport>> startUp) {
-    this(appName, runId, zkClient, ImmutableList.<LogHandler>of(), startUp);
+    this(appName, runId, zkClient, ImmutableList.<LogHandler>of(), dropLogsOnFull, startUp);
   }
 
   YarnTwillController(String appName, RunId runId, ZKClient zkClient, Iterable<LogHandler> logHandlers,
-                      Callable<ProcessController<YarnApplicationReport>> startUp) {
-    super(runId, zkClient, logHandlers);
+                      boolean dropLogsOnFull, Callable<ProcessController<YarnApplicationReport>> startUp) {
+    super(runId, zkClient, logHandlers, dropLogsOnFull);
     this.appName = appName;
     this.startUp = startUp;
   }
@@ -50,7 +50,10 @@ import org.apache.twill.api.SecureStore;
 import org.apache.twill.api.TwillController;
 import org.apache.twill.api.TwillPreparer;
 import org.apache.twill.api.TwillSpecification;
+import org.apache.twill.api.logging.LogFilter;
+import org.apache.twill.api.logging.LogFormat;
 import org.apache.twill.api.logging.LogHandler;
+import org.apache.twill.api.logging.LogRetention;
 import org.apache.twill.filesystem.Location;
 import org.apache.twill.filesystem.LocationFactory;
 import org.apache.twill.internal.ApplicationBundler;
@@ -71,6 +74,8 @@ import org.apache.twill.internal.container.TwillContainerMain;
 import org.apache.twill.internal.json.ArgumentsCodec;
 import org.apache.twill.internal.json.JvmOptionsCodec;
 import org.apache.twill.internal.json.LocalFileCodec;
+import org.apache.twill.internal.json.LogFilterCodec;
+import org.apache.twill.internal.json.LogRetentionCodec;
 import org.apache.twill.internal.json.TwillSpecificationAdapter;
 import org.apache.twill.internal.utils.Dependencies;
 import org.apache.twill.internal.utils.Paths;
@@ -121,11 +126,17 @@ final class YarnTwillPreparer implements TwillPreparer {
   private final List<URI> resources = Lists.newArrayList();
   private final List<String> classPaths = Lists.newArrayList();
   private final ListMultimap<String, String> runnableArgs = ArrayListMultimap.create();
+  private final Map<String, LogFilter> runnableLogFilters = Maps.newHashMap();
   private final Credentials credentials;
   private final int reservedMemory;
+  private final int logPartitions;
+  private final int logSpillSize;
   private String user;
   private String extraOptions;
   private JvmOptions.DebugOptions debugOptions = JvmOptions.DebugOptions.NO_DEBUG;
+  private LogFormat logFormat = LogFormat.JSON;
+  private LogFilter logFilter = LogFilter.ALL;
+  private LogRetention logRetention = LogRetention.DEFAULT;
 
   YarnTwillPreparer(YarnConfiguration yarnConfig, TwillSpecification twillSpec,
                     YarnAppClient yarnAppClient, ZKClient zkClient,
@@ -141,6 +152,8 @@ final class YarnTwillPreparer implements TwillPreparer {
     this.credentials = createCredentials();
     this.reservedMemory = yarnConfig.getInt(Configs.Keys.JAVA_RESERVED_MEMORY_MB,
                                             Configs.Defaults.JAVA_RESERVED_MEMORY_MB);
+    this.logPartitions = yarnConfig.getInt(Configs.Keys.LOG_PARTITIONS, Configs.Defaults.LOG_PARTITIONS);
+    this.logSpillSize = yarnConfig.getInt(Configs.Keys.LOG_SPILL_SIZE_MB, Configs.Defaults.LOG_SPILL_SIZE_MB);
     this.user = System.getProperty("user.name");
     this.extraOptions = extraOptions;
   }
@@ -151,6 +164,32 @@ final class YarnTwillPreparer implements TwillPreparer {
     return this;
   }
 
+  @Override
+  public TwillPreparer setLogFormat(LogFormat format) {
+    this.logFormat = format;
+    return this;
+  }
+
+  @Override
+  public TwillPreparer setLogFilter(LogFilter filter) {
+    this.logFilter = filter;
+    return this;
+  }
+
+  @Override
+  public TwillPreparer setLogFilter(String runnableName, LogFilter filter) {
+    Preconditions.checkArgument(twillSpec.getRunnables().containsKey(runnableName),
+                                "Unknown runnable %s", runnableName);
+    runnableLogFilters.put(runnableName, filter);
+    return this;
+  }
+
+  @Override
+  public TwillPreparer setLogRetention(LogRetention retention) {
+    this.logRetention = retention;
+    return this;
+  }
+
   @Override
   public TwillPreparer setUser(String user) {
     this.user = user;
@@ -268,6 +307,8 @@ final class YarnTwillPreparer implements TwillPreparer {
           saveLauncher(localFiles);
           saveJvmOptions(localFiles);
           saveArguments(new Arguments(arguments, runnableArgs), localFiles);
+          saveLogFilters(localFiles);
+          saveLogRetention(localFiles);
           saveLocalFiles(localFiles, ImmutableSet.of(Constants.Files.TWILL_SPEC,
                                                      Constants.Files.LOGBACK_TEMPLATE,
                                                      Constants.Files.CONTAINER_JAR,
@@ -288,6 +329,9 @@ final class YarnTwillPreparer implements TwillPreparer {
                         .put(EnvKeys.TWILL_RUN_ID, runId.getId())
                         .put(EnvKeys.TWILL_RESERVED_MEMORY_MB, Integer.toString(reservedMemory))
                         .put(EnvKeys.TWILL_APP_NAME, twillSpec.getName())
+                        .put(EnvKeys.TWILL_LOG_FORMAT, logFormat.name())
+                        .put(EnvKeys.TWILL_LOG_PARTITIONS, Integer.toString(logPartitions))
+                        .put(EnvKeys.TWILL_LOG_SPILL_SIZE_MB, Integer.toString(logSpillSize))
                         .put(EnvKeys.YARN_RM_SCHEDULER_ADDRESS, yarnConfig.get(YarnConfiguration.RM_SCHEDULER_ADDRESS))
                         .build(),
             localFiles.values(), credentials
@@ -558,6 +602,52 @@ final class YarnTwillPreparer implements TwillPreparer {
     localFiles.put(Constants.Files.ARGUMENTS, createLocalFile(Constants.Files.ARGUMENTS, location));
   }
 
+  private void saveLogRetention(Map<String, LocalFile> localFiles) throws IOException {
+    if (LogRetention.DEFAULT.equals(logRetention)) {
+      // Default retention is used by the AM if the file is absent.
+      return;
+    }
+
+    LOG.debug("Create and copy {}", Constants.Files.LOG_RETENTION);
+    final Location location = createTempLocation(Constants.Files.LOG_RETENTION);
+    LogRetentionCodec.encode(logRetention, new OutputSupplier<Writer>() {
+      @Override
+      public Writer getOutput() throws IOException {
+        return new OutputStreamWriter(location.getOutputStream(), Charsets.UTF_8);
+      }
+    });
+    LOG.debug("Done {}", Constants.Files.LOG_RETENTION);
+
+    localFiles.put(Constants.Files.LOG_RETENTION, createLocalFile(Constants.Files.LOG_RETENTION, location));
+  }
+
+  private void saveLogFilters(Map<String, LocalFile> localFiles) throws IOException {
+    Map<String, LogFilter> filters = Maps.newHashMap();
+    for (String runnableName : twillSpec.getRunnables().keySet()) {
+      LogFilter filter = runnableLogFilters.containsKey(runnableName) ? runnableLogFilters.get(runnableName)
+                                                                      : logFilter;
+      if (!LogFilter.ALL.equals(filter)) {
+        filters.put(runnableName, filter);
+      }
+    }
+    if (filters.isEmpty()) {
+      // If no filter, no need to localize the file.
+      return;
+    }
+
+    LOG.debug("Create and copy {}", Constants.Files.LOG_FILTERS);
+    final Location location = createTempLocation(Constants.Files.LOG_FILTERS);
+    LogFilterCodec.encode(filters, new OutputSupplier<Writer>() {
+      @Override
+      public Writer getOutput() throws IOException {
+        return new OutputStreamWriter(location.getOutputStream(), Charsets.UTF_8);
+      }
+    });
+    LOG.debug("Done {}", Constants.Files.LOG_FILTERS);
+
+    localFiles.put(Constants.Files.LOG_FILTERS, createLocalFile(Constants.Files.LOG_FILTERS, location));
+  }
+
   /**
    * Serializes the list of files that needs to localize from AM to Container.
    */
@@ -35,8 +35,6 @@ import com.google.common.collect.Sets;
 import com.google.common.collect.Table;
 import com.google.common.util.concurrent.AbstractIdleService;
 import com.google.common.util.concurrent.Callables;
-import com.google.common.util.concurrent.FutureCallback;
-import com.google.common.util.concurrent.Futures;
 import com.google.gson.Gson;
 import com.google.gson.JsonElement;
 import com.google.gson.JsonObject;
@@ -64,6 +62,7 @@ import org.apache.twill.common.Threads;
 import org.apache.twill.filesystem.HDFSLocationFactory;
 import org.apache.twill.filesystem.Location;
 import org.apache.twill.filesystem.LocationFactory;
+import org.apache.twill.internal.Configs;
 import org.apache.twill.internal.Constants;
 import org.apache.twill.internal.ProcessController;
 import org.apache.twill.internal.RunIds;
@@ -81,6 +80,7 @@ import org.apache.twill.zookeeper.ZKClientService;
 import org.apache.twill.zookeeper.ZKClientServices;
 import org.apache.twill.zookeeper.ZKClients;
 import org.apache.twill.zookeeper.ZKOperations;
+import org.apache.twill.zookeeper.ZKTreeCache;
 import org.apache.zookeeper.CreateMode;
 import org.apache.zookeeper.KeeperException;
 import org.slf4j.Logger;
@@ -95,6 +95,7 @@ import java.util.Iterator;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ScheduledFuture;
@@ -109,10 +110,11 @@ public final class YarnTwillRunnerService extends AbstractIdleService implements
   private static final Logger LOG = LoggerFactory.getLogger(YarnTwillRunnerService.class);
 
   private static final int ZK_TIMEOUT = 10000;
-  private static final Function<String, RunId> STRING_TO_RUN_ID = new Function<String, RunId>() {
+  private static final Function<NodeData, ApplicationId> APPLICATION_ID_DECODER =
+    new Function<NodeData, ApplicationId>() {
     @Override
-    public RunId apply(String input) {
-      return RunIds.fromString(input);
+    public ApplicationId apply(NodeData nodeData) {
+      return getApplicationId(nodeData);
     }
   };
   private static final Function<YarnTwillController, TwillController> CAST_CONTROLLER =
@@ -260,7 +262,8 @@ public final class YarnTwillRunnerService extends AbstractIdleService implements
                                         Callable<ProcessController<YarnApplicationReport>> startUp) {
         ZKClient zkClient = ZKClients.namespace(zkClientService, "/" + appName);
         YarnTwillController controller = listenController(new YarnTwillController(appName, runId, zkClient,
-                                                                                  logHandlers, startUp));
+                                                                                  logHandlers, dropLogsOnFull(),
+                                                                                  startUp));
         synchronized (YarnTwillRunnerService.this) {
           Preconditions.checkArgument(!controllers.contains(appName, runId),
                                       "Application %s with runId %s is already running.", appName, runId);
@@ -339,7 +342,7 @@ public final class YarnTwillRunnerService extends AbstractIdleService implements
   }
 
   private Cancellable watchLiveApps() {
-    final Map<String, Cancellable> watched = Maps.newConcurrentMap();
+    final ConcurrentMap<String, Cancellable> watched = Maps.newConcurrentMap();
 
     final AtomicBoolean cancelled = new AtomicBoolean(false);
     // Watch child changes in the root, which gives all application names.
@@ -360,32 +363,40 @@ public final class YarnTwillRunnerService extends AbstractIdleService implements
           }
 
           final String instancePath = String.format("/%s/instances", appName);
-          watched.put(appName,
-                      ZKOperations.watchChildren(zkClientService, instancePath, new ZKOperations.ChildrenCallback() {
+          final ZKTreeCache<ApplicationId> instances = ZKTreeCache.create(zkClientService, instancePath, 1,
+                                                                          APPLICATION_ID_DECODER);
+          // No more child, means no live instances, hence stop watching the application.
+          final Runnable unwatchIfEmpty = new Runnable() {
             @Override
-            public void updated(NodeChildren nodeChildren) {
-              if (cancelled.get()) {
-                return;
+            public void run() {
+              if (instances.getChildren().isEmpty() && watched.remove(appName, instances)) {
+                instances.cancel();
               }
-              if (nodeChildren.getChildren().isEmpty()) {     // No more child, means no live instances
-                Cancellable removed = watched.remove(appName);
-                if (removed != null) {
-                  removed.cancel();
-                }
+            }
+          };
+          instances.addListener(new ZKTreeCache.Listener<ApplicationId>() {
+            @Override
+            public void nodeAdded(String path, ApplicationId appId) {
+              // The node name is the runId and the node data contains the application Id.
+              if (cancelled.get() || appId == null) {
                 return;
               }
-              synchronized (YarnTwillRunnerService.this) {
-                // For each of the children, which the node name is the runId,
-                // fetch the application Id and construct TwillController.
-                for (final RunId runId : Iterables.transform(nodeChildren.getChildren(), STRING_TO_RUN_ID)) {
-                  if (controllers.contains(appName, runId)) {
-                    continue;
-                  }
-                  updateController(appName, runId, cancelled);
-                }
-              }
+              updateController(appName, RunIds.fromString(path), appId);
             }
-          }));
+
+            @Override
+            public void nodeChanged(String path, ApplicationId appId) {
+              // No-op
+            }
+
+            @Override
+            public void nodeRemoved(String path) {
+              unwatchIfEmpty.run();
+            }
+          }, Threads.SAME_THREAD_EXECUTOR);
+          watched.put(appName, instances);
+          // Also stop watching if there is no live instance from the start.
+          instances.getInitialized().addListener(unwatchIfEmpty, Threads.SAME_THREAD_EXECUTOR);
         }
 
         // Remove app watches for apps that are gone. Removal of controller from controllers table is done
@@ -472,47 +483,30 @@ public final class YarnTwillRunnerService extends AbstractIdleService implements
     };
   }
 
-  private void updateController(final String appName, final RunId runId, final AtomicBoolean cancelled) {
-    String instancePath = String.format("/%s/instances/%s", appName, runId.getId());
-
-    // Fetch the content node.
-    Futures.addCallback(zkClientService.getData(instancePath), new FutureCallback<NodeData>() {
-      @Override
-      public void onSuccess(NodeData result) {
-        if (cancelled.get()) {
-          return;
-        }
-        ApplicationId appId = getApplicationId(result);
-        if (appId == null) {
-          return;
-        }
-
-        synchronized (YarnTwillRunnerService.this) {
-          if (!controllers.contains(appName, runId)) {
-            ZKClient zkClient = ZKClients.namespace(zkClientService, "/" + appName);
-            YarnTwillController controller = listenController(
-              new YarnTwillController(appName, runId, zkClient,
-                                      Callables.returning(yarnAppClient.createProcessController(appId))));
-            controllers.put(appName, runId, controller);
-            controller.start();
-          }
-        }
-      }
-
-      @Override
-      public void onFailure(Throwable t) {
-        LOG.warn("Failed in fetching application instance node.", t);
-      }
-    }, Threads.SAME_THREAD_EXECUTOR);
+  private synchronized void updateController(String appName, RunId runId, ApplicationId appId) {
+    if (!controllers.contains(appName, runId)) {
+      ZKClient zkClient = ZKClients.namespace(zkClientService, "/" + appName);
+      YarnTwillController controller = listenController(
+        new YarnTwillController(appName, runId, zkClient, dropLogsOnFull(),
+                                Callables.returning(yarnAppClient.createProcessController(appId))));
+      controllers.put(appName, runId, controller);
+      controller.start();
+    }
   }
 
+  /**
+   * Returns whether controllers drop log entries for log handlers that cannot keep up.
+   */
+  private boolean dropLogsOnFull() {
+    return yarnConfig.getBoolean(Configs.Keys.LOG_HANDLER_DROP_ON_FULL, Configs.Defaults.LOG_HANDLER_DROP_ON_FULL);
+  }
 
   /**
    * Decodes application ID stored inside the node data.
    * @param nodeData The node data to decode from. If it is {@code null}, this method would return {@code null}.
    * @return The ApplicationId or {@code null} if failed to decode.
    */
-  private ApplicationId getApplicationId(NodeData nodeData) {
+  private static ApplicationId getApplicationId(NodeData nodeData) {
     byte[] data = nodeData == null ? null : nodeData.getData();
     if (data == null) {
       return null;
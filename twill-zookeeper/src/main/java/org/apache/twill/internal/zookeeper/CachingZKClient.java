@@ -0,0 +1,306 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.twill.internal.zookeeper;
+
+import com.google.common.base.Function;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Sets;
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import org.apache.twill.common.Threads;
+import org.apache.twill.zookeeper.ForwardingZKClient;
+import org.apache.twill.zookeeper.NodeData;
+import org.apache.twill.zookeeper.OperationFuture;
+import org.apache.twill.zookeeper.ZKClient;
+import org.apache.twill.zookeeper.ZKOp;
+import org.apache.zookeeper.CreateMode;
+import org.apache.zookeeper.OpResult;
+import org.apache.zookeeper.WatchedEvent;
+import org.apache.zookeeper.Watcher;
+import org.apache.zookeeper.data.ACL;
+import org.apache.zookeeper.data.Stat;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import javax.annotation.Nullable;
+
+/**
+ * A {@link ZKClient} that caches results of {@link #getData(String, Watcher)} and {@link #exists(String, Watcher)}.
+ *
+ * <p>
+ * Each cache entry sets a watch when it is loaded, which evicts the entry when it is triggered. Watchers given
+ * by callers are attached to the entry and are notified when the entry watch is triggered, hence they receive
+ * the same events as if they were set on ZooKeeper directly. Writes made through this client evict the
+ * affected paths before the write future completes. The number of cached entries is bounded, with the least
+ * recently used entry evicted first.
+ * </p>
+ *
+ * <p>
+ * Cached results are shared among callers, hence the returned {@link NodeData} and {@link Stat} must not be modified.
+ * </p>
+ */
+public final class CachingZKClient extends ForwardingZKClient {
+
+  private static final Logger LOG = LoggerFactory.getLogger(CachingZKClient.class);
+
+  private final ZKClient delegate;
+  private final Map<String, CacheEntry<NodeData>> dataCache;
+  private final Map<String, CacheEntry<Stat>> existsCache;
+
+  public CachingZKClient(ZKClient delegate, int maxSize) {
+    super(delegate);
+    Preconditions.checkArgument(maxSize > 0, "Cache size must be positive: %s", maxSize);
+    this.delegate = delegate;
+    this.dataCache = createLRUMap(maxSize);
+    this.existsCache = createLRUMap(maxSize);
+
+    // All watches are gone when the session expired, hence clear the cache.
+    delegate.addConnectionWatcher(new Watcher() {
+      @Override
+      public void process(WatchedEvent event) {
+        if (event.getState() == Event.KeeperState.Expired) {
+          synchronized (CachingZKClient.this) {
+            dataCache.clear();
+            existsCache.clear();
+          }
+        }
+      }
+    });
+  }
+
+  @Override
+  public OperationFuture<String> create(String path, @Nullable byte[] data,
+                                        CreateMode createMode, boolean createParent, Iterable<ACL> acl) {
+    final OperationFuture<String> future = delegate.create(path, data, createMode, createParent, acl);
+    return invalidateOnComplete(future, new Function<String, Iterable<String>>() {
+      @Override
+      public Iterable<String> apply(@Nullable String createdPath) {
+        // For sequential node, the created path is different from the request path
+        return createdPath == null ? ImmutableList.of(future.getRequestPath())
+                                   : ImmutableList.of(future.getRequestPath(), createdPath);
+      }
+    });
+  }
+
+  @Override
+  public OperationFuture<Stat> exists(final String path, @Nullable Watcher watcher) {
+    return read(existsCache, path, watcher, new Function<Watcher, OperationFuture<Stat>>() {
+      @Override
+      public OperationFuture<Stat> apply(Watcher entryWatcher) {
+        return delegate.exists(path, entryWatcher);
+      }
+    });
+  }
+
+  @Override
+  public OperationFuture<NodeData> getData(final String path, @Nullable Watcher watcher) {
+    return read(dataCache, path, watcher, new Function<Watcher, OperationFuture<NodeData>>() {
+      @Override
+      public OperationFuture<NodeData> apply(Watcher entryWatcher) {
+        return delegate.getData(path, entryWatcher);
+      }
+    });
+  }
+
+  @Override
+  public OperationFuture<Stat> setData(String dataPath, byte[] data, int version) {
+    return invalidateOnComplete(delegate.setData(dataPath, data, version), null);
+  }
+
+  @Override
+  public OperationFuture<String> delete(String deletePath, int version) {
+    return invalidateOnComplete(delegate.delete(deletePath, version), null);
+  }
+
+  @Override
+  public OperationFuture<List<OpResult>> multi(Iterable<ZKOp> ops) {
+    final List<ZKOp> opList = ImmutableList.copyOf(ops);
+    return invalidateOnComplete(delegate.multi(opList), new Function<List<OpResult>, Iterable<String>>() {
+      @Override
+      public Iterable<String> apply(@Nullable List<OpResult> results) {
+        Set<String> paths = Sets.newHashSet();
+        for (ZKOp op : opList) {
+          paths.add(op.getPath());
+        }
+        if (results != null) {
+          for (OpResult result : results) {
+            if (result instanceof OpResult.CreateResult) {
+              paths.add(((OpResult.CreateResult) result).getPath());
+            }
+          }
+        }
+        return paths;
+      }
+    });
+  }
+
+  /**
+   * Performs a read operation through the given cache.
+   *
+   * @param cache The cache to use
+   * @param path Path of the read
+   * @param watcher Optional watcher from the caller
+   * @param loader Function to perform the actual read with the given {@link Watcher} when it is not in the cache
+   */
+  private synchronized <V> OperationFuture<V> read(Map<String, CacheEntry<V>> cache, String path,
+                                                   @Nullable Watcher watcher,
+                                                   Function<Watcher, OperationFuture<V>> loader) {
+    CacheEntry<V> entry = cache.get(path);
+    if (entry == null) {
+      entry = new CacheEntry<V>(cache, path);
+      cache.put(path, entry);
+      try {
+        entry.load(loader);
+      } catch (RuntimeException e) {
+        cache.remove(path);
+        throw e;
+      }
+    }
+    if (watcher != null) {
+      entry.watchers.add(watcher);
+    }
+    return entry.future;
+  }
+
+  /**
+   * Evicts the given path from all caches.
+   */
+  private synchronized void invalidate(String path) {
+    dataCache.remove(path);
+    existsCache.remove(path);
+  }
+
+  /**
+   * Returns an {@link OperationFuture} that completes with the given write future, after evicting the request path
+   * and the paths returned by the given function from the cache.
+   */
+  private <V> OperationFuture<V> invalidateOnComplete(final OperationFuture<V> future,
+                                                      @Nullable final Function<V, Iterable<String>> paths) {
+    final SettableOperationFuture<V> result = SettableOperationFuture.create(future.getRequestPath(),
+                                                                             Threads.SAME_THREAD_EXECUTOR);
+    Futures.addCallback(future, new FutureCallback<V>() {
+      @Override
+      public void onSuccess(V value) {
+        invalidate(value);
+        result.set(value);
+      }
+
+      @Override
+      public void onFailure(Throwable t) {
+        // The write may still have been applied (e.g. connection loss), hence always invalidate.
+        invalidate(null);
+        result.setException(t);
+      }
+
+      private void invalidate(@Nullable V value) {
+        if (paths == null) {
+          CachingZKClient.this.invalidate(future.getRequestPath());
+          return;
+        }
+        for (String path : paths.apply(value)) {
+          CachingZKClient.this.invalidate(path);
+        }
+      }
+    }, Threads.SAME_THREAD_EXECUTOR);
+    return result;
+  }
+
+  private static <V> Map<String, V> createLRUMap(final int maxSize) {
+    return new LinkedHashMap<String, V>(16, 0.75f, true) {
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<String, V> eldest) {
+        return size() > maxSize;
+      }
+    };
+  }
+
+  /**
+   * A cache entry, which also acts as the {@link Watcher} for the read that loads the entry. The entry may
+   * still be watching after it is evicted from the cache, in which case watchers attached to it are
+   * still notified.
+   *
+   * @param <V> Type of the cached result
+   */
+  private final class CacheEntry<V> implements Watcher {
+
+    private final Map<String, CacheEntry<V>> cache;
+    private final String path;
+    // Guarded by CachingZKClient.this
+    private final Set<Watcher> watchers;
+    private OperationFuture<V> future;
+
+    CacheEntry(Map<String, CacheEntry<V>> cache, String path) {
+      this.cache = cache;
+      this.path = path;
+      this.watchers = Sets.newLinkedHashSet();
+    }
+
+    /**
+     * Loads this entry with the given loader. Must be called while holding the lock of CachingZKClient.
+     */
+    void load(Function<Watcher, OperationFuture<V>> loader) {
+      future = loader.apply(this);
+      Futures.addCallback(future, new FutureCallback<V>() {
+        @Override
+        public void onSuccess(V result) {
+          // No-op
+        }
+
+        @Override
+        public void onFailure(Throwable t) {
+          // Failures are not cached, and no watch is set on failure
+          synchronized (CachingZKClient.this) {
+            evict();
+            watchers.clear();
+          }
+        }
+      }, Threads.SAME_THREAD_EXECUTOR);
+    }
+
+    @Override
+    public void process(WatchedEvent event) {
+      List<Watcher> targets;
+      synchronized (CachingZKClient.this) {
+        targets = ImmutableList.copyOf(watchers);
+        // Connection events other than expiration don't trigger the watch, hence the entry remains valid.
+        if (event.getType() != Event.EventType.None || event.getState() == Event.KeeperState.Expired) {
+          evict();
+          watchers.clear();
+        }
+      }
+      for (Watcher watcher : targets) {
+        try {
+          watcher.process(event);
+        } catch (Throwable t) {
+          LOG.error("Watcher throws exception.", t);
+        }
+      }
+    }
+
+    private void evict() {
+      if (cache.get(path) == this) {
+        cache.remove(path);
+      }
+    }
+  }
+}
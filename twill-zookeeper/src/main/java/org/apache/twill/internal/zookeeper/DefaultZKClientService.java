@@ -22,6 +22,7 @@ import com.google.common.base.Supplier;
 import com.google.common.collect.ArrayListMultimap;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMultimap;
+import com.google.common.collect.Lists;
 import com.google.common.collect.Multimap;
 import com.google.common.util.concurrent.AbstractService;
 import com.google.common.util.concurrent.FutureCallback;
@@ -35,9 +36,12 @@ import org.apache.twill.zookeeper.NodeChildren;
 import org.apache.twill.zookeeper.NodeData;
 import org.apache.twill.zookeeper.OperationFuture;
 import org.apache.twill.zookeeper.ZKClientService;
+import org.apache.twill.zookeeper.ZKOp;
 import org.apache.zookeeper.AsyncCallback;
 import org.apache.zookeeper.CreateMode;
 import org.apache.zookeeper.KeeperException;
+import org.apache.zookeeper.Op;
+import org.apache.zookeeper.OpResult;
 import org.apache.zookeeper.WatchedEvent;
 import org.apache.zookeeper.Watcher;
 import org.apache.zookeeper.ZooDefs;
@@ -54,9 +58,7 @@ import java.util.Map;
 import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.Executor;
 import java.util.concurrent.ExecutorService;
-import java.util.concurrent.LinkedBlockingQueue;
-import java.util.concurrent.ThreadPoolExecutor;
-import java.util.concurrent.TimeUnit;
+import java.util.concurrent.Executors;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicReference;
 import javax.annotation.Nullable;
@@ -74,7 +76,11 @@ public final class DefaultZKClientService extends AbstractZKClient implements ZK
   private final Multimap<String, byte[]> authInfos;
   private final AtomicReference<ZooKeeper> zooKeeper;
   private final Service serviceDelegate;
-  private ExecutorService eventExecutor;
+  private final int eventThreads;
+  private StripedExecutor eventExecutor;
+  private ExecutorService multiExecutor;
+  // Set to true when the server responded that multi is not supported.
+  private volatile boolean multiUnsupported;
 
   /**
    * Creates a new instance.
@@ -88,8 +94,21 @@ public final class DefaultZKClientService extends AbstractZKClient implements ZK
 
   public DefaultZKClientService(String zkStr, int sessionTimeout,
                                 Watcher connectionWatcher, Multimap<String, byte[]> authInfos) {
+    this(zkStr, sessionTimeout, connectionWatcher, authInfos, 1);
+  }
+
+  /**
+   * Creates a new instance.
+   *
+   * @param eventThreads Number of threads for calling watchers and operation callbacks. Events of the same
+   *                     path are always delivered in order by the same thread.
+   */
+  public DefaultZKClientService(String zkStr, int sessionTimeout, Watcher connectionWatcher,
+                                Multimap<String, byte[]> authInfos, int eventThreads) {
+    Preconditions.checkArgument(eventThreads > 0, "Number of event threads must be positive: %s", eventThreads);
     this.zkStr = zkStr;
     this.sessionTimeout = sessionTimeout;
+    this.eventThreads = eventThreads;
     this.connectionWatchers = new CopyOnWriteArrayList<Watcher>();
     this.authInfos = copyAuthInfo(authInfos);
     addConnectionWatcher(connectionWatcher);
@@ -128,14 +147,15 @@ public final class DefaultZKClientService extends AbstractZKClient implements ZK
                                            final boolean createParent,
                                            final List<ACL> acl,
                                            final boolean ignoreNodeExists) {
-    final SettableOperationFuture<String> createFuture = SettableOperationFuture.create(path, eventExecutor);
+    final SettableOperationFuture<String> createFuture = SettableOperationFuture.create(path,
+                                                                                       eventExecutor.forKey(path));
     getZooKeeper().create(path, data, acl, createMode, Callbacks.STRING, createFuture);
     if (!createParent) {
       return createFuture;
     }
 
     // If create parent is request, return a different future
-    final SettableOperationFuture<String> result = SettableOperationFuture.create(path, eventExecutor);
+    final SettableOperationFuture<String> result = SettableOperationFuture.create(path, eventExecutor.forKey(path));
     // Watch for changes in the original future
     Futures.addCallback(createFuture, new FutureCallback<String>() {
       @Override
@@ -228,21 +248,21 @@ public final class DefaultZKClientService extends AbstractZKClient implements ZK
 
   @Override
   public OperationFuture<Stat> exists(String path, Watcher watcher) {
-    SettableOperationFuture<Stat> result = SettableOperationFuture.create(path, eventExecutor);
+    SettableOperationFuture<Stat> result = SettableOperationFuture.create(path, eventExecutor.forKey(path));
     getZooKeeper().exists(path, wrapWatcher(watcher), Callbacks.STAT_NONODE, result);
     return result;
   }
 
   @Override
   public OperationFuture<NodeChildren> getChildren(String path, Watcher watcher) {
-    SettableOperationFuture<NodeChildren> result = SettableOperationFuture.create(path, eventExecutor);
+    SettableOperationFuture<NodeChildren> result = SettableOperationFuture.create(path, eventExecutor.forKey(path));
     getZooKeeper().getChildren(path, wrapWatcher(watcher), Callbacks.CHILDREN, result);
     return result;
   }
 
   @Override
   public OperationFuture<NodeData> getData(String path, Watcher watcher) {
-    SettableOperationFuture<NodeData> result = SettableOperationFuture.create(path, eventExecutor);
+    SettableOperationFuture<NodeData> result = SettableOperationFuture.create(path, eventExecutor.forKey(path));
     getZooKeeper().getData(path, wrapWatcher(watcher), Callbacks.DATA, result);
 
     return result;
@@ -250,32 +270,176 @@ public final class DefaultZKClientService extends AbstractZKClient implements ZK
 
   @Override
   public OperationFuture<Stat> setData(String dataPath, byte[] data, int version) {
-    SettableOperationFuture<Stat> result = SettableOperationFuture.create(dataPath, eventExecutor);
+    SettableOperationFuture<Stat> result = SettableOperationFuture.create(dataPath, eventExecutor.forKey(dataPath));
     getZooKeeper().setData(dataPath, data, version, Callbacks.STAT, result);
     return result;
   }
 
   @Override
   public OperationFuture<String> delete(String deletePath, int version) {
-    SettableOperationFuture<String> result = SettableOperationFuture.create(deletePath, eventExecutor);
+    SettableOperationFuture<String> result = SettableOperationFuture.create(deletePath,
+                                                                            eventExecutor.forKey(deletePath));
     getZooKeeper().delete(deletePath, version, Callbacks.VOID, result);
     return result;
   }
 
   @Override
   public OperationFuture<ACLData> getACL(String path) {
-    SettableOperationFuture<ACLData> result = SettableOperationFuture.create(path, eventExecutor);
+    SettableOperationFuture<ACLData> result = SettableOperationFuture.create(path, eventExecutor.forKey(path));
     getZooKeeper().getACL(path, new Stat(), Callbacks.ACL, result);
     return result;
   }
 
   @Override
   public OperationFuture<Stat> setACL(String path, Iterable<ACL> acl, int version) {
-    SettableOperationFuture<Stat> result = SettableOperationFuture.create(path, eventExecutor);
+    SettableOperationFuture<Stat> result = SettableOperationFuture.create(path, eventExecutor.forKey(path));
     getZooKeeper().setACL(path, ImmutableList.copyOf(acl), version, Callbacks.STAT, result);
     return result;
   }
 
+  @Override
+  public OperationFuture<List<OpResult>> multi(Iterable<ZKOp> ops) {
+    final List<ZKOp> opList = ImmutableList.copyOf(ops);
+    String path = opList.isEmpty() ? "/" : opList.get(0).getPath();
+    final SettableOperationFuture<List<OpResult>> result = SettableOperationFuture.create(path,
+                                                                                         eventExecutor.forKey(path));
+    if (opList.isEmpty()) {
+      result.set(ImmutableList.<OpResult>of());
+      return result;
+    }
+    if (multiUnsupported) {
+      pipelineMulti(opList, result);
+      return result;
+    }
+
+    // The ZooKeeper client only provides a blocking multi call, hence run it from a separate executor.
+    final ZooKeeper zk = getZooKeeper();
+    final List<Op> zkOps = toZooKeeperOps(opList);
+    multiExecutor.execute(new Runnable() {
+      @Override
+      public void run() {
+        try {
+          result.set(zk.multi(zkOps));
+        } catch (KeeperException e) {
+          if (e.code() == KeeperException.Code.UNIMPLEMENTED) {
+            LOG.info("ZooKeeper server doesn't support multi. Fallback to pipelined operations: " + zkStr);
+            multiUnsupported = true;
+            pipelineMulti(opList, result);
+            return;
+          }
+          result.setException(getMultiException(e, opList));
+        } catch (Throwable t) {
+          result.setException(t);
+        }
+      }
+    });
+    return result;
+  }
+
+  /**
+   * Sends all operations without waiting for responses in between. The server executes requests of the same
+   * session in order, so the outcome is the same as multi, except that it is not atomic.
+   */
+  private void pipelineMulti(List<ZKOp> ops, final SettableOperationFuture<List<OpResult>> result) {
+    final List<SettableOperationFuture<OpResult>> futures = Lists.newArrayListWithCapacity(ops.size());
+    try {
+      ZooKeeper zk = getZooKeeper();
+      for (ZKOp op : ops) {
+        SettableOperationFuture<OpResult> future = SettableOperationFuture.create(op.getPath(),
+                                                                                  Threads.SAME_THREAD_EXECUTOR);
+        MultiOpCallback callback = new MultiOpCallback(op, future);
+        switch (op.getType()) {
+          case CREATE:
+            zk.create(op.getPath(), op.getData(), op.getACL(), op.getCreateMode(), callback, null);
+            break;
+          case DELETE:
+            zk.delete(op.getPath(), op.getVersion(), callback, null);
+            break;
+          case SET_DATA:
+            zk.setData(op.getPath(), op.getData(), op.getVersion(), callback, null);
+            break;
+          case CHECK:
+            zk.exists(op.getPath(), false, callback, null);
+            break;
+          default:
+            throw new IllegalArgumentException("Unsupported operation " + op);
+        }
+        futures.add(future);
+      }
+    } catch (Throwable t) {
+      result.setException(t);
+      return;
+    }
+
+    Futures.successfulAsList(futures).addListener(new Runnable() {
+      @Override
+      public void run() {
+        List<OpResult> results = Lists.newArrayListWithCapacity(futures.size());
+        for (SettableOperationFuture<OpResult> future : futures) {
+          try {
+            results.add(future.get());
+          } catch (Exception e) {
+            // Reflects the failure of the first failed operation
+            result.setException(e.getCause());
+            return;
+          }
+        }
+        result.set(results);
+      }
+    }, Threads.SAME_THREAD_EXECUTOR);
+  }
+
+  private List<Op> toZooKeeperOps(List<ZKOp> ops) {
+    List<Op> zkOps = Lists.newArrayListWithCapacity(ops.size());
+    for (ZKOp op : ops) {
+      switch (op.getType()) {
+        case CREATE:
+          zkOps.add(Op.create(op.getPath(), op.getData(), op.getACL(), op.getCreateMode()));
+          break;
+        case DELETE:
+          zkOps.add(Op.delete(op.getPath(), op.getVersion()));
+          break;
+        case SET_DATA:
+          zkOps.add(Op.setData(op.getPath(), op.getData(), op.getVersion()));
+          break;
+        case CHECK:
+          zkOps.add(Op.check(op.getPath(), op.getVersion()));
+          break;
+        default:
+          throw new IllegalArgumentException("Unsupported operation " + op);
+      }
+    }
+    return zkOps;
+  }
+
+  /**
+   * Returns a {@link KeeperException} that carries the code and path of the first failed operation in a multi.
+   */
+  private KeeperException getMultiException(KeeperException e, List<ZKOp> ops) {
+    List<OpResult> results = e.getResults();
+    if (results == null) {
+      return e;
+    }
+    for (int i = 0; i < results.size() && i < ops.size(); i++) {
+      OpResult opResult = results.get(i);
+      if (opResult instanceof OpResult.ErrorResult
+        && ((OpResult.ErrorResult) opResult).getErr() != KeeperException.Code.OK.intValue()) {
+        return KeeperException.create(KeeperException.Code.get(((OpResult.ErrorResult) opResult).getErr()),
+                                      ops.get(i).getPath());
+      }
+    }
+    return e;
+  }
+
+  /**
+   * Returns the number of watcher events and operation callbacks waiting to be delivered, one entry per
+   * event thread. A persistently large number means some watcher or callback is too slow.
+   */
+  public List<Integer> getEventQueueDepths() {
+    StripedExecutor executor = eventExecutor;
+    return executor == null ? ImmutableList.<Integer>of() : executor.getQueueDepths();
+  }
+
   @Override
   public Supplier<ZooKeeper> getZooKeeperSupplier() {
     return new Supplier<ZooKeeper>() {
@@ -342,7 +506,8 @@ public final class DefaultZKClientService extends AbstractZKClient implements ZK
     return new Watcher() {
       @Override
       public void process(final WatchedEvent event) {
-        eventExecutor.execute(new Runnable() {
+        // Events of the same path are delivered by the same thread to preserve ordering.
+        eventExecutor.forKey(event.getPath()).execute(new Runnable() {
           @Override
           public void run() {
             try {
@@ -377,20 +542,18 @@ public final class DefaultZKClientService extends AbstractZKClient implements ZK
 
     @Override
     protected void doStart() {
-      // A single thread executor
-      eventExecutor = new ThreadPoolExecutor(1, 1, 0L, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<Runnable>(),
-                                             Threads.createDaemonThreadFactory("zk-client-EventThread")) {
+      eventExecutor = new StripedExecutor(eventThreads, "zk-client-EventThread-%d", new Runnable() {
         @Override
-        protected void terminated() {
-          super.terminated();
-
+        public void run() {
           // Only call notifyStopped if the executor.shutdown() returned, otherwise deadlock (TWILL-110) can occur.
           // Also, notifyStopped() should only be called once.
           if (executorStopped && stopNotified.compareAndSet(false, true)) {
             notifyStopped();
           }
         }
-      };
+      });
+
+      multiExecutor = Executors.newCachedThreadPool(Threads.createDaemonThreadFactory("zk-client-multi-%d"));
 
       try {
         zooKeeper.set(createZooKeeper());
@@ -408,6 +571,7 @@ public final class DefaultZKClientService extends AbstractZKClient implements ZK
         } catch (InterruptedException e) {
           notifyFailed(e);
         } finally {
+          multiExecutor.shutdown();
           eventExecutor.shutdown();
           executorStopped = true;
 
@@ -467,6 +631,65 @@ public final class DefaultZKClientService extends AbstractZKClient implements ZK
     }
   }
 
+  /**
+   * Callback for an operation sent as part of a pipelined multi. It reflects the result as {@link OpResult}.
+   */
+  private static final class MultiOpCallback implements AsyncCallback.StringCallback,
+                                                        AsyncCallback.VoidCallback, AsyncCallback.StatCallback {
+
+    private final ZKOp op;
+    private final SettableOperationFuture<OpResult> result;
+
+    MultiOpCallback(ZKOp op, SettableOperationFuture<OpResult> result) {
+      this.op = op;
+      this.result = result;
+    }
+
+    @Override
+    public void processResult(int rc, String path, Object ctx, String name) {
+      if (setIfFailed(rc)) {
+        return;
+      }
+      result.set(new OpResult.CreateResult((name == null || name.isEmpty()) ? path : name));
+    }
+
+    @Override
+    public void processResult(int rc, String path, Object ctx) {
+      if (setIfFailed(rc)) {
+        return;
+      }
+      result.set(new OpResult.DeleteResult());
+    }
+
+    @Override
+    public void processResult(int rc, String path, Object ctx, Stat stat) {
+      if (setIfFailed(rc)) {
+        return;
+      }
+      if (op.getType() == ZKOp.Type.SET_DATA) {
+        result.set(new OpResult.SetDataResult(stat));
+        return;
+      }
+      // Check operation. The exists call returns OK with null stat if the node doesn't exist.
+      if (stat == null) {
+        setIfFailed(KeeperException.Code.NONODE.intValue());
+      } else if (op.getVersion() != -1 && op.getVersion() != stat.getVersion()) {
+        setIfFailed(KeeperException.Code.BADVERSION.intValue());
+      } else {
+        result.set(new OpResult.CheckResult());
+      }
+    }
+
+    private boolean setIfFailed(int rc) {
+      KeeperException.Code code = KeeperException.Code.get(rc);
+      if (code == KeeperException.Code.OK) {
+        return false;
+      }
+      result.setException(KeeperException.create(code, op.getPath()));
+      return true;
+    }
+  }
+
   /**
    * Collection of generic callbacks that simply reflect results into OperationFuture.
    */
@@ -18,6 +18,7 @@
 package org.apache.twill.internal.zookeeper;
 
 import com.google.common.base.Supplier;
+import com.google.common.collect.ImmutableList;
 import com.google.common.util.concurrent.FutureCallback;
 import com.google.common.util.concurrent.Futures;
 import org.apache.twill.common.Threads;
@@ -26,14 +27,18 @@ import org.apache.twill.zookeeper.ForwardingZKClient;
 import org.apache.twill.zookeeper.NodeChildren;
 import org.apache.twill.zookeeper.NodeData;
 import org.apache.twill.zookeeper.OperationFuture;
+import org.apache.twill.zookeeper.RetryBudget;
 import org.apache.twill.zookeeper.RetryStrategy;
 import org.apache.twill.zookeeper.RetryStrategy.OperationType;
 import org.apache.twill.zookeeper.ZKClient;
+import org.apache.twill.zookeeper.ZKOp;
 import org.apache.zookeeper.CreateMode;
+import org.apache.zookeeper.OpResult;
 import org.apache.zookeeper.Watcher;
 import org.apache.zookeeper.data.ACL;
 import org.apache.zookeeper.data.Stat;
 
+import java.util.List;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
@@ -46,16 +51,23 @@ import javax.annotation.Nullable;
  * and listen for the result. If the result is a failure, and is
  * {@link RetryUtils#canRetry(org.apache.zookeeper.KeeperException.Code) retryable}, the given {@link RetryStrategy}
  * will be called to determine the next retry time, or give up, depending on the value returned by the strategy.
+ * Every retry also reserves a permit from a {@link RetryBudget}, which may delay the retry further.
  */
 public final class FailureRetryZKClient extends ForwardingZKClient {
 
   private static final ScheduledExecutorService SCHEDULER = Executors.newSingleThreadScheduledExecutor(
                                                                 Threads.createDaemonThreadFactory("retry-zkclient"));
   private final RetryStrategy retryStrategy;
+  private final RetryBudget retryBudget;
 
   public FailureRetryZKClient(ZKClient delegate, RetryStrategy retryStrategy) {
+    this(delegate, retryStrategy, RetryBudget.processWide());
+  }
+
+  public FailureRetryZKClient(ZKClient delegate, RetryStrategy retryStrategy, RetryBudget retryBudget) {
     super(delegate);
     this.retryStrategy = retryStrategy;
+    this.retryBudget = retryBudget;
   }
 
   @Override
@@ -180,6 +192,33 @@ public final class FailureRetryZKClient extends ForwardingZKClient {
     return result;
   }
 
+  @Override
+  public OperationFuture<List<OpResult>> multi(Iterable<ZKOp> ops) {
+    final List<ZKOp> opList = ImmutableList.copyOf(ops);
+
+    // Same as create, no retry if any SEQUENTIAL node is being created.
+    for (ZKOp op : opList) {
+      if (op.getCreateMode() == CreateMode.PERSISTENT_SEQUENTIAL
+        || op.getCreateMode() == CreateMode.EPHEMERAL_SEQUENTIAL) {
+        return super.multi(opList);
+      }
+    }
+
+    String path = opList.isEmpty() ? "/" : opList.get(0).getPath();
+    final SettableOperationFuture<List<OpResult>> result = SettableOperationFuture.create(path,
+                                                                                         Threads.SAME_THREAD_EXECUTOR);
+    Futures.addCallback(super.multi(opList),
+                        new OperationFutureCallback<List<OpResult>>(OperationType.MULTI, System.currentTimeMillis(),
+                                                                    path, result,
+                                                                    new Supplier<OperationFuture<List<OpResult>>>() {
+                          @Override
+                          public OperationFuture<List<OpResult>> get() {
+                            return FailureRetryZKClient.super.multi(opList);
+                          }
+                        }));
+    return result;
+  }
+
   /**
    * Callback to watch for operation result and trigger retry if necessary.
    * @param <V> Type of operation result.
@@ -225,6 +264,7 @@ public final class FailureRetryZKClient extends ForwardingZKClient {
       if (nextRetry < 0) {
         return false;
       }
+      nextRetry = retryBudget.reserve(nextRetry);
 
       // Schedule the retry.
       SCHEDULER.schedule(new Runnable() {
@@ -17,6 +17,7 @@
  */
 package org.apache.twill.internal.zookeeper;
 
+import com.google.common.collect.ImmutableList;
 import com.google.common.util.concurrent.FutureCallback;
 import com.google.common.util.concurrent.Futures;
 import org.apache.twill.common.Threads;
@@ -26,11 +27,14 @@ import org.apache.twill.zookeeper.NodeChildren;
 import org.apache.twill.zookeeper.NodeData;
 import org.apache.twill.zookeeper.OperationFuture;
 import org.apache.twill.zookeeper.ZKClient;
+import org.apache.twill.zookeeper.ZKOp;
 import org.apache.zookeeper.CreateMode;
+import org.apache.zookeeper.OpResult;
 import org.apache.zookeeper.Watcher;
 import org.apache.zookeeper.data.ACL;
 import org.apache.zookeeper.data.Stat;
 
+import java.util.List;
 import javax.annotation.Nullable;
 
 /**
@@ -108,6 +112,39 @@ public final class NamespaceZKClient extends ForwardingZKClient {
     return relayFuture(delegate.setACL(namespace + path, acl, version), this.<Stat>createFuture(path));
   }
 
+  @Override
+  public OperationFuture<List<OpResult>> multi(Iterable<ZKOp> ops) {
+    ImmutableList.Builder<ZKOp> namespaced = ImmutableList.builder();
+    for (ZKOp op : ops) {
+      namespaced.add(op.withPath(namespace + op.getPath()));
+    }
+    final OperationFuture<List<OpResult>> from = delegate.multi(namespaced.build());
+    final SettableOperationFuture<List<OpResult>> to = SettableOperationFuture.create(from.getRequestPath(),
+                                                                                      Threads.SAME_THREAD_EXECUTOR);
+    Futures.addCallback(from, new FutureCallback<List<OpResult>>() {
+      @Override
+      public void onSuccess(List<OpResult> results) {
+        // Strip the namespace from the paths of created nodes.
+        ImmutableList.Builder<OpResult> relayed = ImmutableList.builder();
+        for (OpResult result : results) {
+          if (result instanceof OpResult.CreateResult) {
+            String path = ((OpResult.CreateResult) result).getPath();
+            relayed.add(new OpResult.CreateResult(path.substring(namespace.length())));
+          } else {
+            relayed.add(result);
+          }
+        }
+        to.set(relayed.build());
+      }
+
+      @Override
+      public void onFailure(Throwable t) {
+        to.setException(t);
+      }
+    });
+    return to;
+  }
+
   private <V> SettableOperationFuture<V> createFuture(String path) {
     return SettableOperationFuture.create(namespace + path, Threads.SAME_THREAD_EXECUTOR);
   }
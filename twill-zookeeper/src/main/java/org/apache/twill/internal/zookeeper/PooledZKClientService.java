@@ -0,0 +1,352 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.twill.internal.zookeeper;
+
+import com.google.common.base.Preconditions;
+import com.google.common.base.Supplier;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.AbstractService;
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.Service;
+import org.apache.twill.common.Threads;
+import org.apache.twill.zookeeper.ACLData;
+import org.apache.twill.zookeeper.AbstractZKClient;
+import org.apache.twill.zookeeper.NodeChildren;
+import org.apache.twill.zookeeper.NodeData;
+import org.apache.twill.zookeeper.OperationFuture;
+import org.apache.twill.zookeeper.ZKClient;
+import org.apache.twill.zookeeper.ZKClientService;
+import org.apache.twill.zookeeper.ZKOp;
+import org.apache.zookeeper.AsyncCallback;
+import org.apache.zookeeper.CreateMode;
+import org.apache.zookeeper.KeeperException;
+import org.apache.zookeeper.OpResult;
+import org.apache.zookeeper.Watcher;
+import org.apache.zookeeper.ZooKeeper;
+import org.apache.zookeeper.data.ACL;
+import org.apache.zookeeper.data.Stat;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.annotation.Nullable;
+
+/**
+ * A {@link ZKClientService} that spreads read operations and watches across multiple ZooKeeper sessions.
+ *
+ * <p>
+ * The first session is the primary session. All write operations are performed through it, hence ephemeral nodes
+ * are always owned by the primary session and {@link #getSessionId()}, {@link #addConnectionWatcher(Watcher)} and
+ * {@link #getZooKeeperSupplier()} all refer to it. Read operations and watches are assigned to a session based
+ * on the hash of the path, so that all reads and watch events of the same path go through the same session
+ * and stay in order.
+ * </p>
+ *
+ * <p>
+ * Connection events are only delivered for the primary session, since it owns all ephemeral nodes.
+ * Watches set through non-primary sessions are re-set automatically when those sessions expire.
+ * </p>
+ *
+ * <p>
+ * Different sessions may connect to different ZooKeeper servers, which can lag behind each other. To preserve the
+ * read-your-writes behavior of a single session, a {@code sync} is issued on a non-primary session before
+ * a read if there was a write completed through this client since the last {@code sync} on that session.
+ * </p>
+ */
+public final class PooledZKClientService extends AbstractZKClient implements ZKClientService {
+
+  private static final Logger LOG = LoggerFactory.getLogger(PooledZKClientService.class);
+
+  private final List<Session> sessions;
+  private final ZKClientService primary;
+  private final AtomicLong writeVersion;
+  private final Service serviceDelegate;
+
+  /**
+   * Creates a new instance.
+   *
+   * @param clients The {@link ZKClientService}s to use, one per session. The first one is the primary session.
+   *                The lifecycle of the given clients is managed by this instance.
+   */
+  public PooledZKClientService(List<? extends ZKClientService> clients) {
+    Preconditions.checkArgument(!clients.isEmpty(), "At least one ZKClientService is required.");
+    ImmutableList.Builder<Session> builder = ImmutableList.builder();
+    for (ZKClientService client : clients) {
+      builder.add(new Session(client, client == clients.get(0)));
+    }
+    this.sessions = builder.build();
+    this.primary = clients.get(0);
+    this.writeVersion = new AtomicLong();
+    this.serviceDelegate = new ServiceDelegate();
+  }
+
+  @Override
+  public Long getSessionId() {
+    return primary.getSessionId();
+  }
+
+  @Override
+  public String getConnectString() {
+    return primary.getConnectString();
+  }
+
+  @Override
+  public void addConnectionWatcher(Watcher watcher) {
+    primary.addConnectionWatcher(watcher);
+  }
+
+  @Override
+  public OperationFuture<String> create(String path, @Nullable byte[] data,
+                                        CreateMode createMode, boolean createParent, Iterable<ACL> acl) {
+    return afterWrite(primary.create(path, data, createMode, createParent, acl));
+  }
+
+  @Override
+  public OperationFuture<Stat> exists(String path, @Nullable Watcher watcher) {
+    Session session = getSession(path);
+    synchronized (session) {
+      session.syncIfNeeded(path);
+      return session.reader.exists(path, watcher);
+    }
+  }
+
+  @Override
+  public OperationFuture<NodeChildren> getChildren(String path, @Nullable Watcher watcher) {
+    Session session = getSession(path);
+    synchronized (session) {
+      session.syncIfNeeded(path);
+      return session.reader.getChildren(path, watcher);
+    }
+  }
+
+  @Override
+  public OperationFuture<NodeData> getData(String path, @Nullable Watcher watcher) {
+    Session session = getSession(path);
+    synchronized (session) {
+      session.syncIfNeeded(path);
+      return session.reader.getData(path, watcher);
+    }
+  }
+
+  @Override
+  public OperationFuture<Stat> setData(String dataPath, byte[] data, int version) {
+    return afterWrite(primary.setData(dataPath, data, version));
+  }
+
+  @Override
+  public OperationFuture<String> delete(String deletePath, int version) {
+    return afterWrite(primary.delete(deletePath, version));
+  }
+
+  @Override
+  public OperationFuture<ACLData> getACL(String path) {
+    Session session = getSession(path);
+    synchronized (session) {
+      session.syncIfNeeded(path);
+      return session.reader.getACL(path);
+    }
+  }
+
+  @Override
+  public OperationFuture<Stat> setACL(String path, Iterable<ACL> acl, int version) {
+    return afterWrite(primary.setACL(path, acl, version));
+  }
+
+  @Override
+  public OperationFuture<List<OpResult>> multi(Iterable<ZKOp> ops) {
+    return afterWrite(primary.multi(ops));
+  }
+
+  @Override
+  public Supplier<ZooKeeper> getZooKeeperSupplier() {
+    return primary.getZooKeeperSupplier();
+  }
+
+  /**
+   * Returns the number of ZooKeeper sessions used by this client.
+   */
+  public int getSessionCount() {
+    return sessions.size();
+  }
+
+  @Override
+  public ListenableFuture<State> start() {
+    return serviceDelegate.start();
+  }
+
+  @Override
+  public State startAndWait() {
+    return serviceDelegate.startAndWait();
+  }
+
+  @Override
+  public boolean isRunning() {
+    return serviceDelegate.isRunning();
+  }
+
+  @Override
+  public State state() {
+    return serviceDelegate.state();
+  }
+
+  @Override
+  public ListenableFuture<State> stop() {
+    return serviceDelegate.stop();
+  }
+
+  @Override
+  public State stopAndWait() {
+    return serviceDelegate.stopAndWait();
+  }
+
+  @Override
+  public void addListener(Listener listener, Executor executor) {
+    serviceDelegate.addListener(listener, executor);
+  }
+
+  private Session getSession(String path) {
+    return sessions.get((path.hashCode() & Integer.MAX_VALUE) % sessions.size());
+  }
+
+  /**
+   * Returns an {@link OperationFuture} that completes with the given write operation future, after recording
+   * the completion of the write so that subsequent reads on other sessions will be synced.
+   */
+  private <V> OperationFuture<V> afterWrite(final OperationFuture<V> future) {
+    if (sessions.size() == 1) {
+      return future;
+    }
+    final SettableOperationFuture<V> result = SettableOperationFuture.create(future.getRequestPath(),
+                                                                             Threads.SAME_THREAD_EXECUTOR);
+    Futures.addCallback(future, new FutureCallback<V>() {
+      @Override
+      public void onSuccess(V value) {
+        writeVersion.incrementAndGet();
+        result.set(value);
+      }
+
+      @Override
+      public void onFailure(Throwable t) {
+        // A failed write may still have been applied (e.g. connection loss), hence always treat it as a write.
+        writeVersion.incrementAndGet();
+        result.setException(t);
+      }
+    }, Threads.SAME_THREAD_EXECUTOR);
+    return result;
+  }
+
+  /**
+   * A ZooKeeper session in the pool.
+   */
+  private final class Session {
+
+    private final ZKClientService client;
+    // Client for reads. For non-primary sessions, watches are re-set on session expiration, since
+    // connection events of those sessions are not delivered to connection watchers.
+    private final ZKClient reader;
+    // Guarded by this
+    private long syncedVersion;
+
+    Session(ZKClientService client, boolean primary) {
+      this.client = client;
+      this.reader = primary ? client : new RewatchOnExpireZKClient(client);
+    }
+
+    /**
+     * Issues a sync on this session if there were writes completed since the last sync. Operations on the same
+     * session are processed in order, hence it is not necessary to wait for the sync to complete before
+     * issuing a read. Must be called while holding the lock of this session.
+     */
+    void syncIfNeeded(String path) {
+      if (client == primary) {
+        return;
+      }
+      long version = writeVersion.get();
+      if (syncedVersion >= version) {
+        return;
+      }
+      ZooKeeper zk = client.getZooKeeperSupplier().get();
+      if (zk == null) {
+        return;
+      }
+      syncedVersion = version;
+      zk.sync(path, new AsyncCallback.VoidCallback() {
+        @Override
+        public void processResult(int rc, String path, Object ctx) {
+          if (rc != KeeperException.Code.OK.intValue()) {
+            LOG.debug("Failed to sync {}: {}", path, KeeperException.Code.get(rc));
+          }
+        }
+      }, null);
+    }
+  }
+
+  /**
+   * Manages the lifecycle of all sessions.
+   */
+  private final class ServiceDelegate extends AbstractService {
+
+    @Override
+    protected void doStart() {
+      List<ListenableFuture<State>> futures = Lists.newArrayList();
+      for (Session session : sessions) {
+        futures.add(session.client.start());
+      }
+      Futures.addCallback(Futures.allAsList(futures), new FutureCallback<List<State>>() {
+        @Override
+        public void onSuccess(List<State> result) {
+          notifyStarted();
+        }
+
+        @Override
+        public void onFailure(final Throwable t) {
+          // Stop all sessions that may have been started before failing this service.
+          stopAll(new Runnable() {
+            @Override
+            public void run() {
+              notifyFailed(t);
+            }
+          });
+        }
+      }, Threads.SAME_THREAD_EXECUTOR);
+    }
+
+    @Override
+    protected void doStop() {
+      stopAll(new Runnable() {
+        @Override
+        public void run() {
+          notifyStopped();
+        }
+      });
+    }
+
+    private void stopAll(final Runnable completion) {
+      List<ListenableFuture<State>> futures = Lists.newArrayList();
+      for (Session session : sessions) {
+        futures.add(session.client.stop());
+      }
+      Futures.successfulAsList(futures).addListener(completion, Threads.SAME_THREAD_EXECUTOR);
+    }
+  }
+}
@@ -32,7 +32,9 @@ import org.slf4j.LoggerFactory;
 import java.util.concurrent.atomic.AtomicMarkableReference;
 
 /**
- * A wrapper for {@link Watcher} that will re-set the watch automatically until it is successful.
+ * A wrapper for {@link Watcher} that can re-set the watch after session expiration. Re-setting of the watch is
+ * triggered by {@link RewatchOnExpireZKClient} through the {@link #rewatch(int, Runnable)} method once
+ * the new session is connected.
  */
 final class RewatchOnExpireWatcher implements Watcher {
 
@@ -44,18 +46,34 @@ final class RewatchOnExpireWatcher implements Watcher {
     DATA
   }
 
+  private final RewatchOnExpireZKClient owner;
   private final ZKClient client;
   private final ActionType actionType;
   private final String path;
   private final Watcher delegate;
   private final AtomicMarkableReference<Object> lastResult;
+  // The session generation of the owner when the watch was last set
+  private volatile int generation;
 
-  RewatchOnExpireWatcher(ZKClient client, ActionType actionType, String path, Watcher delegate) {
+  /**
+   * Creates a new instance.
+   *
+   * @param owner The {@link RewatchOnExpireZKClient} that keeps track of this watcher
+   * @param client The {@link ZKClient} for re-setting the watch
+   * @param actionType Type of operation that set the watch
+   * @param path Path of the watch
+   * @param delegate The {@link Watcher} to delegate events to
+   * @param generation The session generation of the owner
+   */
+  RewatchOnExpireWatcher(RewatchOnExpireZKClient owner, ZKClient client, ActionType actionType,
+                         String path, Watcher delegate, int generation) {
+    this.owner = owner;
     this.client = client;
     this.actionType = actionType;
     this.path = path;
     this.delegate = delegate;
     this.lastResult = new AtomicMarkableReference<Object>(null, false);
+    this.generation = generation;
   }
 
   /**
@@ -65,50 +83,75 @@ final class RewatchOnExpireWatcher implements Watcher {
     lastResult.compareAndSet(null, result, false, true);
   }
 
+  /**
+   * Returns the session generation when the watch was last set.
+   */
+  int getGeneration() {
+    return generation;
+  }
+
   @Override
   public void process(WatchedEvent event) {
-    if (delegate != null && event.getType() != Event.EventType.None) {
-      try {
-        delegate.process(event);
-      } catch (Throwable t) {
-        LOG.error("Watcher throws exception.", t);
-      }
-    }
-
-    if (event.getState() != Event.KeeperState.Expired) {
+    // Connection events are handled by the RewatchOnExpireZKClient
+    if (event.getType() == Event.EventType.None) {
       return;
     }
+    // The watch is triggered, hence no need to re-set it on session expiration.
+    owner.unregister(this);
+    notifyDelegate(event);
+  }
+
+  /**
+   * Re-sets the watch and compares the result with the last result, which notifies the delegate
+   * {@link Watcher} if there is any changes.
+   *
+   * @param generation The session generation that the watch is set for
+   * @param completion Called when the watch is re-set or re-set is failed
+   */
+  void rewatch(int generation, Runnable completion) {
+    this.generation = generation;
     switch (actionType) {
       case EXISTS:
-        exists();
+        exists(completion);
         break;
       case CHILDREN:
-        children();
+        children(completion);
         break;
       case DATA:
-        data();
+        data(completion);
         break;
     }
   }
 
-  private void exists() {
+  private void notifyDelegate(WatchedEvent event) {
+    if (delegate == null) {
+      return;
+    }
+    try {
+      delegate.process(event);
+    } catch (Throwable t) {
+      LOG.error("Watcher throws exception.", t);
+    }
+  }
+
+  private void exists(final Runnable completion) {
     Futures.addCallback(client.exists(path, this), new FutureCallback<Stat>() {
       @Override
       public void onSuccess(Stat stat) {
-        // Since we know all callbacks and watcher are triggered from single event thread, there is no race condition.
+        completion.run();
         Object oldResult = lastResult.getReference();
-        lastResult.compareAndSet(oldResult, null, true, false);
+        lastResult.set(stat, true);
 
         if (stat != oldResult && (stat == null || !stat.equals(oldResult))) {
           if (stat == null) {
             // previous stat is not null, means node deleted
-            process(new WatchedEvent(Event.EventType.NodeDeleted, Event.KeeperState.SyncConnected, path));
+            notifyDelegate(new WatchedEvent(Event.EventType.NodeDeleted, Event.KeeperState.SyncConnected, path));
           } else if (oldResult == null) {
             // previous stat is null, means node created
-            process(new WatchedEvent(Event.EventType.NodeCreated, Event.KeeperState.SyncConnected, path));
+            notifyDelegate(new WatchedEvent(Event.EventType.NodeCreated, Event.KeeperState.SyncConnected, path));
           } else {
             // Otherwise, something changed on the node
-            process(new WatchedEvent(Event.EventType.NodeDataChanged, Event.KeeperState.SyncConnected, path));
+            notifyDelegate(new WatchedEvent(Event.EventType.NodeDataChanged, Event.KeeperState.SyncConnected, path));
           }
         }
       }
@@ -116,8 +159,10 @@ final class RewatchOnExpireWatcher implements Watcher {
       @Override
       public void onFailure(Throwable t) {
         if (RetryUtils.canRetry(t)) {
-          exists();
+          exists(completion);
         } else {
+          completion.run();
+          owner.unregister(RewatchOnExpireWatcher.this);
           lastResult.set(null, false);
           LOG.error("Fail to re-set watch on exists for path " + path, t);
         }
@@ -125,12 +170,13 @@ final class RewatchOnExpireWatcher implements Watcher {
     });
   }
 
-  private void children() {
+  private void children(final Runnable completion) {
     Futures.addCallback(client.getChildren(path, this), new FutureCallback<NodeChildren>() {
       @Override
       public void onSuccess(NodeChildren result) {
+        completion.run();
         Object oldResult = lastResult.getReference();
-        lastResult.compareAndSet(oldResult, null, true, false);
+        lastResult.set(result, true);
 
         if (result.equals(oldResult)) {
           return;
@@ -144,25 +190,28 @@ final class RewatchOnExpireWatcher implements Watcher {
 
         NodeChildren oldNodeChildren = (NodeChildren) oldResult;
         if (!result.getChildren().equals(oldNodeChildren.getChildren())) {
-          process(new WatchedEvent(Event.EventType.NodeChildrenChanged, Event.KeeperState.SyncConnected, path));
+          notifyDelegate(new WatchedEvent(Event.EventType.NodeChildrenChanged, Event.KeeperState.SyncConnected, path));
         } else {
-          process(new WatchedEvent(Event.EventType.NodeDataChanged, Event.KeeperState.SyncConnected, path));
+          notifyDelegate(new WatchedEvent(Event.EventType.NodeDataChanged, Event.KeeperState.SyncConnected, path));
         }
       }
 
       @Override
       public void onFailure(Throwable t) {
         if (RetryUtils.canRetry(t)) {
-          children();
+          children(completion);
           return;
         }
 
+        completion.run();
+        // No watch is set on failure
+        owner.unregister(RewatchOnExpireWatcher.this);
         lastResult.set(null, false);
         if (t instanceof KeeperException) {
           KeeperException.Code code = ((KeeperException) t).code();
           if (code == KeeperException.Code.NONODE) {
             // Node deleted
-            process(new WatchedEvent(Event.EventType.NodeDeleted, Event.KeeperState.SyncConnected, path));
+            notifyDelegate(new WatchedEvent(Event.EventType.NodeDeleted, Event.KeeperState.SyncConnected, path));
             return;
           }
         }
@@ -171,32 +220,36 @@ final class RewatchOnExpireWatcher implements Watcher {
     });
   }
 
-  private void data() {
+  private void data(final Runnable completion) {
     Futures.addCallback(client.getData(path, this), new FutureCallback<NodeData>() {
       @Override
       public void onSuccess(NodeData result) {
+        completion.run();
         Object oldResult = lastResult.getReference();
-        lastResult.compareAndSet(oldResult, null, true, false);
+        lastResult.set(result, true);
 
         if (!result.equals(oldResult)) {
           // Whenever something changed, treated it as data changed.
-          process(new WatchedEvent(Event.EventType.NodeDataChanged, Event.KeeperState.SyncConnected, path));
+          notifyDelegate(new WatchedEvent(Event.EventType.NodeDataChanged, Event.KeeperState.SyncConnected, path));
         }
       }
 
       @Override
       public void onFailure(Throwable t) {
         if (RetryUtils.canRetry(t)) {
-          data();
+          data(completion);
           return;
         }
 
+        completion.run();
+        // No watch is set on failure
+        owner.unregister(RewatchOnExpireWatcher.this);
         lastResult.set(null, false);
         if (t instanceof KeeperException) {
           KeeperException.Code code = ((KeeperException) t).code();
           if (code == KeeperException.Code.NONODE) {
             // Node deleted
-            process(new WatchedEvent(Event.EventType.NodeDeleted, Event.KeeperState.SyncConnected, path));
+            notifyDelegate(new WatchedEvent(Event.EventType.NodeDeleted, Event.KeeperState.SyncConnected, path));
             return;
           }
         }
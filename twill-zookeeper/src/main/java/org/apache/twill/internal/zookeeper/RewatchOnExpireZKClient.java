@@ -17,6 +17,9 @@
  */
 package org.apache.twill.internal.zookeeper;
 
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
 import com.google.common.util.concurrent.FutureCallback;
 import com.google.common.util.concurrent.Futures;
 import org.apache.twill.internal.zookeeper.RewatchOnExpireWatcher.ActionType;
@@ -25,17 +28,41 @@ import org.apache.twill.zookeeper.NodeChildren;
 import org.apache.twill.zookeeper.NodeData;
 import org.apache.twill.zookeeper.OperationFuture;
 import org.apache.twill.zookeeper.ZKClient;
+import org.apache.zookeeper.WatchedEvent;
 import org.apache.zookeeper.Watcher;
 import org.apache.zookeeper.data.Stat;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * A {@link ZKClient} that will rewatch automatically when session expired and reconnect.
- * The rewatch logic is mainly done in {@link RewatchOnExpireWatcher}.
+ *
+ * <p>
+ * All watches set through this client are tracked until they are triggered. When the session expired, all
+ * tracked watches are re-set once the new session is connected. Requests for re-setting watches are all issued
+ * without waiting for each other, hence recovery takes a few round trips regardless of the number of watches.
+ * The re-setting for each watch is mainly done in {@link RewatchOnExpireWatcher}.
+ * </p>
  */
 public final class RewatchOnExpireZKClient extends ForwardingZKClient {
 
+  private static final Logger LOG = LoggerFactory.getLogger(RewatchOnExpireZKClient.class);
+
+  private final Set<RewatchOnExpireWatcher> watchers;
+  // Increments on every session expiration
+  private volatile int generation;
+  private volatile long lastRecoveryMillis = -1L;
+  private final AtomicInteger recoveryCount = new AtomicInteger();
+
   public RewatchOnExpireZKClient(ZKClient delegate) {
     super(delegate);
+    this.watchers = Sets.newSetFromMap(Maps.<RewatchOnExpireWatcher, Boolean>newConcurrentMap());
+    delegate.addConnectionWatcher(new RecoveryWatcher());
   }
 
   @Override
@@ -43,7 +70,7 @@ public final class RewatchOnExpireZKClient extends ForwardingZKClient {
     if (watcher == null) {
       return super.exists(path, null);
     }
-    final RewatchOnExpireWatcher wrappedWatcher = new RewatchOnExpireWatcher(this, ActionType.EXISTS, path, watcher);
+    final RewatchOnExpireWatcher wrappedWatcher = createWatcher(ActionType.EXISTS, path, watcher);
     OperationFuture<Stat> result = super.exists(path, wrappedWatcher);
     Futures.addCallback(result, new FutureCallback<Stat>() {
       @Override
@@ -53,7 +80,7 @@ public final class RewatchOnExpireZKClient extends ForwardingZKClient {
 
       @Override
       public void onFailure(Throwable t) {
-        // No-op
+        unregister(wrappedWatcher);
       }
     });
     return result;
@@ -64,7 +91,7 @@ public final class RewatchOnExpireZKClient extends ForwardingZKClient {
     if (watcher == null) {
       return super.getChildren(path, null);
     }
-    final RewatchOnExpireWatcher wrappedWatcher = new RewatchOnExpireWatcher(this, ActionType.CHILDREN, path, watcher);
+    final RewatchOnExpireWatcher wrappedWatcher = createWatcher(ActionType.CHILDREN, path, watcher);
     OperationFuture<NodeChildren> result = super.getChildren(path, wrappedWatcher);
     Futures.addCallback(result, new FutureCallback<NodeChildren>() {
       @Override
@@ -74,7 +101,7 @@ public final class RewatchOnExpireZKClient extends ForwardingZKClient {
 
       @Override
       public void onFailure(Throwable t) {
-        // No-op
+        unregister(wrappedWatcher);
       }
     });
     return result;
@@ -85,7 +112,7 @@ public final class RewatchOnExpireZKClient extends ForwardingZKClient {
     if (watcher == null) {
       return super.getData(path, null);
     }
-    final RewatchOnExpireWatcher wrappedWatcher = new RewatchOnExpireWatcher(this, ActionType.DATA, path, watcher);
+    final RewatchOnExpireWatcher wrappedWatcher = createWatcher(ActionType.DATA, path, watcher);
     OperationFuture<NodeData> result = super.getData(path, wrappedWatcher);
     Futures.addCallback(result, new FutureCallback<NodeData>() {
       @Override
@@ -95,10 +122,102 @@ public final class RewatchOnExpireZKClient extends ForwardingZKClient {
 
       @Override
       public void onFailure(Throwable t) {
-        // No-op
+        unregister(wrappedWatcher);
       }
     });
     return result;
+  }
+
+  /**
+   * Returns the number of milliseconds it took from the last session expiration until all watches were re-set,
+   * or {@code -1} if there was no recovery.
+   */
+  public long getLastRecoveryMillis() {
+    return lastRecoveryMillis;
+  }
+
+  /**
+   * Returns the number of completed recoveries from session expiration.
+   */
+  public int getRecoveryCount() {
+    return recoveryCount.get();
+  }
+
+  /**
+   * Returns the number of watches that are currently tracked for re-setting upon session expiration.
+   */
+  public int getWatchCount() {
+    return watchers.size();
+  }
+
+  /**
+   * Stops tracking the given watcher. Called when the watch is triggered or failed to set.
+   */
+  void unregister(RewatchOnExpireWatcher watcher) {
+    watchers.remove(watcher);
+  }
 
+  private RewatchOnExpireWatcher createWatcher(ActionType actionType, String path, Watcher watcher) {
+    RewatchOnExpireWatcher wrappedWatcher = new RewatchOnExpireWatcher(this, getDelegate(), actionType,
+                                                                       path, watcher, generation);
+    watchers.add(wrappedWatcher);
+    return wrappedWatcher;
+  }
+
+  /**
+   * Re-sets all watches that were set before the given session generation.
+   *
+   * @param generation The current session generation
+   * @param expireNanos Time in nano when the session expired
+   */
+  private void recover(final int generation, final long expireNanos) {
+    List<RewatchOnExpireWatcher> expiredWatchers = ImmutableList.copyOf(watchers);
+    final AtomicInteger pending = new AtomicInteger(expiredWatchers.size() + 1);
+    final Runnable completion = new Runnable() {
+      @Override
+      public void run() {
+        if (pending.decrementAndGet() == 0) {
+          lastRecoveryMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - expireNanos);
+          recoveryCount.incrementAndGet();
+          LOG.info("Recovered from session expiration in {} ms: {}", lastRecoveryMillis, getConnectString());
+        }
+      }
+    };
+
+    int count = 0;
+    for (RewatchOnExpireWatcher watcher : expiredWatchers) {
+      // Watches set after expiration don't need to be re-set
+      if (watcher.getGeneration() < generation) {
+        watcher.rewatch(generation, completion);
+        count++;
+      } else {
+        completion.run();
+      }
+    }
+    LOG.info("Re-setting {} watches after session expiration: {}", count, getConnectString());
+    completion.run();
+  }
+
+  /**
+   * A connection {@link Watcher} to trigger recovery when connected to a new session after expiration.
+   */
+  private final class RecoveryWatcher implements Watcher {
+
+    // Connection watcher is invoked from a single thread, hence no need to synchronize.
+    private long expireNanos = -1L;
+
+    @Override
+    public void process(WatchedEvent event) {
+      if (event.getState() == Event.KeeperState.Expired) {
+        if (expireNanos < 0) {
+          expireNanos = System.nanoTime();
+        }
+        generation++;
+      } else if (event.getState() == Event.KeeperState.SyncConnected && expireNanos >= 0) {
+        long nanos = expireNanos;
+        expireNanos = -1L;
+        recover(generation, nanos);
+      }
+    }
   }
 }
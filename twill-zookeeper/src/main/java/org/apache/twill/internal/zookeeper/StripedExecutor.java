@@ -0,0 +1,136 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.twill.internal.zookeeper;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
+import org.apache.twill.common.Threads;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.annotation.Nullable;
+
+/**
+ * Executes tasks on a fixed number of single thread lanes. Tasks of the same key always run on the same lane,
+ * hence are executed in submission order, while tasks of different keys can run in parallel.
+ */
+final class StripedExecutor {
+
+  private static final Logger LOG = LoggerFactory.getLogger(StripedExecutor.class);
+
+  // Number of queued tasks in a lane that triggers a warning.
+  private static final int WARN_QUEUE_SIZE = 1000;
+
+  private final Lane[] lanes;
+  private final AtomicInteger runningLanes;
+  private final Runnable terminationHook;
+
+  /**
+   * Creates a new instance.
+   *
+   * @param size Number of lanes.
+   * @param nameFormat Thread name format for the lanes, with one {@code %d} for the lane index.
+   * @param terminationHook Called once all lanes are terminated after {@link #shutdown()}.
+   */
+  StripedExecutor(int size, String nameFormat, Runnable terminationHook) {
+    Preconditions.checkArgument(size > 0, "Number of lanes must be positive: %s", size);
+    this.lanes = new Lane[size];
+    this.runningLanes = new AtomicInteger(size);
+    this.terminationHook = terminationHook;
+    for (int i = 0; i < size; i++) {
+      lanes[i] = new Lane(String.format(nameFormat, i));
+    }
+  }
+
+  /**
+   * Returns the {@link Executor} of the lane for the given key.
+   *
+   * @param key The key for selecting the lane, or {@code null} for the first lane.
+   */
+  Executor forKey(@Nullable String key) {
+    return key == null ? lanes[0] : lanes[(key.hashCode() & Integer.MAX_VALUE) % lanes.length];
+  }
+
+  /**
+   * Returns the number of tasks waiting to be executed in each lane.
+   */
+  List<Integer> getQueueDepths() {
+    ImmutableList.Builder<Integer> builder = ImmutableList.builder();
+    for (Lane lane : lanes) {
+      builder.add(lane.getQueue().size());
+    }
+    return builder.build();
+  }
+
+  void shutdown() {
+    for (Lane lane : lanes) {
+      lane.shutdown();
+    }
+  }
+
+  boolean isTerminated() {
+    return runningLanes.get() == 0;
+  }
+
+  /**
+   * A single thread executor that warns when its queue grows too large.
+   */
+  private final class Lane extends ThreadPoolExecutor {
+
+    private final String name;
+    private final AtomicBoolean warned;
+
+    Lane(String name) {
+      super(1, 1, 0L, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<Runnable>(),
+            Threads.createDaemonThreadFactory(name));
+      this.name = name;
+      this.warned = new AtomicBoolean();
+    }
+
+    @Override
+    public void execute(Runnable command) {
+      super.execute(command);
+
+      // Warn once when the queue exceeds the limit, and again only after it drained to half of the limit.
+      int size = getQueue().size();
+      if (size > WARN_QUEUE_SIZE) {
+        if (warned.compareAndSet(false, true)) {
+          LOG.warn("ZooKeeper event queue of {} has {} pending events. Some watcher or callback is slow.",
+                   name, size);
+        }
+      } else if (size < WARN_QUEUE_SIZE / 2) {
+        warned.set(false);
+      }
+    }
+
+    @Override
+    protected void terminated() {
+      super.terminated();
+      if (runningLanes.decrementAndGet() == 0) {
+        terminationHook.run();
+      }
+    }
+  }
+}
@@ -18,10 +18,12 @@
 package org.apache.twill.zookeeper;
 
 import org.apache.zookeeper.CreateMode;
+import org.apache.zookeeper.OpResult;
 import org.apache.zookeeper.Watcher;
 import org.apache.zookeeper.data.ACL;
 import org.apache.zookeeper.data.Stat;
 
+import java.util.List;
 import javax.annotation.Nullable;
 
 /**
@@ -94,4 +96,9 @@ public abstract class ForwardingZKClient extends AbstractZKClient {
   public OperationFuture<Stat> setACL(String path, Iterable<ACL> acl, int version) {
     return delegate.setACL(path, acl, version);
   }
+
+  @Override
+  public OperationFuture<List<OpResult>> multi(Iterable<ZKOp> ops) {
+    return delegate.multi(ops);
+  }
 }
@@ -0,0 +1,96 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.twill.zookeeper;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Preconditions;
+import com.google.common.base.Ticker;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A token bucket that limits the rate of operation retries. Each retry consumes one permit, and permits are
+ * refilled at a fixed rate up to a maximum. When no permit is available, the retry is delayed until
+ * one is refilled, so that a burst of failures is turned into a bounded rate of retries.
+ *
+ * <p>
+ * A process-wide instance is available through {@link #processWide()}, which is used by
+ * {@link ZKClients#retryOnFailure(ZKClient, RetryStrategy)}.
+ * </p>
+ */
+public final class RetryBudget {
+
+  private static final RetryBudget PROCESS_WIDE = create(100, 100);
+
+  private final Ticker ticker;
+  private final double permitsPerNano;
+  private final double maxPermits;
+  // Both guarded by this. Permits can go negative, which means retries are already reserved in the future.
+  private double permits;
+  private long lastRefillNanos;
+
+  /**
+   * Returns the {@link RetryBudget} shared by all retrying clients in the current process. It allows bursts of
+   * 100 retries and 100 retries per second afterward.
+   */
+  public static RetryBudget processWide() {
+    return PROCESS_WIDE;
+  }
+
+  /**
+   * Creates a new {@link RetryBudget}.
+   *
+   * @param permitsPerSecond rate of refilling permits.
+   * @param maxPermits maximum number of permits that can be accumulated, which is also the initial number of permits.
+   * @return A new {@link RetryBudget}.
+   */
+  public static RetryBudget create(double permitsPerSecond, int maxPermits) {
+    return new RetryBudget(permitsPerSecond, maxPermits, Ticker.systemTicker());
+  }
+
+  @VisibleForTesting
+  RetryBudget(double permitsPerSecond, int maxPermits, Ticker ticker) {
+    Preconditions.checkArgument(permitsPerSecond > 0, "Permits per second must be positive: %s", permitsPerSecond);
+    Preconditions.checkArgument(maxPermits > 0, "Max permits must be positive: %s", maxPermits);
+    this.ticker = ticker;
+    this.permitsPerNano = permitsPerSecond / TimeUnit.SECONDS.toNanos(1);
+    this.maxPermits = maxPermits;
+    this.permits = maxPermits;
+    this.lastRefillNanos = ticker.read();
+  }
+
+  /**
+   * Reserves one permit for a retry that is going to happen after the given delay.
+   *
+   * @param delay Number of milliseconds that the retry would be delayed without the budget.
+   * @return Number of milliseconds to delay the retry, which is at least the given delay.
+   */
+  public synchronized long reserve(long delay) {
+    long now = ticker.read();
+    permits = Math.min(maxPermits, permits + (now - lastRefillNanos) * permitsPerNano);
+    lastRefillNanos = now;
+
+    // Permits refilled until the retry time are also usable
+    double available = permits + TimeUnit.MILLISECONDS.toNanos(delay) * permitsPerNano;
+    permits--;
+    if (available >= 1) {
+      return delay;
+    }
+    return delay + TimeUnit.NANOSECONDS.toMillis((long) Math.ceil((1 - available) / permitsPerNano));
+  }
+}
@@ -19,6 +19,7 @@ package org.apache.twill.zookeeper;
 
 import com.google.common.base.Preconditions;
 
+import java.util.Random;
 import java.util.concurrent.TimeUnit;
 
 /**
@@ -26,6 +27,8 @@ import java.util.concurrent.TimeUnit;
  */
 public final class RetryStrategies {
 
+  private static final Random RANDOM = new Random();
+
   /**
    * @return A {@link RetryStrategy} that doesn't do any retry.
    */
@@ -92,6 +95,39 @@ public final class RetryStrategies {
     };
   }
 
+  /**
+   * Creates a {@link RetryStrategy} that uses exponential backoff with random jitter. The delay for the n-th retry
+   * is picked uniformly at random between the base delay and {@code baseDelay * 3^n}, capped by the max delay.
+   * For example, the first retry is delayed between {@code baseDelay} and {@code 3 * baseDelay}.
+   * This spreads out retries from many clients that failed at the same time (e.g. due to ZooKeeper
+   * server restart), instead of having them retry in lockstep.
+   *
+   * @param baseDelay minimum delay.
+   * @param maxDelay cap of the delay.
+   * @param delayUnit {@link TimeUnit} for the delays.
+   * @return A {@link RetryStrategy}.
+   */
+  public static RetryStrategy jitterDelay(final long baseDelay, final long maxDelay, final TimeUnit delayUnit) {
+    Preconditions.checkArgument(baseDelay >= 0, "base delay must be >= 0");
+    Preconditions.checkArgument(maxDelay >= baseDelay, "max delay must be >= base delay");
+    final long baseDelayMs = TimeUnit.MILLISECONDS.convert(baseDelay, delayUnit);
+    final long maxDelayMs = TimeUnit.MILLISECONDS.convert(maxDelay, delayUnit);
+    return new RetryStrategy() {
+      @Override
+      public long nextRetry(int failureCount, long startTime, OperationType type, String path) {
+        long upper = Math.max(baseDelayMs, 1L);
+        for (int i = 0; i < failureCount && upper < maxDelayMs; i++) {
+          upper *= 3;
+        }
+        upper = Math.min(upper, maxDelayMs);
+        if (upper <= baseDelayMs) {
+          return baseDelayMs;
+        }
+        return baseDelayMs + (long) (RANDOM.nextDouble() * (upper - baseDelayMs + 1));
+      }
+    };
+  }
+
   /**
    * Creates a {@link RetryStrategy} that will retry until maximum amount of time has been passed since the request,
    * with the actual delay behavior delegated to another {@link RetryStrategy}.
@@ -33,7 +33,8 @@ public interface RetryStrategy {
     SET_DATA,
     DELETE,
     SET_ACL,
-    GET_ACL
+    GET_ACL,
+    MULTI
   }
 
   /**
@@ -18,10 +18,12 @@
 package org.apache.twill.zookeeper;
 
 import org.apache.zookeeper.CreateMode;
+import org.apache.zookeeper.OpResult;
 import org.apache.zookeeper.Watcher;
 import org.apache.zookeeper.data.ACL;
 import org.apache.zookeeper.data.Stat;
 
+import java.util.List;
 import javax.annotation.Nullable;
 
 /**
@@ -210,4 +212,18 @@ public interface ZKClient {
    *         available as the future result. If there is error, it will be reflected as error in the future.
    */
   OperationFuture<Stat> setACL(String path, Iterable<ACL> acl, int version);
+
+  /**
+   * Executes a list of write operations in one request. When the server supports it, the operations are executed
+   * atomically through ZooKeeper multi, meaning either all of them succeed or none is applied. On servers that
+   * don't support multi, the operations are sent back to back without waiting for each response and executed in
+   * order, but are not atomic.
+   *
+   * @param ops The operations to execute.
+   * @return A {@link OperationFuture} that will be completed when all operations are done, with one
+   *         {@link OpResult} per operation in the same order as the operations. If any operation failed, the
+   *         {@link org.apache.zookeeper.KeeperException} of the first failed operation is reflected as error in
+   *         the future.
+   */
+  OperationFuture<List<OpResult>> multi(Iterable<ZKOp> ops);
 }
@@ -17,14 +17,19 @@
  */
 package org.apache.twill.zookeeper;
 
+import com.google.common.base.Preconditions;
 import com.google.common.base.Supplier;
 import com.google.common.collect.ArrayListMultimap;
+import com.google.common.collect.Lists;
 import com.google.common.collect.Multimap;
 import com.google.common.util.concurrent.Service;
 import org.apache.twill.internal.zookeeper.DefaultZKClientService;
+import org.apache.twill.internal.zookeeper.PooledZKClientService;
 import org.apache.zookeeper.Watcher;
 import org.apache.zookeeper.ZooKeeper;
 
+import java.util.List;
+
 /**
  * A {@link ZKClient} that extends from {@link Service} to provide lifecycle management functions.
  * The {@link #start()} method needed to be called before calling any other method on this interface.
@@ -48,6 +53,8 @@ public interface ZKClientService extends ZKClient, Service {
 
     private final String connectStr;
     private int timeout = 10000;
+    private int eventThreads = 1;
+    private int sessions = 1;
     private Watcher connectionWatcher;
     private Multimap<String, byte[]> auths = ArrayListMultimap.create();
 
@@ -70,6 +77,34 @@ public interface ZKClientService extends ZKClient, Service {
       return this;
     }
 
+    /**
+     * Sets the number of threads for calling watchers and operation callbacks. Events of the same path are
+     * always delivered in order by the same thread, while events of different paths can be delivered in
+     * parallel. With more than one thread, callbacks for different paths lose their relative order, hence
+     * callers that depend on the order of operations on different paths must not use more than one thread.
+     * The default is 1, which keeps the order of all callbacks of the session.
+     *
+     * @param eventThreads number of threads.
+     * @return This builder.
+     */
+    public Builder setEventThreads(int eventThreads) {
+      this.eventThreads = eventThreads;
+      return this;
+    }
+
+    /**
+     * Sets the number of ZooKeeper sessions to use. When more than one session is used, read operations and
+     * watches are spread across all sessions, while write operations always go through the primary session, which
+     * owns all ephemeral nodes created by the client. The default is 1.
+     *
+     * @param sessions number of sessions.
+     * @return This builder.
+     */
+    public Builder setSessions(int sessions) {
+      this.sessions = sessions;
+      return this;
+    }
+
     /**
      * Sets a {@link Watcher} that will be called whenever connection state change.
      * @param watcher The watcher to set.
@@ -97,7 +132,16 @@ public interface ZKClientService extends ZKClient, Service {
      * @return A new instance of {@link ZKClientService}.
      */
     public ZKClientService build() {
-      return new DefaultZKClientService(connectStr, timeout, connectionWatcher, auths);
+      Preconditions.checkArgument(sessions > 0, "Number of sessions must be positive: %s", sessions);
+      ZKClientService primary = new DefaultZKClientService(connectStr, timeout, connectionWatcher, auths, eventThreads);
+      if (sessions == 1) {
+        return primary;
+      }
+      List<ZKClientService> clients = Lists.newArrayList(primary);
+      for (int i = 1; i < sessions; i++) {
+        clients.add(new DefaultZKClientService(connectStr, timeout, null, auths, eventThreads));
+      }
+      return new PooledZKClientService(clients);
     }
 
     private Builder(String connectStr) {
@@ -18,10 +18,12 @@
 package org.apache.twill.zookeeper;
 
 import org.apache.zookeeper.CreateMode;
+import org.apache.zookeeper.OpResult;
 import org.apache.zookeeper.Watcher;
 import org.apache.zookeeper.data.ACL;
 import org.apache.zookeeper.data.Stat;
 
+import java.util.List;
 import javax.annotation.Nullable;
 
 /**
@@ -115,6 +117,11 @@ public final class ZKClientServices {
       public OperationFuture<Stat> setACL(String path, Iterable<ACL> acl, int version) {
         return client.setACL(path, acl, version);
       }
+
+      @Override
+      public OperationFuture<List<OpResult>> multi(Iterable<ZKOp> ops) {
+        return client.multi(ops);
+      }
     };
   }
 
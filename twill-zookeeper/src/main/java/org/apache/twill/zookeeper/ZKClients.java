@@ -17,6 +17,7 @@
  */
 package org.apache.twill.zookeeper;
 
+import org.apache.twill.internal.zookeeper.CachingZKClient;
 import org.apache.twill.internal.zookeeper.FailureRetryZKClient;
 import org.apache.twill.internal.zookeeper.NamespaceZKClient;
 import org.apache.twill.internal.zookeeper.RewatchOnExpireZKClient;
@@ -41,7 +42,8 @@ public final class ZKClients {
 
   /**
    * Creates a {@link ZKClient} that will retry interim failure (e.g. connection loss, session expiration)
-   * based on the given {@link RetryStrategy}.
+   * based on the given {@link RetryStrategy}. The rate of retries is limited by the
+   * {@link RetryBudget#processWide() process-wide} {@link RetryBudget}.
    *
    * @param client The {@link ZKClient} for operations delegation.
    * @param retryStrategy The {@link RetryStrategy} to be invoke when there is operation failure.
@@ -51,11 +53,38 @@ public final class ZKClients {
     return new FailureRetryZKClient(client, retryStrategy);
   }
 
+  /**
+   * Creates a {@link ZKClient} that will retry interim failure (e.g. connection loss, session expiration)
+   * based on the given {@link RetryStrategy}, with the rate of retries limited by the given {@link RetryBudget}.
+   *
+   * @param client The {@link ZKClient} for operations delegation.
+   * @param retryStrategy The {@link RetryStrategy} to be invoke when there is operation failure.
+   * @param retryBudget The {@link RetryBudget} to consult before every retry.
+   * @return A {@link ZKClient}.
+   */
+  public static ZKClient retryOnFailure(ZKClient client, RetryStrategy retryStrategy, RetryBudget retryBudget) {
+    return new FailureRetryZKClient(client, retryStrategy, retryBudget);
+  }
+
 
   public static ZKClient namespace(ZKClient zkClient, String namespace) {
     return new NamespaceZKClient(zkClient, namespace);
   }
 
+  /**
+   * Creates a {@link ZKClient} that caches results of {@code getData} and {@code exists} calls. Cached entries
+   * are evicted when the node changes, based on watches set by the returned client, or when it is written through
+   * the returned client.
+   *
+   * @param client The {@link ZKClient} for operations delegation.
+   * @param maxSize Maximum number of entries in each of the data and exists caches. The least recently used entries
+   *                are evicted when the size is exceeded.
+   * @return A {@link ZKClient}.
+   */
+  public static ZKClient cache(ZKClient client, int maxSize) {
+    return new CachingZKClient(client, maxSize);
+  }
+
   private ZKClients() {
   }
 }
@@ -0,0 +1,167 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.twill.zookeeper;
+
+import com.google.common.base.Objects;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
+import org.apache.zookeeper.CreateMode;
+import org.apache.zookeeper.ZooDefs;
+import org.apache.zookeeper.data.ACL;
+
+import java.util.List;
+import javax.annotation.Nullable;
+
+/**
+ * Represents a single write operation to be executed as part of a {@link ZKClient#multi(Iterable)} call.
+ * Instances are created through the static factory methods.
+ */
+public final class ZKOp {
+
+  /**
+   * Types of operation.
+   */
+  public enum Type {
+    CREATE,
+    DELETE,
+    SET_DATA,
+    CHECK
+  }
+
+  private final Type type;
+  private final String path;
+  private final byte[] data;
+  private final CreateMode createMode;
+  private final List<ACL> acl;
+  private final int version;
+
+  /**
+   * Creates an operation that creates a persistent or ephemeral node with the
+   * {@link ZooDefs.Ids#OPEN_ACL_UNSAFE} ACL. Unlike {@link ZKClient#create(String, byte[], CreateMode)},
+   * parent nodes are not created.
+   */
+  public static ZKOp create(String path, @Nullable byte[] data, CreateMode createMode) {
+    return create(path, data, createMode, ZooDefs.Ids.OPEN_ACL_UNSAFE);
+  }
+
+  /**
+   * Creates an operation that creates a node with the given ACL. Parent nodes are not created.
+   */
+  public static ZKOp create(String path, @Nullable byte[] data, CreateMode createMode, Iterable<ACL> acl) {
+    return new ZKOp(Type.CREATE, path, data, createMode, ImmutableList.copyOf(acl), -1);
+  }
+
+  /**
+   * Creates an operation that deletes a node without matching version.
+   */
+  public static ZKOp delete(String path) {
+    return delete(path, -1);
+  }
+
+  /**
+   * Creates an operation that deletes a node of the given version.
+   */
+  public static ZKOp delete(String path, int version) {
+    return new ZKOp(Type.DELETE, path, null, null, ImmutableList.<ACL>of(), version);
+  }
+
+  /**
+   * Creates an operation that sets the data of a node without matching version.
+   */
+  public static ZKOp setData(String path, byte[] data) {
+    return setData(path, data, -1);
+  }
+
+  /**
+   * Creates an operation that sets the data of a node of the given version.
+   */
+  public static ZKOp setData(String path, byte[] data, int version) {
+    return new ZKOp(Type.SET_DATA, path, data, null, ImmutableList.<ACL>of(), version);
+  }
+
+  /**
+   * Creates an operation that only succeeds if the node exists and has the given version. If the version is
+   * {@code -1}, it only checks for existence.
+   */
+  public static ZKOp check(String path, int version) {
+    return new ZKOp(Type.CHECK, path, null, null, ImmutableList.<ACL>of(), version);
+  }
+
+  private ZKOp(Type type, String path, @Nullable byte[] data,
+               @Nullable CreateMode createMode, List<ACL> acl, int version) {
+    Preconditions.checkArgument(path != null && path.startsWith("/"), "Path must be absolute: %s", path);
+    this.type = type;
+    this.path = path;
+    this.data = data;
+    this.createMode = createMode;
+    this.acl = acl;
+    this.version = version;
+  }
+
+  public Type getType() {
+    return type;
+  }
+
+  public String getPath() {
+    return path;
+  }
+
+  /**
+   * Returns the data for {@link Type#CREATE} and {@link Type#SET_DATA} operations, or {@code null} otherwise.
+   */
+  @Nullable
+  public byte[] getData() {
+    return data;
+  }
+
+  /**
+   * Returns the {@link CreateMode} for {@link Type#CREATE} operation, or {@code null} otherwise.
+   */
+  @Nullable
+  public CreateMode getCreateMode() {
+    return createMode;
+  }
+
+  public List<ACL> getACL() {
+    return acl;
+  }
+
+  /**
+   * Returns the version to match, or {@code -1} to match any version.
+   */
+  public int getVersion() {
+    return version;
+  }
+
+  /**
+   * Returns a copy of this operation that operates on the given path.
+   */
+  public ZKOp withPath(String path) {
+    return new ZKOp(type, path, data, createMode, acl, version);
+  }
+
+  @Override
+  public String toString() {
+    return Objects.toStringHelper(this)
+      .add("type", type)
+      .add("path", path)
+      .add("createMode", createMode)
+      .add("version", version)
+      .toString();
+  }
+}
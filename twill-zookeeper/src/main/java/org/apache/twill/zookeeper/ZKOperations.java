@@ -26,12 +26,14 @@ import org.apache.twill.common.Cancellable;
 import org.apache.twill.common.Threads;
 import org.apache.twill.internal.zookeeper.SettableOperationFuture;
 import org.apache.zookeeper.KeeperException;
+import org.apache.zookeeper.OpResult;
 import org.apache.zookeeper.WatchedEvent;
 import org.apache.zookeeper.Watcher;
 import org.apache.zookeeper.data.Stat;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.Collections;
 import java.util.List;
 import java.util.concurrent.CancellationException;
 import java.util.concurrent.atomic.AtomicBoolean;
@@ -43,6 +45,9 @@ public final class ZKOperations {
 
   private static final Logger LOG = LoggerFactory.getLogger(ZKOperations.class);
 
+  // Maximum number of operations in one multi call made by recursiveDelete, to stay within the request size limit.
+  private static final int MAX_MULTI_OPS = 1000;
+
   /**
    * Represents a ZK operation updates callback.
    * @param <T> Type of updated data.
@@ -214,6 +219,9 @@ public final class ZKOperations {
    * the exception would be reflected in the result future and deletion process will stop,
    * leaving the given path with intermediate state.
    *
+   * The whole tree is listed first and then deleted bottom up with {@link ZKClient#multi(Iterable)}, so that
+   * a large tree takes a few round trips instead of a few per node.
+   *
    * @param path The path to delete.
    * @return An {@link OperationFuture} that will be completed when the given path is deleted or bailed due to
    *         exception.
@@ -241,29 +249,25 @@ public final class ZKOperations {
           return;
         }
 
-        // If failed because of NotEmptyException, get the list of children under the given path
-        Futures.addCallback(zkClient.getChildren(path), new FutureCallback<NodeChildren>() {
+        // If failed because of NotEmptyException, get all nodes under the given path
+        Futures.addCallback(listTree(zkClient, path, false), new FutureCallback<List<String>>() {
 
           @Override
-          public void onSuccess(NodeChildren result) {
-            // Delete all children nodes recursively.
-            final List<OperationFuture<String>> deleteFutures = Lists.newLinkedList();
-            for (String child :result.getChildren()) {
-              deleteFutures.add(recursiveDelete(zkClient, path + "/" + child));
-            }
+          public void onSuccess(List<String> paths) {
+            Futures.addCallback(deleteAll(zkClient, paths, 0), new FutureCallback<String>() {
+              @Override
+              public void onSuccess(String result) {
+                resultFuture.set(path);
+              }
 
-            // When deletion of all children succeeded, delete the given path again.
-            Futures.successfulAsList(deleteFutures).addListener(new Runnable() {
               @Override
-              public void run() {
-                for (OperationFuture<String> deleteFuture : deleteFutures) {
-                  try {
-                    // If any exception when deleting children, treat the operation as failed.
-                    deleteFuture.get();
-                  } catch (Exception e) {
-                    resultFuture.setException(e.getCause());
-                  }
+              public void onFailure(Throwable t) {
+                if (!(t instanceof KeeperException.NotEmptyException
+                  || t instanceof KeeperException.NoNodeException)) {
+                  resultFuture.setException(t);
+                  return;
                 }
+                // Nodes were added or removed concurrently. Start over again.
                 Futures.addCallback(zkClient.delete(path), deleteCallback, Threads.SAME_THREAD_EXECUTOR);
               }
             }, Threads.SAME_THREAD_EXECUTOR);
@@ -281,6 +285,93 @@ public final class ZKOperations {
     return resultFuture;
   }
 
+  /**
+   * Lists the given path and all nodes under it, with every node placed after all of its children.
+   *
+   * @param ignoreNoNode If {@code true}, a path that doesn't exist results in an empty list.
+   */
+  private static ListenableFuture<List<String>> listTree(final ZKClient zkClient, final String path,
+                                                         final boolean ignoreNoNode) {
+    final SettableFuture<List<String>> result = SettableFuture.create();
+    Futures.addCallback(zkClient.getChildren(path), new FutureCallback<NodeChildren>() {
+      @Override
+      public void onSuccess(NodeChildren children) {
+        // Lists all children concurrently.
+        List<ListenableFuture<List<String>>> futures = Lists.newArrayList();
+        for (String child : children.getChildren()) {
+          futures.add(listTree(zkClient, path + "/" + child, true));
+        }
+        Futures.addCallback(Futures.allAsList(futures), new FutureCallback<List<List<String>>>() {
+          @Override
+          public void onSuccess(List<List<String>> childPaths) {
+            List<String> paths = Lists.newArrayList();
+            for (List<String> subTree : childPaths) {
+              paths.addAll(subTree);
+            }
+            paths.add(path);
+            result.set(paths);
+          }
+
+          @Override
+          public void onFailure(Throwable t) {
+            result.setException(t);
+          }
+        }, Threads.SAME_THREAD_EXECUTOR);
+      }
+
+      @Override
+      public void onFailure(Throwable t) {
+        if (ignoreNoNode && t instanceof KeeperException.NoNodeException) {
+          result.set(Collections.<String>emptyList());
+        } else {
+          result.setException(t);
+        }
+      }
+    }, Threads.SAME_THREAD_EXECUTOR);
+    return result;
+  }
+
+  /**
+   * Deletes the given paths in order, starting from the given index, with at most {@link #MAX_MULTI_OPS}
+   * deletes per {@link ZKClient#multi(Iterable)} call.
+   */
+  private static ListenableFuture<String> deleteAll(final ZKClient zkClient, final List<String> paths,
+                                                    final int startIdx) {
+    final SettableFuture<String> result = SettableFuture.create();
+    final int endIdx = Math.min(paths.size(), startIdx + MAX_MULTI_OPS);
+    List<ZKOp> ops = Lists.newArrayListWithCapacity(endIdx - startIdx);
+    for (String path : paths.subList(startIdx, endIdx)) {
+      ops.add(ZKOp.delete(path));
+    }
+
+    Futures.addCallback(zkClient.multi(ops), new FutureCallback<List<OpResult>>() {
+      @Override
+      public void onSuccess(List<OpResult> results) {
+        if (endIdx >= paths.size()) {
+          result.set(paths.get(paths.size() - 1));
+          return;
+        }
+        Futures.addCallback(deleteAll(zkClient, paths, endIdx), new FutureCallback<String>() {
+          @Override
+          public void onSuccess(String path) {
+            result.set(path);
+          }
+
+          @Override
+          public void onFailure(Throwable t) {
+            result.setException(t);
+          }
+        }, Threads.SAME_THREAD_EXECUTOR);
+      }
+
+      @Override
+      public void onFailure(Throwable t) {
+        result.setException(t);
+      }
+    }, Threads.SAME_THREAD_EXECUTOR);
+    return result;
+  }
+
   /**
    * Watch for the given path until it exists.
    * @param zkClient The {@link ZKClient} to use.
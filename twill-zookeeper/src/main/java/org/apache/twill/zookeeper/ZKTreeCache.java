@@ -0,0 +1,617 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.twill.zookeeper;
+
+import com.google.common.base.Function;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+import org.apache.twill.common.Cancellable;
+import org.apache.twill.common.Threads;
+import org.apache.zookeeper.KeeperException;
+import org.apache.zookeeper.WatchedEvent;
+import org.apache.zookeeper.Watcher;
+import org.apache.zookeeper.data.Stat;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.annotation.Nullable;
+
+/**
+ * Mirrors a subtree of ZooKeeper in memory. Every node under the root path, down to a maximum depth, has its
+ * data fetched and decoded once, and then is only fetched again when its own data watch fires. When children of
+ * a node change, only the added children are fetched. The root node itself doesn't need to exist; the cache stays
+ * empty until it is created.
+ *
+ * <p>
+ * Nodes are identified by their path relative to the root path, e.g. {@code "a"} for a child of the root and
+ * {@code "a/b"} for a grandchild. To keep mirroring after session expiry, the {@link ZKClient} given should be
+ * wrapped with {@link ZKClients#reWatchOnExpire(ZKClient)}. Fetches that failed for reasons other than the node
+ * being absent are retried after a delay.
+ * </p>
+ *
+ * @param <T> Type of the decoded node data.
+ */
+public final class ZKTreeCache<T> implements Cancellable {
+
+  private static final Logger LOG = LoggerFactory.getLogger(ZKTreeCache.class);
+  private static final long RETRY_DELAY_MS = 1000L;
+  private static final ScheduledExecutorService RETRY_SCHEDULER = Executors.newSingleThreadScheduledExecutor(
+    Threads.createDaemonThreadFactory("zk-tree-cache-retry"));
+
+  /**
+   * Listener for changes in a {@link ZKTreeCache}.
+   *
+   * @param <T> Type of the decoded node data.
+   */
+  public interface Listener<T> {
+
+    /**
+     * Invoked when the data of a new node is fetched.
+     *
+     * @param path Path of the node relative to the root path.
+     * @param data The decoded data, or {@code null} if the data cannot be decoded.
+     */
+    void nodeAdded(String path, @Nullable T data);
+
+    /**
+     * Invoked when the data of a node changed.
+     *
+     * @param path Path of the node relative to the root path.
+     * @param data The decoded data, or {@code null} if the data cannot be decoded.
+     */
+    void nodeChanged(String path, @Nullable T data);
+
+    /**
+     * Invoked when a node is removed.
+     *
+     * @param path Path of the node relative to the root path.
+     */
+    void nodeRemoved(String path);
+  }
+
+  private final ZKClient zkClient;
+  private final String rootPath;
+  private final int maxDepth;
+  private final Function<NodeData, T> decoder;
+  private final ConcurrentMap<String, TreeNode> nodes;
+  private final List<ListenerExecutor> listeners;
+  private final AtomicBoolean cancelled;
+  private final AtomicInteger pendingFetches;
+  private final SettableFuture<ZKTreeCache<T>> initialized;
+  // Lock for all changes to the cache and listener notifications. A single lock is used, since callbacks of different
+  // nodes can run concurrently and a parent can remove a child while the child is updating its own data.
+  private final Object updateLock;
+
+  /**
+   * Creates and starts a {@link ZKTreeCache}.
+   *
+   * @param zkClient The {@link ZKClient} for talking to ZooKeeper.
+   * @param path Root path of the subtree to mirror.
+   * @param maxDepth Number of levels under the root path to mirror. {@code 1} means only the children of the root.
+   * @param decoder Function to decode {@link NodeData}. It can return {@code null} if the data cannot be decoded.
+   * @param <T> Type of the decoded node data.
+   * @return A new {@link ZKTreeCache}.
+   */
+  public static <T> ZKTreeCache<T> create(ZKClient zkClient, String path,
+                                          int maxDepth, Function<NodeData, T> decoder) {
+    ZKTreeCache<T> cache = new ZKTreeCache<T>(zkClient, path, maxDepth, decoder);
+    cache.start();
+    return cache;
+  }
+
+  private ZKTreeCache(ZKClient zkClient, String path, int maxDepth, Function<NodeData, T> decoder) {
+    Preconditions.checkArgument(path.startsWith("/"), "Path must be absolute: %s", path);
+    Preconditions.checkArgument(maxDepth > 0, "Max depth must be positive: %s", maxDepth);
+    this.zkClient = zkClient;
+    this.rootPath = (path.length() > 1 && path.endsWith("/")) ? path.substring(0, path.length() - 1) : path;
+    this.maxDepth = maxDepth;
+    this.decoder = decoder;
+    this.nodes = Maps.newConcurrentMap();
+    this.listeners = new CopyOnWriteArrayList<ListenerExecutor>();
+    this.cancelled = new AtomicBoolean();
+    this.pendingFetches = new AtomicInteger();
+    this.initialized = SettableFuture.create();
+    this.updateLock = new Object();
+  }
+
+  /**
+   * Returns a future that completes when the subtree is fetched for the first time.
+   */
+  public ListenableFuture<ZKTreeCache<T>> getInitialized() {
+    return initialized;
+  }
+
+  /**
+   * Returns the decoded data of the given node, or {@code null} if the node is not in the cache or its data
+   * cannot be decoded.
+   *
+   * @param path Path of the node relative to the root path.
+   */
+  @Nullable
+  public T getData(String path) {
+    TreeNode node = nodes.get(path);
+    return node == null ? null : node.data;
+  }
+
+  /**
+   * Returns the decoded data of all children of the root that are in the cache, keyed by node name.
+   */
+  public Map<String, T> getChildren() {
+    return getChildren("");
+  }
+
+  /**
+   * Returns the decoded data of all children of the given node that are in the cache, keyed by node name.
+   * Children without decoded data are excluded.
+   *
+   * @param path Path of the node relative to the root path, or empty string for the root.
+   */
+  public Map<String, T> getChildren(String path) {
+    TreeNode node = nodes.get(path);
+    if (node == null) {
+      return ImmutableMap.of();
+    }
+    ImmutableMap.Builder<String, T> builder = ImmutableMap.builder();
+    for (String child : node.children) {
+      TreeNode childNode = nodes.get(node.getChildPath(child));
+      T data = childNode == null ? null : childNode.data;
+      if (data != null) {
+        builder.put(child, data);
+      }
+    }
+    return builder.build();
+  }
+
+  /**
+   * Adds a {@link Listener} to receive changes. Listener methods are called from the given executor, in order
+   * if the executor runs tasks in order.
+   *
+   * @return A {@link Cancellable} to remove the listener.
+   */
+  public Cancellable addListener(Listener<T> listener, Executor executor) {
+    final ListenerExecutor listenerExecutor = new ListenerExecutor(listener, executor);
+    listeners.add(listenerExecutor);
+    return new Cancellable() {
+      @Override
+      public void cancel() {
+        listeners.remove(listenerExecutor);
+      }
+    };
+  }
+
+  /**
+   * Stops mirroring. Cached data is still readable, but is no longer updated.
+   */
+  @Override
+  public void cancel() {
+    if (cancelled.compareAndSet(false, true)) {
+      listeners.clear();
+    }
+  }
+
+  private void start() {
+    TreeNode root = new TreeNode("", rootPath, 0);
+    nodes.put("", root);
+    root.fetchChildren();
+  }
+
+  private void beginFetch() {
+    pendingFetches.incrementAndGet();
+  }
+
+  private void endFetch() {
+    if (pendingFetches.decrementAndGet() == 0) {
+      initialized.set(this);
+    }
+  }
+
+  /**
+   * Removes the given node and all nodes under it from the cache. Must be called while holding the update lock.
+   */
+  private void removeTree(String path) {
+    TreeNode node = nodes.remove(path);
+    if (node == null) {
+      return;
+    }
+    for (String child : node.children) {
+      removeTree(node.getChildPath(child));
+    }
+    if (node.dataFetched) {
+      for (ListenerExecutor listener : listeners) {
+        listener.nodeRemoved(path);
+      }
+    }
+  }
+
+  @Nullable
+  private T decode(String path, NodeData nodeData) {
+    try {
+      return decoder.apply(nodeData);
+    } catch (Throwable t) {
+      LOG.warn("Failed to decode data of node {}", path, t);
+      return null;
+    }
+  }
+
+  /**
+   * A node in the mirrored tree. A node object is replaced by a new one if the node is removed and recreated,
+   * so that watches set for the old one stop updating the cache.
+   */
+  private final class TreeNode {
+
+    private final String path;
+    private final String fullPath;
+    private final int depth;
+    private volatile Set<String> children;
+    private volatile T data;
+    private volatile boolean dataFetched;
+
+    TreeNode(String path, String fullPath, int depth) {
+      this.path = path;
+      this.fullPath = fullPath;
+      this.depth = depth;
+      this.children = ImmutableSet.of();
+    }
+
+    String getChildPath(String child) {
+      return path.isEmpty() ? child : path + "/" + child;
+    }
+
+    boolean isCurrent() {
+      return !cancelled.get() && nodes.get(path) == this;
+    }
+
+    void start() {
+      fetchData();
+      if (depth < maxDepth) {
+        fetchChildren();
+      }
+    }
+
+    void fetchData() {
+      beginFetch();
+      Futures.addCallback(zkClient.getData(fullPath, new Watcher() {
+        @Override
+        public void process(WatchedEvent event) {
+          if (!isCurrent()) {
+            return;
+          }
+          if (event.getType() == Event.EventType.NodeDataChanged) {
+            fetchData();
+          } else if (event.getType() == Event.EventType.NodeDeleted) {
+            // The node could be recreated with the same name before the children watch of the parent is set again,
+            // hence let the parent replace this node instead of relying on the children watch.
+            deleted();
+          }
+        }
+      }), new FutureCallback<NodeData>() {
+        @Override
+        public void onSuccess(NodeData result) {
+          try {
+            updateData(result);
+          } finally {
+            endFetch();
+          }
+        }
+
+        @Override
+        public void onFailure(Throwable t) {
+          try {
+            if (t instanceof KeeperException.NoNodeException) {
+              // No watch is set when the node is gone
+              deleted();
+            } else {
+              LOG.warn("Failed to fetch data of node {}. Retry in {} ms.", fullPath, RETRY_DELAY_MS, t);
+              retry(new Runnable() {
+                @Override
+                public void run() {
+                  fetchData();
+                }
+              });
+            }
+          } finally {
+            endFetch();
+          }
+        }
+      }, Threads.SAME_THREAD_EXECUTOR);
+    }
+
+    void fetchChildren() {
+      beginFetch();
+      Futures.addCallback(zkClient.getChildren(fullPath, new Watcher() {
+        @Override
+        public void process(WatchedEvent event) {
+          if (!isCurrent()) {
+            return;
+          }
+          // For the root, fetch on deletion as well, which will turn into watching for its creation.
+          if (event.getType() == Event.EventType.NodeChildrenChanged
+            || (depth == 0 && event.getType() == Event.EventType.NodeDeleted)) {
+            fetchChildren();
+          }
+        }
+      }), new FutureCallback<NodeChildren>() {
+        @Override
+        public void onSuccess(NodeChildren result) {
+          try {
+            updateChildren(ImmutableSet.copyOf(result.getChildren()));
+          } finally {
+            endFetch();
+          }
+        }
+
+        @Override
+        public void onFailure(Throwable t) {
+          try {
+            if (!(t instanceof KeeperException.NoNodeException)) {
+              LOG.warn("Failed to fetch children of node {}. Retry in {} ms.", fullPath, RETRY_DELAY_MS, t);
+              retry(new Runnable() {
+                @Override
+                public void run() {
+                  fetchChildren();
+                }
+              });
+              return;
+            }
+            if (depth == 0) {
+              // The root is gone or not yet created.
+              updateChildren(ImmutableSet.<String>of());
+              watchExists();
+            }
+          } finally {
+            endFetch();
+          }
+        }
+      }, Threads.SAME_THREAD_EXECUTOR);
+    }
+
+    void watchExists() {
+      beginFetch();
+      Futures.addCallback(zkClient.exists(fullPath, new Watcher() {
+        @Override
+        public void process(WatchedEvent event) {
+          if (event.getType() == Event.EventType.NodeCreated && isCurrent()) {
+            fetchChildren();
+          }
+        }
+      }), new FutureCallback<Stat>() {
+        @Override
+        public void onSuccess(Stat result) {
+          try {
+            // Created between the getChildren and exists calls
+            if (result != null && isCurrent()) {
+              fetchChildren();
+            }
+          } finally {
+            endFetch();
+          }
+        }
+
+        @Override
+        public void onFailure(Throwable t) {
+          try {
+            LOG.warn("Failed to watch for existence of node {}. Retry in {} ms.", fullPath, RETRY_DELAY_MS, t);
+            retry(new Runnable() {
+              @Override
+              public void run() {
+                fetchChildren();
+              }
+            });
+          } finally {
+            endFetch();
+          }
+        }
+      }, Threads.SAME_THREAD_EXECUTOR);
+    }
+
+    /**
+     * Schedules the given fetch to run again later, as long as this node is still current.
+     */
+    private void retry(final Runnable fetch) {
+      RETRY_SCHEDULER.schedule(new Runnable() {
+        @Override
+        public void run() {
+          if (isCurrent()) {
+            fetch.run();
+          }
+        }
+      }, RETRY_DELAY_MS, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Called when this node is found to be deleted. The parent removes this node and checks if the node exists again.
+     */
+    private void deleted() {
+      if (depth == 0 || !isCurrent()) {
+        // Deletion of the root is handled by its children watch.
+        return;
+      }
+      int idx = path.lastIndexOf('/');
+      TreeNode parent = nodes.get(idx < 0 ? "" : path.substring(0, idx));
+      if (parent != null) {
+        parent.childDeleted(path.substring(idx + 1));
+      }
+    }
+
+    /**
+     * Removes the given child from this node, then adds it back if it exists again. This makes sure the child
+     * is replaced with a new node even if the children of this node look unchanged.
+     */
+    private void childDeleted(final String child) {
+      synchronized (updateLock) {
+        if (!isCurrent() || !children.contains(child)) {
+          return;
+        }
+        children = ImmutableSet.copyOf(Sets.difference(children, ImmutableSet.of(child)));
+        removeTree(getChildPath(child));
+      }
+
+      final String childFullPath = getChildFullPath(child);
+      beginFetch();
+      Futures.addCallback(zkClient.exists(childFullPath), new FutureCallback<Stat>() {
+        @Override
+        public void onSuccess(Stat result) {
+          try {
+            if (result != null) {
+              addChild(child);
+            }
+          } finally {
+            endFetch();
+          }
+        }
+
+        @Override
+        public void onFailure(Throwable t) {
+          // The next children update of this node will pick it up if it exists
+          LOG.warn("Failed to check existence of node {}", childFullPath, t);
+          endFetch();
+        }
+      }, Threads.SAME_THREAD_EXECUTOR);
+    }
+
+    private void addChild(String child) {
+      synchronized (updateLock) {
+        if (!isCurrent() || children.contains(child)) {
+          return;
+        }
+        children = ImmutableSet.<String>builder().addAll(children).add(child).build();
+        startChild(child);
+      }
+    }
+
+    private void startChild(String child) {
+      String childPath = getChildPath(child);
+      TreeNode childNode = new TreeNode(childPath, getChildFullPath(child), depth + 1);
+      nodes.put(childPath, childNode);
+      childNode.start();
+    }
+
+    private String getChildFullPath(String child) {
+      return "/".equals(fullPath) ? "/" + child : fullPath + "/" + child;
+    }
+
+    private void updateData(NodeData nodeData) {
+      T newData = decode(fullPath, nodeData);
+      synchronized (updateLock) {
+        if (!isCurrent()) {
+          return;
+        }
+        boolean added = !dataFetched;
+        data = newData;
+        dataFetched = true;
+
+        for (ListenerExecutor listener : listeners) {
+          if (added) {
+            listener.nodeAdded(path, newData);
+          } else {
+            listener.nodeChanged(path, newData);
+          }
+        }
+      }
+    }
+
+    private void updateChildren(Set<String> newChildren) {
+      synchronized (updateLock) {
+        if (!isCurrent()) {
+          return;
+        }
+        Set<String> oldChildren = children;
+        children = newChildren;
+
+        for (String child : Sets.difference(oldChildren, newChildren)) {
+          removeTree(getChildPath(child));
+        }
+        for (String child : Sets.difference(newChildren, oldChildren)) {
+          startChild(child);
+        }
+      }
+    }
+  }
+
+  /**
+   * Wraps a {@link Listener} to be called from an {@link Executor}.
+   */
+  private final class ListenerExecutor {
+
+    private final Listener<T> listener;
+    private final Executor executor;
+
+    ListenerExecutor(Listener<T> listener, Executor executor) {
+      this.listener = listener;
+      this.executor = executor;
+    }
+
+    void nodeAdded(final String path, @Nullable final T data) {
+      execute(new Runnable() {
+        @Override
+        public void run() {
+          listener.nodeAdded(path, data);
+        }
+      });
+    }
+
+    void nodeChanged(final String path, @Nullable final T data) {
+      execute(new Runnable() {
+        @Override
+        public void run() {
+          listener.nodeChanged(path, data);
+        }
+      });
+    }
+
+    void nodeRemoved(final String path) {
+      execute(new Runnable() {
+        @Override
+        public void run() {
+          listener.nodeRemoved(path);
+        }
+      });
+    }
+
+    private void execute(final Runnable runnable) {
+      executor.execute(new Runnable() {
+        @Override
+        public void run() {
+          try {
+            runnable.run();
+          } catch (Throwable t) {
+            LOG.error("Exception raised from listener {}", listener, t);
+          }
+        }
+      });
+    }
+  }
+}
@@ -0,0 +1,97 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.twill.internal.zookeeper;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tests for {@link StripedExecutor}.
+ */
+public class StripedExecutorTest {
+
+  @Test
+  public void testStriping() throws InterruptedException {
+    final CountDownLatch terminated = new CountDownLatch(1);
+    StripedExecutor executor = new StripedExecutor(2, "test-%d", new Runnable() {
+      @Override
+      public void run() {
+        terminated.countDown();
+      }
+    });
+
+    // "a" maps to lane 1 and "b" maps to lane 0
+    Assert.assertNotSame(executor.forKey("a"), executor.forKey("b"));
+
+    // Block the lane of "a"
+    final CountDownLatch blockLatch = new CountDownLatch(1);
+    final CountDownLatch blockedLatch = new CountDownLatch(1);
+    executor.forKey("a").execute(new Runnable() {
+      @Override
+      public void run() {
+        blockedLatch.countDown();
+        try {
+          blockLatch.await();
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+      }
+    });
+    Assert.assertTrue(blockedLatch.await(5, TimeUnit.SECONDS));
+
+    final List<Integer> order = Collections.synchronizedList(Lists.<Integer>newArrayList());
+    final CountDownLatch doneLatch = new CountDownLatch(11);
+    for (int i = 0; i < 10; i++) {
+      final int value = i;
+      executor.forKey("a").execute(new Runnable() {
+        @Override
+        public void run() {
+          order.add(value);
+          doneLatch.countDown();
+        }
+      });
+    }
+
+    // A different lane is not blocked.
+    final CountDownLatch otherLatch = new CountDownLatch(1);
+    executor.forKey("b").execute(new Runnable() {
+      @Override
+      public void run() {
+        otherLatch.countDown();
+        doneLatch.countDown();
+      }
+    });
+    Assert.assertTrue(otherLatch.await(5, TimeUnit.SECONDS));
+    Assert.assertEquals(ImmutableList.of(0, 10), executor.getQueueDepths());
+
+    blockLatch.countDown();
+    Assert.assertTrue(doneLatch.await(5, TimeUnit.SECONDS));
+    Assert.assertEquals(ImmutableList.of(0, 1, 2, 3, 4, 5, 6, 7, 8, 9), order);
+
+    executor.shutdown();
+    Assert.assertTrue(terminated.await(5, TimeUnit.SECONDS));
+    Assert.assertTrue(executor.isTerminated());
+  }
+}
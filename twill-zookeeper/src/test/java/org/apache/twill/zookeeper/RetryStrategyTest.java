@@ -17,10 +17,14 @@
  */
 package org.apache.twill.zookeeper;
 
+import com.google.common.base.Ticker;
+import com.google.common.collect.Sets;
 import org.junit.Assert;
 import org.junit.Test;
 
+import java.util.Set;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  *
@@ -91,4 +95,54 @@ public class RetryStrategyTest {
     TimeUnit.MILLISECONDS.sleep(1100);
     Assert.assertEquals(-1L, strategy.nextRetry(2, startTime, RetryStrategy.OperationType.CREATE, "/"));
   }
+
+  @Test
+  public void testJitter() {
+    RetryStrategy strategy = RetryStrategies.jitterDelay(10, 1000, TimeUnit.MILLISECONDS);
+    long startTime = System.currentTimeMillis();
+    for (int i = 1; i <= 100; i++) {
+      long upper = Math.min(1000L, 10L * (long) Math.pow(3, Math.min(i, 10)));
+      Set<Long> delays = Sets.newHashSet();
+      for (int j = 0; j < 100; j++) {
+        long delay = strategy.nextRetry(i, startTime, RetryStrategy.OperationType.CREATE, "/");
+        Assert.assertTrue(delay >= 10L && delay <= upper);
+        delays.add(delay);
+      }
+      // Delays should be spread out, including the first retry
+      Assert.assertTrue(delays.size() > 1);
+    }
+
+    // No jitter if max delay is the same as base delay
+    strategy = RetryStrategies.jitterDelay(10, 10, TimeUnit.MILLISECONDS);
+    Assert.assertEquals(10L, strategy.nextRetry(1, startTime, RetryStrategy.OperationType.CREATE, "/"));
+  }
+
+  @Test
+  public void testBudget() {
+    final AtomicLong nanos = new AtomicLong();
+    RetryBudget budget = new RetryBudget(10, 5, new Ticker() {
+      @Override
+      public long read() {
+        return nanos.get();
+      }
+    });
+
+    // Initial burst is allowed without extra delay
+    for (int i = 0; i < 5; i++) {
+      Assert.assertEquals(0L, budget.reserve(0));
+    }
+
+    // Subsequent retries are spread at 10 per second
+    Assert.assertEquals(100L, budget.reserve(0));
+    Assert.assertEquals(200L, budget.reserve(0));
+    // Permits refilled before the retry time can be used
+    Assert.assertEquals(500L, budget.reserve(500));
+
+    // Budget refills over time, up to the max
+    nanos.addAndGet(TimeUnit.SECONDS.toNanos(10));
+    for (int i = 0; i < 5; i++) {
+      Assert.assertEquals(0L, budget.reserve(0));
+    }
+    Assert.assertEquals(100L, budget.reserve(0));
+  }
 }
@@ -17,19 +17,29 @@
  */
 package org.apache.twill.zookeeper;
 
+import com.google.common.base.Stopwatch;
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMultimap;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Lists;
+import com.google.common.collect.Multimap;
+import com.google.common.collect.Sets;
 import com.google.common.util.concurrent.FutureCallback;
 import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.Service;
+import org.apache.twill.internal.zookeeper.DefaultZKClientService;
 import org.apache.twill.internal.zookeeper.InMemoryZKServer;
 import org.apache.twill.internal.zookeeper.KillZKSession;
+import org.apache.twill.internal.zookeeper.PooledZKClientService;
+import org.apache.twill.internal.zookeeper.RewatchOnExpireZKClient;
 import org.apache.zookeeper.CreateMode;
 import org.apache.zookeeper.KeeperException;
+import org.apache.zookeeper.OpResult;
 import org.apache.zookeeper.WatchedEvent;
 import org.apache.zookeeper.Watcher;
 import org.apache.zookeeper.ZooDefs;
 import org.apache.zookeeper.data.ACL;
+import org.apache.zookeeper.data.Stat;
 import org.apache.zookeeper.server.auth.DigestAuthenticationProvider;
 import org.junit.Assert;
 import org.junit.ClassRule;
@@ -43,6 +53,7 @@ import java.io.IOException;
 import java.security.NoSuchAlgorithmException;
 import java.util.Arrays;
 import java.util.List;
+import java.util.Set;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutionException;
@@ -163,6 +174,225 @@ public class ZKClientTest {
     }
   }
 
+  @Test
+  public void testMulti() throws ExecutionException, InterruptedException {
+    InMemoryZKServer zkServer = InMemoryZKServer.builder().setTickTime(1000).build();
+    zkServer.startAndWait();
+
+    try {
+      ZKClientService client = ZKClientService.Builder.of(zkServer.getConnectionStr()).build();
+      client.startAndWait();
+      try {
+        ZKClient zkClient = ZKClients.namespace(client, "/multi");
+        client.create("/multi", null, CreateMode.PERSISTENT).get();
+
+        List<OpResult> results = zkClient.multi(ImmutableList.of(
+          ZKOp.create("/a", null, CreateMode.PERSISTENT),
+          ZKOp.create("/a/b", "b".getBytes(), CreateMode.PERSISTENT),
+          ZKOp.setData("/a", "a".getBytes()),
+          ZKOp.check("/a/b", 0))).get();
+
+        Assert.assertEquals(4, results.size());
+        Assert.assertEquals("/a", ((OpResult.CreateResult) results.get(0)).getPath());
+        Assert.assertEquals("/a/b", ((OpResult.CreateResult) results.get(1)).getPath());
+        Assert.assertTrue(Arrays.equals("a".getBytes(), client.getData("/multi/a").get().getData()));
+        Assert.assertTrue(Arrays.equals("b".getBytes(), client.getData("/multi/a/b").get().getData()));
+
+        // A failed operation fails the whole multi, and no operation is applied.
+        try {
+          zkClient.multi(ImmutableList.of(ZKOp.create("/c", null, CreateMode.PERSISTENT),
+                                          ZKOp.delete("/a"))).get();
+          Assert.fail("Expected failure");
+        } catch (ExecutionException e) {
+          Assert.assertTrue(e.getCause() instanceof KeeperException.NotEmptyException);
+          Assert.assertEquals("/multi/a", ((KeeperException) e.getCause()).getPath());
+        }
+        Assert.assertNull(zkClient.exists("/c").get());
+
+        // Deletes a tree that spans more than one multi call.
+        List<OperationFuture<String>> futures = Lists.newArrayList();
+        for (int i = 0; i < 1200; i++) {
+          futures.add(zkClient.create("/a/b/" + i + "/" + i, null, CreateMode.PERSISTENT));
+        }
+        Futures.allAsList(futures).get();
+        ZKOperations.recursiveDelete(zkClient, "/a").get();
+        Assert.assertNull(zkClient.exists("/a").get());
+      } finally {
+        client.stopAndWait();
+      }
+    } finally {
+      zkServer.stopAndWait();
+    }
+  }
+
+  @Test
+  public void testPooledSessions() throws Exception {
+    InMemoryZKServer zkServer = InMemoryZKServer.builder().setTickTime(1000).build();
+    zkServer.startAndWait();
+
+    try {
+      ZKClientService client = ZKClientService.Builder.of(zkServer.getConnectionStr()).setSessions(3).build();
+      client.startAndWait();
+      try {
+        // Ephemeral nodes are always owned by the primary session.
+        for (int i = 0; i < 10; i++) {
+          String path = "/pooled/ephemeral" + i;
+          client.create(path, Integer.toString(i).getBytes(), CreateMode.EPHEMERAL).get();
+          Stat stat = client.exists(path).get();
+          Assert.assertNotNull(stat);
+          Assert.assertEquals(client.getSessionId().longValue(), stat.getEphemeralOwner());
+          Assert.assertEquals(Integer.toString(i), new String(client.getData(path).get().getData()));
+        }
+        Assert.assertEquals(10, client.getChildren("/pooled").get().getChildren().size());
+
+        // Watches set through any session are triggered by writes from the primary session.
+        final List<String> events = Lists.newCopyOnWriteArrayList();
+        final CountDownLatch latch = new CountDownLatch(10);
+        for (int i = 0; i < 10; i++) {
+          client.getData("/pooled/ephemeral" + i, new Watcher() {
+            @Override
+            public void process(WatchedEvent event) {
+              events.add(event.getPath());
+              latch.countDown();
+            }
+          }).get();
+        }
+        for (int i = 0; i < 10; i++) {
+          client.setData("/pooled/ephemeral" + i, "changed".getBytes()).get();
+        }
+        Assert.assertTrue(latch.await(10, TimeUnit.SECONDS));
+        Assert.assertEquals(10, ImmutableSet.copyOf(events).size());
+      } finally {
+        client.stopAndWait();
+      }
+      Assert.assertEquals(Service.State.TERMINATED, client.state());
+    } finally {
+      zkServer.stopAndWait();
+    }
+  }
+
+  @Test
+  public void testPooledSecondaryExpire() throws Exception {
+    InMemoryZKServer zkServer = InMemoryZKServer.builder().setTickTime(1000).build();
+    zkServer.startAndWait();
+
+    try {
+      String connectStr = zkServer.getConnectionStr();
+      Multimap<String, byte[]> noAuth = ImmutableMultimap.of();
+      ZKClientService secondary = new DefaultZKClientService(connectStr, 2000, null, noAuth, 1);
+      ZKClientService client = new PooledZKClientService(ImmutableList.of(
+        new DefaultZKClientService(connectStr, 2000, null, noAuth, 1), secondary));
+      client.startAndWait();
+
+      try {
+        // Find a path that is served by the secondary session
+        String path = null;
+        for (int i = 0; path == null; i++) {
+          String candidate = "/pooled/secondary" + i;
+          if ((candidate.hashCode() & Integer.MAX_VALUE) % 2 == 1) {
+            path = candidate;
+          }
+        }
+        client.create(path, "0".getBytes(), CreateMode.PERSISTENT).get();
+
+        final BlockingQueue<WatchedEvent> events = new LinkedBlockingQueue<WatchedEvent>();
+        Watcher watcher = new Watcher() {
+          @Override
+          public void process(WatchedEvent event) {
+            events.add(event);
+          }
+        };
+        client.getData(path, watcher).get();
+        long primarySessionId = client.getSessionId();
+
+        // Expire the secondary session. The watch should be re-set on the new session.
+        KillZKSession.kill(secondary.getZooKeeperSupplier().get(), connectStr, 10000);
+        Assert.assertEquals(primarySessionId, client.getSessionId().longValue());
+
+        // Keep updating until the watch is triggered, since the watch is re-set asynchronously after reconnect.
+        WatchedEvent event = null;
+        for (int i = 1; i <= 20 && event == null; i++) {
+          client.setData(path, Integer.toString(i).getBytes()).get();
+          event = events.poll(1, TimeUnit.SECONDS);
+        }
+        Assert.assertNotNull(event);
+        Assert.assertEquals(Watcher.Event.EventType.NodeDataChanged, event.getType());
+        Assert.assertEquals(path, event.getPath());
+      } finally {
+        client.stopAndWait();
+      }
+    } finally {
+      zkServer.stopAndWait();
+    }
+  }
+
+  @Test
+  public void testCache() throws Exception {
+    InMemoryZKServer zkServer = InMemoryZKServer.builder().setTickTime(1000).build();
+    zkServer.startAndWait();
+
+    try {
+      ZKClientService client = ZKClientService.Builder.of(zkServer.getConnectionStr()).build();
+      client.startAndWait();
+      try {
+        ZKClient cachedClient = ZKClients.cache(client, 2);
+        cachedClient.create("/cache/a", "a".getBytes(), CreateMode.PERSISTENT).get();
+
+        // Repeated reads are served from the cache
+        OperationFuture<NodeData> future = cachedClient.getData("/cache/a");
+        Assert.assertEquals("a", new String(future.get().getData()));
+        Assert.assertSame(future, cachedClient.getData("/cache/a"));
+
+        // Writes through the cached client are visible immediately
+        cachedClient.setData("/cache/a", "b".getBytes()).get();
+        Assert.assertEquals("b", new String(cachedClient.getData("/cache/a").get().getData()));
+
+        // Writes from other clients evict the entry through watch, which also notify the caller watcher
+        final BlockingQueue<WatchedEvent> events = new LinkedBlockingQueue<WatchedEvent>();
+        Watcher watcher = new Watcher() {
+          @Override
+          public void process(WatchedEvent event) {
+            events.add(event);
+          }
+        };
+        Assert.assertNull(cachedClient.exists("/cache/b", watcher).get());
+        Assert.assertEquals("b", new String(cachedClient.getData("/cache/a", watcher).get().getData()));
+
+        client.create("/cache/b", null, CreateMode.PERSISTENT).get();
+        WatchedEvent event = events.poll(10, TimeUnit.SECONDS);
+        Assert.assertNotNull(event);
+        Assert.assertEquals(Watcher.Event.EventType.NodeCreated, event.getType());
+        Assert.assertNotNull(cachedClient.exists("/cache/b").get());
+
+        client.setData("/cache/a", "c".getBytes()).get();
+        event = events.poll(10, TimeUnit.SECONDS);
+        Assert.assertNotNull(event);
+        Assert.assertEquals(Watcher.Event.EventType.NodeDataChanged, event.getType());
+        Assert.assertEquals("c", new String(cachedClient.getData("/cache/a").get().getData()));
+
+        // Least recently used entry is evicted when the cache is full
+        future = cachedClient.getData("/cache/a");
+        cachedClient.getData("/cache").get();
+        cachedClient.getData("/cache/b").get();
+        Assert.assertNotSame(future, cachedClient.getData("/cache/a"));
+
+        // Failures are not cached
+        try {
+          cachedClient.getData("/cache/c").get();
+          Assert.fail("Expected failure");
+        } catch (ExecutionException e) {
+          Assert.assertTrue(e.getCause() instanceof KeeperException.NoNodeException);
+        }
+        client.create("/cache/c", "c".getBytes(), CreateMode.PERSISTENT).get();
+        Assert.assertEquals("c", new String(cachedClient.getData("/cache/c").get().getData()));
+      } finally {
+        client.stopAndWait();
+      }
+    } finally {
+      zkServer.stopAndWait();
+    }
+  }
+
   @Test
   public void testExpireRewatch() throws InterruptedException, IOException, ExecutionException {
     InMemoryZKServer zkServer = InMemoryZKServer.builder().setTickTime(1000).build();
@@ -213,6 +443,71 @@ public class ZKClientTest {
     }
   }
 
+  @Test
+  public void testExpireRecovery() throws Exception {
+    InMemoryZKServer zkServer = InMemoryZKServer.builder().setTickTime(1000).build();
+    zkServer.startAndWait();
+
+    try {
+      ZKClientService zkClientService = ZKClientService.Builder.of(zkServer.getConnectionStr())
+                                                               .setSessionTimeout(2000).build();
+      RewatchOnExpireZKClient rewatchClient = (RewatchOnExpireZKClient) ZKClients.reWatchOnExpire(zkClientService);
+      ZKClientService client = ZKClientServices.delegate(rewatchClient);
+      client.startAndWait();
+
+      try {
+        int count = 100;
+        List<OperationFuture<String>> futures = Lists.newArrayList();
+        for (int i = 0; i < count; i++) {
+          futures.add(client.create("/recovery/" + i, null, CreateMode.PERSISTENT));
+        }
+        Futures.allAsList(futures).get();
+
+        final BlockingQueue<String> events = new LinkedBlockingQueue<String>();
+        Watcher watcher = new Watcher() {
+          @Override
+          public void process(WatchedEvent event) {
+            events.add(event.getPath());
+          }
+        };
+        for (int i = 0; i < count; i++) {
+          client.getData("/recovery/" + i, watcher).get();
+        }
+        Assert.assertEquals(count, rewatchClient.getWatchCount());
+        Assert.assertEquals(-1L, rewatchClient.getLastRecoveryMillis());
+
+        KillZKSession.kill(client.getZooKeeperSupplier().get(), zkServer.getConnectionStr(), 10000);
+
+        // Wait for all watches to be re-set
+        Stopwatch stopwatch = new Stopwatch().start();
+        while (rewatchClient.getRecoveryCount() == 0 && stopwatch.elapsedTime(TimeUnit.SECONDS) < 20) {
+          TimeUnit.MILLISECONDS.sleep(100);
+        }
+        Assert.assertEquals(1, rewatchClient.getRecoveryCount());
+        Assert.assertTrue(rewatchClient.getLastRecoveryMillis() >= 0);
+        Assert.assertEquals(count, rewatchClient.getWatchCount());
+        Assert.assertTrue(events.isEmpty());
+
+        // All watches should be active on the new session
+        for (int i = 0; i < count; i++) {
+          client.setData("/recovery/" + i, "changed".getBytes()).get();
+        }
+        Set<String> paths = Sets.newHashSet();
+        for (int i = 0; i < count; i++) {
+          String path = events.poll(10, TimeUnit.SECONDS);
+          Assert.assertNotNull(path);
+          paths.add(path);
+        }
+        Assert.assertEquals(count, paths.size());
+        Assert.assertEquals(0, rewatchClient.getWatchCount());
+      } finally {
+        client.stopAndWait();
+      }
+    } finally {
+      zkServer.stopAndWait();
+    }
+  }
+
   @Test
   public void testRetry() throws ExecutionException, InterruptedException, TimeoutException, IOException {
     File dataDir = tmpFolder.newFolder();
@@ -0,0 +1,131 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.twill.zookeeper;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Function;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import org.apache.twill.common.Threads;
+import org.apache.twill.internal.zookeeper.InMemoryZKServer;
+import org.apache.zookeeper.CreateMode;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tests for {@link ZKTreeCache}.
+ */
+public class ZKTreeCacheTest {
+
+  private static final Function<NodeData, String> DECODER = new Function<NodeData, String>() {
+    @Override
+    public String apply(NodeData nodeData) {
+      byte[] data = nodeData.getData();
+      return data == null ? null : new String(data, Charsets.UTF_8);
+    }
+  };
+
+  @Test
+  public void testTreeCache() throws Exception {
+    InMemoryZKServer zkServer = InMemoryZKServer.builder().setTickTime(1000).build();
+    zkServer.startAndWait();
+
+    try {
+      ZKClientService client = ZKClientService.Builder.of(zkServer.getConnectionStr()).build();
+      client.startAndWait();
+
+      try {
+        client.create("/tree/a", "a".getBytes(Charsets.UTF_8), CreateMode.PERSISTENT).get();
+        client.create("/tree/a/a1", "a1".getBytes(Charsets.UTF_8), CreateMode.PERSISTENT).get();
+        client.create("/tree/a/a1/ignored", "x".getBytes(Charsets.UTF_8), CreateMode.PERSISTENT).get();
+
+        ZKTreeCache<String> cache = ZKTreeCache.create(client, "/tree", 2, DECODER);
+        final BlockingQueue<String> events = new LinkedBlockingQueue<String>();
+        cache.addListener(new ZKTreeCache.Listener<String>() {
+          @Override
+          public void nodeAdded(String path, String data) {
+            events.add("added " + path + " " + data);
+          }
+
+          @Override
+          public void nodeChanged(String path, String data) {
+            events.add("changed " + path + " " + data);
+          }
+
+          @Override
+          public void nodeRemoved(String path) {
+            events.add("removed " + path);
+          }
+        }, Threads.SAME_THREAD_EXECUTOR);
+
+        cache.getInitialized().get(5, TimeUnit.SECONDS);
+        // Events of the initial load depend on when the listener is added, hence are not verified.
+        events.clear();
+        Assert.assertEquals(ImmutableMap.of("a", "a"), cache.getChildren());
+        Assert.assertEquals(ImmutableMap.of("a1", "a1"), cache.getChildren("a"));
+        // Deeper than the max depth is not mirrored
+        Assert.assertNull(cache.getData("a/a1/ignored"));
+
+        client.create("/tree/b", "b".getBytes(Charsets.UTF_8), CreateMode.PERSISTENT).get();
+        Assert.assertEquals("added b b", events.poll(5, TimeUnit.SECONDS));
+
+        client.setData("/tree/a/a1", "a2".getBytes(Charsets.UTF_8)).get();
+        Assert.assertEquals("changed a/a1 a2", events.poll(5, TimeUnit.SECONDS));
+        Assert.assertEquals("a2", cache.getData("a/a1"));
+
+        ZKOperations.recursiveDelete(client, "/tree/a").get();
+        Assert.assertEquals("removed a/a1", events.poll(5, TimeUnit.SECONDS));
+        Assert.assertEquals("removed a", events.poll(5, TimeUnit.SECONDS));
+        Assert.assertEquals(ImmutableMap.of("b", "b"), cache.getChildren());
+
+        // Removing and recreating the root
+        ZKOperations.recursiveDelete(client, "/tree").get();
+        Assert.assertEquals("removed b", events.poll(5, TimeUnit.SECONDS));
+        client.create("/tree/c", "c".getBytes(Charsets.UTF_8), CreateMode.PERSISTENT).get();
+        Assert.assertEquals("added c c", events.poll(5, TimeUnit.SECONDS));
+
+        // Deleting and recreating a node with the same name in one batch leaves the children unchanged.
+        // The node should still be replaced with the new data.
+        client.create("/tree/e", "e1".getBytes(Charsets.UTF_8), CreateMode.PERSISTENT).get();
+        Assert.assertEquals("added e e1", events.poll(5, TimeUnit.SECONDS));
+        client.multi(ImmutableList.of(ZKOp.delete("/tree/e"),
+                                      ZKOp.create("/tree/e", "e2".getBytes(Charsets.UTF_8),
+                                                  CreateMode.PERSISTENT))).get();
+        Assert.assertEquals("removed e", events.poll(5, TimeUnit.SECONDS));
+        Assert.assertEquals("added e e2", events.poll(5, TimeUnit.SECONDS));
+        Assert.assertEquals("e2", cache.getData("e"));
+
+        // Data changes of the recreated node are still watched
+        client.setData("/tree/e", "e3".getBytes(Charsets.UTF_8)).get();
+        Assert.assertEquals("changed e e3", events.poll(5, TimeUnit.SECONDS));
+
+        cache.cancel();
+        client.create("/tree/d", "d".getBytes(Charsets.UTF_8), CreateMode.PERSISTENT).get();
+        Assert.assertNull(events.poll(1, TimeUnit.SECONDS));
+      } finally {
+        client.stopAndWait();
+      }
+    } finally {
+      zkServer.stopAndWait();
+    }
+  }
+}